@@ -54,11 +54,13 @@ export async function getMyAccount(): Promise<MyAccountResponse> {
 */
 export async function getReceivedMessages(
   request: {
-    page: number
+    page: number,
+    cursor?: string | null
   }
 ): Promise<PagedCitizenMessageThreads> {
   const params = createUrlSearchParams(
-    ['page', request.page.toString()]
+    ['page', request.page.toString()],
+    ['cursor', request.cursor]
   )
   const { data: json } = await client.request<JsonOf<PagedCitizenMessageThreads>>({
     url: uri`/citizen/messages/received`.toString(),
@@ -155,11 +155,13 @@ export async function getAccountsByUser(): Promise<AuthorizedMessageAccount[]> {
 export async function getArchivedMessages(
   request: {
     accountId: MessageAccountId,
-    page: number
+    page: number,
+    cursor?: string | null
   }
 ): Promise<PagedMessageThreads> {
   const params = createUrlSearchParams(
-    ['page', request.page.toString()]
+    ['page', request.page.toString()],
+    ['cursor', request.cursor]
   )
   const { data: json } = await client.request<JsonOf<PagedMessageThreads>>({
     url: uri`/employee/messages/${request.accountId}/archived`.toString(),
@@ -237,11 +239,13 @@ export async function getFolders(): Promise<MessageThreadFolder[]> {
 export async function getMessageCopies(
   request: {
     accountId: MessageAccountId,
-    page: number
+    page: number,
+    cursor?: string | null
   }
 ): Promise<PagedMessageCopies> {
   const params = createUrlSearchParams(
-    ['page', request.page.toString()]
+    ['page', request.page.toString()],
+    ['cursor', request.cursor]
   )
   const { data: json } = await client.request<JsonOf<PagedMessageCopies>>({
     url: uri`/employee/messages/${request.accountId}/copies`.toString(),
@@ -259,11 +263,13 @@ export async function getMessagesInFolder(
   request: {
     accountId: MessageAccountId,
     folderId: MessageThreadFolderId,
-    page: number
+    page: number,
+    cursor?: string | null
   }
 ): Promise<PagedMessageThreads> {
   const params = createUrlSearchParams(
-    ['page', request.page.toString()]
+    ['page', request.page.toString()],
+    ['cursor', request.cursor]
   )
   const { data: json } = await client.request<JsonOf<PagedMessageThreads>>({
     url: uri`/employee/messages/${request.accountId}/folders/${request.folderId}`.toString(),
@@ -280,11 +286,13 @@ export async function getMessagesInFolder(
 export async function getReceivedMessages(
   request: {
     accountId: MessageAccountId,
-    page: number
+    page: number,
+    cursor?: string | null
   }
 ): Promise<PagedMessageThreads> {
   const params = createUrlSearchParams(
-    ['page', request.page.toString()]
+    ['page', request.page.toString()],
+    ['cursor', request.cursor]
   )
   const { data: json } = await client.request<JsonOf<PagedMessageThreads>>({
     url: uri`/employee/messages/${request.accountId}/received`.toString(),
@@ -313,11 +321,13 @@ export async function getSelectableRecipients(): Promise<SelectableRecipientsRes
 export async function getSentMessages(
   request: {
     accountId: MessageAccountId,
-    page: number
+    page: number,
+    cursor?: string | null
   }
 ): Promise<PagedSentMessages> {
   const params = createUrlSearchParams(
-    ['page', request.page.toString()]
+    ['page', request.page.toString()],
+    ['cursor', request.cursor]
   )
   const { data: json } = await client.request<JsonOf<PagedSentMessages>>({
     url: uri`/employee/messages/${request.accountId}/sent`.toString(),
@@ -129,11 +129,13 @@ export async function getReceivedMessages(
   request: {
     accountId: MessageAccountId,
     page: number,
+    cursor?: string | null,
     childId?: PersonId | null
   }
 ): Promise<PagedMessageThreads> {
   const params = createUrlSearchParams(
     ['page', request.page.toString()],
+    ['cursor', request.cursor],
     ['childId', request.childId]
   )
   const { data: json } = await client.request<JsonOf<PagedMessageThreads>>({
@@ -163,11 +165,13 @@ export async function getSelectableRecipients(): Promise<SelectableRecipientsRes
 export async function getSentMessages(
   request: {
     accountId: MessageAccountId,
-    page: number
+    page: number,
+    cursor?: string | null
   }
 ): Promise<PagedSentMessages> {
   const params = createUrlSearchParams(
-    ['page', request.page.toString()]
+    ['page', request.page.toString()],
+    ['cursor', request.cursor]
   )
   const { data: json } = await client.request<JsonOf<PagedSentMessages>>({
     url: uri`/employee-mobile/messages/${request.accountId}/sent`.toString(),
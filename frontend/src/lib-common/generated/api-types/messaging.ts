@@ -339,6 +339,7 @@ export interface MyAccountResponse {
 */
 export interface PagedCitizenMessageThreads {
   data: CitizenMessageThread[]
+  nextCursor: string | null
   pages: number
   total: number
 }
@@ -348,6 +349,7 @@ export interface PagedCitizenMessageThreads {
 */
 export interface PagedMessageCopies {
   data: MessageCopy[]
+  nextCursor: string | null
   pages: number
   total: number
 }
@@ -357,6 +359,7 @@ export interface PagedMessageCopies {
 */
 export interface PagedMessageThreads {
   data: MessageThread[]
+  nextCursor: string | null
   pages: number
   total: number
 }
@@ -366,6 +369,7 @@ export interface PagedMessageThreads {
 */
 export interface PagedSentMessages {
   data: SentMessage[]
+  nextCursor: string | null
   pages: number
   total: number
 }
@@ -4,10 +4,16 @@
 
 package fi.espoo.voltti.logging.loggers
 
+import ch.qos.logback.classic.Level
+import ch.qos.logback.classic.Logger
+import ch.qos.logback.classic.spi.LoggingEvent
+import io.github.oshai.kotlinlogging.DelegatingKLogger
 import io.github.oshai.kotlinlogging.KLogger
 import io.github.oshai.kotlinlogging.KMarkerFactory
 import io.github.oshai.kotlinlogging.Marker
+import java.time.Instant
 import net.logstash.logback.argument.StructuredArguments
+import org.slf4j.MarkerFactory
 
 val AUDIT_MARKER: Marker = KMarkerFactory.getMarker("AUDIT_EVENT")
 
@@ -20,3 +26,31 @@ fun KLogger.audit(args: Map<String, Any?>, m: () -> Any?) =
         message = m.toStringSafe()
         arguments = arrayOf(StructuredArguments.entries(args))
     }
+
+/**
+ * Writes an audit event that was captured earlier, possibly on another thread. The event is logged
+ * with the given [timestamp] and [mdc] instead of the current time and the MDC of the writing
+ * thread.
+ */
+fun KLogger.audit(
+    args: Map<String, Any?>,
+    timestamp: Instant,
+    mdc: Map<String, String>,
+    m: () -> Any?,
+) {
+    val logger = (this as DelegatingKLogger<*>).underlyingLogger as Logger
+    if (!logger.isEnabledFor(Level.WARN)) return
+    val event =
+        LoggingEvent(
+            KLogger::class.java.name,
+            logger,
+            Level.WARN,
+            m.toStringSafe(),
+            null,
+            arrayOf(StructuredArguments.entries(args)),
+        )
+    event.addMarker(MarkerFactory.getMarker(AUDIT_MARKER.getName()))
+    event.setInstant(timestamp)
+    event.setMDCPropertyMap(mdc)
+    logger.callAppenders(event)
+}
@@ -12,6 +12,7 @@ import fi.espoo.voltti.logging.utils.getTestMessages
 import fi.espoo.voltti.logging.utils.setupTestAppender
 import io.github.oshai.kotlinlogging.KLogger
 import io.github.oshai.kotlinlogging.KotlinLogging
+import java.time.Instant
 import kotlin.test.assertEquals
 import org.junit.jupiter.api.AfterEach
 import org.junit.jupiter.api.Test
@@ -78,6 +79,21 @@ class AuditLoggerTest {
         assertEquals(throwableMessage, proxied.message)
     }
 
+    @Test
+    fun `captured event is logged with its own timestamp and MDC`() {
+        val timestamp = Instant.parse("2024-01-01T10:00:00Z")
+        val args = mapOf("argKey" to "argVal")
+        logger.audit(args, timestamp, mapOf("userIdHash" to "hash")) { message }
+
+        val event = logger.getTestAppender().getEvents().first()
+        assertEquals(message, event.message)
+        assertEquals(Level.WARN, event.level)
+        assertEquals(listOf(AUDIT_MARKER.getName()), event.markerList.map { it.name })
+        assertEquals(timestamp, event.instant)
+        assertEquals(mapOf("userIdHash" to "hash"), event.mdcPropertyMap)
+        compareArgs(args, event)
+    }
+
     private fun compareArgs(expectedArgs: Map<String, String>, event: ILoggingEvent) {
         assertEquals(expectedArgs.toString(), event.argumentArray.first().toString())
     }
@@ -1002,6 +1002,37 @@ class AbsenceServiceIntegrationTest : FullApplicationTest(resetDbBeforeEach = tr
         )
     }
 
+    @Test
+    fun `upsert absences uses the last of duplicate absences`() {
+        insertGroupPlacement(child1.id, PlacementType.PRESCHOOL_DAYCARE)
+
+        val absences =
+            listOf(
+                AbsenceUpsert(
+                    child1.id,
+                    placementEnd,
+                    AbsenceCategory.NONBILLABLE,
+                    AbsenceType.SICKLEAVE,
+                ),
+                AbsenceUpsert(
+                    child1.id,
+                    placementEnd,
+                    AbsenceCategory.NONBILLABLE,
+                    AbsenceType.OTHER_ABSENCE,
+                ),
+            )
+        val absenceIds = db.transaction { tx ->
+            tx.upsertAbsences(now, employee.evakaUserId, absences)
+        }
+
+        assertEquals(1, absenceIds.size)
+        assertEquals(
+            listOf(AbsenceType.OTHER_ABSENCE),
+            db.read { tx -> tx.getAbsencesOfChildByDate(child1.id, placementEnd) }
+                .map { it.absenceType },
+        )
+    }
+
     @Test
     fun `citizen-marked absence and reservation include the citizen's name`() {
         insertGroupPlacement(child1.id, PlacementType.PRESCHOOL_DAYCARE)
@@ -10,10 +10,10 @@ import evaka.core.attachment.AttachmentService
 import evaka.core.attachment.getAttachment
 import evaka.core.attachment.insertAttachment
 import evaka.core.attachment.userAttachmentCount
-import evaka.core.s3.Document
 import evaka.core.s3.DocumentKey
 import evaka.core.s3.DocumentLocation
 import evaka.core.s3.DocumentService
+import evaka.core.s3.DocumentStream
 import evaka.core.shared.async.AsyncJob
 import evaka.core.shared.async.AsyncJobRunner
 import evaka.core.shared.auth.AuthenticatedUser
@@ -44,7 +44,8 @@ class AttachmentServiceTest : PureJdbiTest(resetDbBeforeEach = true) {
         override fun locate(key: DocumentKey): DocumentLocation =
             DocumentLocation(bucket = "bucket", key = key.value)
 
-        override fun get(location: DocumentLocation): Document = error("Not implemented")
+        override fun getStream(location: DocumentLocation): DocumentStream =
+            error("Not implemented")
 
         override fun response(
             location: DocumentLocation,
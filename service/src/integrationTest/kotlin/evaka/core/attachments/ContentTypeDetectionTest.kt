@@ -0,0 +1,190 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.attachments
+
+import evaka.core.s3.CONTENT_TYPE_DETECTION_PREFIX_BYTES
+import evaka.core.s3.ContentTypePattern
+import evaka.core.s3.checkFileContentTypeAndExtension
+import evaka.core.s3.detectContentType
+import evaka.core.shared.domain.BadRequest
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.FilterInputStream
+import java.io.InputStream
+import java.time.Duration
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+import kotlin.random.Random
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import org.apache.tika.Tika
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.slf4j.LoggerFactory
+
+class ContentTypeDetectionTest {
+    private val defaultAllowedContentTypes =
+        listOf(
+            ContentTypePattern.JPEG,
+            ContentTypePattern.PNG,
+            ContentTypePattern.PDF,
+            ContentTypePattern.MSWORD,
+            ContentTypePattern.MSWORD_DOCX,
+            ContentTypePattern.OPEN_DOCUMENT_TEXT,
+            ContentTypePattern.TIKA_MSOFFICE,
+            ContentTypePattern.TIKA_OOXML,
+        )
+
+    private val samples: Map<String, ByteArray> =
+        mapOf(
+            "png" to resource("evaka-logo.png"),
+            "jpg" to resource("evaka-logo.jpg"),
+            "mp4" to resource("test-video.mp4"),
+            "txt" to resource("evaka-logo.jpg.license"),
+            "docx" to docx(fillerBytes = 1024 * 1024),
+            "odt" to odt(),
+            "doc" to ole2Document(),
+            "pdf" to pdf(fillerBytes = 1024 * 1024),
+            "empty" to ByteArray(0),
+        )
+
+    @Test
+    fun `detection gives the same content types as the Tika facade`() {
+        val tika = Tika()
+        samples.forEach { (name, bytes) ->
+            assertEquals(
+                tika.detect(ByteArrayInputStream(bytes)),
+                detectContentType(ByteArrayInputStream(bytes)),
+                name,
+            )
+        }
+    }
+
+    @Test
+    fun `uploads are accepted and rejected as before`() {
+        fun check(name: String, extension: String = name) =
+            checkFileContentTypeAndExtension(
+                ByteArrayInputStream(samples.getValue(name)),
+                extension,
+                defaultAllowedContentTypes,
+            )
+
+        assertEquals("application/x-tika-ooxml", check("docx"))
+        assertEquals("application/vnd.oasis.opendocument.text", check("odt"))
+        assertEquals("application/x-tika-msoffice", check("doc"))
+        assertEquals("application/pdf", check("pdf"))
+        assertEquals(
+            "EXTENSION_INVALID",
+            assertThrows<BadRequest> { check("docx", extension = "pdf") }.errorCode,
+        )
+        listOf("mp4", "txt", "empty").forEach { name ->
+            assertEquals("INVALID_CONTENT_TYPE", assertThrows<BadRequest> { check(name) }.errorCode)
+        }
+    }
+
+    @Test
+    fun `a buffered stream is reset to the start after detection`() {
+        val bytes = samples.getValue("docx")
+        val source = CountingInputStream(ByteArrayInputStream(bytes))
+        val stream = source.buffered()
+
+        assertEquals("application/x-tika-ooxml", detectContentType(stream))
+        assertTrue(source.count <= CONTENT_TYPE_DETECTION_PREFIX_BYTES + 8192)
+        assertContentEquals(bytes, stream.readAllBytes())
+    }
+
+    @Test
+    fun `detection time of large documents`() {
+        val tika = Tika()
+        val logger = LoggerFactory.getLogger(javaClass)
+        listOf(
+                "docx" to docx(fillerBytes = 50 * 1024 * 1024),
+                "pdf" to pdf(fillerBytes = 50 * 1024 * 1024),
+            )
+            .forEach { (name, bytes) ->
+                fun measure(detect: (InputStream) -> String): Pair<Duration, Long> {
+                    repeat(3) { detect(ByteArrayInputStream(bytes)) }
+                    var read = 0L
+                    val startTime = System.nanoTime()
+                    repeat(20) {
+                        val stream = CountingInputStream(ByteArrayInputStream(bytes))
+                        detect(stream)
+                        read = stream.count
+                    }
+                    return Duration.ofNanos(System.nanoTime() - startTime) to read
+                }
+
+                val (facade, facadeRead) = measure { tika.detect(it) }
+                val (prefix, prefixRead) = measure { detectContentType(it) }
+                logger.info(
+                    "${bytes.size} byte $name, 20 detections: Tika facade ${facade.toMillis()} ms reading $facadeRead bytes, prefix ${prefix.toMillis()} ms reading $prefixRead bytes"
+                )
+
+                assertTrue(prefixRead <= CONTENT_TYPE_DETECTION_PREFIX_BYTES)
+            }
+    }
+
+    private fun resource(name: String): ByteArray =
+        this::class.java.getResource("/attachments-fixtures/$name")!!.readBytes()
+
+    /** Counts the bytes read from the underlying stream */
+    private class CountingInputStream(input: InputStream) : FilterInputStream(input) {
+        var count = 0L
+
+        override fun read(): Int = super.read().also { if (it >= 0) count++ }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int =
+            super.read(b, off, len).also { if (it > 0) count += it }
+
+        override fun markSupported(): Boolean = false
+    }
+
+    private fun zip(vararg entries: Pair<ZipEntry, ByteArray>): ByteArray =
+        ByteArrayOutputStream().use { bytes ->
+            ZipOutputStream(bytes).use { zip ->
+                entries.forEach { (entry, content) ->
+                    zip.putNextEntry(entry)
+                    zip.write(content)
+                    zip.closeEntry()
+                }
+            }
+            bytes.toByteArray()
+        }
+
+    /** A Word document with a large embedded file after the parts that identify it */
+    private fun docx(fillerBytes: Int): ByteArray =
+        zip(
+            ZipEntry("[Content_Types].xml") to
+                """<?xml version="1.0" encoding="UTF-8"?><Types xmlns="http://schemas.openxmlformats.org/package/2006/content-types"><Override PartName="/word/document.xml" ContentType="application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml"/></Types>"""
+                    .toByteArray(),
+            ZipEntry("word/document.xml") to "<w:document/>".toByteArray(),
+            ZipEntry("word/media/image1.bin") to Random(1).nextBytes(fillerBytes),
+        )
+
+    private fun odt(): ByteArray {
+        val mimeType = "application/vnd.oasis.opendocument.text".toByteArray()
+        val mimeTypeEntry =
+            ZipEntry("mimetype").apply {
+                method = ZipEntry.STORED
+                size = mimeType.size.toLong()
+                crc = CRC32().apply { update(mimeType) }.value
+            }
+        return zip(mimeTypeEntry to mimeType, ZipEntry("content.xml") to "<office/>".toByteArray())
+    }
+
+    /** The header of a legacy Office document, which is an OLE2 compound file */
+    private fun ole2Document(): ByteArray =
+        ByteArray(4096).also { bytes ->
+            bytesOf(0xD0, 0xCF, 0x11, 0xE0, 0xA1, 0xB1, 0x1A, 0xE1).copyInto(bytes)
+        }
+
+    private fun pdf(fillerBytes: Int): ByteArray =
+        "%PDF-1.7\n".toByteArray() + ByteArray(fillerBytes) { ' '.code.toByte() } +
+            "\n%%EOF\n".toByteArray()
+
+    private fun bytesOf(vararg bytes: Int) = ByteArray(bytes.size) { bytes[it].toByte() }
+}
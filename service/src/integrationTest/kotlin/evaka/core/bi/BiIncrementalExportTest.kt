@@ -0,0 +1,135 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.bi
+
+import evaka.core.PureJdbiTest
+import evaka.core.shared.PersonId
+import evaka.core.shared.db.Database
+import evaka.core.shared.dev.DevPerson
+import evaka.core.shared.dev.DevPersonType
+import evaka.core.shared.dev.insert
+import evaka.core.shared.domain.EvakaClock
+import evaka.core.shared.domain.HelsinkiDateTime
+import evaka.core.shared.domain.MockEvakaClock
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import java.time.Duration
+import java.time.LocalDate
+import java.time.LocalTime
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+import org.junit.jupiter.api.Test
+
+class BiIncrementalExportTest : PureJdbiTest(resetDbBeforeEach = true) {
+    private val clock =
+        MockEvakaClock(HelsinkiDateTime.of(LocalDate.of(2024, 1, 1), LocalTime.of(1, 0)))
+    private val config =
+        BiExportConfig(
+            includePII = true,
+            includeLegacyColumns = true,
+            deltaWindowDays = 60,
+            fullSnapshotInterval = Duration.ofDays(7),
+        )
+
+    @Test
+    fun `the first export of a table is a full snapshot`() {
+        val persons = db.transaction { tx -> List(2) { tx.insertPerson() } }
+
+        val files = export(config)
+
+        assertEquals(setOf("person"), files.keys)
+        persons.forEach { assertTrue(files.getValue("person").contains(it.toString())) }
+    }
+
+    @Test
+    fun `later exports send only updated and deleted rows`() {
+        val (unchanged, updated, deleted) = db.transaction { tx -> List(3) { tx.insertPerson() } }
+        export(config)
+        skipOverlapWindow()
+
+        val inserted =
+            db.transaction { tx ->
+                tx.execute {
+                    sql("UPDATE person SET first_name = 'Updated' WHERE id = ${bind(updated)}")
+                }
+                tx.execute { sql("DELETE FROM person WHERE id = ${bind(deleted)}") }
+                tx.insertPerson()
+            }
+        val files = export(config)
+
+        assertEquals(setOf("person_DELTA", "person_DELETED"), files.keys)
+        val delta = files.getValue("person_DELTA")
+        assertTrue(delta.contains(updated.toString()))
+        assertTrue(delta.contains(inserted.toString()))
+        assertFalse(delta.contains(unchanged.toString()))
+        assertFalse(delta.contains(deleted.toString()))
+        val deletedRows = files.getValue("person_DELETED").lines().filter { it.isNotEmpty() }
+        assertEquals(2, deletedRows.size)
+        assertTrue(deletedRows[1].contains(deleted.toString()))
+    }
+
+    @Test
+    fun `a full snapshot is sent again once the snapshot interval has passed`() {
+        db.transaction { tx -> tx.insertPerson() }
+        val alwaysFull = config.copy(fullSnapshotInterval = Duration.ZERO)
+
+        export(alwaysFull)
+        skipOverlapWindow()
+        val files = export(alwaysFull)
+
+        assertEquals(setOf("person"), files.keys)
+    }
+
+    @Test
+    fun `deletions are only recorded while a table is exported incrementally`() {
+        val (first, second) = db.transaction { tx -> List(2) { tx.insertPerson() } }
+        db.transaction { tx -> tx.execute { sql("DELETE FROM person WHERE id = ${bind(first)}") } }
+        assertEquals(0, countDeletedRows())
+
+        export(config)
+        db.transaction { tx -> tx.execute { sql("DELETE FROM person WHERE id = ${bind(second)}") } }
+        assertEquals(1, countDeletedRows())
+
+        export(config.copy(fullSnapshotInterval = null))
+        assertEquals(0, countDeletedRows())
+        assertEquals(
+            0,
+            db.read { tx ->
+                tx.createQuery { sql("SELECT count(*) FROM bi_export_state") }.exactlyOne<Int>()
+            },
+        )
+    }
+
+    private fun export(config: BiExportConfig): Map<String, String> {
+        val client = CapturingClient()
+        BiExportJob(client, config, SimpleMeterRegistry())
+            .sendBiTable(db, clock, BiTable.Person)
+        return client.captured
+    }
+
+    /** Moves the high-water marks so that rows written so far fall outside the next delta */
+    private fun skipOverlapWindow() =
+        db.transaction { tx ->
+            tx.execute {
+                sql("UPDATE bi_export_state SET high_water_mark = now() + interval '1 hour'")
+            }
+        }
+
+    private fun countDeletedRows(): Int =
+        db.read { tx ->
+            tx.createQuery { sql("SELECT count(*) FROM bi_deleted_row") }.exactlyOne<Int>()
+        }
+
+    private fun Database.Transaction.insertPerson(): PersonId =
+        insert(DevPerson(), DevPersonType.RAW_ROW)
+}
+
+private class CapturingClient : BiExportClient {
+    val captured = linkedMapOf<String, String>()
+
+    override fun sendBiCsvFile(tableName: String, clock: EvakaClock, stream: CsvInputStream) {
+        captured[tableName] = stream.readAllBytes().toString(CSV_CHARSET)
+    }
+}
@@ -48,6 +48,7 @@ import evaka.core.shared.domain.FiniteDateRange
 import evaka.core.shared.domain.HelsinkiDateTime
 import evaka.core.shared.domain.MockEvakaClock
 import evaka.core.shared.security.PilotFeature
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 import java.math.BigDecimal
 import java.time.LocalDate
 import java.time.LocalTime
@@ -81,13 +82,31 @@ class BiTableExportTest : PureJdbiTest(resetDbBeforeEach = false) {
             BiExportConfig(includePII = false, includeLegacyColumns = false, deltaWindowDays = 60)
         )
 
+    @TestFactory
+    fun `chunked tables export the same records with parallel chunked reads`(): List<DynamicTest> {
+        db.transaction { tx -> repeat(200) { tx.insert(DevPerson(), DevPersonType.RAW_ROW) } }
+        val config =
+            BiExportConfig(includePII = true, includeLegacyColumns = true, deltaWindowDays = 60)
+        return BiTable.entries
+            .filter { it.query is BiQueries.ChunkedCsvQuery }
+            .map { table ->
+                DynamicTest.dynamicTest("${table.name} export") {
+                    val single = export(config, table).lines().filter { it.isNotEmpty() }
+                    val chunked =
+                        export(config.copy(chunkParallelism = 3), table).lines().filter {
+                            it.isNotEmpty()
+                        }
+                    assertEquals(single.first(), chunked.first())
+                    assertEquals(1, chunked.count { it == chunked.first() })
+                    assertEquals(single.sorted(), chunked.sorted())
+                }
+            }
+    }
+
     private fun exportTests(config: BiExportConfig) =
         BiTable.entries.map { table ->
             DynamicTest.dynamicTest("${table.name} export") {
-                val client = CapturingBiExportClient()
-                BiExportJob(client, config).sendBiTable(db, clock, table)
-                assertEquals(listOf(table.fileName), client.captured.keys.toList())
-                val csv = client.captured.getValue(table.fileName).toString(CSV_CHARSET)
+                val csv = export(config, table)
                 assertTrue(
                     csv.lineSequence().first().isNotBlank(),
                     "${table.fileName} produced an empty CSV header",
@@ -95,6 +114,14 @@ class BiTableExportTest : PureJdbiTest(resetDbBeforeEach = false) {
             }
         }
 
+    private fun export(config: BiExportConfig, table: BiTable): String {
+        val client = CapturingBiExportClient()
+        BiExportJob(client, config, SimpleMeterRegistry())
+            .sendBiTable(db, clock, table)
+        assertEquals(listOf(table.fileName), client.captured.keys.toList())
+        return client.captured.getValue(table.fileName).toString(CSV_CHARSET)
+    }
+
     private fun insertCriticalTestData() {
         db.transaction { tx ->
             tx.insert(DevEmployee())
@@ -0,0 +1,205 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.calendarevent
+
+import evaka.core.EmailEnv
+import evaka.core.FullApplicationTest
+import evaka.core.emailclient.Email
+import evaka.core.emailclient.EmailClient
+import evaka.core.emailclient.IEmailMessageProvider
+import evaka.core.emailclient.MockEmailClient
+import evaka.core.shared.DaycareId
+import evaka.core.shared.GroupId
+import evaka.core.shared.async.AsyncJob
+import evaka.core.shared.async.AsyncJobRunner
+import evaka.core.shared.config.getTestDataSource
+import evaka.core.shared.db.Database
+import evaka.core.shared.db.configureJdbi
+import evaka.core.shared.dev.DevCalendarEvent
+import evaka.core.shared.dev.DevCalendarEventAttendee
+import evaka.core.shared.dev.DevCareArea
+import evaka.core.shared.dev.DevDaycare
+import evaka.core.shared.dev.DevDaycareGroup
+import evaka.core.shared.dev.DevDaycareGroupPlacement
+import evaka.core.shared.dev.DevEmployee
+import evaka.core.shared.dev.DevGuardian
+import evaka.core.shared.dev.DevPerson
+import evaka.core.shared.dev.DevPersonType
+import evaka.core.shared.dev.DevPlacement
+import evaka.core.shared.dev.insert
+import evaka.core.shared.domain.FiniteDateRange
+import evaka.core.shared.domain.HelsinkiDateTime
+import evaka.core.shared.domain.MockEvakaClock
+import java.time.LocalDate
+import java.time.LocalTime
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import org.jdbi.v3.core.Jdbi
+import org.jdbi.v3.core.statement.SqlLogger
+import org.jdbi.v3.core.statement.StatementContext
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.springframework.beans.factory.annotation.Autowired
+
+class CalendarEventNotificationBatchingTest : FullApplicationTest(resetDbBeforeEach = true) {
+    @Autowired private lateinit var emailMessageProvider: IEmailMessageProvider
+    @Autowired private lateinit var emailEnv: EmailEnv
+
+    private val today = LocalDate.of(2023, 5, 1)
+    private val now = HelsinkiDateTime.of(today, LocalTime.of(18, 0))
+    private val clock = MockEvakaClock(now)
+
+    private val area = DevCareArea()
+    private val daycare = DevDaycare(areaId = area.id)
+    private val groups = (1..4).map { DevDaycareGroup(daycareId = daycare.id, name = "Group $it") }
+    private val employee = DevEmployee()
+    private val guardians =
+        (1..300).map { DevPerson(email = "guardian$it@example.com", language = "fi") }
+
+    private val eventTitle = Regex("Event of Group \\d|Unit-wide event")
+
+    private val statements = StatementCounter()
+    private lateinit var instrumentedDb: Database
+    private lateinit var asyncJobRunner: AsyncJobRunner<AsyncJob>
+
+    @BeforeEach
+    fun beforeEach() {
+        val jdbi = configureJdbi(Jdbi.create(getTestDataSource())).setSqlLogger(statements)
+        instrumentedDb = Database(jdbi, tracer)
+        asyncJobRunner = AsyncJobRunner(AsyncJob::class, listOf(AsyncJob.email), jdbi, tracer)
+        MockEmailClient.clear()
+
+        db.transaction { tx ->
+            tx.insert(area)
+            tx.insert(daycare)
+            groups.forEach { tx.insert(it) }
+            tx.insert(employee)
+            // Every guardian has two children in two different groups of the unit
+            guardians.forEachIndexed { i, guardian ->
+                tx.insert(guardian, DevPersonType.ADULT)
+                listOf(groups[i % groups.size], groups[(i + 1) % groups.size]).forEach { group ->
+                    val child = DevPerson()
+                    tx.insert(child, DevPersonType.CHILD)
+                    tx.insert(DevGuardian(guardianId = guardian.id, childId = child.id))
+                    val placementId =
+                        tx.insert(
+                            DevPlacement(
+                                childId = child.id,
+                                unitId = daycare.id,
+                                startDate = today.minusYears(1),
+                                endDate = today.plusYears(1),
+                            )
+                        )
+                    tx.insert(
+                        DevDaycareGroupPlacement(
+                            daycarePlacementId = placementId,
+                            daycareGroupId = group.id,
+                            startDate = today.minusYears(1),
+                            endDate = today.plusYears(1),
+                        )
+                    )
+                }
+            }
+        }
+        createCalendarEvent("Unit-wide event", daycare.id, groupId = null)
+        groups.forEach { createCalendarEvent("Event of ${it.name}", daycare.id, it.id) }
+    }
+
+    @AfterEach
+    fun afterEach() {
+        asyncJobRunner.close()
+    }
+
+    @Test
+    fun `calendar event digests are planned and sent in batches, one per guardian`() {
+        val service = notificationService(MockEmailClient())
+
+        instrumentedDb.connect { service.scheduleCalendarEventDigestEmails(it, now) }
+        val batchJobs = db.read { it.countJobs("SendCalendarEventDigestEmails") }
+        asyncJobRunner.runPendingJobsSync(clock)
+
+        assertEquals(3, batchJobs)
+        assertEquals(0, db.read { it.countJobs("SendCalendarEventDigestEmail") })
+        // Sending one digest per job read the events and the email address of each guardian
+        // separately, which alone took two statements per guardian
+        assertTrue(statements.count.get() < guardians.size / 2, "${statements.count} statements")
+
+        val emails = MockEmailClient.emails
+        assertEquals(guardians.map { it.email }.toSet(), emails.map { it.toAddress }.toSet())
+        assertEquals(guardians.size, emails.size)
+        emails.forEach { email ->
+            // The unit-wide event and the events of both groups of the children
+            val titles = eventTitle.findAll(email.content.html).map { it.value }.toSet()
+            assertEquals(3, titles.size)
+        }
+    }
+
+    @Test
+    fun `an email that fails is retried on its own instead of failing the batch`() {
+        val failingAddress = guardians.first().email
+        val service =
+            notificationService(
+                object : EmailClient {
+                    override fun send(email: Email) {
+                        if (email.toAddress == failingAddress) error("Simulated failure")
+                        MockEmailClient.addEmail(email)
+                    }
+                }
+            )
+
+        service.scheduleCalendarEventDigestEmails(db, now)
+        asyncJobRunner.runPendingJobsSync(clock)
+
+        assertEquals(guardians.size - 1, MockEmailClient.emails.size)
+        assertEquals(1, db.read { it.countJobs("SendCalendarEventDigestEmail") })
+    }
+
+    private fun notificationService(emailClient: EmailClient) =
+        CalendarEventNotificationService(
+            emailClient,
+            emailEnv,
+            emailMessageProvider,
+            asyncJobRunner,
+        )
+
+    private fun createCalendarEvent(title: String, unitId: DaycareId, groupId: GroupId?) =
+        db.transaction { tx ->
+            val eventId =
+                tx.insert(
+                    DevCalendarEvent(
+                        title = title,
+                        description = "description",
+                        period = FiniteDateRange(today, today),
+                        modifiedAt = now,
+                        modifiedBy = employee.evakaUserId,
+                        eventType = CalendarEventType.DAYCARE_EVENT,
+                    )
+                )
+            tx.execute {
+                sql("UPDATE calendar_event SET created_at = ${bind(now)} WHERE id = ${bind(eventId)}")
+            }
+            tx.insert(
+                DevCalendarEventAttendee(
+                    calendarEventId = eventId,
+                    unitId = unitId,
+                    groupId = groupId,
+                )
+            )
+        }
+
+    private fun Database.Read.countJobs(type: String) =
+        createQuery { sql("SELECT count(*) FROM async_job WHERE type = ${bind(type)}") }
+            .exactlyOne<Int>()
+}
+
+private class StatementCounter : SqlLogger {
+    val count = AtomicInteger()
+
+    override fun logAfterExecution(context: StatementContext) {
+        count.incrementAndGet()
+    }
+}
@@ -2075,7 +2075,7 @@ class CalendarEventServiceIntegrationTest : FullApplicationTest(resetDbBeforeEac
         val pendingReminderJobs = db.read { tx ->
             tx.createQuery {
                     sql(
-                        "SELECT count(*) FROM async_job WHERE type = 'SendDiscussionReservationReminderEmail' AND completed_at IS NULL"
+                        "SELECT count(*) FROM async_job WHERE type IN ('SendDiscussionReservationReminderEmail', 'SendDiscussionReservationReminderEmails') AND completed_at IS NULL"
                     )
                 }
                 .exactlyOne<Int>()
@@ -5,9 +5,12 @@
 package evaka.core.childimages
 
 import evaka.core.FullApplicationTest
+import evaka.core.s3.DocumentKey
+import evaka.core.s3.DocumentService
 import evaka.core.s3.responseEntityToS3URL
 import evaka.core.shared.ChildId
 import evaka.core.shared.ChildImageId
+import evaka.core.shared.async.AsyncJob
 import evaka.core.shared.auth.AuthenticatedUser
 import evaka.core.shared.dev.DevCareArea
 import evaka.core.shared.dev.DevDaycare
@@ -25,7 +28,9 @@ import java.io.ByteArrayOutputStream
 import javax.imageio.ImageIO
 import kotlin.test.assertContentEquals
 import kotlin.test.assertEquals
+import kotlin.test.assertFalse
 import kotlin.test.assertNotEquals
+import kotlin.test.assertTrue
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.assertThrows
@@ -35,6 +40,8 @@ import org.springframework.web.multipart.MultipartFile
 
 class ChildImageTest : FullApplicationTest(resetDbBeforeEach = true) {
     @Autowired lateinit var childImageController: ChildImageController
+    @Autowired lateinit var childImageThumbnailService: ChildImageThumbnailService
+    @Autowired lateinit var documentClient: DocumentService
 
     private val clock = MockEvakaClock(2024, 1, 1, 12, 0)
 
@@ -105,6 +112,86 @@ class ChildImageTest : FullApplicationTest(resetDbBeforeEach = true) {
         assertEquals(0, newImages.size)
     }
 
+    @Test
+    fun `thumbnail is generated on upload`() {
+        val image = BufferedImage(512, 384, BufferedImage.TYPE_INT_RGB)
+        val output = ByteArrayOutputStream()
+        ImageIO.write(image, "png", output)
+        uploadImage(
+            child.id,
+            MockMultipartFile("file", "test.png", "image/png", output.toByteArray()),
+        )
+        val imageId =
+            db.read {
+                    it.createQuery { sql("SELECT * FROM child_images") }.exactlyOne<ChildImage>()
+                }
+                .id
+
+        val original = ImageIO.read(downloadImage(imageId).inputStream())
+        assertEquals(512, original.width)
+        val thumbnail = ImageIO.read(downloadImage(imageId, thumbnail = true).inputStream())
+        assertEquals(thumbnailSize, thumbnail.width)
+        assertEquals(192, thumbnail.height)
+    }
+
+    @Test
+    fun `original is served when there is no thumbnail`() {
+        val imageId = db.transaction { it.insertChildImage(child.id, hasThumbnail = false) }
+        documentClient.upload(DocumentKey.ChildImage(imageId), image1.bytes, "image/jpeg")
+
+        assertContentEquals(image1.bytes, downloadImage(imageId, thumbnail = true))
+        val response =
+            childImageController.getImage(
+                dbInstance(),
+                mobileUser,
+                clock,
+                imageId,
+                thumbnail = true,
+            )
+        assertFalse(response.headers.cacheControl.orEmpty().contains("immutable"))
+    }
+
+    @Test
+    fun `images are served with immutable cache headers`() {
+        uploadImage(child.id, image1)
+        val imageId =
+            db.read {
+                    it.createQuery { sql("SELECT * FROM child_images") }.exactlyOne<ChildImage>()
+                }
+                .id
+
+        val response = childImageController.getImage(dbInstance(), mobileUser, clock, imageId)
+        val cacheControl = response.headers.cacheControl!!
+        assertTrue(cacheControl.contains("immutable"))
+        assertTrue(cacheControl.contains("private"))
+    }
+
+    @Test
+    fun `thumbnails are generated for images uploaded without one`() {
+        val image = BufferedImage(400, 400, BufferedImage.TYPE_INT_RGB)
+        val output = ByteArrayOutputStream()
+        ImageIO.write(image, "jpg", output)
+        val imageId = db.transaction { tx ->
+            tx.insertChildImage(child.id).also {
+                tx.createUpdate {
+                        sql("UPDATE child_images SET has_thumbnail = NULL WHERE id = ${bind(it)}")
+                    }
+                    .execute()
+            }
+        }
+        documentClient.upload(DocumentKey.ChildImage(imageId), output.toByteArray(), "image/jpeg")
+
+        childImageThumbnailService.generateChildImageThumbnails(
+            db,
+            clock,
+            AsyncJob.GenerateChildImageThumbnails(batchSize = 10),
+        )
+
+        val thumbnail = ImageIO.read(downloadImage(imageId, thumbnail = true).inputStream())
+        assertEquals(thumbnailSize, thumbnail.width)
+        assertEquals(thumbnailSize, thumbnail.height)
+    }
+
     @Test
     fun `image larger than 512x512 is not accepted`() {
         val image = BufferedImage(1024, 1024, BufferedImage.TYPE_INT_RGB)
@@ -161,8 +248,9 @@ FF FF FF FF FF FF FF FF FF FF C2 00 0B 08 00 01 00 01 01 01
         childImageController.deleteImage(dbInstance(), mobileUser, clock, childId)
     }
 
-    private fun downloadImage(imageId: ChildImageId): ByteArray {
-        val response = childImageController.getImage(dbInstance(), mobileUser, clock, imageId)
+    private fun downloadImage(imageId: ChildImageId, thumbnail: Boolean = false): ByteArray {
+        val response =
+            childImageController.getImage(dbInstance(), mobileUser, clock, imageId, thumbnail)
         val http = okhttp3.OkHttpClient.Builder().apply { trustAllCerts(this) }.build()
         return http
             .newCall(okhttp3.Request.Builder().url(responseEntityToS3URL(response)).build())
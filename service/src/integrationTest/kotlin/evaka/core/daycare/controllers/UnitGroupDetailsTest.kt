@@ -0,0 +1,193 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.daycare.controllers
+
+import evaka.core.FullApplicationTest
+import evaka.core.insertServiceNeedOptions
+import evaka.core.shared.auth.UserRole
+import evaka.core.shared.config.getTestDataSource
+import evaka.core.shared.db.Database
+import evaka.core.shared.db.configureJdbi
+import evaka.core.shared.dev.DevBackupCare
+import evaka.core.shared.dev.DevCareArea
+import evaka.core.shared.dev.DevDaycare
+import evaka.core.shared.dev.DevDaycareGroup
+import evaka.core.shared.dev.DevDaycareGroupPlacement
+import evaka.core.shared.dev.DevEmployee
+import evaka.core.shared.dev.DevPerson
+import evaka.core.shared.dev.DevPersonType
+import evaka.core.shared.dev.DevPlacement
+import evaka.core.shared.dev.DevServiceNeed
+import evaka.core.shared.dev.insert
+import evaka.core.shared.domain.FiniteDateRange
+import evaka.core.shared.domain.HelsinkiDateTime
+import evaka.core.shared.domain.MockEvakaClock
+import evaka.core.shared.security.AccessControl
+import evaka.core.snDaycareFullDay35
+import java.time.Duration
+import java.time.LocalDate
+import java.time.LocalTime
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import org.jdbi.v3.core.Jdbi
+import org.jdbi.v3.core.statement.SqlLogger
+import org.jdbi.v3.core.statement.StatementContext
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+
+class UnitGroupDetailsTest : FullApplicationTest(resetDbBeforeEach = true) {
+    @Autowired private lateinit var daycareController: DaycareController
+    @Autowired private lateinit var accessControl: AccessControl
+
+    private val today = LocalDate.of(2024, 3, 1)
+    private val clock = MockEvakaClock(HelsinkiDateTime.of(today, LocalTime.of(12, 0)))
+
+    private val area = DevCareArea()
+    private val daycare = DevDaycare(areaId = area.id)
+    private val otherDaycare = DevDaycare(areaId = area.id, name = "Other daycare")
+    private val groups = (1..6).map { DevDaycareGroup(daycareId = daycare.id, name = "Group $it") }
+    private val supervisor = DevEmployee()
+
+    private val statements = StatementCounter()
+    private lateinit var instrumentedDb: Database
+
+    @BeforeEach
+    fun beforeEach() {
+        val jdbi = configureJdbi(Jdbi.create(getTestDataSource())).setSqlLogger(statements)
+        instrumentedDb = Database(jdbi, tracer)
+        db.transaction { tx ->
+            tx.insert(area)
+            tx.insert(daycare)
+            tx.insert(otherDaycare)
+            groups.forEach { tx.insert(it) }
+            tx.insertServiceNeedOptions()
+            tx.insert(supervisor, mapOf(daycare.id to UserRole.UNIT_SUPERVISOR))
+        }
+    }
+
+    @Test
+    fun `the number of statements does not depend on the size of the unit`() {
+        val period = FiniteDateRange(today, today.plusWeeks(2))
+
+        insertChildren(20)
+        val (smallUnit, _) = measure(period)
+
+        insertChildren(580)
+        val (largeUnit, latency) = measure(period)
+        val details = getGroupDetails(period)
+
+        LoggerFactory.getLogger(javaClass)
+            .info(
+                "Group details of ${details.placements.size} placements: $largeUnit statements (unit of 20 children: $smallUnit statements), ${latency.toMillis()} ms"
+            )
+        assertEquals(smallUnit, largeUnit)
+        // Every tenth child is placed in another unit and is here in backup care
+        assertEquals(540, details.placements.size)
+        assertEquals(60, details.backupCares.size)
+        assertEquals(
+            details.placements.map { it.id }.toSet(),
+            details.permittedPlacementActions.keys,
+        )
+        details.placements.forEach { placement ->
+            assertEquals(1, placement.groupPlacements.count { it.id != null })
+            assertEquals(1, placement.serviceNeedDetail?.serviceNeeds?.size)
+        }
+    }
+
+    @Test
+    fun `the details can be read for any date range`() {
+        insertChildren(12)
+
+        fun getDetails(period: FiniteDateRange) = db.read { tx ->
+            tx.getUnitGroupDetails(accessControl, supervisor.user, clock, daycare.id, period)
+        }
+
+        val current = FiniteDateRange(today, today)
+        assertEquals(getGroupDetails(current), getDetails(current))
+        listOf(current, FiniteDateRange(today.minusMonths(6), today.plusMonths(6))).forEach {
+            period ->
+            val details = getDetails(period)
+            assertEquals(groups.map { it.id }.toSet(), details.groups.map { it.id }.toSet())
+            assertEquals(10, details.placements.size)
+        }
+        val afterPlacements = getDetails(FiniteDateRange(today.plusMonths(7), today.plusMonths(8)))
+        assertEquals(6, afterPlacements.groups.size)
+        assertEquals(0, afterPlacements.placements.size)
+        assertEquals(0, afterPlacements.backupCares.size)
+    }
+
+    private fun measure(period: FiniteDateRange): Pair<Int, Duration> {
+        // Warm up caches so that only the statements of the read itself are counted
+        repeat(2) { getGroupDetails(period) }
+        statements.count.set(0)
+        val startTime = System.nanoTime()
+        getGroupDetails(period)
+        return statements.count.get() to Duration.ofNanos(System.nanoTime() - startTime)
+    }
+
+    private fun getGroupDetails(period: FiniteDateRange): UnitGroupDetails =
+        daycareController.getUnitGroupDetails(
+            instrumentedDb,
+            supervisor.user,
+            clock,
+            daycare.id,
+            from = period.start,
+            to = period.end,
+        )
+
+    /** Inserts children placed in the groups of the unit, and every tenth in backup care there */
+    private fun insertChildren(count: Int) = db.transaction { tx ->
+        repeat(count) { i ->
+            val child = DevPerson(dateOfBirth = today.minusYears(3).minusDays(i.toLong()))
+            tx.insert(child, DevPersonType.CHILD)
+            val placement =
+                DevPlacement(
+                    childId = child.id,
+                    unitId = if (i % 10 == 0) otherDaycare.id else daycare.id,
+                    startDate = today.minusMonths(6),
+                    endDate = today.plusMonths(6),
+                )
+            tx.insert(placement)
+            tx.insert(
+                DevServiceNeed(
+                    placementId = placement.id,
+                    startDate = placement.startDate,
+                    endDate = placement.endDate,
+                    optionId = snDaycareFullDay35.id,
+                    confirmedBy = supervisor.evakaUserId,
+                )
+            )
+            if (i % 10 == 0) {
+                tx.insert(
+                    DevBackupCare(
+                        childId = child.id,
+                        unitId = daycare.id,
+                        groupId = groups[i % groups.size].id,
+                        period = FiniteDateRange(today, today.plusWeeks(1)),
+                    )
+                )
+            } else {
+                tx.insert(
+                    DevDaycareGroupPlacement(
+                        daycarePlacementId = placement.id,
+                        daycareGroupId = groups[i % groups.size].id,
+                        startDate = placement.startDate,
+                        endDate = placement.endDate,
+                    )
+                )
+            }
+        }
+    }
+}
+
+private class StatementCounter : SqlLogger {
+    val count = AtomicInteger()
+
+    override fun logAfterExecution(context: StatementContext) {
+        count.incrementAndGet()
+    }
+}
@@ -29,6 +29,7 @@ import evaka.core.s3.Document
 import evaka.core.s3.DocumentKey
 import evaka.core.s3.DocumentLocation
 import evaka.core.s3.DocumentService
+import evaka.core.s3.DocumentStream
 import evaka.core.shared.ApplicationId
 import evaka.core.shared.ChildDocumentId
 import evaka.core.shared.DecisionId
@@ -108,8 +109,15 @@ class ArchivalServiceIntegrationTest : FullApplicationTest(resetDbBeforeEach = t
         override fun locate(key: DocumentKey): DocumentLocation =
             DocumentLocation(bucket = "test-bucket", key = key.value)
 
-        override fun get(location: DocumentLocation): Document =
-            Document("test-document.pdf", byteArrayOf(1, 2, 3, 4), "application/pdf")
+        override fun getStream(location: DocumentLocation): DocumentStream =
+            byteArrayOf(1, 2, 3, 4).let {
+                DocumentStream(
+                    "test-document.pdf",
+                    "application/pdf",
+                    it.size.toLong(),
+                    it.inputStream(),
+                )
+            }
 
         override fun response(
             location: DocumentLocation,
@@ -157,13 +165,19 @@ class ArchivalServiceIntegrationTest : FullApplicationTest(resetDbBeforeEach = t
         }
 
         override fun putDocument(
-            documentContent: Document,
+            documentContent: DocumentStream,
             metadataXml: String,
             masterId: String,
             classId: String,
             virtualArchiveId: String,
         ): Pair<Int, String?> {
-            calls.add(Call(documentContent, metadataXml, masterId, classId, virtualArchiveId))
+            val document =
+                Document(
+                    documentContent.name,
+                    documentContent.inputStream.readAllBytes(),
+                    documentContent.contentType,
+                )
+            calls.add(Call(document, metadataXml, masterId, classId, virtualArchiveId))
             return Pair(responseCode, responseString)
         }
     }
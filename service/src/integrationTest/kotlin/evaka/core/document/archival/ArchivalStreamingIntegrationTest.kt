@@ -0,0 +1,293 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.document.archival
+
+import evaka.core.FullApplicationTest
+import evaka.core.caseprocess.DocumentConfidentiality
+import evaka.core.caseprocess.insertCaseProcess
+import evaka.core.document.ChildDocumentType
+import evaka.core.document.DocumentTemplateContent
+import evaka.core.document.childdocument.DocumentContent
+import evaka.core.document.childdocument.DocumentStatus
+import evaka.core.document.childdocument.getChildDocument
+import evaka.core.placement.PlacementType
+import evaka.core.s3.DocumentKey
+import evaka.core.s3.DocumentLocation
+import evaka.core.s3.DocumentService
+import evaka.core.s3.DocumentStream
+import evaka.core.shared.ChildDocumentId
+import evaka.core.shared.DocumentTemplateId
+import evaka.core.shared.PersonId
+import evaka.core.shared.async.AsyncJob
+import evaka.core.shared.config.testArchiveEnv
+import evaka.core.shared.dev.DevChildDocument
+import evaka.core.shared.dev.DevChildDocumentPublishedVersion
+import evaka.core.shared.dev.DevDocumentTemplate
+import evaka.core.shared.dev.DevEmployee
+import evaka.core.shared.dev.DevPerson
+import evaka.core.shared.dev.DevPersonType
+import evaka.core.shared.dev.insert
+import evaka.core.shared.domain.DateRange
+import evaka.core.shared.domain.HelsinkiDateTime
+import evaka.core.shared.domain.MockEvakaClock
+import evaka.core.shared.domain.UiLanguage
+import evaka.instance.espoo.archival.SärmäChildDocumentClient
+import evaka.instance.espoo.archival.SärmäHttpClient
+import java.io.InputStream
+import java.time.LocalDate
+import java.time.LocalDateTime
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.springframework.http.ContentDisposition
+import org.springframework.http.ResponseEntity
+
+class ArchivalStreamingIntegrationTest : FullApplicationTest(resetDbBeforeEach = true) {
+    private val now = HelsinkiDateTime.of(LocalDateTime.of(2023, 2, 1, 12, 0))
+    private val clock = MockEvakaClock(now)
+    private val childId = PersonId(UUID.randomUUID())
+    private val templateId = DocumentTemplateId(UUID.randomUUID())
+    private val employee = DevEmployee()
+
+    private val instanceIds = AtomicInteger()
+    private var responseDelayMillis = 0L
+    private val archive =
+        MockWebServer().apply {
+            // Only the size of the received documents is recorded, not their content
+            bodyLimit = 0
+            dispatcher =
+                object : Dispatcher() {
+                    override fun dispatch(request: RecordedRequest): MockResponse {
+                        Thread.sleep(responseDelayMillis)
+                        return MockResponse()
+                            .setResponseCode(200)
+                            .setBody(
+                                "status_message=Success.&status_code=200&instance_ids=${instanceIds.incrementAndGet()}&"
+                            )
+                    }
+                }
+        }
+    private val documentService = GeneratedDocumentService()
+    private lateinit var archivalService: ArchivalService
+
+    @BeforeEach
+    fun setUp() {
+        archive.start()
+        val archiveEnv = testArchiveEnv.copy(url = archive.url("/archive-core/").toUri())
+        archivalService =
+            ArchivalService(
+                null,
+                SärmäChildDocumentClient(SärmäHttpClient(archiveEnv), archiveEnv),
+                documentService,
+            )
+
+        db.transaction { tx ->
+            tx.insert(employee)
+            tx.insert(
+                DevPerson(id = childId, dateOfBirth = LocalDate.of(2016, 6, 16)),
+                DevPersonType.CHILD,
+            )
+            tx.insert(
+                DevDocumentTemplate(
+                    id = templateId,
+                    name = "VASU 2023-2024",
+                    type = ChildDocumentType.VASU,
+                    placementTypes = setOf(PlacementType.PRESCHOOL),
+                    language = UiLanguage.FI,
+                    confidentiality = DocumentConfidentiality(10, "JulkL 24 § 1 mom. 32 k"),
+                    legalBasis = "EARLY_CHILDHOOD_EDUCATION",
+                    validity = DateRange(LocalDate.of(2023, 1, 1), LocalDate.of(2023, 12, 31)),
+                    published = true,
+                    processDefinitionNumber = "12.06.01.SL1.RT34",
+                    archiveDurationMonths = 120,
+                    content = DocumentTemplateContent(sections = emptyList()),
+                )
+            )
+        }
+    }
+
+    @AfterEach
+    fun tearDown() {
+        archive.shutdown()
+    }
+
+    @Test
+    fun `a document larger than the heap is streamed to the archive`() {
+        // Anything that holds the whole document in memory runs out of heap
+        val size = Runtime.getRuntime().maxMemory() + 1024 * 1024
+        documentService.size = size
+        val documentId = insertDocument()
+
+        archivalService.uploadChildDocumentToArchive(db, AsyncJob.ArchiveChildDocument(documentId))
+
+        val request = archive.takeRequest()
+        assertEquals("/archive-core/PUT", request.path)
+        assertTrue(request.bodySize > size)
+        assertTrue(documentService.largestRead.get() <= MAX_READ_SIZE)
+        assertEquals(0, documentService.openStreams.get())
+        db.read { tx -> assertNotNull(tx.getChildDocument(documentId)?.archivedAt) }
+    }
+
+    @Test
+    fun `bulk archival uploads documents concurrently up to the given limit`() {
+        documentService.size = 4L * 1024 * 1024
+        responseDelayMillis = 100
+        val documentIds = (1..10).map { insertDocument() }
+
+        archivalService.uploadChildDocumentsToArchive(
+            db,
+            clock,
+            AsyncJob.ArchiveChildDocuments(documentIds),
+            concurrency = 3,
+        )
+
+        assertEquals(10, archive.requestCount)
+        assertEquals(3, documentService.maxOpenStreams.get())
+        assertEquals(0, documentService.openStreams.get())
+        assertTrue(documentService.largestRead.get() <= MAX_READ_SIZE)
+        db.read { tx ->
+            documentIds.forEach { id -> assertEquals(now, tx.getChildDocument(id)?.archivedAt) }
+        }
+    }
+
+    @Test
+    fun `bulk archival archives the other documents when one of them fails`() {
+        documentService.size = 1024
+        val archivable = (1..3).map { insertDocument() }
+        val withoutPdf = insertDocument(documentKey = null)
+
+        val exception =
+            assertThrows<RuntimeException> {
+                archivalService.uploadChildDocumentsToArchive(
+                    db,
+                    clock,
+                    AsyncJob.ArchiveChildDocuments(archivable + withoutPdf),
+                )
+            }
+
+        assertEquals("Failed to archive 1 of 4 documents", exception.message)
+        assertEquals(3, archive.requestCount)
+        db.read { tx ->
+            archivable.forEach { id -> assertEquals(now, tx.getChildDocument(id)?.archivedAt) }
+            assertNull(tx.getChildDocument(withoutPdf)?.archivedAt)
+        }
+    }
+
+    private fun insertDocument(
+        documentKey: String? = "test-document-key"
+    ): ChildDocumentId = db.transaction { tx ->
+        val process =
+            tx.insertCaseProcess(
+                processDefinitionNumber = "12.06.01.SL1.RT34",
+                year = 2023,
+                organization = "Espoon kaupungin esiopetus ja varhaiskasvatus",
+                archiveDurationMonths = 120,
+            )
+        val content = DocumentContent(emptyList())
+        tx.insert(
+            DevChildDocument(
+                childId = childId,
+                templateId = templateId,
+                status = DocumentStatus.COMPLETED,
+                content = content,
+                modifiedAt = now,
+                modifiedBy = employee.evakaUserId,
+                contentLockedAt = now,
+                contentLockedBy = null,
+                answeredAt = null,
+                answeredBy = null,
+                processId = process.id,
+                publishedVersions =
+                    listOf(
+                        DevChildDocumentPublishedVersion(
+                            versionNumber = 1,
+                            createdAt = now,
+                            createdBy = employee.evakaUserId,
+                            publishedContent = content,
+                            documentKey = documentKey,
+                        )
+                    ),
+            )
+        )
+    }
+
+    private companion object {
+        // The uploads copy the document through okio segments, which are much smaller than this
+        const val MAX_READ_SIZE = 64 * 1024
+    }
+
+    /** Generates documents of [size] bytes as they are read, so they never exist in memory */
+    private class GeneratedDocumentService : DocumentService {
+        var size = 0L
+        val openStreams = AtomicInteger()
+        val maxOpenStreams = AtomicInteger()
+        val largestRead = AtomicInteger()
+
+        override fun locate(key: DocumentKey): DocumentLocation =
+            DocumentLocation(bucket = "test-bucket", key = key.value)
+
+        override fun getStream(location: DocumentLocation): DocumentStream {
+            maxOpenStreams.accumulateAndGet(openStreams.incrementAndGet()) { a, b -> maxOf(a, b) }
+            return DocumentStream(
+                "${location.key}.pdf",
+                "application/pdf",
+                size,
+                GeneratedInputStream(size),
+            )
+        }
+
+        override fun response(
+            location: DocumentLocation,
+            contentDisposition: ContentDisposition,
+        ): ResponseEntity<Any> = throw NotImplementedError("Not used in this test")
+
+        override fun upload(
+            location: DocumentLocation,
+            inputStream: InputStream,
+            size: Long,
+            contentType: String,
+        ) {}
+
+        override fun delete(location: DocumentLocation) {}
+
+        private inner class GeneratedInputStream(private val size: Long) : InputStream() {
+            private var position = 0L
+            private var closed = false
+
+            override fun read(): Int =
+                if (position < size) {
+                    position++
+                    '%'.code
+                } else -1
+
+            override fun read(b: ByteArray, off: Int, len: Int): Int {
+                if (position >= size) return -1
+                val count = minOf(len.toLong(), size - position).toInt()
+                b.fill('%'.code.toByte(), off, off + count)
+                position += count
+                largestRead.accumulateAndGet(count) { a, b -> maxOf(a, b) }
+                return count
+            }
+
+            override fun close() {
+                if (!closed) {
+                    closed = true
+                    openStreams.decrementAndGet()
+                }
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@
 package evaka.core.document.childdocument
 
 import evaka.core.FullApplicationTest
+import evaka.core.caseprocess.CaseProcessState
 import evaka.core.daycare.domain.Language
 import evaka.core.document.ChildDocumentType
 import evaka.core.document.DocumentTemplateContent
@@ -18,7 +19,9 @@ import evaka.core.shared.DocumentTemplateId
 import evaka.core.shared.async.AsyncJob
 import evaka.core.shared.async.AsyncJobRunner
 import evaka.core.shared.auth.UserRole
+import evaka.core.shared.config.getTestDataSource
 import evaka.core.shared.db.Database
+import evaka.core.shared.db.configureJdbi
 import evaka.core.shared.dev.DevCareArea
 import evaka.core.shared.dev.DevChildDocument
 import evaka.core.shared.dev.DevChildDocumentPublishedVersion
@@ -34,13 +37,23 @@ import evaka.core.shared.domain.DateRange
 import evaka.core.shared.domain.HelsinkiDateTime
 import evaka.core.shared.domain.MockEvakaClock
 import evaka.core.shared.security.PilotFeature
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Proxy
+import java.sql.Connection
 import java.time.LocalTime
 import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+import javax.sql.DataSource
 import kotlin.test.assertEquals
 import kotlin.test.assertNotEquals
 import kotlin.test.assertNull
+import kotlin.test.assertTrue
+import org.jdbi.v3.core.Jdbi
+import org.jdbi.v3.core.statement.SqlLogger
+import org.jdbi.v3.core.statement.StatementContext
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Autowired
 
 class ChildDocumentServiceIntegrationTest : FullApplicationTest(resetDbBeforeEach = true) {
@@ -234,7 +247,7 @@ class ChildDocumentServiceIntegrationTest : FullApplicationTest(resetDbBeforeEac
         clock.tick()
 
         // when
-        db.transaction { service.completeAndPublishChildDocumentsAtEndOfTerm(it, clock.now()) }
+        service.completeAndPublishChildDocumentsAtEndOfTerm(db, clock.now())
         asyncJobRunner.runPendingJobsSync(clock)
 
         // then
@@ -324,7 +337,7 @@ class ChildDocumentServiceIntegrationTest : FullApplicationTest(resetDbBeforeEac
         }
 
         // when
-        db.transaction { service.completeAndPublishChildDocumentsAtEndOfTerm(it, clock.now()) }
+        service.completeAndPublishChildDocumentsAtEndOfTerm(db, clock.now())
         asyncJobRunner.runPendingJobsSync(clock)
 
         assertEquals(0, MockEmailClient.emails.size)
@@ -367,7 +380,7 @@ class ChildDocumentServiceIntegrationTest : FullApplicationTest(resetDbBeforeEac
         }
 
         // when
-        db.transaction { service.completeAndPublishChildDocumentsAtEndOfTerm(it, clock.now()) }
+        service.completeAndPublishChildDocumentsAtEndOfTerm(db, clock.now())
         asyncJobRunner.runPendingJobsSync(clock)
 
         // then
@@ -480,6 +493,123 @@ class ChildDocumentServiceIntegrationTest : FullApplicationTest(resetDbBeforeEac
         assertEquals(1, getChildDocumentNotificationEmails().size)
     }
 
+    @Test
+    fun `thousands of expired documents are completed in short batched transactions`() {
+        val employee = DevEmployee()
+        val documentCount = 10_000
+        db.transaction { tx ->
+            tx.insert(employee)
+            tx.execute {
+                sql(
+                    """
+WITH process AS (
+    INSERT INTO case_process (process_definition_number, year, number, organization, archive_duration_months, migrated)
+    SELECT '123.456.789', 2021, n, 'Espoo', 120, false
+    FROM generate_series(1, ${bind(documentCount)}) n
+    RETURNING id
+), history AS (
+    INSERT INTO case_process_history (process_id, row_index, state, entered_at, entered_by)
+    SELECT id, 1, ${bind(CaseProcessState.INITIAL)}, ${bind(clock.now())}, ${bind(employee.evakaUserId)}
+    FROM process
+), document AS (
+    INSERT INTO child_document (child_id, template_id, type, status, content, modified_at, modified_by, status_modified_at, content_locked_at, created_by, process_id)
+    SELECT ${bind(child.id)}, ${bind(expiredHojksTemplateId)}, ${bind(ChildDocumentType.HOJKS)}, 'DRAFT', ${bind(content)}, ${bind(clock.now())}, ${bind(employee.evakaUserId)}, ${bind(clock.now())}, ${bind(clock.now())}, ${bind(employee.evakaUserId)}, id
+    FROM process
+    RETURNING id
+)
+INSERT INTO child_document_published_version (child_document_id, version_number, created_at, created_by, published_content)
+SELECT id, 1, ${bind(clock.now().minusMonths(1))}, ${bind(employee.evakaUserId)}, ${bind(updatedContent)}
+FROM document
+"""
+                )
+            }
+        }
+        clock.tick()
+
+        var previouslyCompleted = 0
+        val completedPerTransaction = mutableListOf<Int>()
+        val dataSource =
+            CommitObservingDataSource(getTestDataSource()) { connection ->
+                connection.createStatement().use { statement ->
+                    statement
+                        .executeQuery(
+                            "SELECT count(*) FROM child_document WHERE status = 'COMPLETED'"
+                        )
+                        .use { rs ->
+                            rs.next()
+                            completedPerTransaction += rs.getInt(1) - previouslyCompleted
+                            previouslyCompleted = rs.getInt(1)
+                        }
+                }
+            }
+        val statements = StatementCounter()
+        val instrumentedDb =
+            Database(configureJdbi(Jdbi.create(dataSource)).setSqlLogger(statements), tracer)
+
+        val completed =
+            instrumentedDb.connect {
+                service.completeAndPublishChildDocumentsAtEndOfTerm(it, clock.now())
+            }
+
+        LoggerFactory.getLogger(javaClass)
+            .info(
+                "Completed $completed documents with ${statements.count} statements in ${completedPerTransaction.size} transactions"
+            )
+        assertEquals(documentCount, completed)
+        // Completing documents one by one took several statements per document
+        assertTrue(statements.count.get() < 500)
+        assertEquals(documentCount, completedPerTransaction.sum())
+        assertEquals(documentCount / 500, completedPerTransaction.count { it > 0 })
+        assertTrue(completedPerTransaction.all { it <= 500 })
+
+        db.read { tx ->
+            assertEquals(
+                listOf(DocumentStatus.COMPLETED),
+                tx.createQuery { sql("SELECT DISTINCT status FROM child_document") }
+                    .toList<DocumentStatus>(),
+            )
+            assertEquals(
+                documentCount,
+                tx.createQuery {
+                        sql(
+                            "SELECT count(*) FROM case_process_history WHERE state = 'COMPLETED' AND row_index = 2"
+                        )
+                    }
+                    .exactlyOne<Int>(),
+            )
+            val pdfJobs =
+                tx.createQuery {
+                        sql(
+                            "SELECT count(*) AS count, min(run_at) AS first, max(run_at) AS last FROM async_job WHERE type = 'CreateChildDocumentPdf'"
+                        )
+                    }
+                    .exactlyOne {
+                        Triple(
+                            column<Int>("count"),
+                            column<HelsinkiDateTime>("first"),
+                            column<HelsinkiDateTime>("last"),
+                        )
+                    }
+            // PDFs are generated at a steady pace instead of all at once
+            assertEquals(
+                Triple(documentCount, clock.now(), clock.now().plusMinutes(100).minusSeconds(1)),
+                pdfJobs,
+            )
+            assertEquals(
+                documentCount,
+                tx.createQuery {
+                        sql(
+                            "SELECT count(*) FROM async_job WHERE type = 'SendChildDocumentNotificationEmail'"
+                        )
+                    }
+                    .exactlyOne<Int>(),
+            )
+        }
+
+        // A repeated run finds nothing left to do
+        assertEquals(0, service.completeAndPublishChildDocumentsAtEndOfTerm(db, clock.now()))
+    }
+
     private fun getCitizenBasicNotificationEmails(): List<Email> {
         val emails =
             MockEmailClient.emails.filter {
@@ -498,3 +628,37 @@ class ChildDocumentServiceIntegrationTest : FullApplicationTest(resetDbBeforeEac
         return emails
     }
 }
+
+private class StatementCounter : SqlLogger {
+    val count = AtomicInteger()
+
+    override fun logAfterExecution(context: StatementContext) {
+        count.incrementAndGet()
+    }
+}
+
+/** Calls [beforeCommit] with the connection right before each transaction is committed */
+private class CommitObservingDataSource(
+    private val dataSource: DataSource,
+    private val beforeCommit: (Connection) -> Unit,
+) : DataSource by dataSource {
+    override fun getConnection(): Connection = observed(dataSource.connection)
+
+    override fun getConnection(username: String?, password: String?): Connection =
+        observed(dataSource.getConnection(username, password))
+
+    private fun observed(connection: Connection): Connection =
+        Proxy.newProxyInstance(
+            Connection::class.java.classLoader,
+            arrayOf(Connection::class.java),
+        ) { _, method, args ->
+            if (method.name == "commit") {
+                beforeCommit(connection)
+            }
+            try {
+                method.invoke(connection, *(args ?: emptyArray()))
+            } catch (e: InvocationTargetException) {
+                throw e.targetException
+            }
+        } as Connection
+}
@@ -0,0 +1,232 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.messaging
+
+import evaka.core.PureJdbiTest
+import evaka.core.shared.MessageAccountId
+import evaka.core.shared.MessageThreadId
+import evaka.core.shared.PageCursor
+import evaka.core.shared.db.Database
+import evaka.core.shared.dev.DevCareArea
+import evaka.core.shared.dev.DevDaycare
+import evaka.core.shared.dev.DevDaycareGroup
+import evaka.core.shared.dev.DevEmployee
+import evaka.core.shared.dev.insert
+import evaka.core.shared.domain.BadRequest
+import evaka.core.shared.domain.HelsinkiDateTime
+import java.time.Duration
+import java.time.LocalDate
+import java.time.LocalTime
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.slf4j.LoggerFactory
+
+class MessageKeysetPaginationTest : PureJdbiTest(resetDbBeforeEach = true) {
+    private val messageTables = listOf("message_thread_participant", "message_thread", "message")
+    private val start = HelsinkiDateTime.of(LocalDate.of(2024, 1, 1), LocalTime.of(8, 0))
+
+    private lateinit var senderAccount: MessageAccountId
+    private lateinit var groupAccount: MessageAccountId
+
+    @BeforeEach
+    fun setUp() {
+        db.transaction { tx ->
+            val areaId = tx.insert(DevCareArea())
+            val daycareId = tx.insert(DevDaycare(areaId = areaId))
+            val groupId = tx.insert(DevDaycareGroup(daycareId = daycareId))
+            groupAccount = tx.createDaycareGroupMessageAccount(groupId)
+            val employee = DevEmployee()
+            tx.insert(employee)
+            senderAccount = tx.upsertEmployeeMessageAccount(employee.id)
+        }
+    }
+
+    @Test
+    fun `following cursors returns the same threads as page numbers`() {
+        // Every other thread shares its timestamp with the previous one, so ties are broken by id
+        db.transaction { tx -> tx.sendThreads(45) { i -> start.plusMinutes(i / 2L) } }
+
+        val byPage = (1..5).map { page -> db.read { it.receivedThreads(page = page) } }
+        val byCursor =
+            generateSequence(db.read { it.receivedThreads(page = 1) }) { previous ->
+                previous.nextCursor?.let { cursor ->
+                    db.read { it.receivedThreads(page = 1, PageCursor.decode(cursor)) }
+                }
+            }
+                .toList()
+
+        assertEquals(
+            byPage.flatMap { page -> page.data.map { it.id } },
+            byCursor.flatMap { page -> page.data.map { it.id } },
+        )
+        assertEquals(45, byPage.flatMap { it.data }.distinctBy { it.id }.size)
+        assertEquals(listOf(45), byCursor.map { it.total }.distinct())
+        assertEquals(listOf(5), byCursor.map { it.pages }.distinct())
+        assertNull(byCursor.last().nextCursor)
+    }
+
+    @Test
+    fun `following cursors returns the same sent messages as page numbers`() {
+        db.transaction { tx -> repeat(25) { i -> tx.sendThreads(1) { start.plusMinutes(i / 2L) } } }
+
+        fun sentMessages(tx: Database.Read, page: Int, cursor: PageCursor? = null) =
+            tx.getMessagesSentByAccount(
+                senderAccount,
+                pageSize = 10,
+                page = page,
+                deletedMessageBody = "",
+                deletedMessageTitle = "",
+                cursor = cursor,
+            )
+
+        val byPage = (1..3).map { page -> db.read { sentMessages(it, page) } }
+        val byCursor =
+            generateSequence(db.read { sentMessages(it, 1) }) { previous ->
+                previous.nextCursor?.let { cursor ->
+                    db.read { sentMessages(it, 1, PageCursor.decode(cursor)) }
+                }
+            }
+                .toList()
+
+        assertEquals(
+            byPage.flatMap { page -> page.data.map { it.contentId } },
+            byCursor.flatMap { page -> page.data.map { it.contentId } },
+        )
+        assertEquals(25, byCursor.flatMap { it.data }.distinctBy { it.contentId }.size)
+        assertEquals(listOf(25), byCursor.map { it.total }.distinct())
+    }
+
+    @Test
+    fun `an invalid cursor is a bad request`() {
+        assertThrows<BadRequest> { PageCursor.decode("not a cursor") }
+    }
+
+    @Test
+    fun `deep pages are read by seeking past the cursor`() {
+        val pageSize = 20
+        val threadCount = 30_000
+        db.transaction { tx -> tx.sendThreads(threadCount) { i -> start.plusMinutes(i.toLong()) } }
+
+        val deepPage = 200
+        // The cursor of page 200 points after the last thread of page 199
+        val deepCursor =
+            db.read { it.receivedThreads(page = deepPage - 1, pageSize = pageSize) }
+                .let { PageCursor.decode(it.nextCursor!!) }
+
+        data class Measurement(val duration: Duration, val rowsRead: Long, val ids: List<Any>)
+
+        fun measure(f: (tx: Database.Read) -> PagedMessageThreads): Measurement =
+            db.read { tx ->
+                val rowsBefore = tx.messageRowsRead()
+                val ids = f(tx).data.map { it.id }
+                val rowsRead = tx.messageRowsRead() - rowsBefore
+                repeat(3) { f(tx) }
+                val startTime = System.nanoTime()
+                repeat(20) { f(tx) }
+                Measurement(Duration.ofNanos(System.nanoTime() - startTime), rowsRead, ids)
+            }
+
+        val firstPage = measure { it.receivedThreads(page = 1, pageSize = pageSize) }
+        val deepOffset = measure { it.receivedThreads(page = deepPage, pageSize = pageSize) }
+        val deepKeyset = measure { it.receivedThreads(page = 1, deepCursor, pageSize = pageSize) }
+        // Timings vary too much between machines to assert on, so they are only logged
+        LoggerFactory.getLogger(javaClass)
+            .info(
+                "$threadCount threads, 20 reads: page 1 ${firstPage.duration.toMillis()} ms, page $deepPage with offset ${deepOffset.duration.toMillis()} ms (${deepOffset.rowsRead} rows read), page $deepPage with cursor ${deepKeyset.duration.toMillis()} ms (${deepKeyset.rowsRead} rows read)"
+            )
+
+        assertEquals(deepOffset.ids, deepKeyset.ids)
+        assertEquals(pageSize, deepKeyset.ids.size)
+        // The offset query reads every skipped row, while the cursor query seeks past them
+        assertTrue(deepOffset.rowsRead - deepKeyset.rowsRead >= (deepPage - 1) * pageSize)
+    }
+
+    /**
+     * Returns the number of rows the current transaction has read from the message tables so far,
+     * through both sequential and index scans
+     */
+    private fun Database.Read.messageRowsRead(): Long =
+        createQuery {
+                sql(
+                    """
+SELECT (
+    (SELECT coalesce(sum(seq_tup_read), 0)
+     FROM pg_stat_xact_user_tables
+     WHERE relname = ANY(${bind(messageTables)})) +
+    (SELECT coalesce(sum(idx_tup_read), 0)
+     FROM pg_stat_xact_user_indexes
+     WHERE relname = ANY(${bind(messageTables)}))
+)::bigint
+"""
+                )
+            }
+            .exactlyOne<Long>()
+
+    private fun Database.Read.receivedThreads(
+        page: Int,
+        cursor: PageCursor? = null,
+        pageSize: Int = 10,
+    ) =
+        getReceivedThreads(
+            groupAccount,
+            pageSize = pageSize,
+            page = page,
+            municipalAccountName = "Espoo",
+            serviceWorkerAccountName = "Espoon palveluohjaus",
+            financeAccountName = "Espoon asiakasmaksut",
+            deletedMessageBody = "",
+            deletedMessageTitle = "",
+            cursor = cursor,
+        )
+
+    /** Sends [count] threads with one message each from the sender to the group account */
+    private fun Database.Transaction.sendThreads(
+        count: Int,
+        sentAt: (i: Int) -> HelsinkiDateTime,
+    ): List<MessageThreadId> {
+        val contentId = insertMessageContent("content", senderAccount)
+        val threadAndMessageIds =
+            insertThreadsWithMessages(
+                count,
+                start,
+                type = MessageType.MESSAGE,
+                title = "title",
+                urgent = false,
+                sensitive = false,
+                isCopy = false,
+                contentId = contentId,
+                senderId = senderAccount,
+                recipientNames = emptyList(),
+                applicationId = null,
+                municipalAccountName = "Espoo",
+                serviceWorkerAccountName = "Espoon palveluohjaus",
+                financeAccountName = "Espoon asiakasmaksut",
+            )
+        val threadIds = threadAndMessageIds.map { it.first }
+        insertRecipients(
+            threadAndMessageIds.map { (_, messageId) -> messageId to setOf(groupAccount) }
+        )
+        upsertSenderThreadParticipants(senderAccount, threadIds, start)
+        upsertRecipientThreadParticipants(contentId, start)
+        markMessagesAsSent(contentId, sentAt(0))
+
+        val timestamps = threadIds.indices.map(sentAt)
+        execute {
+            sql(
+                """
+UPDATE message_thread_participant tp
+SET last_message_timestamp = t.timestamp
+FROM unnest(${bind(threadIds)}, ${bind(timestamps)}) AS t(thread_id, timestamp)
+WHERE tp.thread_id = t.thread_id
+"""
+            )
+        }
+        return threadIds
+    }
+}
@@ -30,6 +30,7 @@ import evaka.core.webpush.WebPushCrypto
 import evaka.core.webpush.WebPushSubscription
 import evaka.core.webpush.upsertPushGroup
 import evaka.core.webpush.upsertPushSubscription
+import io.micrometer.core.instrument.MeterRegistry
 import java.net.URI
 import java.security.SecureRandom
 import java.time.Duration
@@ -39,6 +40,7 @@ import kotlin.test.assertTrue
 import org.junit.jupiter.api.BeforeAll
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Autowired
 
 class MessagePushNotificationsTest : FullApplicationTest(resetDbBeforeEach = true) {
@@ -48,6 +50,7 @@ class MessagePushNotificationsTest : FullApplicationTest(resetDbBeforeEach = tru
     @Autowired private lateinit var mockEndpoint: MockWebPushEndpoint
     @Autowired private lateinit var messageService: MessageService
     @Autowired private lateinit var asyncJobRunner: AsyncJobRunner<AsyncJob>
+    @Autowired private lateinit var meterRegistry: MeterRegistry
 
     private val area = DevCareArea()
     private val daycare =
@@ -218,6 +221,60 @@ WHERE id = ${bind(sent.messageId)}
         assertEquals(0, mockEndpoint.getCapturedRequests("1234").size)
     }
 
+    @Test
+    fun `benchmark sending a message to many devices`() {
+        val devices =
+            List(50) {
+                DevMobileDevice(
+                    unitId = daycare.id,
+                    pushNotificationCategories = setOf(PushNotificationCategory.RECEIVED_MESSAGE),
+                )
+            }
+        db.transaction { tx ->
+            devices.forEach {
+                tx.insert(it)
+                tx.upsertPushGroup(clock.now(), it.id, group.id)
+            }
+        }
+        (listOf(device) + devices).forEachIndexed { index, it ->
+            upsertSubscription(
+                it.id,
+                URI("http://localhost:$httpPort/public/mock-web-push/subscription/device-$index"),
+            )
+        }
+
+        db.transaction { tx ->
+            messageService.sendMessageAsCitizen(
+                tx,
+                clock.now(),
+                sender = citizenAccount,
+                recipients = setOf(groupAccount),
+                children = emptySet(),
+                msg = testMessage,
+            )
+        }
+        clock.tick(Duration.ofMinutes(30))
+        val signatures = meterRegistry.get("webPushVapidJwtSignatures").counter()
+        val signaturesBefore = signatures.count()
+        val start = System.nanoTime()
+        asyncJobRunner.runPendingJobsSync(clock)
+        val elapsed = Duration.ofNanos(System.nanoTime() - start)
+
+        val authorizations =
+            (0..devices.size)
+                .map { mockEndpoint.getCapturedRequests("device-$it").single() }
+                .map { it.headers["authorization"] }
+        assertEquals(1, authorizations.toSet().size)
+        // All endpoints have the same origin, so at most one token is signed for the batch
+        val signed = signatures.count() - signaturesBefore
+        assertTrue(signed <= 1.0)
+        val perSecond = authorizations.size / (elapsed.toNanos() / 1e9)
+        LoggerFactory.getLogger(javaClass)
+            .info(
+                "${authorizations.size} push notifications sent in ${elapsed.toMillis()} ms (${perSecond.toInt()} per second), $signed JWT signatures"
+            )
+    }
+
     private fun upsertSubscription(device: MobileDeviceId, endpoint: URI) = db.transaction { tx ->
         tx.upsertPushSubscription(
             device,
@@ -0,0 +1,481 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.messaging
+
+import evaka.core.PureJdbiTest
+import evaka.core.shared.DaycareId
+import evaka.core.shared.EmployeeId
+import evaka.core.shared.MessageAccountId
+import evaka.core.shared.MessageThreadFolderId
+import evaka.core.shared.MessageThreadId
+import evaka.core.shared.auth.UserRole
+import evaka.core.shared.auth.insertDaycareAclRow
+import evaka.core.shared.auth.syncDaycareGroupAcl
+import evaka.core.shared.db.Database
+import evaka.core.shared.db.QuerySql
+import evaka.core.shared.dev.DevCareArea
+import evaka.core.shared.dev.DevDaycare
+import evaka.core.shared.dev.DevDaycareGroup
+import evaka.core.shared.dev.DevEmployee
+import evaka.core.shared.dev.DevMessageThreadFolder
+import evaka.core.shared.dev.DevPerson
+import evaka.core.shared.dev.DevPersonType
+import evaka.core.shared.dev.insert
+import evaka.core.shared.domain.HelsinkiDateTime
+import evaka.core.shared.security.PilotFeature
+import evaka.core.shared.security.actionrule.AccessControlFilter
+import evaka.core.shared.security.actionrule.forTable
+import java.time.Duration
+import java.time.LocalDate
+import java.time.LocalTime
+import kotlin.test.assertEquals
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.slf4j.LoggerFactory
+
+class MessageUnreadCountTest : PureJdbiTest(resetDbBeforeEach = true) {
+    private val start = HelsinkiDateTime.of(LocalDate.of(2024, 1, 1), LocalTime.of(8, 0))
+    private val groupAclCreated = HelsinkiDateTime.of(LocalDate.of(2024, 2, 1), LocalTime.of(8, 0))
+
+    private val supervisor = DevEmployee()
+    private val staff = DevEmployee()
+    private val staffWithoutGroups = DevEmployee()
+    private val citizenAccounts =
+        AccessControlFilter.Some<MessageAccountId>(
+            QuerySql { sql("SELECT id FROM message_account WHERE type = 'CITIZEN'") }
+        )
+
+    private lateinit var daycareId: DaycareId
+    private lateinit var group1Account: MessageAccountId
+    private lateinit var group2Account: MessageAccountId
+    private lateinit var supervisorAccount: MessageAccountId
+    private lateinit var citizens: List<MessageAccountId>
+
+    @BeforeEach
+    fun setUp() {
+        db.transaction { tx ->
+            val areaId = tx.insert(DevCareArea())
+            daycareId =
+                tx.insert(
+                    DevDaycare(
+                        areaId = areaId,
+                        enabledPilotFeatures = setOf(PilotFeature.MESSAGING),
+                    )
+                )
+            val group1 = tx.insert(DevDaycareGroup(daycareId = daycareId, name = "Group 1"))
+            val group2 = tx.insert(DevDaycareGroup(daycareId = daycareId, name = "Group 2"))
+            group1Account = tx.createDaycareGroupMessageAccount(group1)
+            group2Account = tx.createDaycareGroupMessageAccount(group2)
+
+            listOf(supervisor, staff, staffWithoutGroups).forEach { tx.insert(it) }
+            supervisorAccount = tx.upsertEmployeeMessageAccount(supervisor.id)
+            tx.upsertEmployeeMessageAccount(staff.id)
+            tx.upsertEmployeeMessageAccount(staffWithoutGroups.id)
+            tx.insertDaycareAclRow(daycareId, supervisor.id, UserRole.UNIT_SUPERVISOR)
+            tx.insertDaycareAclRow(daycareId, staff.id, UserRole.STAFF)
+            tx.syncDaycareGroupAcl(daycareId, staff.id, listOf(group1), groupAclCreated)
+            tx.insertDaycareAclRow(daycareId, staffWithoutGroups.id, UserRole.STAFF)
+
+            citizens =
+                (1..200).map {
+                    val person = DevPerson()
+                    tx.insert(person, DevPersonType.ADULT)
+                    tx.getCitizenMessageAccount(person.id)
+                }
+        }
+    }
+
+    @Test
+    fun `counts follow sending, reading, moving and archiving messages`() {
+        val citizen = citizens.first()
+        val thread1 = db.transaction { it.send(citizen, setOf(group1Account), start) }
+        val thread2 = db.transaction { it.send(citizen, setOf(group1Account), start) }
+        db.transaction { it.send(group1Account, setOf(group2Account), start, isCopy = true) }
+        assertEquals(
+            UnreadCountByAccount(group1Account, 0, 2, emptyMap()),
+            supervisorCounts().single { it.accountId == group1Account },
+        )
+
+        db.transaction { it.markThreadRead(start.plusHours(1), group1Account, thread1) }
+        val folder = db.transaction {
+            it.insert(DevMessageThreadFolder(owner = group1Account, name = "Folder"))
+        }
+        db.transaction { it.moveThreadToFolder(group1Account, thread2, folder) }
+        assertEquals(
+            UnreadCountByAccount(group1Account, 0, 0, mapOf(folder to 1)),
+            supervisorCounts().single { it.accountId == group1Account },
+        )
+        assertEquals(
+            UnreadCountByAccount(group2Account, 1, 0, emptyMap()),
+            supervisorCounts().single { it.accountId == group2Account },
+        )
+
+        db.transaction { it.archiveThread(group1Account, thread2) }
+        assertEquals(emptyList(), supervisorCounts().filter { it.accountId == group1Account })
+
+        // A reply moves the thread back to the inbox
+        db.transaction { it.send(citizen, setOf(group1Account), start.plusDays(1), thread2) }
+        assertEquals(
+            UnreadCountByAccount(group1Account, 0, 2, emptyMap()),
+            supervisorCounts().single { it.accountId == group1Account },
+        )
+    }
+
+    @Test
+    fun `counts of a rolled back transaction are not changed`() {
+        val thread = db.transaction { it.send(citizens.first(), setOf(group1Account), start) }
+        assertThrows<RolledBack> {
+            db.transaction { tx ->
+                tx.markThreadRead(start.plusHours(1), group1Account, thread)
+                throw RolledBack()
+            }
+        }
+        assertEquals(
+            UnreadCountByAccount(group1Account, 0, 1, emptyMap()),
+            supervisorCounts().single { it.accountId == group1Account },
+        )
+    }
+
+    @Test
+    fun `a bulletin to thousands of recipients updates their counts in the same transaction`() {
+        val recipients = db.transaction { tx ->
+            (1..5000).map {
+                val person = DevPerson()
+                tx.insert(person, DevPersonType.ADULT)
+                tx.getCitizenMessageAccount(person.id)
+            }
+        }
+
+        val recipientSet = recipients.toSet()
+        db.transaction { tx ->
+            tx.send(group1Account, recipientSet, start)
+
+            // Counts are updated row by row, without a lock per recipient account
+            val otherLocks =
+                tx.createQuery {
+                        sql(
+                            """
+SELECT count(*)
+FROM pg_locks
+WHERE pid = pg_backend_pid() AND locktype NOT IN ('relation', 'virtualxid', 'transactionid')
+"""
+                        )
+                    }
+                    .exactlyOne<Int>()
+            assertEquals(0, otherLocks)
+            assertEquals(
+                recipientSet.map { UnreadCountByAccount(it, 1, 0, emptyMap()) }.toSet(),
+                tx.getUnreadMessagesCountsCitizen(citizenAccounts)
+                    .filter { it.accountId in recipientSet }
+                    .toSet(),
+            )
+        }
+        assertEquals(
+            db.read { it.aggregateUnreadCountsCitizen(citizenAccounts) },
+            db.read { it.getUnreadMessagesCountsCitizen(citizenAccounts) },
+        )
+        assertEquals(0, db.transaction { it.reconcileMessageUnreadCounts() })
+    }
+
+    @Test
+    fun `counts follow deleting threads, messages and folders`() {
+        seedLargeMailbox()
+
+        db.transaction { tx ->
+            tx.execute {
+                sql(
+                    "DELETE FROM message_thread WHERE id IN (SELECT id FROM message_thread ORDER BY id LIMIT 100)"
+                )
+            }
+            tx.execute {
+                sql("DELETE FROM message WHERE id IN (SELECT id FROM message ORDER BY id LIMIT 100)")
+            }
+            tx.execute {
+                sql("DELETE FROM message_thread_folder WHERE owner_id = ${bind(group1Account)}")
+            }
+        }
+
+        assertEquals(
+            db.read { it.aggregateUnreadCountsCitizen(citizenAccounts) },
+            db.read { it.getUnreadMessagesCountsCitizen(citizenAccounts) },
+        )
+        assertEquals(0, db.transaction { it.reconcileMessageUnreadCounts() })
+    }
+
+    @Test
+    fun `counts of a large mailbox match the aggregated messages`() {
+        seedLargeMailbox()
+
+        val employeeFilter = AccessControlFilter.PermitAll
+        for (employee in listOf(supervisor, staff, staffWithoutGroups)) {
+            assertEquals(
+                db.read { it.aggregateUnreadCountsEmployee(employeeFilter, employee.id) },
+                db.read { it.getUnreadMessagesCountsEmployee(employeeFilter, employee.id) },
+            )
+        }
+        assertEquals(
+            db.read { it.aggregateUnreadCountsCitizen(citizenAccounts) },
+            db.read { it.getUnreadMessagesCountsCitizen(citizenAccounts) },
+        )
+        assertEquals(
+            db.read { it.aggregateUnreadCountsByDaycare(daycareId) },
+            db.read { it.getUnreadMessagesCountsByDaycare(daycareId) },
+        )
+        assertEquals(0, db.transaction { it.reconcileMessageUnreadCounts() })
+
+        fun measure(f: (tx: Database.Read) -> Unit): Duration =
+            db.read { tx ->
+                repeat(5) { f(tx) }
+                val startTime = System.nanoTime()
+                repeat(50) { f(tx) }
+                Duration.ofNanos(System.nanoTime() - startTime)
+            }
+
+        val aggregated = measure { tx ->
+            tx.aggregateUnreadCountsEmployee(employeeFilter, staff.id)
+            tx.aggregateUnreadCountsCitizen(citizenAccounts)
+            tx.aggregateUnreadCountsByDaycare(daycareId)
+        }
+        val counters = measure { tx ->
+            tx.getUnreadMessagesCountsEmployee(employeeFilter, staff.id)
+            tx.getUnreadMessagesCountsCitizen(citizenAccounts)
+            tx.getUnreadMessagesCountsByDaycare(daycareId)
+        }
+        LoggerFactory.getLogger(javaClass)
+            .info(
+                "50 rounds of unread count queries: aggregated ${aggregated.toMillis()} ms, counters ${counters.toMillis()} ms"
+            )
+    }
+
+    @Test
+    fun `reconciliation fixes drifted counts`() {
+        seedLargeMailbox()
+        val expected = db.read { it.getUnreadMessagesCountsByDaycare(daycareId) }
+
+        db.transaction { tx ->
+            tx.execute {
+                sql(
+                    "UPDATE message_unread_count SET count = count + 1 WHERE account_id = ${bind(group1Account)}"
+                )
+            }
+            tx.execute {
+                sql("DELETE FROM message_unread_count WHERE account_id = ${bind(group2Account)}")
+            }
+        }
+
+        assertEquals(2, db.transaction { it.reconcileMessageUnreadCounts() })
+        assertEquals(expected, db.read { it.getUnreadMessagesCountsByDaycare(daycareId) })
+        assertEquals(0, db.transaction { it.reconcileMessageUnreadCounts() })
+    }
+
+    private class RolledBack : RuntimeException()
+
+    private fun supervisorCounts() = db.read {
+        it.getUnreadMessagesCountsEmployee(AccessControlFilter.PermitAll, supervisor.id)
+    }
+
+    private fun seedLargeMailbox() {
+        val groupThreads = db.transaction { tx ->
+            citizens.flatMapIndexed { i, citizen ->
+                (0 until 10).map { j ->
+                    val group = if (j % 2 == 0) group1Account else group2Account
+                    val sentAt = start.plusHours(i * 4L + j * 100L)
+                    val thread = tx.send(citizen, setOf(group), sentAt)
+                    if (j % 3 == 0) tx.send(group, setOf(citizen), sentAt.plusHours(1), thread)
+                    if (j % 4 == 0) tx.send(citizen, setOf(supervisorAccount), sentAt)
+                    group to thread
+                }
+            }
+        }
+        val bulletins = db.transaction { tx ->
+            (0 until 20).map { k ->
+                val sentAt = start.plusDays(k * 3L)
+                tx.send(group2Account, setOf(group1Account), sentAt, isCopy = true)
+                tx.send(group1Account, citizens.toSet(), sentAt)
+            }
+        }
+        db.transaction { tx ->
+            val folder =
+                tx.insert(DevMessageThreadFolder(owner = group1Account, name = "Folder"))
+            groupThreads.forEachIndexed { i, (group, thread) ->
+                when {
+                    i % 3 == 0 -> tx.markThreadRead(start.plusYears(1), group, thread)
+                    i % 5 == 0 -> tx.archiveThread(group, thread)
+                    i % 7 == 0 && group == group1Account ->
+                        tx.moveThreadToFolder(group, thread, folder)
+                }
+            }
+            citizens.forEachIndexed { i, citizen ->
+                bulletins.filterIndexed { k, _ -> (i + k) % 2 == 0 }.forEach { thread ->
+                    tx.markThreadRead(start.plusYears(1), citizen, thread)
+                }
+            }
+        }
+    }
+
+    private fun Database.Transaction.send(
+        sender: MessageAccountId,
+        recipients: Set<MessageAccountId>,
+        sentAt: HelsinkiDateTime,
+        threadId: MessageThreadId? = null,
+        isCopy: Boolean = false,
+    ): MessageThreadId {
+        val contentId = insertMessageContent("content", sender)
+        val thread =
+            threadId
+                ?: insertThread(
+                    MessageType.MESSAGE,
+                    "title",
+                    urgent = false,
+                    sensitive = false,
+                    isCopy = isCopy,
+                )
+        val messageId =
+            insertMessage(
+                now = sentAt,
+                contentId = contentId,
+                threadId = thread,
+                sender = sender,
+                sentAt = sentAt,
+                recipientNames = emptyList(),
+                municipalAccountName = "Espoo",
+                serviceWorkerAccountName = "Espoon palveluohjaus",
+                financeAccountName = "Espoon asiakasmaksut",
+            )
+        insertRecipients(listOf(messageId to recipients))
+        upsertSenderThreadParticipants(sender, listOf(thread), sentAt)
+        upsertRecipientThreadParticipants(contentId, sentAt)
+        return thread
+    }
+
+    private data class RawData(
+        val accountId: MessageAccountId,
+        val isCopy: Boolean,
+        val folderId: MessageThreadFolderId?,
+        val count: Int,
+    )
+
+    private fun List<RawData>.toUnreadCounts() =
+        groupBy { it.accountId }
+            .map { (accountId, counts) ->
+                UnreadCountByAccount(
+                    accountId = accountId,
+                    unreadCount = counts.find { !it.isCopy && it.folderId == null }?.count ?: 0,
+                    unreadCopyCount = counts.find { it.isCopy && it.folderId == null }?.count ?: 0,
+                    unreadCountByFolder =
+                        counts
+                            .filter { it.folderId != null }
+                            .associate { it.folderId!! to it.count },
+                )
+            }
+            .toSet()
+
+    // The queries below aggregate the counts from the messages, as was done before the counts
+    // were materialized
+
+    private fun Database.Read.aggregateUnreadCountsEmployee(
+        idFilter: AccessControlFilter<MessageAccountId>,
+        employeeId: EmployeeId,
+    ): Set<UnreadCountByAccount> =
+        createQuery {
+                sql(
+                    """
+        WITH limits AS (
+            SELECT
+                daycare_group_id,
+                (created - interval '1 week')::date AS access_limit
+            FROM daycare_group_acl
+            WHERE employee_id = ${bind(employeeId)}
+        ),
+        accounts AS (
+            SELECT id, daycare_group_id
+            FROM message_account
+            WHERE ${predicate(idFilter.forTable("message_account"))}
+        )
+        SELECT
+            acc.id as account_id,
+            mt.is_copy as is_copy,
+            mtp.folder_id,
+            count(mt.id) AS count
+        FROM accounts acc
+            LEFT JOIN limits l ON l.daycare_group_id = acc.daycare_group_id
+            LEFT JOIN daycare_group dg ON dg.id = acc.daycare_group_id
+            LEFT JOIN daycare_acl da ON da.employee_id = ${bind(employeeId)} AND da.daycare_id = dg.daycare_id
+            JOIN message_recipients mr ON mr.recipient_id = acc.id
+            JOIN message m ON mr.message_id = m.id AND m.sent_at IS NOT NULL
+            JOIN message_thread_participant mtp ON m.thread_id = mtp.thread_id AND mtp.participant_id = acc.id
+            JOIN message_thread mt ON m.thread_id = mt.id
+            LEFT JOIN message_thread_folder mtf ON mtp.folder_id = mtf.id
+        WHERE
+            mr.read_at IS NULL AND
+            (
+                mtp.folder_id IS NOT NULL OR
+                da.role = 'UNIT_SUPERVISOR' OR
+                mtp.last_message_timestamp >= l.access_limit OR
+                m.sent_at >= l.access_limit OR
+                dg.id IS NULL
+            ) AND
+            (mtp.folder_id IS NULL OR mtf.name != 'ARCHIVE')
+        GROUP BY acc.id, mt.is_copy, mtp.folder_id
+        """
+                )
+            }
+            .toList<RawData>()
+            .toUnreadCounts()
+
+    private fun Database.Read.aggregateUnreadCountsCitizen(
+        idFilter: AccessControlFilter<MessageAccountId>
+    ): Set<UnreadCountByAccount> =
+        createQuery {
+                sql(
+                    """
+        SELECT
+            acc.id as account_id,
+            coalesce(mt.is_copy, false) as is_copy,
+            mtp.folder_id,
+            count(mt.id) AS count
+        FROM message_account acc
+        LEFT JOIN message_recipients mr ON mr.recipient_id = acc.id AND mr.read_at IS NULL
+        LEFT JOIN message m ON mr.message_id = m.id AND m.sent_at IS NOT NULL
+        LEFT JOIN message_thread mt ON m.thread_id = mt.id
+        LEFT JOIN message_thread_participant mtp ON m.thread_id = mtp.thread_id AND mtp.participant_id = acc.id
+        LEFT JOIN message_thread_folder mtf ON mtp.folder_id = mtf.id
+        WHERE ${predicate(idFilter.forTable("acc"))} AND (mtp.folder_id IS NULL OR mtf.name != 'ARCHIVE')
+        GROUP BY acc.id, mt.is_copy, mtp.folder_id
+        """
+                )
+            }
+            .toList<RawData>()
+            .toUnreadCounts()
+
+    private fun Database.Read.aggregateUnreadCountsByDaycare(
+        daycareId: DaycareId
+    ): Set<UnreadCountByAccountAndGroup> =
+        createQuery {
+                sql(
+                    """
+WITH target_accounts AS (
+    SELECT acc.id, acc.daycare_group_id
+    FROM message_account acc
+    JOIN daycare_group dg ON acc.daycare_group_id = dg.id
+    WHERE acc.active = true
+      AND dg.daycare_id = ${bind(daycareId)}
+)
+SELECT
+    ta.id as account_id,
+    ta.daycare_group_id as group_id,
+    COUNT(*) FILTER (WHERE mr.read_at IS NULL AND NOT mt.is_copy) as unread_count,
+    COUNT(*) FILTER (WHERE mr.read_at IS NULL AND mt.is_copy) as unread_copy_count
+FROM target_accounts ta
+LEFT JOIN message_recipients mr ON mr.recipient_id = ta.id AND mr.read_at IS NULL
+LEFT JOIN message m ON mr.message_id = m.id AND m.sent_at IS NOT NULL
+LEFT JOIN message_thread mt ON m.thread_id = mt.id
+GROUP BY ta.id, ta.daycare_group_id
+"""
+                )
+            }
+            .toSet<UnreadCountByAccountAndGroup>()
+}
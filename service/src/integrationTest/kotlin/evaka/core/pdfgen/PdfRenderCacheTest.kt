@@ -0,0 +1,106 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.pdfgen
+
+import evaka.core.FullApplicationTest
+import evaka.core.s3.DocumentKey
+import evaka.core.s3.DocumentService
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import java.util.UUID
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.springframework.beans.factory.annotation.Autowired
+
+class PdfRenderCacheTest : FullApplicationTest(resetDbBeforeEach = false) {
+    @Autowired lateinit var documentService: DocumentService
+    @Autowired lateinit var pdfGenerator: PdfGenerator
+
+    private lateinit var meterRegistry: SimpleMeterRegistry
+    private lateinit var cache: PdfRenderCache
+
+    @BeforeEach
+    fun beforeEach() {
+        meterRegistry = SimpleMeterRegistry()
+        cache = PdfRenderCache(documentService, meterRegistry)
+    }
+
+    private fun newKey() = DocumentKey.ChildDocument("render-cache-test-${UUID.randomUUID()}")
+
+    @Test
+    fun `a repeated render of the same input skips the renderer and the upload`() {
+        val key = newKey()
+        var renders = 0
+        val render = {
+            renders++
+            "rendered $renders".toByteArray()
+        }
+
+        cache.renderAndUpload(key, "hash", render)
+        cache.renderAndUpload(key, "hash", render)
+
+        assertEquals(1, renders)
+        val stored = documentService.getOrNull(documentService.locate(key))
+        assertContentEquals("rendered 1".toByteArray(), assertNotNull(stored).bytes)
+        assertEquals(1.0, meterRegistry.get("pdfRenderCacheMisses").counter().count())
+        assertEquals(1.0, meterRegistry.get("pdfRenderCacheHits").counter().count())
+    }
+
+    @Test
+    fun `changed input replaces the stored document`() {
+        val key = newKey()
+        cache.renderAndUpload(key, "first") { "a".toByteArray() }
+        cache.renderAndUpload(key, "second") { "b".toByteArray() }
+
+        val stored = documentService.getOrNull(documentService.locate(key))
+        assertContentEquals("b".toByteArray(), assertNotNull(stored).bytes)
+        assertEquals(0.0, meterRegistry.get("pdfRenderCacheHits").counter().count())
+    }
+
+    @Test
+    fun `the same input is rendered again for a different document`() {
+        var renders = 0
+        cache.renderAndUpload(newKey(), "hash") { "a".toByteArray().also { renders++ } }
+        cache.renderAndUpload(newKey(), "hash") { "a".toByteArray().also { renders++ } }
+
+        assertEquals(2, renders)
+    }
+
+    @Test
+    fun `deleting the document leaves no cached rendering behind`() {
+        val key = newKey()
+        var renders = 0
+        cache.renderAndUpload(key, "hash") { "a".toByteArray().also { renders++ } }
+
+        documentService.delete(key)
+
+        val location = documentService.locate(key)
+        assertNull(documentService.getOrNull(location))
+        assertNull(documentService.getMetadata(location))
+        cache.renderAndUpload(key, "hash") { "a".toByteArray().also { renders++ } }
+        assertEquals(2, renders)
+    }
+
+    @Test
+    fun `identical html is rendered into a pdf only once`() {
+        val key = newKey()
+        val html = "<html><body><p>${UUID.randomUUID()}</p></body></html>"
+
+        pdfGenerator.renderAndUpload(html, key)
+        val first = documentService.get(documentService.locate(key)).bytes
+        pdfGenerator.renderAndUpload(html, key)
+        val second = documentService.get(documentService.locate(key)).bytes
+        pdfGenerator.renderAndUpload("$html ", key)
+        val changed = documentService.get(documentService.locate(key)).bytes
+
+        // Every real render embeds a unique document id, so equal bytes mean no new render
+        assertContentEquals(first, second)
+        assertFalse(first.contentEquals(changed))
+    }
+}
@@ -37,6 +37,7 @@ import evaka.core.shared.domain.HelsinkiDateTime
 import evaka.core.shared.domain.RealEvakaClock
 import evaka.core.shared.domain.toFiniteDateRange
 import evaka.core.snDaycareContractDays10
+import io.github.oshai.kotlinlogging.KotlinLogging
 import java.math.BigDecimal
 import java.time.DayOfWeek
 import java.time.DayOfWeek.FRIDAY
@@ -46,11 +47,14 @@ import java.time.DayOfWeek.TUESDAY
 import java.time.DayOfWeek.WEDNESDAY
 import java.time.LocalDate
 import java.time.LocalTime
+import kotlin.time.measureTimedValue
 import org.assertj.core.api.Assertions.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.springframework.beans.factory.annotation.Autowired
 
+private val logger = KotlinLogging.logger {}
+
 internal class AttendanceReservationReportTest : FullApplicationTest(resetDbBeforeEach = true) {
     @Autowired
     private lateinit var attendanceReservationReportController:
@@ -1604,6 +1608,71 @@ internal class AttendanceReservationReportTest : FullApplicationTest(resetDbBefo
         assertThat(result).containsExactlyElementsOf(expected.values)
     }
 
+    @Test
+    fun `report over a large unit and a long range`() {
+        val range = FiniteDateRange(LocalDate.of(2022, 9, 1), LocalDate.of(2022, 11, 30))
+        val children =
+            (1..300).map {
+                DevPerson(
+                    dateOfBirth =
+                        if (it % 2 == 0) LocalDate.of(2021, 1, 1) else LocalDate.of(2018, 1, 1)
+                )
+            }
+        db.transaction { tx ->
+            children.forEach { child ->
+                tx.insert(child, DevPersonType.CHILD)
+                tx.insert(
+                    DevPlacement(
+                        childId = child.id,
+                        unitId = daycare.id,
+                        startDate = range.start,
+                        endDate = range.end,
+                    )
+                )
+                range
+                    .dates()
+                    .filter {
+                        it.dayOfWeek != DayOfWeek.SATURDAY && it.dayOfWeek != DayOfWeek.SUNDAY
+                    }
+                    .forEach { date ->
+                        tx.insert(
+                            DevReservation(
+                                childId = child.id,
+                                date = date,
+                                startTime = LocalTime.of(8, 0),
+                                endTime = LocalTime.of(16, 0),
+                                createdBy = admin.evakaUserId,
+                            )
+                        )
+                    }
+            }
+        }
+
+        val (result, duration) = measureTimedValue {
+            db.read { tx ->
+                getAttendanceReservationReport(
+                    tx,
+                    range.start,
+                    range.end,
+                    daycare.id,
+                    null,
+                    ReservationType.RESERVATION,
+                )
+            }
+        }
+        logger.info { "Attendance reservation report of 300 children over $range took $duration" }
+
+        assertThat(result).hasSize(createEmptyReport(range.start, range.end).size)
+        val date = LocalDate.of(2022, 10, 12)
+        val midday = result.single { it.dateTime == HelsinkiDateTime.of(date, LocalTime.of(12, 0)) }
+        assertThat(midday.childCountUnder3).isEqualTo(150)
+        assertThat(midday.childCountOver3).isEqualTo(150)
+        assertThat(midday.childCount).isEqualTo(300)
+        val evening =
+            result.single { it.dateTime == HelsinkiDateTime.of(date, LocalTime.of(20, 0)) }
+        assertThat(evening.childCount).isEqualTo(0)
+    }
+
     private fun getReport(
         startDate: LocalDate,
         endDate: LocalDate,
@@ -0,0 +1,155 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.reservations
+
+import evaka.core.AuditContext
+import evaka.core.PureJdbiTest
+import evaka.core.pis.service.insertGuardian
+import evaka.core.shared.ChildId
+import evaka.core.shared.auth.CitizenAuthLevel
+import evaka.core.shared.dev.DevCareArea
+import evaka.core.shared.dev.DevDaycare
+import evaka.core.shared.dev.DevPerson
+import evaka.core.shared.dev.DevPersonType
+import evaka.core.shared.dev.DevPlacement
+import evaka.core.shared.dev.insert
+import evaka.core.shared.domain.FiniteDateRange
+import evaka.core.shared.domain.HelsinkiDateTime
+import evaka.core.shared.domain.TimeRange
+import evaka.core.shared.security.PilotFeature
+import java.time.DayOfWeek
+import java.time.Duration
+import java.time.LocalDate
+import java.time.LocalTime
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import kotlin.concurrent.thread
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
+
+/**
+ * Simulates a holiday questionnaire deadline: the guardians of a group of siblings all submit
+ * multi-week reservations for every child at the same time, several times in a row.
+ */
+class ConcurrentReservationsTest : PureJdbiTest(resetDbBeforeEach = true) {
+    private val now = HelsinkiDateTime.of(LocalDate.of(2021, 8, 2), LocalTime.of(12, 0))
+    private val range = FiniteDateRange(LocalDate.of(2021, 8, 16), LocalDate.of(2021, 9, 5))
+    private val weekdays = range.dates().filter { it.dayOfWeek < DayOfWeek.SATURDAY }.toList()
+    private val citizenReservationThresholdHours = 150L
+
+    private val area = DevCareArea()
+    private val daycare =
+        DevDaycare(areaId = area.id, enabledPilotFeatures = setOf(PilotFeature.RESERVATIONS))
+    private val guardians = (1..4).map { DevPerson() }
+    private val children = (1..3).map { DevPerson() }
+
+    @BeforeEach
+    fun before() {
+        db.transaction { tx ->
+            tx.insert(area)
+            tx.insert(daycare)
+            guardians.forEach { tx.insert(it, DevPersonType.ADULT) }
+            children.forEach { child ->
+                tx.insert(child, DevPersonType.CHILD)
+                tx.insert(
+                    DevPlacement(
+                        childId = child.id,
+                        unitId = daycare.id,
+                        startDate = range.start,
+                        endDate = range.end,
+                    )
+                )
+                guardians.forEach { tx.insertGuardian(guardianId = it.id, childId = child.id) }
+            }
+        }
+    }
+
+    private fun submission(guardianIndex: Int, round: Int): List<DailyReservationRequest> =
+        children.flatMap { child ->
+            weekdays.mapIndexed { dayIndex, date ->
+                if ((dayIndex + guardianIndex + round) % 4 == 0) {
+                    DailyReservationRequest.Absent(child.id, date)
+                } else {
+                    DailyReservationRequest.Reservations(
+                        child.id,
+                        date,
+                        TimeRange(LocalTime.of(7 + guardianIndex, round), LocalTime.of(16, 0)),
+                    )
+                }
+            }
+        }
+
+    @Test
+    fun `concurrent submissions by guardians of the same children don't fail or interleave`() {
+        val rounds = 5
+        val errors = ConcurrentLinkedQueue<Throwable>()
+        val start = CountDownLatch(1)
+        val workers =
+            guardians.mapIndexed { guardianIndex, guardian ->
+                thread {
+                    start.await()
+                    dbInstance().connect { dbc ->
+                        repeat(rounds) { round ->
+                            try {
+                                dbc.transaction { tx ->
+                                    createReservationsAndAbsences(
+                                        tx,
+                                        now,
+                                        guardian.user(CitizenAuthLevel.STRONG),
+                                        AuditContext(),
+                                        submission(guardianIndex, round),
+                                        citizenReservationThresholdHours,
+                                    )
+                                }
+                            } catch (e: Throwable) {
+                                errors.add(e)
+                            }
+                        }
+                    }
+                }
+            }
+
+        val startedAt = System.nanoTime()
+        start.countDown()
+        workers.forEach { it.join() }
+        val elapsed = Duration.ofNanos(System.nanoTime() - startedAt)
+        LoggerFactory.getLogger(javaClass)
+            .info(
+                "${guardians.size * rounds} submissions of ${children.size * weekdays.size} days in ${elapsed.toMillis()} ms"
+            )
+
+        assertEquals(emptyList(), errors.toList())
+
+        // Every day of every child must be the result of exactly one submission: either one
+        // reservation or absences, never both and never reservations of two submissions
+        val reservationCounts = countPerChildDate("attendance_reservation")
+        val absenceCounts = countPerChildDate("absence")
+        children.forEach { child ->
+            weekdays.forEach { date ->
+                val reservations = reservationCounts[child.id to date] ?: 0
+                val absences = absenceCounts[child.id to date] ?: 0
+                assertTrue(
+                    (reservations == 1 && absences == 0) || (reservations == 0 && absences > 0),
+                    "$date of child ${child.id}: $reservations reservations, $absences absences",
+                )
+            }
+        }
+    }
+
+    private fun countPerChildDate(table: String): Map<Pair<ChildId, LocalDate>, Int> =
+        db.read { tx ->
+            tx.createQuery {
+                    sql("SELECT child_id, date, count(*) AS count FROM $table GROUP BY 1, 2")
+                }
+                .toList {
+                    (column<ChildId>("child_id") to column<LocalDate>("date")) to
+                        column<Int>("count")
+                }
+                .toMap()
+        }
+}
@@ -8,6 +8,7 @@ import evaka.core.BucketEnv
 import evaka.core.FullApplicationTest
 import evaka.core.shared.AttachmentId
 import evaka.core.shared.utils.trustAllCerts
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 import java.util.UUID
 import kotlin.test.assertContentEquals
 import kotlin.test.assertEquals
@@ -29,6 +30,8 @@ class S3DocumentServiceIntegrationTest : FullApplicationTest(resetDbBeforeEach =
 
     @Autowired private lateinit var bucketEnv: BucketEnv
 
+    private lateinit var meterRegistry: SimpleMeterRegistry
+
     private lateinit var documentClient: DocumentService
 
     private val http = OkHttpClient.Builder().apply { trustAllCerts(this) }.build()
@@ -37,14 +40,25 @@ class S3DocumentServiceIntegrationTest : FullApplicationTest(resetDbBeforeEach =
 
     @BeforeEach
     fun beforeEach() {
+        meterRegistry = SimpleMeterRegistry()
         documentClient =
-            S3DocumentService(s3Client, s3Presigner, bucketEnv.copy(proxyThroughNginx = true))
+            S3DocumentService(
+                s3Client,
+                s3Presigner,
+                bucketEnv.copy(proxyThroughNginx = true),
+                meterRegistry,
+            )
     }
 
     @Test
     fun `redirects when not proxying through nginx`() {
         val documentClientNoProxy =
-            S3DocumentService(s3Client, s3Presigner, bucketEnv.copy(proxyThroughNginx = false))
+            S3DocumentService(
+                s3Client,
+                s3Presigner,
+                bucketEnv.copy(proxyThroughNginx = false),
+                meterRegistry,
+            )
         val location =
             documentClientNoProxy.upload(documentRef, byteArrayOf(0x11, 0x22, 0x33), "text/plain")
 
@@ -75,6 +89,25 @@ class S3DocumentServiceIntegrationTest : FullApplicationTest(resetDbBeforeEach =
         assertContentEquals(byteArrayOf(0x11, 0x33, 0x22), document.bytes)
     }
 
+    @Test
+    fun `upload-download round trip with getStream`() {
+        val content = ByteArray(1024 * 1024) { it.toByte() }
+        val location = documentClient.upload(documentRef, content, "application/pdf")
+
+        documentClient.getStream(location).use { document ->
+            assertEquals("application/pdf", document.contentType)
+            assertEquals(content.size.toLong(), document.contentLength)
+            assertEquals(1.0, meterRegistry.get("documentStreamsOpen").gauge().value())
+            assertContentEquals(content, document.inputStream.readAllBytes())
+        }
+
+        assertEquals(0.0, meterRegistry.get("documentStreamsOpen").gauge().value())
+        assertEquals(
+            content.size.toDouble(),
+            meterRegistry.get("documentStreamedReadBytes").counter().count(),
+        )
+    }
+
     @Test
     fun `responseAttachment works without filename`() {
         val location = documentClient.upload(documentRef, byteArrayOf(0x22, 0x11, 0x33), "text/csv")
@@ -10,7 +10,7 @@ import evaka.core.SfiContactOrganizationEnv
 import evaka.core.SfiContactPersonEnv
 import evaka.core.SfiEnv
 import evaka.core.SfiPrintingEnv
-import evaka.core.s3.Document
+import evaka.core.s3.DocumentStream
 import evaka.core.sficlient.SfiMessage
 import evaka.core.shared.SfiMessageId
 import java.net.URI
@@ -77,7 +77,12 @@ class SfiMessagesRestClientIntegrationTest : FullApplicationTest(resetDbBeforeEa
                 getDocument = { location ->
                     assertEquals(message.documentBucket, location.bucket)
                     assertEquals(message.documentKey, location.key)
-                    Document(location.key, fileContent, contentType = "content-type")
+                    DocumentStream(
+                        location.key,
+                        contentType = "content-type",
+                        contentLength = fileContent.size.toLong(),
+                        inputStream = fileContent.inputStream(),
+                    )
                 },
                 passwordStore =
                     MockPasswordStore(
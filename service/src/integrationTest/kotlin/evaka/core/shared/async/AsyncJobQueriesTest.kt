@@ -13,6 +13,7 @@ import java.time.LocalDate
 import java.time.LocalTime
 import java.util.UUID
 import kotlin.test.assertEquals
+import kotlin.test.assertFalse
 import kotlin.test.assertNotEquals
 import kotlin.test.assertNull
 import kotlin.test.assertTrue
@@ -107,6 +108,42 @@ class AsyncJobQueriesTest : PureJdbiTest(resetDbBeforeEach = true) {
         assertEquals(2, completedCount)
     }
 
+    @Test
+    fun testCompleteAfterLostClaim() {
+        val now = HelsinkiDateTime.now()
+        db.transaction {
+            it.insertJob(JobParams(TestJob(UUID.randomUUID()), 2, Duration.ofMinutes(5), now))
+        }
+        val first = db.transaction { it.claimJob(now, listOf(jobType))!! }
+        db.transaction { it.startJob(first, now)!! }
+
+        // The first worker is still running when the retry interval has passed
+        val second = db.transaction { it.claimJob(now.plusMinutes(6), listOf(jobType))!! }
+        assertEquals(first.jobId, second.jobId)
+
+        assertFalse(db.transaction { it.completeJob(first, now.plusMinutes(7)) })
+        assertTrue(db.transaction { it.completeJob(second, now.plusMinutes(7)) })
+    }
+
+    @Test
+    fun testRenewClaim() {
+        val now = HelsinkiDateTime.now()
+        db.transaction {
+            it.insertJob(JobParams(TestJob(UUID.randomUUID()), 2, Duration.ofMinutes(5), now))
+        }
+        val first = db.transaction { it.claimJob(now, listOf(jobType))!! }
+        db.transaction { it.startJob(first, now)!! }
+
+        // A renewed claim keeps other workers from claiming the job after the retry interval
+        assertTrue(db.transaction { it.renewJobClaim(first, now.plusMinutes(4)) })
+        assertNull(db.transaction { it.claimJob(now.plusMinutes(6), listOf(jobType)) })
+
+        val second = db.transaction { it.claimJob(now.plusMinutes(10), listOf(jobType))!! }
+        assertFalse(db.transaction { it.renewJobClaim(first, now.plusMinutes(11)) })
+        assertTrue(db.transaction { it.completeJob(second, now.plusMinutes(12)) })
+        assertFalse(db.transaction { it.renewJobClaim(second, now.plusMinutes(13)) })
+    }
+
     @Test
     fun testRemoveOldAsyncJobs() {
         val now = HelsinkiDateTime.of(LocalDate.of(2020, 9, 1), LocalTime.of(12, 0))
@@ -150,6 +187,54 @@ class AsyncJobQueriesTest : PureJdbiTest(resetDbBeforeEach = true) {
         )
     }
 
+    @Test
+    fun `insertJobs inserts all jobs with their parameters`() {
+        val now = HelsinkiDateTime.now()
+        val jobs =
+            (1..3).map { i ->
+                JobParams(TestJob(UUID.randomUUID()), i, Duration.ofMinutes(i.toLong()), now)
+            }
+        db.transaction { it.insertJobs(jobs) }
+
+        val inserted =
+            db.read {
+                it.createQuery {
+                        sql(
+                            "SELECT run_at, retry_count, initial_retry_count, retry_interval FROM async_job"
+                        )
+                    }
+                    .toList {
+                        Triple(
+                            column<HelsinkiDateTime>("run_at"),
+                            column<Int>("retry_count") to column<Int>("initial_retry_count"),
+                            column<Duration>("retry_interval"),
+                        )
+                    }
+            }
+        assertEquals(
+            jobs.map { Triple(it.runAt, it.retryCount to it.retryCount, it.retryInterval) }.toSet(),
+            inserted.toSet(),
+        )
+
+        val payloads =
+            (1..3).map {
+                db.transaction { tx ->
+                    val ref = tx.claimJob(HelsinkiDateTime.now(), listOf(jobType))!!
+                    tx.startJob(ref, HelsinkiDateTime.now())
+                }
+            }
+        assertEquals(jobs.map { it.payload }.toSet(), payloads.toSet())
+    }
+
+    @Test
+    fun `insertJobs with no jobs does nothing`() {
+        db.transaction { it.insertJobs(emptyList()) }
+        assertEquals(
+            0,
+            db.read { it.createQuery { sql("SELECT count(*) FROM async_job") }.exactlyOne<Int>() },
+        )
+    }
+
     private data class Retry(val runAt: HelsinkiDateTime, val retryCount: Long)
 }
 
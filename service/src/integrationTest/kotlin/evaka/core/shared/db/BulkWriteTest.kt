@@ -0,0 +1,176 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.shared.db
+
+import evaka.core.PureJdbiTest
+import evaka.core.absence.AbsenceCategory
+import evaka.core.invoicing.service.ProductKey
+import evaka.core.shared.ChildId
+import evaka.core.shared.domain.TimeRange
+import java.time.Duration
+import java.time.LocalDate
+import java.time.LocalTime
+import java.util.UUID
+import kotlin.test.assertEquals
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
+
+class BulkWriteTest : PureJdbiTest(resetDbBeforeEach = false) {
+    private data class TestRow(
+        val id: ChildId,
+        val date: LocalDate,
+        val category: AbsenceCategory,
+        val range: TimeRange?,
+        val product: ProductKey,
+        val amount: Int,
+        val description: String?,
+        val flag: Boolean,
+    )
+
+    @BeforeEach
+    fun beforeEach() {
+        db.transaction { tx ->
+            tx.execute {
+                sql(
+                    """
+CREATE TEMPORARY TABLE bulk_test (
+    id uuid PRIMARY KEY,
+    date date NOT NULL,
+    category absence_category NOT NULL,
+    start_time time,
+    end_time time,
+    product text NOT NULL,
+    amount int NOT NULL,
+    description text,
+    flag boolean NOT NULL
+)
+"""
+                )
+            }
+        }
+    }
+
+    @AfterEach
+    fun afterEach() {
+        db.transaction { tx -> tx.execute { sql("DROP TABLE IF EXISTS bulk_test") } }
+    }
+
+    private fun testRows(count: Int) =
+        (1..count).map { i ->
+            TestRow(
+                id = ChildId(UUID.randomUUID()),
+                date = LocalDate.of(2026, 1, 1).plusDays(i % 365L),
+                category = AbsenceCategory.entries[i % 2],
+                range =
+                    if (i % 3 == 0) null
+                    else TimeRange(LocalTime.of(8, 0), LocalTime.of(16, i % 60)),
+                product = ProductKey("PRODUCT_${i % 5}"),
+                amount = i,
+                description = if (i % 4 == 0) null else "row $i",
+                flag = i % 2 == 0,
+            )
+        }
+
+    private fun Database.Transaction.upsertWithUnnest(rows: List<TestRow>) = execute {
+        sql(
+            """
+INSERT INTO bulk_test (id, date, category, start_time, end_time, product, amount, description, flag)
+SELECT * FROM unnest(
+    ${bindColumn(rows) { it.id }},
+    ${bindColumn(rows) { it.date }},
+    ${bindColumn(rows) { it.category }},
+    ${bindColumn(rows) { it.range?.start }},
+    ${bindColumn(rows) { it.range?.end }},
+    ${bindColumn(rows) { it.product }},
+    ${bindColumn(rows) { it.amount }},
+    ${bindColumn(rows) { it.description }},
+    ${bindColumn(rows) { it.flag }}
+)
+ON CONFLICT (id) DO UPDATE SET amount = excluded.amount
+"""
+        )
+    }
+
+    private fun Database.Transaction.upsertWithBatch(rows: List<TestRow>) =
+        executeBatch(rows) {
+            sql(
+                """
+INSERT INTO bulk_test (id, date, category, start_time, end_time, product, amount, description, flag)
+VALUES (
+    ${bind { it.id }},
+    ${bind { it.date }},
+    ${bind { it.category }},
+    ${bind { it.range?.start }},
+    ${bind { it.range?.end }},
+    ${bind { it.product }},
+    ${bind { it.amount }},
+    ${bind { it.description }},
+    ${bind { it.flag }}
+)
+ON CONFLICT (id) DO UPDATE SET amount = excluded.amount
+"""
+            )
+        }
+
+    private fun Database.Read.readRows(): List<TestRow> =
+        createQuery {
+                sql(
+                    "SELECT id, date, category, start_time, end_time, product, amount, description, flag FROM bulk_test"
+                )
+            }
+            .toList {
+                TestRow(
+                    id = column("id"),
+                    date = column("date"),
+                    category = column("category"),
+                    range =
+                        column<LocalTime?>("start_time")?.let { start ->
+                            TimeRange(start, column<LocalTime>("end_time"))
+                        },
+                    product = ProductKey(column("product")),
+                    amount = column("amount"),
+                    description = column("description"),
+                    flag = column("flag"),
+                )
+            }
+
+    @Test
+    fun `rows bound as columns are written with their values intact`() {
+        val rows = testRows(100)
+        db.transaction { tx -> tx.upsertWithUnnest(rows) }
+
+        assertEquals(rows.toSet(), db.read { it.readRows() }.toSet())
+    }
+
+    @Test
+    fun `empty columns write nothing`() {
+        assertEquals(0, db.transaction { tx -> tx.upsertWithUnnest(emptyList()) })
+    }
+
+    @Test
+    fun `benchmark 10k row upserts`() {
+        val rows = testRows(10_000)
+
+        fun measure(f: (Database.Transaction) -> Unit): Duration =
+            db.transaction { tx ->
+                tx.execute { sql("TRUNCATE bulk_test") }
+                val start = System.nanoTime()
+                f(tx)
+                Duration.ofNanos(System.nanoTime() - start)
+            }
+
+        // warm up both paths
+        measure { it.upsertWithBatch(rows.take(1_000)) }
+        measure { it.upsertWithUnnest(rows.take(1_000)) }
+
+        val batch = measure { it.upsertWithBatch(rows) }
+        val unnest = measure { it.upsertWithUnnest(rows) }
+        LoggerFactory.getLogger(javaClass)
+            .info("10k row upsert: batch ${batch.toMillis()} ms, unnest ${unnest.toMillis()} ms")
+        assertEquals(rows.size, db.read { it.readRows() }.size)
+    }
+}
@@ -5,10 +5,17 @@
 package evaka.core.shared.db
 
 import evaka.core.PureJdbiTest
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Proxy
+import java.sql.Connection
+import java.time.Duration
 import java.time.LocalDate
+import java.util.concurrent.atomic.AtomicInteger
+import javax.sql.DataSource
 import kotlin.test.assertEquals
 import kotlin.test.assertFalse
 import kotlin.test.assertTrue
+import org.jdbi.v3.core.Jdbi
 import org.jdbi.v3.core.statement.UnableToExecuteStatementException
 import org.junit.jupiter.api.AfterEach
 import org.junit.jupiter.api.BeforeEach
@@ -96,4 +103,79 @@ class DatabaseTest : PureJdbiTest(resetDbBeforeEach = true) {
             db.transaction { tx -> tx.afterCommit { throw TestException() } }
         }
     }
+
+    @Test
+    fun `time spent holding an unused connection between transactions is accounted`() {
+        val database = Database(jdbi, noopTracer)
+        database.connect { dbc ->
+            dbc.read { tx -> tx.createQuery { sql("SELECT 1") }.exactlyOne<Int>() }
+            Thread.sleep(50)
+            dbc.read { tx -> tx.createQuery { sql("SELECT 1") }.exactlyOne<Int>() }
+        }
+        assertTrue(database.idleHandleTime >= Duration.ofMillis(50))
+    }
+
+    @Test
+    fun `connections release their handle after each transaction when requested`() {
+        val checkouts = CheckoutCountingDataSource(dataSource)
+        val database =
+            Database(
+                configureJdbi(Jdbi.create(checkouts)),
+                noopTracer,
+                releaseHandleAfterTransaction = true,
+            )
+        database.connect { dbc ->
+            dbc.read { tx -> tx.createQuery { sql("SELECT 1") }.exactlyOne<Int>() }
+            assertEquals(0, checkouts.checkedOut.get())
+            dbc.transaction { tx ->
+                assertEquals(1, checkouts.checkedOut.get())
+                tx.execute { sql("SELECT 1") }
+            }
+            assertEquals(0, checkouts.checkedOut.get())
+        }
+        assertEquals(2, checkouts.total.get())
+    }
+
+    @Test
+    fun `connections keep their handle between transactions by default`() {
+        val checkouts = CheckoutCountingDataSource(dataSource)
+        val database = Database(configureJdbi(Jdbi.create(checkouts)), noopTracer)
+        database.connect { dbc ->
+            dbc.read { tx -> tx.createQuery { sql("SELECT 1") }.exactlyOne<Int>() }
+            assertEquals(1, checkouts.checkedOut.get())
+            dbc.transaction { tx -> tx.execute { sql("SELECT 1") } }
+        }
+        assertEquals(0, checkouts.checkedOut.get())
+        assertEquals(1, checkouts.total.get())
+    }
+}
+
+/** Counts the JDBC connections checked out from [dataSource] and not yet closed */
+private class CheckoutCountingDataSource(private val dataSource: DataSource) :
+    DataSource by dataSource {
+    val checkedOut = AtomicInteger()
+    val total = AtomicInteger()
+
+    override fun getConnection(): Connection = counted(dataSource.connection)
+
+    override fun getConnection(username: String?, password: String?): Connection =
+        counted(dataSource.getConnection(username, password))
+
+    private fun counted(connection: Connection): Connection {
+        checkedOut.incrementAndGet()
+        total.incrementAndGet()
+        return Proxy.newProxyInstance(
+            Connection::class.java.classLoader,
+            arrayOf(Connection::class.java),
+        ) { _, method, args ->
+            if (method.name == "close" && !connection.isClosed) {
+                checkedOut.decrementAndGet()
+            }
+            try {
+                method.invoke(connection, *(args ?: emptyArray()))
+            } catch (e: InvocationTargetException) {
+                throw e.targetException
+            }
+        } as Connection
+    }
 }
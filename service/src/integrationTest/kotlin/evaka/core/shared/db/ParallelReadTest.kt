@@ -0,0 +1,79 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.shared.db
+
+import evaka.core.PureJdbiTest
+import evaka.core.shared.dev.DevCareArea
+import evaka.core.shared.dev.insert
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+
+class ParallelReadTest : PureJdbiTest(resetDbBeforeEach = true) {
+    private fun Database.Read.backendPid() =
+        createQuery { sql("SELECT pg_backend_pid()") }.exactlyOne<Int>()
+
+    private fun Database.Read.careAreaCount() =
+        createQuery { sql("SELECT count(*) FROM care_area") }.exactlyOne<Int>()
+
+    @Test
+    fun `results are returned in input order`() {
+        val inputs = (1..100).toList()
+        val results = db.parallelRead(inputs, parallelism = 4) { tx, i ->
+            tx.createQuery { sql("SELECT ${bind(i)} * 2") }.exactlyOne<Int>()
+        }
+        assertEquals(inputs.map { it * 2 }, results)
+    }
+
+    @Test
+    fun `inputs are read on separate connections`() {
+        val parallelism = 4
+        val allStarted = CountDownLatch(parallelism)
+        val pids =
+            db.parallelRead((1..20).toList(), parallelism) { tx, i ->
+                if (i <= parallelism) {
+                    // Blocks every worker on its first input until all of them have started
+                    allStarted.countDown()
+                    allStarted.await(10, TimeUnit.SECONDS)
+                }
+                tx.backendPid()
+            }
+        assertEquals(parallelism, pids.toSet().size)
+    }
+
+    @Test
+    fun `all connections read the same snapshot`() {
+        db.transaction { tx -> tx.insert(DevCareArea()) }
+
+        val counts =
+            db.parallelRead((1..20).toList(), parallelism = 4) { tx, i ->
+                if (i == 1) {
+                    dbInstance().connect { other ->
+                        other.transaction {
+                            it.insert(DevCareArea(name = "Other", shortName = "other"))
+                        }
+                    }
+                }
+                tx.careAreaCount()
+            }
+
+        assertEquals(List(20) { 1 }, counts)
+        assertEquals(2, db.read { it.careAreaCount() })
+    }
+
+    @Test
+    fun `an exception from any input is rethrown`() {
+        assertThrows<IllegalStateException> {
+            db.parallelRead((1..20).toList(), parallelism = 4) { tx, i ->
+                check(i != 10) { "Failed" }
+                tx.backendPid()
+            }
+        }
+        // The connection can be used normally afterwards
+        assertEquals(0, db.read { it.careAreaCount() })
+    }
+}
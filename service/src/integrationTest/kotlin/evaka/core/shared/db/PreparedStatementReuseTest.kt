@@ -0,0 +1,98 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.shared.db
+
+import evaka.core.PureJdbiTest
+import java.time.Duration
+import java.time.LocalDate
+import kotlin.test.assertEquals
+import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
+
+class PreparedStatementReuseTest : PureJdbiTest(resetDbBeforeEach = false) {
+    @Test
+    fun `differently formatted statements share a server-side prepared statement`() {
+        db.read { tx ->
+            repeat(6) { i ->
+                tx.createQuery {
+                        sql(
+                            if (i % 2 == 0) "SELECT 4711 AS canonical_sql_test"
+                            else
+                                """
+SELECT 4711
+    AS canonical_sql_test -- formatted differently
+"""
+                        )
+                    }
+                    .exactlyOne<Int>()
+            }
+            val prepared =
+                tx.createQuery {
+                        sql(
+                            "SELECT count(*) FROM pg_prepared_statements WHERE statement = 'SELECT 4711 AS canonical_sql_test'"
+                        )
+                    }
+                    .exactlyOne<Int>()
+            assertEquals(1, prepared)
+        }
+    }
+
+    @Test
+    fun `bound values reuse a prepared statement where inlined values do not`() {
+        val rounds = 500
+        val start = LocalDate.of(2020, 1, 1)
+
+        fun joins(tx: Database.Read, where: QuerySql) =
+            tx.createQuery {
+                    sql(
+                        """
+SELECT count(*)
+FROM placement pl
+JOIN daycare d ON d.id = pl.unit_id
+JOIN care_area ca ON ca.id = d.care_area_id
+JOIN person p ON p.id = pl.child_id
+LEFT JOIN service_need sn ON sn.placement_id = pl.id
+LEFT JOIN service_need_option sno ON sno.id = sn.option_id
+LEFT JOIN daycare_group_placement dgp ON dgp.daycare_placement_id = pl.id
+LEFT JOIN daycare_group dg ON dg.id = dgp.daycare_group_id
+WHERE ${subquery(where)}
+"""
+                    )
+                }
+                .exactlyOne<Int>()
+
+        /** Returns the duration of the rounds and the number of matching prepared statements */
+        fun measure(where: (i: Int) -> QuerySql): Pair<Duration, Int> =
+            db.read { tx ->
+                repeat(rounds / 10) { joins(tx, where(it)) }
+                val startTime = System.nanoTime()
+                repeat(rounds) { joins(tx, where(it)) }
+                val duration = Duration.ofNanos(System.nanoTime() - startTime)
+                val prepared =
+                    tx.createQuery {
+                            sql(
+                                "SELECT count(*) FROM pg_prepared_statements WHERE statement LIKE '%daycare_group_placement dgp%'"
+                            )
+                        }
+                        .exactlyOne<Int>()
+                duration to prepared
+            }
+
+        // Every inlined value produces new statement text that has to be parsed and planned again
+        val (inlined, inlinedPrepared) = measure { i ->
+            QuerySql { sql("pl.start_date <= '${start.plusDays(i.toLong())}'::date") }
+        }
+        val (bound, boundPrepared) = measure { i ->
+            QuerySql { sql("pl.start_date <= ${bind(start.plusDays(i.toLong()))}") }
+        }
+        // Timings vary too much between machines to assert on, so they are only logged
+        LoggerFactory.getLogger(javaClass)
+            .info(
+                "$rounds statements: inlined values ${inlined.toMillis()} ms, bound values ${bound.toMillis()} ms"
+            )
+        assertEquals(0, inlinedPrepared)
+        assertEquals(1, boundPrepared)
+    }
+}
@@ -0,0 +1,123 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.shared.db
+
+import evaka.core.PureJdbiTest
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import java.time.Duration
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+import org.jdbi.v3.core.Jdbi
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
+
+class QueryMetricsTest : PureJdbiTest(resetDbBeforeEach = false) {
+    private lateinit var meterRegistry: SimpleMeterRegistry
+
+    @BeforeEach
+    fun beforeEach() {
+        meterRegistry = SimpleMeterRegistry()
+    }
+
+    private fun instrumentedDb(
+        queryMetrics: QueryMetrics = QueryMetrics(meterRegistry, Duration.ofMinutes(1))
+    ): Database =
+        Database(configureJdbi(Jdbi.create(dataSource)).setSqlLogger(queryMetrics), noopTracer)
+
+    private fun Database.Read.selectNumbers(count: Int): List<Int> =
+        createQuery { sql("SELECT generate_series(1, ${bind(count)})") }.toList<Int>()
+
+    @Test
+    fun `statements are timed per call site`() {
+        instrumentedDb().connect { dbc ->
+            dbc.read { tx ->
+                repeat(3) { tx.selectNumbers(2) }
+                tx.createQuery { sql("SELECT 1") }.exactlyOne<Int>()
+            }
+        }
+
+        val timers = meterRegistry.find("dbStatementDuration").timers()
+        val selectNumbers = timers.single { it.id.getTag("callSite")!!.endsWith(".selectNumbers") }
+        assertEquals(3, selectNumbers.count())
+        assertEquals(2, timers.map { it.id.getTag("sqlHash") }.distinct().size)
+    }
+
+    @Test
+    fun `returned and updated row counts are recorded`() {
+        instrumentedDb().connect { dbc ->
+            dbc.read { tx -> tx.selectNumbers(5) }
+            dbc.transaction { tx ->
+                tx.createUpdate { sql("UPDATE evaka_user SET name = name WHERE false") }.execute()
+            }
+        }
+
+        val rows = meterRegistry.find("dbStatementRows").summaries()
+        assertEquals(listOf(0.0, 5.0), rows.map { it.totalAmount() }.sorted())
+    }
+
+    @Test
+    fun `slow statements are captured with bind parameter shapes but not values`() {
+        val queryMetrics = QueryMetrics(meterRegistry, slowQueryThreshold = Duration.ZERO)
+        instrumentedDb(queryMetrics).connect { dbc ->
+            dbc.read { tx ->
+                tx.createQuery {
+                        sql(
+                            """
+SELECT count(*) FROM unnest(${bind(listOf("secret", "value"))})
+WHERE ${bind("other secret")} IS NOT NULL
+"""
+                        )
+                    }
+                    .exactlyOne<Int>()
+            }
+        }
+
+        val captured = queryMetrics.slowQueries().single()
+        assertEquals(listOf("List(size=2)", "String"), captured.bindings)
+        assertFalse(captured.toString().contains("secret"))
+    }
+
+    @Test
+    fun `only the most recent slow statements are kept`() {
+        val queryMetrics =
+            QueryMetrics(meterRegistry, slowQueryThreshold = Duration.ZERO, slowQueryCapacity = 2)
+        instrumentedDb(queryMetrics).connect { dbc ->
+            dbc.read { tx ->
+                tx.createQuery { sql("SELECT 1") }.exactlyOne<Int>()
+                tx.selectNumbers(1)
+                tx.selectNumbers(2)
+            }
+        }
+
+        val slowQueries = queryMetrics.slowQueries()
+        assertEquals(2, slowQueries.size)
+        assertTrue(slowQueries.all { it.callSite.endsWith(".selectNumbers") })
+    }
+
+    @Test
+    fun `benchmark instrumentation overhead`() {
+        val iterations = 5_000
+        fun measure(database: Database): Duration =
+            database.connect { dbc ->
+                dbc.read { tx ->
+                    // warm up the connection, JIT and the fingerprint cache
+                    repeat(iterations / 5) { tx.selectNumbers(1) }
+                    val start = System.nanoTime()
+                    repeat(iterations) { tx.selectNumbers(1) }
+                    Duration.ofNanos((System.nanoTime() - start) / iterations)
+                }
+            }
+
+        val plain = measure(dbInstance())
+        val instrumented = measure(instrumentedDb())
+        LoggerFactory.getLogger(javaClass)
+            .info("Statement latency: plain $plain, instrumented $instrumented")
+        // The instrumentation is a cache lookup and a timer update per statement, so anything
+        // in the order of a database round trip means the fingerprint cache isn't working
+        assertTrue(instrumented.minus(plain) < Duration.ofMillis(1))
+    }
+}
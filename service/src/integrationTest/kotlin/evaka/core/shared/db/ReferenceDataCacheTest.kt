@@ -0,0 +1,90 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.shared.db
+
+import evaka.core.PureJdbiTest
+import evaka.core.shared.data.DateSet
+import evaka.core.shared.dev.DevClubTerm
+import evaka.core.shared.dev.insert
+import evaka.core.shared.domain.FiniteDateRange
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import java.time.LocalDate
+import kotlin.test.assertEquals
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+
+class ReferenceDataCacheTest : PureJdbiTest(resetDbBeforeEach = true) {
+    private class RolledBack : RuntimeException()
+
+    private var loads = 0
+    private lateinit var registry: SimpleMeterRegistry
+    private lateinit var cache: ReferenceDataCache<Int>
+
+    @BeforeEach
+    fun beforeEach() {
+        loads = 0
+        registry = SimpleMeterRegistry()
+        cache =
+            ReferenceDataCache("club_term", registry) { tx ->
+                loads++
+                tx.createQuery { sql("SELECT count(*) FROM club_term") }.exactlyOne<Int>()
+            }
+    }
+
+    private fun clubTerm(year: Int) =
+        DevClubTerm(
+            term = FiniteDateRange(LocalDate.of(year, 8, 1), LocalDate.of(year + 1, 5, 31)),
+            applicationPeriod =
+                FiniteDateRange(LocalDate.of(year, 1, 8), LocalDate.of(year, 1, 20)),
+            termBreaks = DateSet.empty(),
+        )
+
+    @Test
+    fun `data is loaded once while the table does not change`() {
+        db.transaction { tx -> tx.insert(clubTerm(2020)) }
+
+        repeat(3) { assertEquals(1, db.read { cache.get(it) }) }
+        assertEquals(1, loads)
+    }
+
+    @Test
+    fun `committed changes are visible on the next read`() {
+        assertEquals(0, db.read { cache.get(it) })
+        db.transaction { tx -> tx.insert(clubTerm(2020)) }
+        assertEquals(1, db.read { cache.get(it) })
+        db.transaction { tx -> tx.execute { sql("DELETE FROM club_term") } }
+        assertEquals(0, db.read { cache.get(it) })
+        assertEquals(3, loads)
+    }
+
+    @Test
+    fun `uncommitted changes are visible only to their own transaction`() {
+        db.transaction { tx -> tx.insert(clubTerm(2020)) }
+        assertEquals(1, db.read { cache.get(it) })
+
+        assertThrows<RolledBack> {
+            db.transaction { tx ->
+                tx.insert(clubTerm(2021))
+                assertEquals(2, cache.get(tx))
+                dbInstance().connect { other ->
+                    assertEquals(1, other.read { cache.get(it) })
+                }
+                throw RolledBack()
+            }
+        }
+        assertEquals(1, db.read { cache.get(it) })
+    }
+
+    @Test
+    fun `hits and misses are counted per family`() {
+        repeat(3) { db.read { cache.get(it) } }
+
+        fun count(name: String) =
+            registry.find(name).tag("family", "club_term").functionCounters().sumOf { it.count() }
+        assertEquals(1.0, count("referenceDataCacheMisses"))
+        assertEquals(2.0, count("referenceDataCacheHits"))
+    }
+}
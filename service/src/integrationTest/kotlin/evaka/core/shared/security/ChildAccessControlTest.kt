@@ -86,6 +86,29 @@ class ChildAccessControlTest : AccessControlTest() {
         }
     }
 
+    @Test
+    fun `HasUnitRole inPlacementUnitOfChild sees a placement added in the same transaction`() {
+        val action = Action.Child.READ
+        rules.add(action, HasUnitRole(UserRole.UNIT_SUPERVISOR).inPlacementUnitOfChild())
+        val daycareId = db.transaction { tx ->
+            val areaId = tx.insert(DevCareArea())
+            tx.insert(DevDaycare(areaId = areaId))
+        }
+        val unitSupervisor =
+            createTestEmployee(emptySet(), mapOf(daycareId to UserRole.UNIT_SUPERVISOR))
+        db.transaction { tx ->
+            assertFalse(accessControl.hasPermissionFor(tx, unitSupervisor, clock, action, child.id))
+            tx.insert(
+                DevPlacement(
+                    childId = child.id,
+                    unitId = daycareId,
+                    endDate = LocalDate.of(2100, 1, 1),
+                )
+            )
+            assertTrue(accessControl.hasPermissionFor(tx, unitSupervisor, clock, action, child.id))
+        }
+    }
+
     @Test
     fun `IsMobile inPlacementUnitOfChild`() {
         val action = Action.Child.READ
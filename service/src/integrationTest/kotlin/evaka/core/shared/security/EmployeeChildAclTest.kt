@@ -0,0 +1,430 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.shared.security
+
+import evaka.core.PureJdbiTest
+import evaka.core.application.ApplicationStatus
+import evaka.core.application.ApplicationType
+import evaka.core.application.persistence.daycare.Adult
+import evaka.core.application.persistence.daycare.CareDetails
+import evaka.core.application.persistence.daycare.Child
+import evaka.core.application.persistence.daycare.DaycareFormV0
+import evaka.core.shared.ApplicationId
+import evaka.core.shared.BackupCareId
+import evaka.core.shared.ChildId
+import evaka.core.shared.DaycareId
+import evaka.core.shared.EmployeeId
+import evaka.core.shared.PlacementId
+import evaka.core.shared.auth.UserRole
+import evaka.core.shared.auth.insertDaycareAclRow
+import evaka.core.shared.db.Database
+import evaka.core.shared.db.QuerySql
+import evaka.core.shared.dev.DevBackupCare
+import evaka.core.shared.dev.DevCareArea
+import evaka.core.shared.dev.DevDaycare
+import evaka.core.shared.dev.DevEmployee
+import evaka.core.shared.dev.DevPerson
+import evaka.core.shared.dev.DevPersonType
+import evaka.core.shared.dev.DevPlacement
+import evaka.core.shared.dev.DevPlacementPlan
+import evaka.core.shared.dev.insert
+import evaka.core.shared.dev.insertTestApplication
+import evaka.core.shared.domain.FiniteDateRange
+import evaka.core.shared.domain.HelsinkiDateTime
+import java.time.LocalDate
+import java.time.LocalTime
+import kotlin.random.Random
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+
+class EmployeeChildAclTest : PureJdbiTest(resetDbBeforeEach = true) {
+    private val start = LocalDate.of(2024, 1, 1)
+    private val expiredBefore = start.minusYears(1)
+    private val random = Random(2024)
+
+    private val area = DevCareArea()
+    private val units = (1..3).map { DevDaycare(areaId = area.id, name = "Unit $it") }
+    private val employees = (1..5).map { DevEmployee() }
+    private val children = (1..12).map { DevPerson() }
+    private val guardian = DevPerson()
+
+    private val unitRoles =
+        listOf(
+            UserRole.UNIT_SUPERVISOR,
+            UserRole.STAFF,
+            UserRole.SPECIAL_EDUCATION_TEACHER,
+            UserRole.EARLY_CHILDHOOD_EDUCATION_SECRETARY,
+        )
+
+    // Every placement and backup care gets a period of its own, so that they never overlap
+    private var periods = 0
+    private val placements = mutableMapOf<PlacementId, LocalDate>()
+    private val backupCares = mutableMapOf<BackupCareId, LocalDate>()
+    private val applications = mutableListOf<ApplicationId>()
+
+    @BeforeEach
+    fun beforeEach() {
+        db.transaction { tx ->
+            tx.insert(area)
+            units.forEach { tx.insert(it) }
+            employees.forEach { tx.insert(it) }
+            children.forEach { tx.insert(it, DevPersonType.CHILD) }
+            tx.insert(guardian, DevPersonType.ADULT)
+        }
+    }
+
+    @Test
+    fun `the materialized rows match the live queries after random changes`() {
+        repeat(100) { round ->
+            db.transaction { tx -> repeat(1 + random.nextInt(3)) { randomChange(tx) } }
+            assertMatchesLiveQueries("round $round")
+        }
+        assertTrue(db.read { it.allRows() }.isNotEmpty())
+        assertEquals(0, rebuild())
+    }
+
+    @Test
+    fun `rolled back changes don't affect the materialized rows`() {
+        val placementId = db.transaction { tx ->
+            tx.insertDaycareAclRow(units[0].id, employees[0].id, UserRole.STAFF)
+            tx.insert(
+                DevPlacement(
+                    childId = children[0].id,
+                    unitId = units[0].id,
+                    startDate = start,
+                    endDate = start.plusYears(1),
+                )
+            )
+        }
+        val before = db.read { it.allRows() }
+
+        assertThrows<RolledBack> {
+            db.transaction { tx ->
+                tx.execute { sql("DELETE FROM placement WHERE id = ${bind(placementId)}") }
+                tx.insertDaycareAclRow(units[0].id, employees[1].id, UserRole.UNIT_SUPERVISOR)
+                throw RolledBack()
+            }
+        }
+
+        assertEquals(1, before.size)
+        assertEquals(before, db.read { it.allRows() })
+        assertMatchesLiveQueries("after rollback")
+    }
+
+    @Test
+    fun `the nightly rebuild fixes drifted rows`() {
+        db.transaction { tx ->
+            tx.insertDaycareAclRow(units[0].id, employees[0].id, UserRole.STAFF)
+            tx.insertDaycareAclRow(units[1].id, employees[1].id, UserRole.UNIT_SUPERVISOR)
+            tx.insert(
+                DevPlacement(
+                    childId = children[0].id,
+                    unitId = units[0].id,
+                    startDate = start,
+                    endDate = start.plusYears(1),
+                )
+            )
+            tx.insert(
+                DevBackupCare(
+                    childId = children[1].id,
+                    unitId = units[1].id,
+                    period = FiniteDateRange(start, start.plusWeeks(1)),
+                )
+            )
+        }
+        val expected = db.read { it.allRows() }
+
+        db.transaction { tx ->
+            tx.execute {
+                sql("DELETE FROM employee_child_acl WHERE child_id = ${bind(children[0].id)}")
+            }
+            tx.execute {
+                sql(
+                    """
+INSERT INTO employee_child_acl (employee_id, child_id, unit_id, role, via, access_until)
+VALUES (${bind(employees[0].id)}, ${bind(children[5].id)}, ${bind(units[2].id)}, 'STAFF', 'PLACEMENT', NULL)
+"""
+                )
+            }
+        }
+
+        assertEquals(2, rebuild())
+        assertEquals(expected, db.read { it.allRows() })
+        assertEquals(0, rebuild())
+    }
+
+    @Test
+    fun `access that expired long ago is deleted nightly`() {
+        db.transaction { tx ->
+            tx.insertDaycareAclRow(units[0].id, employees[0].id, UserRole.STAFF)
+            tx.insert(
+                DevPlacement(
+                    childId = children[0].id,
+                    unitId = units[0].id,
+                    startDate = start.minusYears(3),
+                    endDate = start.minusYears(2),
+                )
+            )
+            tx.insert(
+                DevPlacement(
+                    childId = children[1].id,
+                    unitId = units[0].id,
+                    startDate = start.minusYears(1),
+                    endDate = start.minusMonths(2),
+                )
+            )
+        }
+        // Expired rows are materialized, so checks with an earlier clock still see them
+        assertEquals(2, db.read { it.allRows() }.size)
+        assertMatchesLiveQueries("before deleting expired rows")
+
+        assertEquals(1, db.transaction { it.deleteExpiredEmployeeChildAcl(expiredBefore) })
+        assertEquals(
+            setOf(employees[0].id to AclRow(children[1].id, units[0].id, UserRole.STAFF)),
+            db.read { it.allRows() },
+        )
+        assertEquals(0, rebuild())
+    }
+
+    private fun rebuild() = db.transaction { tx ->
+        tx.rebuildEmployeeChildAcl(units.map { it.id }, expiredBefore)
+    }
+
+    private fun assertMatchesLiveQueries(description: String) = db.read { tx ->
+        val dates =
+            listOf(start.minusDays(1), start.plusDays(150), start.plusDays(400), start.plusYears(5))
+        employees.forEach { employee ->
+            dates.forEach { date ->
+                val now = HelsinkiDateTime.of(date, LocalTime.NOON)
+                liveQueries(employee.id, now).forEach { (via, liveQuery) ->
+                    assertEquals(
+                        tx.rows(liveQuery),
+                        tx.rows(employeeChildAcl(employee.id, now, listOf(via))),
+                        "$description: $via of employee ${employee.id} on $date",
+                    )
+                }
+            }
+        }
+    }
+
+    private fun randomChange(tx: Database.Transaction) {
+        when (random.nextInt(12)) {
+            0,
+            1 -> {
+                val startDate = nextPeriod()
+                val id =
+                    tx.insert(
+                        DevPlacement(
+                            childId = randomChild(),
+                            unitId = randomUnit(),
+                            startDate = startDate,
+                            endDate = randomEndDate(startDate),
+                        )
+                    )
+                placements[id] = startDate
+            }
+            2 ->
+                placements.entries.randomOrNull(random)?.let { (id, startDate) ->
+                    when (random.nextInt(3)) {
+                        0 ->
+                            tx.execute {
+                                sql(
+                                    "UPDATE placement SET unit_id = ${bind(randomUnit())} WHERE id = ${bind(id)}"
+                                )
+                            }
+                        1 ->
+                            tx.execute {
+                                sql(
+                                    "UPDATE placement SET end_date = ${bind(randomEndDate(startDate))} WHERE id = ${bind(id)}"
+                                )
+                            }
+                        else ->
+                            tx.execute {
+                                sql(
+                                    "UPDATE placement SET child_id = ${bind(randomChild())} WHERE id = ${bind(id)}"
+                                )
+                            }
+                    }
+                }
+            3 ->
+                placements.keys.randomOrNull(random)?.let { id ->
+                    tx.execute { sql("DELETE FROM placement WHERE id = ${bind(id)}") }
+                    placements.remove(id)
+                }
+            4 -> {
+                val startDate = nextPeriod()
+                val id =
+                    tx.insert(
+                        DevBackupCare(
+                            childId = randomChild(),
+                            unitId = randomUnit(),
+                            period = FiniteDateRange(startDate, randomEndDate(startDate)),
+                        )
+                    )
+                backupCares[id] = startDate
+            }
+            5 ->
+                backupCares.entries.randomOrNull(random)?.let { (id, startDate) ->
+                    if (random.nextBoolean()) {
+                        tx.execute {
+                            sql(
+                                "UPDATE backup_care SET unit_id = ${bind(randomUnit())} WHERE id = ${bind(id)}"
+                            )
+                        }
+                    } else {
+                        tx.execute {
+                            sql(
+                                "UPDATE backup_care SET end_date = ${bind(randomEndDate(startDate))} WHERE id = ${bind(id)}"
+                            )
+                        }
+                    }
+                }
+            6 ->
+                backupCares.keys.randomOrNull(random)?.let { id ->
+                    tx.execute { sql("DELETE FROM backup_care WHERE id = ${bind(id)}") }
+                    backupCares.remove(id)
+                }
+            7 ->
+                // Inserts a new role or changes the existing one
+                tx.insertDaycareAclRow(randomUnit(), randomEmployee(), unitRoles.random(random))
+            8 ->
+                tx.execute {
+                    sql(
+                        "DELETE FROM daycare_acl WHERE daycare_id = ${bind(randomUnit())} AND employee_id = ${bind(randomEmployee())}"
+                    )
+                }
+            9 -> {
+                val id =
+                    tx.insertTestApplication(
+                        type = ApplicationType.DAYCARE,
+                        status = ApplicationStatus.entries.random(random),
+                        guardianId = guardian.id,
+                        childId = randomChild(),
+                        document =
+                            DaycareFormV0(
+                                type = ApplicationType.DAYCARE,
+                                child = Child(dateOfBirth = null),
+                                guardian = Adult(),
+                                careDetails = CareDetails(assistanceNeeded = random.nextBoolean()),
+                            ),
+                    )
+                tx.insert(DevPlacementPlan(applicationId = id, unitId = randomUnit()))
+                applications += id
+            }
+            10 ->
+                applications.randomOrNull(random)?.let { id ->
+                    when (random.nextInt(3)) {
+                        0 ->
+                            tx.execute {
+                                sql(
+                                    "UPDATE application SET status = ${bind(ApplicationStatus.entries.random(random))} WHERE id = ${bind(id)}"
+                                )
+                            }
+                        1 ->
+                            tx.execute {
+                                sql(
+                                    """
+UPDATE application
+SET document = jsonb_set(document, '{careDetails,assistanceNeeded}', to_jsonb(${bind(random.nextBoolean())}::boolean))
+WHERE id = ${bind(id)}
+"""
+                                )
+                            }
+                        else ->
+                            tx.execute {
+                                sql(
+                                    "UPDATE application SET child_id = ${bind(randomChild())} WHERE id = ${bind(id)}"
+                                )
+                            }
+                    }
+                }
+            else ->
+                applications.randomOrNull(random)?.let { id ->
+                    if (random.nextBoolean()) {
+                        tx.execute {
+                            sql(
+                                "UPDATE placement_plan SET unit_id = ${bind(randomUnit())} WHERE application_id = ${bind(id)}"
+                            )
+                        }
+                    } else {
+                        tx.execute {
+                            sql("DELETE FROM placement_plan WHERE application_id = ${bind(id)}")
+                        }
+                        tx.execute { sql("DELETE FROM application WHERE id = ${bind(id)}") }
+                        applications.remove(id)
+                    }
+                }
+        }
+    }
+
+    private fun nextPeriod(): LocalDate = start.plusDays(5L * periods++)
+
+    private fun randomEndDate(startDate: LocalDate): LocalDate =
+        startDate.plusDays(random.nextLong(5))
+
+    private fun randomChild(): ChildId = children.random(random).id
+
+    private fun randomUnit(): DaycareId = units.random(random).id
+
+    private fun randomEmployee(): EmployeeId = employees.random(random).id
+
+    private class RolledBack : RuntimeException()
+
+    private data class AclRow(val childId: ChildId, val unitId: DaycareId, val role: UserRole)
+
+    private fun Database.Read.rows(query: QuerySql): Set<AclRow> =
+        createQuery { sql("SELECT child_id, unit_id, role FROM (${subquery(query)}) acl") }
+            .toSet<AclRow>()
+
+    private fun Database.Read.allRows(): Set<Pair<EmployeeId, AclRow>> =
+        createQuery { sql("SELECT employee_id, child_id, unit_id, role FROM employee_child_acl") }
+            .toSet { column<EmployeeId>("employee_id") to row<AclRow>() }
+
+    /** The queries that were used before the rows were materialized in `employee_child_acl` */
+    private fun liveQueries(employee: EmployeeId, now: HelsinkiDateTime) =
+        mapOf(
+            ChildAclVia.PLACEMENT to
+                QuerySql {
+                    sql(
+                        """
+SELECT pl.child_id, pl.unit_id, role
+FROM placement pl
+JOIN daycare_acl ON pl.unit_id = daycare_acl.daycare_id
+WHERE ${bind(now.toLocalDate())} < pl.end_date + INTERVAL '1 month'
+AND daycare_acl.employee_id = ${bind(employee)}
+"""
+                    )
+                },
+            ChildAclVia.BACKUP_CARE to
+                QuerySql {
+                    sql(
+                        """
+SELECT bc.child_id, bc.unit_id, role
+FROM backup_care bc
+JOIN daycare_acl ON unit_id = daycare_acl.daycare_id
+WHERE ${bind(now.toLocalDate())} < bc.end_date + INTERVAL '1 month'
+AND daycare_acl.employee_id = ${bind(employee)}
+"""
+                    )
+                },
+            ChildAclVia.APPLICATION to
+                QuerySql {
+                    sql(
+                        """
+SELECT a.child_id, pp.unit_id, role
+FROM placement_plan pp
+JOIN application a ON pp.application_id = a.id
+JOIN daycare_acl ON pp.unit_id = daycare_acl.daycare_id
+WHERE a.status = ANY ('{SENT,WAITING_PLACEMENT,WAITING_CONFIRMATION,WAITING_DECISION,WAITING_MAILING,WAITING_UNIT_CONFIRMATION}'::application_status_type[])
+AND NOT (role = 'SPECIAL_EDUCATION_TEACHER' AND coalesce((a.document -> 'careDetails' ->> 'assistanceNeeded')::boolean, FALSE) IS FALSE)
+AND daycare_acl.employee_id = ${bind(employee)}
+"""
+                    )
+                },
+        )
+}
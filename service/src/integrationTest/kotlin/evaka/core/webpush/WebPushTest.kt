@@ -8,6 +8,7 @@ import evaka.core.PureJdbiTest
 import evaka.core.Sensitive
 import evaka.core.WebPushEnv
 import evaka.core.shared.domain.MockEvakaClock
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 import java.net.URI
 import java.time.Duration
 import kotlin.test.assertContentEquals
@@ -19,10 +20,9 @@ import org.junit.jupiter.api.Test
 
 class WebPushTest : PureJdbiTest(resetDbBeforeEach = true) {
     private lateinit var clock: MockEvakaClock
-    private val webPush =
-        WebPush(
-            WebPushEnv(vapidPrivateKey = Sensitive("eCCqlmasgp3hG9TB1W-mbDp_kEyXCxzxv6vwyRXK7y4"))
-        )
+    private val env =
+        WebPushEnv(vapidPrivateKey = Sensitive("eCCqlmasgp3hG9TB1W-mbDp_kEyXCxzxv6vwyRXK7y4"))
+    private val webPush = WebPush(env, SimpleMeterRegistry())
 
     @BeforeEach
     fun beforeEach() {
@@ -62,4 +62,24 @@ class WebPushTest : PureJdbiTest(resetDbBeforeEach = true) {
         assertContentEquals(com.publicKey, net.publicKey) // our public key is still the same
         assertNotEquals(com.jwt, net.jwt)
     }
+
+    @Test
+    fun `getValidToken signs a JWT token only once per origin while it's valid`() {
+        val meterRegistry = SimpleMeterRegistry()
+        val webPush = WebPush(env, meterRegistry)
+        db.transaction { tx ->
+            repeat(10) { webPush.getValidToken(tx, clock, URI("http://example.com/$it")) }
+            repeat(10) { webPush.getValidToken(tx, clock, URI("http://example.net/$it")) }
+        }
+        assertEquals(2.0, meterRegistry.get("webPushVapidJwtSignatures").counter().count())
+
+        // Another instance reuses the saved tokens instead of signing new ones
+        val otherRegistry = SimpleMeterRegistry()
+        val other = WebPush(env, otherRegistry)
+        val uri = URI("http://example.com")
+        db.transaction { tx ->
+            assertEquals(webPush.getValidToken(tx, clock, uri), other.getValidToken(tx, clock, uri))
+        }
+        assertEquals(0.0, otherRegistry.get("webPushVapidJwtSignatures").counter().count())
+    }
 }
@@ -47,8 +47,8 @@ import evaka.core.invoicing.domain.VoucherValueDecisionStatus
 import evaka.core.invoicing.domain.VoucherValueDecisionType
 import evaka.core.pis.service.PersonDTO
 import evaka.core.placement.PlacementType
-import evaka.core.s3.Document
 import evaka.core.s3.DocumentKey
+import evaka.core.s3.DocumentStream
 import evaka.core.shared.ApplicationId
 import evaka.core.shared.AreaId
 import evaka.core.shared.CaseProcessId
@@ -768,25 +768,29 @@ private val testDecisionPreschoolDaycare =
         archivedAt = null,
     )
 
-private val testDocumentDecisionDaycare =
-    Document(
-        DocumentKey.Decision(testDecisionDaycare.id, testDecisionDaycare.type, OfficialLanguage.FI)
-            .value,
-        "vakapäätös tekstitiedostona".toByteArray(Charsets.UTF_8),
-        "text/plain",
-    )
+private val testDocumentDecisionDaycare
+    get() =
+        testDocument(
+            DocumentKey.Decision(
+                    testDecisionDaycare.id,
+                    testDecisionDaycare.type,
+                    OfficialLanguage.FI,
+                )
+                .value,
+            "vakapäätös tekstitiedostona",
+        )
 
-private val testDocumentDecisionPreschoolDaycare =
-    Document(
-        DocumentKey.Decision(
-                testDecisionPreschoolDaycare.id,
-                testDecisionPreschoolDaycare.type,
-                OfficialLanguage.FI,
-            )
-            .value,
-        "vakapäätös tekstitiedostona".toByteArray(Charsets.UTF_8),
-        "text/plain",
-    )
+private val testDocumentDecisionPreschoolDaycare
+    get() =
+        testDocument(
+            DocumentKey.Decision(
+                    testDecisionPreschoolDaycare.id,
+                    testDecisionPreschoolDaycare.type,
+                    OfficialLanguage.FI,
+                )
+                .value,
+            "vakapäätös tekstitiedostona",
+        )
 
 private val testFeeDecision =
     FeeDecisionDetailed(
@@ -809,12 +813,12 @@ private val testFeeDecision =
         archivedAt = null,
     )
 
-private val testDocumentFeeDecision =
-    Document(
-        DocumentKey.FeeDecision(testFeeDecision.id, OfficialLanguage.FI).value,
-        "maksupäätös tekstitiedostona".toByteArray(Charsets.UTF_8),
-        "text/plain",
-    )
+private val testDocumentFeeDecision
+    get() =
+        testDocument(
+            DocumentKey.FeeDecision(testFeeDecision.id, OfficialLanguage.FI).value,
+            "maksupäätös tekstitiedostona",
+        )
 
 private val testVoucherValueDecision =
     VoucherValueDecisionDetailed(
@@ -870,12 +874,12 @@ private val testVoucherValueDecision =
         archivedAt = null,
     )
 
-private val testDocumentVoucherValueDecision =
-    Document(
-        DocumentKey.VoucherValueDecision(testVoucherValueDecision.id).value,
-        "arvopäätös tekstitiedostona".toByteArray(Charsets.UTF_8),
-        "text/plain",
-    )
+private val testDocumentVoucherValueDecision
+    get() =
+        testDocument(
+            DocumentKey.VoucherValueDecision(testVoucherValueDecision.id).value,
+            "arvopäätös tekstitiedostona",
+        )
 
 private val testVasuDetails =
     ChildDocumentDetails(
@@ -962,19 +966,19 @@ private val testChildDocumentDecisionDetails =
 
 private val testDocumentMetadataChildDocument = testVasuDetails.toDocumentMetadata()
 
-private val testDocumentChildDocument =
-    Document(
-        DocumentKey.ChildDocument(testVasuDetails.id).value,
-        "vasu tekstitiedostona".toByteArray(Charsets.UTF_8),
-        "text/plain",
-    )
+private val testDocumentChildDocument
+    get() =
+        testDocument(
+            DocumentKey.ChildDocument(testVasuDetails.id).value,
+            "vasu tekstitiedostona",
+        )
 
-private val testChildDocumentDecision =
-    Document(
-        DocumentKey.ChildDocument(testVasuDetails.id).value,
-        "oppivelvollisuuden pidentämispäätös tekstitiedostona".toByteArray(Charsets.UTF_8),
-        "text/plain",
-    )
+private val testChildDocumentDecision
+    get() =
+        testDocument(
+            DocumentKey.ChildDocument(testVasuDetails.id).value,
+            "oppivelvollisuuden pidentämispäätös tekstitiedostona",
+        )
 
 private val testEvakaUser =
     EvakaUser(AuthenticatedUser.SystemInternalUser.evakaUserId, "eVaka", EvakaUserType.SYSTEM)
@@ -1091,3 +1095,8 @@ private val fullTestCaseProcessChildDocument =
         migrated = false,
         history = testCaseProcessApplication.history,
     )
+
+private fun testDocument(name: String, content: String) =
+    content.toByteArray(Charsets.UTF_8).let {
+        DocumentStream(name, "text/plain", it.size.toLong(), it.inputStream())
+    }
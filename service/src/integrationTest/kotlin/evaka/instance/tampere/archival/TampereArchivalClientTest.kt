@@ -58,8 +58,8 @@ import evaka.core.invoicing.domain.VoucherValueDecisionStatus
 import evaka.core.invoicing.domain.VoucherValueDecisionType
 import evaka.core.pis.service.PersonDTO
 import evaka.core.placement.PlacementType
-import evaka.core.s3.Document
 import evaka.core.s3.DocumentKey
+import evaka.core.s3.DocumentStream
 import evaka.core.shared.ApplicationId
 import evaka.core.shared.AreaId
 import evaka.core.shared.CaseProcessId
@@ -748,13 +748,17 @@ private val testDecisionDaycare =
         archivedAt = null,
     )
 
-private val testDocumentDecisionDaycare =
-    Document(
-        DocumentKey.Decision(testDecisionDaycare.id, testDecisionDaycare.type, OfficialLanguage.FI)
-            .value,
-        "vakapäätös tekstitiedostona".toByteArray(Charsets.UTF_8),
-        "text/plain",
-    )
+private val testDocumentDecisionDaycare
+    get() =
+        testDocument(
+            DocumentKey.Decision(
+                    testDecisionDaycare.id,
+                    testDecisionDaycare.type,
+                    OfficialLanguage.FI,
+                )
+                .value,
+            "vakapäätös tekstitiedostona",
+        )
 
 private val testFeeDecision =
     FeeDecisionDetailed(
@@ -783,12 +787,12 @@ private val noDeciderTestFeeDecision =
         financeDecisionHandlerLastName = null,
     )
 
-private val testDocumentFeeDecision =
-    Document(
-        DocumentKey.FeeDecision(testFeeDecision.id, OfficialLanguage.FI).value,
-        "maksupäätös tekstitiedostona".toByteArray(Charsets.UTF_8),
-        "text/plain",
-    )
+private val testDocumentFeeDecision
+    get() =
+        testDocument(
+            DocumentKey.FeeDecision(testFeeDecision.id, OfficialLanguage.FI).value,
+            "maksupäätös tekstitiedostona",
+        )
 
 private val testVoucherValueDecision =
     VoucherValueDecisionDetailed(
@@ -850,12 +854,12 @@ private val noDeciderTestVoucherDecision =
         financeDecisionHandlerLastName = null,
     )
 
-private val testDocumentVoucherValueDecision =
-    Document(
-        DocumentKey.VoucherValueDecision(testVoucherValueDecision.id).value,
-        "arvopäätös tekstitiedostona".toByteArray(Charsets.UTF_8),
-        "text/plain",
-    )
+private val testDocumentVoucherValueDecision
+    get() =
+        testDocument(
+            DocumentKey.VoucherValueDecision(testVoucherValueDecision.id).value,
+            "arvopäätös tekstitiedostona",
+        )
 
 private val testVasuDetails =
     ChildDocumentDetails(
@@ -944,19 +948,19 @@ private val emptyTestCaseProcessChildDocument = null
 
 private val testDocumentMetadataChildDocument = testVasuDetails.toDocumentMetadata()
 
-private val testDocumentChildDocument =
-    Document(
-        DocumentKey.ChildDocument(testVasuDetails.id).value,
-        "vasu tekstitiedostona".toByteArray(Charsets.UTF_8),
-        "text/plain",
-    )
+private val testDocumentChildDocument
+    get() =
+        testDocument(
+            DocumentKey.ChildDocument(testVasuDetails.id).value,
+            "vasu tekstitiedostona",
+        )
 
-private val testDocumentChildDocumentDecision =
-    Document(
-        DocumentKey.ChildDocument(testChildDocumentDecisionDetails.id).value,
-        "pidennetyn oppivelvollisuuden päätös tekstitiedostona".toByteArray(Charsets.UTF_8),
-        "text/plain",
-    )
+private val testDocumentChildDocumentDecision
+    get() =
+        testDocument(
+            DocumentKey.ChildDocument(testChildDocumentDecisionDetails.id).value,
+            "pidennetyn oppivelvollisuuden päätös tekstitiedostona",
+        )
 
 private val fullTestCaseProcessChildDocument =
     CaseProcess(
@@ -1030,3 +1034,8 @@ private fun validateMockContent(
                     .build()
             )
     )
+
+private fun testDocument(name: String, content: String) =
+    content.toByteArray(Charsets.UTF_8).let {
+        DocumentStream(name, "text/plain", it.size.toLong(), it.inputStream())
+    }
@@ -11,6 +11,7 @@ import evaka.core.bi.CSV_CHARSET
 import evaka.core.shared.domain.HelsinkiDateTime
 import evaka.core.shared.domain.MockEvakaClock
 import evaka.instance.tampere.AbstractTampereIntegrationTest
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 import java.time.LocalDate
 import java.time.LocalTime
 import java.time.format.DateTimeFormatter
@@ -39,6 +40,7 @@ class BiExportS3ClientTest : AbstractTampereIntegrationTest() {
                     includeLegacyColumns = true,
                     deltaWindowDays = 60,
                 ),
+                SimpleMeterRegistry(),
             )
 
         job.sendBiTable(db, clock, table)
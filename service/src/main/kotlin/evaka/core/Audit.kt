@@ -5,7 +5,7 @@
 package evaka.core
 
 import evaka.core.shared.Id
-import fi.espoo.voltti.logging.loggers.audit
+import evaka.core.shared.logging.AuditEventSink
 import io.github.oshai.kotlinlogging.KotlinLogging
 import java.time.LocalDate
 import java.time.temporal.ChronoUnit
@@ -678,17 +678,16 @@ enum class Audit(
          */
         meta: Map<String, Any?> = emptyMap(),
     ) {
-        logger.audit(
+        auditEventSink.submit(
+            eventCode,
             mapOf(
                 "eventCode" to eventCode,
                 "targetId" to targetId?.value,
                 "objectId" to objectId?.value,
                 "securityLevel" to securityLevel,
                 "securityEvent" to securityEvent,
-            ) + if (meta.isNotEmpty()) mapOf("meta" to meta) else emptyMap()
-        ) {
-            eventCode
-        }
+            ) + if (meta.isNotEmpty()) mapOf("meta" to meta) else emptyMap(),
+        )
     }
 
     fun log(
@@ -699,7 +698,8 @@ enum class Audit(
         context: Map<String, Any?>,
         meta: Map<String, Any?> = emptyMap(),
     ) =
-        logger.audit(
+        auditEventSink.submit(
+            eventCode,
             mapOf(
                 "eventCode" to eventCode,
                 "context" to context,
@@ -707,10 +707,8 @@ enum class Audit(
                 "daysIntoHistory" to daysIntoHistory(minDate, today),
                 "securityLevel" to securityLevel,
                 "securityEvent" to securityEvent,
-            ) + if (meta.isNotEmpty()) mapOf("meta" to meta) else emptyMap()
-        ) {
-            eventCode
-        }
+            ) + if (meta.isNotEmpty()) mapOf("meta" to meta) else emptyMap(),
+        )
 }
 
 /**
@@ -724,6 +722,9 @@ fun daysIntoHistory(minDate: LocalDate?, today: LocalDate): Long? {
 
 private val logger = KotlinLogging.logger {}
 
+/** Destination of all audit events. Started by [evaka.core.shared.config.AuditConfig] */
+val auditEventSink = AuditEventSink(logger)
+
 data class AuditChange(val old: Any?, val new: Any?)
 
 /** Returns changes between given objects for audit logging */
@@ -156,6 +156,11 @@ data class DatabaseEnv(
     val defaultStatementTimeout: Duration,
     val maximumPoolSize: Int,
     val logSql: Boolean,
+    val queryMetricsEnabled: Boolean = true,
+    val slowQueryThreshold: Duration = Duration.ofSeconds(1),
+    val prepareThreshold: Int = 5,
+    val preparedStatementCacheQueries: Int = 1024,
+    val preparedStatementCacheSizeMiB: Int = 16,
 ) {
     companion object {
         fun fromEnvironment(env: Environment) =
@@ -175,6 +180,14 @@ data class DatabaseEnv(
                         ?: Duration.ofSeconds(60),
                 maximumPoolSize = env.lookup("evaka.database.maximum_pool_size") ?: 10,
                 logSql = env.lookup("evaka.database.log_sql") ?: false,
+                queryMetricsEnabled = env.lookup("evaka.database.query_metrics") ?: true,
+                slowQueryThreshold =
+                    env.lookup("evaka.database.slow_query_threshold") ?: Duration.ofSeconds(1),
+                prepareThreshold = env.lookup("evaka.database.prepare_threshold") ?: 5,
+                preparedStatementCacheQueries =
+                    env.lookup("evaka.database.prepared_statement_cache_queries") ?: 1024,
+                preparedStatementCacheSizeMiB =
+                    env.lookup("evaka.database.prepared_statement_cache_size_mib") ?: 16,
             )
     }
 }
@@ -719,12 +732,21 @@ private fun snakeCaseName(job: Enum<*>): String =
         }
         .joinToString(separator = "")
 
-data class ChildDocumentArchivalEnv(val delayDays: Int, val limit: Int) {
+data class ChildDocumentArchivalEnv(
+    val delayDays: Int,
+    val limit: Int,
+    /**
+     * Number of documents archived by one bulk archival job. 0 plans one job per document, which
+     * keeps the archival pool throttle interval in effect for every document.
+     */
+    val bulkSize: Int = 0,
+) {
     companion object {
         fun fromEnvironment(env: Environment) =
             ChildDocumentArchivalEnv(
                 delayDays = env.lookup("evaka.child_document_archival_delay_days") ?: 30,
                 limit = env.lookup("evaka.child_document_archival_limit") ?: 0,
+                bulkSize = env.lookup("evaka.child_document_archival_bulk_size") ?: 0,
             )
     }
 }
@@ -773,6 +795,7 @@ data class ArchivalPoolEnv(val poolThrottleIntervalSeconds: Long, val poolConcur
         AsyncJobPool.Config(
             concurrency = this.poolConcurrency,
             throttleInterval = Duration.ofSeconds(this.poolThrottleIntervalSeconds),
+            releaseConnectionsBetweenTransactions = true,
         )
 
     companion object {
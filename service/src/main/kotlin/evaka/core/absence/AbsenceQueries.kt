@@ -43,38 +43,61 @@ fun Database.Transaction.insertAbsences(
     now: HelsinkiDateTime,
     userId: EvakaUserId,
     absences: List<AbsenceUpsert>,
-): List<AbsenceId> =
-    prepareBatch(absences) {
+): List<AbsenceId> {
+    if (absences.isEmpty()) return emptyList()
+
+    return createUpdate {
             sql(
                 """
 INSERT INTO absence (child_id, date, category, absence_type, modified_by, modified_at)
-VALUES (${bind { it.childId }}, ${bind { it.date }}, ${bind { it.category }}, ${bind { it.absenceType }}, ${bind(userId)}, ${bind(now)})
+SELECT child_id, date, category, absence_type, ${bind(userId)}, ${bind(now)}
+FROM unnest(
+    ${bindColumn(absences) { it.childId }},
+    ${bindColumn(absences) { it.date }},
+    ${bindColumn(absences) { it.category }},
+    ${bindColumn(absences) { it.absenceType }}
+) AS t(child_id, date, category, absence_type)
 RETURNING id
 """
             )
         }
-        .executeAndReturn()
+        .executeAndReturnGeneratedKeys()
         .toList()
+}
 
-/** Updates the details if an absence already exists */
+/**
+ * Updates the details if an absence already exists. If the same absence is given multiple times,
+ * the last one wins.
+ */
 fun Database.Transaction.upsertAbsences(
     now: HelsinkiDateTime,
     userId: EvakaUserId,
     absences: List<AbsenceUpsert>,
-): List<AbsenceId> =
-    prepareBatch(absences) {
+): List<AbsenceId> {
+    // A single upsert statement can't update the same row twice
+    val rows = absences.associateBy { Triple(it.childId, it.date, it.category) }.values
+    if (rows.isEmpty()) return emptyList()
+
+    return createUpdate {
             sql(
                 """
 INSERT INTO absence (child_id, date, category, absence_type, modified_by, modified_at)
-VALUES (${bind { it.childId }}, ${bind { it.date }}, ${bind { it.category }}, ${bind { it.absenceType }}, ${bind(userId)}, ${bind(now)})
+SELECT child_id, date, category, absence_type, ${bind(userId)}, ${bind(now)}
+FROM unnest(
+    ${bindColumn(rows) { it.childId }},
+    ${bindColumn(rows) { it.date }},
+    ${bindColumn(rows) { it.category }},
+    ${bindColumn(rows) { it.absenceType }}
+) AS t(child_id, date, category, absence_type)
 ON CONFLICT (child_id, date, category)
-DO UPDATE SET absence_type = ${bind { it.absenceType }}, modified_by = ${bind(userId)}, modified_at = ${bind(now)}
+DO UPDATE SET absence_type = excluded.absence_type, modified_by = excluded.modified_by, modified_at = excluded.modified_at
 RETURNING id
 """
             )
         }
-        .executeAndReturn()
+        .executeAndReturnGeneratedKeys()
         .toList()
+}
 
 /** If the absence already exists, updates only if was generated */
 fun Database.Transaction.upsertGeneratedAbsences(
@@ -126,49 +149,68 @@ fun Database.Transaction.upsertFullDayAbsences(
     userId: EvakaUserId,
     now: HelsinkiDateTime,
     absenceInserts: List<FullDayAbsenseUpsert>,
-): List<AbsenceId> =
-    prepareBatch(absenceInserts) {
+): List<AbsenceId> {
+    if (absenceInserts.isEmpty()) return emptyList()
+
+    return createUpdate {
             sql(
                 """
 INSERT INTO absence (child_id, date, category, absence_type, modified_at, modified_by, questionnaire_id)
 SELECT
-    ${bind { it.childId }},
-    ${bind { it.date }},
-    category,
-    CASE category
-        WHEN 'BILLABLE' THEN ${bind { it.absenceTypeBillable }}
-        WHEN 'NONBILLABLE' THEN ${bind { it.absenceTypeNonbillable }}
+    t.child_id,
+    t.date,
+    care_type.category,
+    CASE care_type.category
+        WHEN 'BILLABLE' THEN t.absence_type_billable
+        WHEN 'NONBILLABLE' THEN t.absence_type_nonbillable
     END,
     ${bind(now)},
     ${bind(userId)},
-    ${bind { it.questionnaireId }}
-FROM (
+    t.questionnaire_id
+FROM unnest(
+    ${bindColumn(absenceInserts) { it.childId }},
+    ${bindColumn(absenceInserts) { it.date }},
+    ${bindColumn(absenceInserts) { it.absenceTypeBillable }},
+    ${bindColumn(absenceInserts) { it.absenceTypeNonbillable }},
+    ${bindColumn(absenceInserts) { it.questionnaireId }}
+) AS t(child_id, date, absence_type_billable, absence_type_nonbillable, questionnaire_id)
+JOIN LATERAL (
     SELECT unnest(absence_categories(type)) AS category
     FROM placement
-    WHERE child_id = ${bind { it.childId }} AND ${bind { it.date }} BETWEEN start_date AND end_date
-) care_type
+    WHERE child_id = t.child_id AND t.date BETWEEN start_date AND end_date
+) care_type ON TRUE
+ORDER BY t.child_id, t.date, care_type.category
 ON CONFLICT DO NOTHING
 RETURNING id
 """
             )
         }
-        .executeAndReturn()
+        .executeAndReturnGeneratedKeys()
         .toList()
+}
 
 data class Presence(val childId: ChildId, val date: LocalDate, val category: AbsenceCategory)
 
-fun Database.Transaction.batchDeleteAbsences(deletions: List<Presence>): List<AbsenceId> =
-    prepareBatch(deletions) {
+fun Database.Transaction.batchDeleteAbsences(deletions: List<Presence>): List<AbsenceId> {
+    if (deletions.isEmpty()) return emptyList()
+
+    return createUpdate {
             sql(
                 """
-DELETE FROM absence
-WHERE category = ${bind { it.category }} AND date = ${bind { it.date }} AND child_id = ${bind { it.childId }}
-RETURNING id
+DELETE FROM absence a
+USING unnest(
+    ${bindColumn(deletions) { it.childId }},
+    ${bindColumn(deletions) { it.date }},
+    ${bindColumn(deletions) { it.category }}
+) AS t(child_id, date, category)
+WHERE a.child_id = t.child_id AND a.date = t.date AND a.category = t.category
+RETURNING a.id
 """
             )
         }
-        .executeAndReturn()
+        .executeAndReturnGeneratedKeys()
         .toList()
+}
 
 fun Database.Transaction.deleteAbsencesFromHolidayPeriodDates(
     deletions: List<Pair<ChildId, LocalDate>>
@@ -258,40 +300,53 @@ RETURNING id
 fun Database.Transaction.clearOldCitizenEditableAbsences(
     childDatePairs: List<Pair<ChildId, LocalDate>>,
     reservableRange: FiniteDateRange,
-): List<AbsenceId> =
-    prepareBatch(childDatePairs) {
+): List<AbsenceId> {
+    if (childDatePairs.isEmpty()) return emptyList()
+
+    return createUpdate {
             sql(
                 """
 DELETE FROM absence a
-WHERE child_id = ${bind { (childId, _) -> childId }}
-AND date = ${bind { (_, date) -> date }}
-AND absence_type <> 'FREE_ABSENCE'::absence_type
-AND questionnaire_id IS NULL
+USING unnest(
+    ${bindColumn(childDatePairs) { (childId, _) -> childId }},
+    ${bindColumn(childDatePairs) { (_, date) -> date }}
+) AS t(child_id, date)
+WHERE a.child_id = t.child_id
+AND a.date = t.date
+AND a.absence_type <> 'FREE_ABSENCE'::absence_type
+AND a.questionnaire_id IS NULL
 -- Planned absences cannot be deleted from confirmed range
-AND (${bind(reservableRange)} @> date OR absence_type <> 'PLANNED_ABSENCE'::absence_type)
-AND modified_by IN (SELECT id FROM evaka_user where type = 'CITIZEN')
-RETURNING id
+AND (${bind(reservableRange)} @> a.date OR a.absence_type <> 'PLANNED_ABSENCE'::absence_type)
+AND a.modified_by IN (SELECT id FROM evaka_user where type = 'CITIZEN')
+RETURNING a.id
 """
             )
         }
-        .executeAndReturn()
+        .executeAndReturnGeneratedKeys()
         .toList()
+}
 
 fun Database.Transaction.clearOldAbsences(
     childDatePairs: List<Pair<ChildId, LocalDate>>
-): List<AbsenceId> =
-    prepareBatch(childDatePairs) {
+): List<AbsenceId> {
+    if (childDatePairs.isEmpty()) return emptyList()
+
+    return createUpdate {
             sql(
                 """
 DELETE FROM absence a
-WHERE child_id = ${bind { (childId, _) -> childId }}
-AND date = ${bind { (_, date) -> date }}
-RETURNING id
+USING unnest(
+    ${bindColumn(childDatePairs) { (childId, _) -> childId }},
+    ${bindColumn(childDatePairs) { (_, date) -> date }}
+) AS t(child_id, date)
+WHERE a.child_id = t.child_id AND a.date = t.date
+RETURNING a.id
 """
             )
         }
-        .executeAndReturn()
+        .executeAndReturnGeneratedKeys()
         .toList()
+}
 
 fun Database.Transaction.deleteAllCitizenEditableAbsencesInRange(range: FiniteDateRange) {
     createUpdate {
@@ -13,6 +13,7 @@ import evaka.core.shared.auth.AuthenticatedUser
 import evaka.core.shared.db.Database
 import evaka.core.shared.domain.EvakaClock
 import io.github.oshai.kotlinlogging.KotlinLogging
+import java.io.InputStream
 import org.springframework.stereotype.Service
 
 @Service
@@ -37,6 +38,30 @@ class AttachmentService(
         bytes: ByteArray,
         contentType: String,
         type: T? = null,
+    ): AttachmentId =
+        bytes.inputStream().use { stream ->
+            saveOrphanAttachment(
+                dbc,
+                user,
+                clock,
+                fileName,
+                stream,
+                bytes.size.toLong(),
+                contentType,
+                type,
+            )
+        }
+
+    /** Saves an attachment to both S3 and the database, streaming the content from [inputStream] */
+    fun <T : Enum<T>> saveOrphanAttachment(
+        dbc: Database.Connection,
+        user: AuthenticatedUser,
+        clock: EvakaClock,
+        fileName: String,
+        inputStream: InputStream,
+        size: Long,
+        contentType: String,
+        type: T? = null,
     ): AttachmentId {
         val id = dbc.transaction { tx ->
             tx.insertAttachment(
@@ -49,7 +74,7 @@ class AttachmentService(
             )
         }
         dbc.close() // avoid hogging the connection while we access S3
-        documentClient.upload(DocumentKey.Attachment(id), bytes, contentType)
+        documentClient.upload(DocumentKey.Attachment(id), inputStream, size, contentType)
         return id
     }
 
@@ -578,25 +578,27 @@ class AttachmentsController(
             throw BadRequest("File too large", "FILE_TOO_LARGE")
         }
         val fileName = getAndCheckFileName(file)
-        val contentType =
-            file.inputStream.use { stream ->
-                checkFileContentTypeAndExtension(
-                    stream,
-                    getFileExtension(fileName),
-                    allowedContentTypes,
+        // The content type is detected from a buffered prefix of the upload, and the same stream
+        // is then uploaded from the start without reading the file into memory
+        val id =
+            file.inputStream.buffered().use { stream ->
+                val contentType =
+                    checkFileContentTypeAndExtension(
+                        stream,
+                        getFileExtension(fileName),
+                        allowedContentTypes,
+                    )
+                attachmentsService.saveOrphanAttachment(
+                    dbc,
+                    user,
+                    clock,
+                    fileName = fileName,
+                    inputStream = stream,
+                    size = file.size,
+                    contentType = contentType,
+                    type = type,
                 )
             }
-
-        val id =
-            attachmentsService.saveOrphanAttachment(
-                dbc,
-                user,
-                clock,
-                fileName = fileName,
-                bytes = file.bytes,
-                contentType = contentType,
-                type = type,
-            )
         dbc.transaction { tx ->
             tx.associateOrphanAttachments(user.evakaUserId, attachTo, listOf(id))
             onSuccess?.invoke(tx)
@@ -192,7 +192,8 @@ data class ChildBasicsRow(
             placementType,
             groupId,
             backup,
-            imageUrl = imageId?.let { id -> "/api/employee-mobile/child-images/$id" },
+            imageUrl =
+                imageId?.let { id -> "/api/employee-mobile/child-images/$id?thumbnail=true" },
             shiftCare,
         )
 }
@@ -0,0 +1,121 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.bi
+
+import evaka.core.shared.db.PredicateSql
+import java.math.BigInteger
+import java.util.UUID
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Half-open range `[start, end)` of UUIDs using PostgreSQL uuid ordering. A null bound means the
+ * range is unbounded in that direction.
+ */
+data class UuidRange(val start: UUID?, val end: UUID?) {
+    fun forColumn(column: String): PredicateSql = PredicateSql {
+        when {
+            start == null && end == null -> where("TRUE")
+            end == null -> where("$column >= ${bind(start)}")
+            start == null -> where("$column < ${bind(end)}")
+            else -> where("$column >= ${bind(start)} AND $column < ${bind(end)}")
+        }
+    }
+
+    companion object {
+        val ALL = UuidRange(null, null)
+
+        /**
+         * Splits the whole UUID space into [count] contiguous ranges of equal width, in ascending
+         * order.
+         *
+         * PostgreSQL compares uuids byte by byte, so splitting on the unsigned value of the most
+         * significant 64 bits produces ranges that are also contiguous in the database.
+         */
+        fun split(count: Int): List<UuidRange> {
+            require(count > 0) { "Range count must be positive" }
+            val space = BigInteger.ONE.shiftLeft(64)
+            val bounds =
+                (1 until count).map { i ->
+                    UUID(space.multiply(i.toBigInteger()).divide(count.toBigInteger()).toLong(), 0)
+                }
+            return (listOf<UUID?>(null) + bounds).zip(bounds + listOf<UUID?>(null)) { start, end ->
+                UuidRange(start, end)
+            }
+        }
+    }
+}
+
+/**
+ * Passes the records of a [BiQueries.ChunkedCsvQuery] from the threads that read its chunks to the
+ * thread that uploads them, as one sequence of CSV records in chunk order. Only the header of the
+ * first chunk is included.
+ *
+ * Every chunk has a small bounded buffer, so a reader that gets ahead of the upload waits for it
+ * instead of keeping its records in memory or on disk. If either side fails, the other one stops
+ * too.
+ */
+internal class CsvChunkPipe(chunkCount: Int, capacity: Int = 1_000) {
+    private sealed interface Item {
+        data class Record(val value: String) : Item
+
+        data object End : Item
+    }
+
+    private val chunks = List(chunkCount) { ArrayBlockingQueue<Item>(capacity) }
+    private val failure = AtomicReference<Throwable?>()
+
+    /** Passes the records of one chunk on, waiting while its buffer is full */
+    fun write(chunk: Int, records: Sequence<String>) {
+        val queue = chunks[chunk]
+        try {
+            records.drop(if (chunk == 0) 0 else 1).forEach { put(queue, Item.Record(it)) }
+            put(queue, Item.End)
+        } catch (e: Throwable) {
+            fail(e)
+            throw e
+        }
+    }
+
+    fun records(): Sequence<String> = sequence {
+        for (queue in chunks) {
+            while (true) {
+                when (val item = take(queue)) {
+                    is Item.Record -> yield(item.value)
+                    Item.End -> break
+                }
+            }
+        }
+    }
+
+    /** Stops both sides of the pipe */
+    fun fail(e: Throwable) {
+        failure.compareAndSet(null, e)
+    }
+
+    private fun put(queue: ArrayBlockingQueue<Item>, item: Item) {
+        while (!queue.offer(item, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+            checkNotFailed()
+        }
+    }
+
+    private fun take(queue: ArrayBlockingQueue<Item>): Item {
+        while (true) {
+            checkNotFailed()
+            queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)?.let {
+                return it
+            }
+        }
+    }
+
+    private fun checkNotFailed() {
+        failure.get()?.let { throw IllegalStateException("Chunked BI export was aborted", it) }
+    }
+
+    companion object {
+        private const val POLL_INTERVAL_MS = 100L
+    }
+}
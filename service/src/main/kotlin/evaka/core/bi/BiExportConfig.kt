@@ -4,6 +4,8 @@
 
 package evaka.core.bi
 
+import java.time.Duration
+
 /**
  * Column containing personally identifiable information (PII) that should be conditionally included
  * in BI exports based on the BiExportConfig.includePII flag.
@@ -22,4 +24,15 @@ data class BiExportConfig(
     val includePII: Boolean,
     val includeLegacyColumns: Boolean,
     val deltaWindowDays: Int,
+    /**
+     * Number of connections used to read a single large table in parallel key-range chunks from one
+     * database snapshot. With 1, every table is read in a single transaction.
+     */
+    val chunkParallelism: Int = 1,
+    /**
+     * If set, tables with a [BiTable.sourceTable] are exported incrementally: only rows updated or
+     * deleted since the previous export are sent, with a full snapshot at most this often. If null,
+     * every table is exported in full every time.
+     */
+    val fullSnapshotInterval: Duration? = null,
 )
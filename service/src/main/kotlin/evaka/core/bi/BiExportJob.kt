@@ -6,17 +6,204 @@ package evaka.core.bi
 
 import evaka.core.shared.db.Database
 import evaka.core.shared.domain.EvakaClock
+import io.github.oshai.kotlinlogging.KotlinLogging
+import io.micrometer.core.instrument.DistributionSummary
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Timer
 import java.time.Duration
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+
+private val logger = KotlinLogging.logger {}
+
+class BiExportJob(
+    private val client: BiExportClient,
+    private val config: BiExportConfig,
+    private val meterRegistry: MeterRegistry,
+) {
+    private enum class ExportMode {
+        FULL,
+        INCREMENTAL,
+    }
 
-class BiExportJob(private val client: BiExportClient, private val config: BiExportConfig) {
     fun sendBiTable(db: Database.Connection, clock: EvakaClock, table: BiTable) {
-        db.read { tx ->
-            tx.setStatementTimeout(Duration.ofMinutes(10))
+        val sample = Timer.start(meterRegistry)
+        var outcome = "failure"
+        try {
+            val sourceTable = table.sourceTable
+            val fullSnapshotInterval = config.fullSnapshotInterval
+            val (mode, bytes) =
+                if (sourceTable != null && fullSnapshotInterval != null) {
+                    sendIncrementally(db, clock, table, sourceTable, fullSnapshotInterval)
+                } else {
+                    if (sourceTable != null) {
+                        // incremental export has been disabled, so tombstones are no longer needed
+                        db.transaction { tx ->
+                            tx.deleteBiExportState(table)
+                            tx.pruneBiDeletedRows(sourceTable, DELTA_OVERLAP)
+                        }
+                    }
+                    ExportMode.FULL to send(db, clock, table.fileName, table.query, BiRowFilter.ALL)
+                }
+            outcome = "success"
+            DistributionSummary.builder("biExportBytes")
+                .baseUnit("bytes")
+                .tag("table", table.name)
+                .tag("mode", mode.name.lowercase())
+                .register(meterRegistry)
+                .record(bytes.toDouble())
+            logger.info { "Exported BI table ${table.name} ($mode, $bytes bytes)" }
+        } finally {
+            sample.stop(
+                Timer.builder("biExportDuration")
+                    .tag("table", table.name)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+            )
+        }
+    }
 
-            table.query(tx, config) { records ->
-                val stream = CsvInputStream(CSV_CHARSET, records)
-                client.sendBiCsvFile(table.fileName, clock, stream)
+    /**
+     * Sends either a full snapshot of the table, or only the rows updated and deleted since the
+     * previous export of the table.
+     *
+     * The high-water mark is taken from the database clock before reading, and the next export
+     * reads from a bit before it, because rows written by transactions that were still running at
+     * that point can have update timestamps slightly older than the mark. The client may therefore
+     * receive a row more than once, but never misses one.
+     */
+    private fun sendIncrementally(
+        db: Database.Connection,
+        clock: EvakaClock,
+        table: BiTable,
+        sourceTable: String,
+        fullSnapshotInterval: Duration,
+    ): Pair<ExportMode, Long> {
+        val (state, exportStartedAt) =
+            db.transaction { tx ->
+                tx.getOrCreateBiExportState(table, sourceTable) to tx.getDatabaseTime()
             }
+        val lastFullExportAt = state.lastFullExportAt
+        val incrementalSince =
+            state.highWaterMark
+                ?.takeIf {
+                    lastFullExportAt != null &&
+                        lastFullExportAt + fullSnapshotInterval > exportStartedAt
+                }
+                ?.minus(DELTA_OVERLAP)
+        val mode = if (incrementalSince == null) ExportMode.FULL else ExportMode.INCREMENTAL
+        val bytes =
+            if (incrementalSince == null) {
+                send(db, clock, table.fileName, table.query, BiRowFilter.ALL)
+            } else {
+                send(
+                    db,
+                    clock,
+                    "${table.fileName}_DELTA",
+                    table.query,
+                    BiRowFilter(updatedSince = incrementalSince),
+                ) +
+                    send(
+                        db,
+                        clock,
+                        "${table.fileName}_DELETED",
+                        BiQueries.getDeletedRows(sourceTable, incrementalSince),
+                        BiRowFilter.ALL,
+                    )
+            }
+        db.transaction { tx ->
+            tx.updateBiExportState(
+                table,
+                highWaterMark = exportStartedAt,
+                fullExport = mode == ExportMode.FULL,
+            )
+            tx.pruneBiDeletedRows(sourceTable, DELTA_OVERLAP)
         }
+        return mode to bytes
+    }
+
+    private fun send(
+        db: Database.Connection,
+        clock: EvakaClock,
+        fileName: String,
+        query: BiQueries.CsvQuery,
+        filter: BiRowFilter,
+    ): Long =
+        if (query is BiQueries.ChunkedCsvQuery && config.chunkParallelism > 1) {
+            sendChunked(db, clock, fileName, query, filter)
+        } else {
+            db.read { tx ->
+                tx.setStatementTimeout(STATEMENT_TIMEOUT)
+
+                val sendRecords = { records: Sequence<String> ->
+                    val stream = CsvInputStream(CSV_CHARSET, records)
+                    client.sendBiCsvFile(fileName, clock, stream)
+                    stream.totalBytes.toLong()
+                }
+                if (query is BiQueries.ChunkedCsvQuery) {
+                    query.chunk(tx, config, filter, sendRecords)
+                } else {
+                    check(filter == BiRowFilter.ALL) { "Query $fileName does not support filters" }
+                    query(tx, config, sendRecords)
+                }
+            }
+        }
+
+    /**
+     * Reads the chunks of the query in parallel from one database snapshot, and uploads their
+     * records on another thread while they are being read.
+     */
+    private fun sendChunked(
+        db: Database.Connection,
+        clock: EvakaClock,
+        fileName: String,
+        query: BiQueries.ChunkedCsvQuery,
+        filter: BiRowFilter,
+    ): Long {
+        val chunks =
+            UuidRange.split(config.chunkParallelism * CHUNKS_PER_WORKER).withIndex().toList()
+        val pipe = CsvChunkPipe(chunks.size)
+        return Executors.newSingleThreadExecutor().use { executor ->
+            val upload =
+                executor.submit<Long> {
+                    try {
+                        val stream = CsvInputStream(CSV_CHARSET, pipe.records())
+                        client.sendBiCsvFile(fileName, clock, stream)
+                        stream.totalBytes.toLong()
+                    } catch (e: Throwable) {
+                        pipe.fail(e)
+                        throw e
+                    }
+                }
+            try {
+                db.parallelRead(chunks, config.chunkParallelism) { tx, (index, range) ->
+                    tx.setStatementTimeout(STATEMENT_TIMEOUT)
+                    query.chunk(tx, config, filter.copy(range = range)) { records ->
+                        pipe.write(index, records)
+                    }
+                }
+            } catch (e: Throwable) {
+                pipe.fail(e)
+                throw e
+            }
+            try {
+                upload.get()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+        }
+    }
+
+    companion object {
+        private val STATEMENT_TIMEOUT = Duration.ofMinutes(10)
+
+        /** How far before the previous high-water mark an incremental export starts reading */
+        private val DELTA_OVERLAP = Duration.ofHours(1)
+
+        /**
+         * Splitting into more chunks than there are workers keeps all workers busy even if the
+         * chunks end up being uneven in size
+         */
+        private const val CHUNKS_PER_WORKER = 2
     }
 }
@@ -0,0 +1,98 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.bi
+
+import evaka.core.shared.db.Database
+import evaka.core.shared.db.PredicateSql
+import evaka.core.shared.domain.HelsinkiDateTime
+import java.time.Duration
+
+/** Restricts the rows read by a [BiQueries.ChunkedCsvQuery] */
+data class BiRowFilter(
+    val range: UuidRange = UuidRange.ALL,
+    /** If set, only rows updated at or after this timestamp are read */
+    val updatedSince: HelsinkiDateTime? = null,
+) {
+    fun forColumns(keyColumn: String, updatedColumn: String?): PredicateSql {
+        val updated =
+            when {
+                updatedSince == null -> PredicateSql.alwaysTrue()
+                updatedColumn == null -> error("Query does not support incremental export")
+                else -> PredicateSql { where("$updatedColumn >= ${bind(updatedSince)}") }
+            }
+        return range.forColumn(keyColumn).and(updated)
+    }
+
+    companion object {
+        val ALL = BiRowFilter()
+    }
+}
+
+data class BiExportState(
+    val highWaterMark: HelsinkiDateTime?,
+    val lastFullExportAt: HelsinkiDateTime?,
+)
+
+/**
+ * Returns the incremental export state of the table, creating it if necessary.
+ *
+ * Deleted rows of the source table are recorded from the moment the state exists, so it must be
+ * created before the first full export starts reading the table.
+ */
+fun Database.Transaction.getOrCreateBiExportState(table: BiTable, sourceTable: String) =
+    createQuery {
+            sql(
+                """
+INSERT INTO bi_export_state (bi_table, source_table)
+VALUES (${bind(table.name)}, ${bind(sourceTable)})
+ON CONFLICT (bi_table) DO UPDATE SET source_table = excluded.source_table
+RETURNING high_water_mark, last_full_export_at
+"""
+            )
+        }
+        .exactlyOne<BiExportState>()
+
+fun Database.Transaction.updateBiExportState(
+    table: BiTable,
+    highWaterMark: HelsinkiDateTime,
+    fullExport: Boolean,
+) =
+    createUpdate {
+            sql(
+                """
+UPDATE bi_export_state
+SET high_water_mark = ${bind(highWaterMark)},
+    last_full_export_at = CASE WHEN ${bind(fullExport)} THEN ${bind(highWaterMark)} ELSE last_full_export_at END
+WHERE bi_table = ${bind(table.name)}
+"""
+            )
+        }
+        .updateExactlyOne()
+
+fun Database.Transaction.deleteBiExportState(table: BiTable) =
+    createUpdate { sql("DELETE FROM bi_export_state WHERE bi_table = ${bind(table.name)}") }
+        .execute()
+
+/**
+ * Deletes the tombstones of the source table that every incremental export of it has already
+ * delivered or that are covered by the next full export.
+ */
+fun Database.Transaction.pruneBiDeletedRows(sourceTable: String, overlap: Duration) =
+    createUpdate {
+            sql(
+                """
+DELETE FROM bi_deleted_row
+WHERE source_table = ${bind(sourceTable)}
+AND deleted_at < coalesce(
+    (SELECT min(high_water_mark) FROM bi_export_state WHERE source_table = ${bind(sourceTable)}) - make_interval(secs => ${bind(overlap.toSeconds())}),
+    'infinity'
+)
+"""
+            )
+        }
+        .execute()
+
+fun Database.Read.getDatabaseTime(): HelsinkiDateTime =
+    createQuery { sql("SELECT now()") }.exactlyOne<HelsinkiDateTime>()
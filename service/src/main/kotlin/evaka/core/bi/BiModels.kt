@@ -328,6 +328,8 @@ data class BiDaycareGroupPlacement(
     val end_date: LocalDate,
 )
 
+data class BiDeletedRow(val id: UUID, val deleted_at: String)
+
 data class BiDecision(
     val id: UUID,
     val number: Int,
@@ -6,6 +6,7 @@ package evaka.core.bi
 
 import evaka.core.shared.db.Database
 import evaka.core.shared.db.QuerySql
+import evaka.core.shared.domain.HelsinkiDateTime
 import kotlin.reflect.KClass
 
 object BiQueries {
@@ -20,31 +21,34 @@ object BiQueries {
         }
 
     val getPersons =
-        csvQuery<BiPerson> { _ ->
+        chunkedCsvQuery<BiPerson> { _, filter ->
             sql(
                 """
             SELECT id, social_security_number, first_name, last_name, email, aad_object_id, language, date_of_birth, created::text, updated::text, street_address, postal_code, post_office, nationalities, restricted_details_enabled, restricted_details_end_date, phone, updated_from_vtj::text, invoicing_street_address, invoicing_postal_code, invoicing_post_office, invoice_recipient_name, date_of_death, residence_code, force_manual_fee_decisions, backup_phone, last_login::text, oph_person_oid, vtj_guardians_queried::text, vtj_dependants_queried::text, ssn_adding_disabled, preferred_name, duplicate_of, NULL AS enabled_email_types
             FROM person
+            WHERE ${predicate(filter.forColumns("id", updatedColumn = "updated"))}
             """
             )
         }
 
     val getApplications =
-        csvQuery<BiApplication> { _ ->
+        chunkedCsvQuery<BiApplication> { _, filter ->
             sql(
                 """
             select id, created_at::text AS created, updated_at::text AS updated, sentdate, duedate, guardian_id, child_id, checkedbyadmin, hidefromguardian, transferapplication, additionaldaycareapplication, status, origin, duedate_set_manually_at::text, service_worker_note, type, allow_other_guardian_access, document::text, modified_at::text AS form_modified
             FROM application
+            WHERE ${predicate(filter.forColumns("id", updatedColumn = "updated_at"))}
         """
             )
         }
 
     val getApplicationForms =
-        csvQuery<BiApplicationForm> { _ ->
+        chunkedCsvQuery<BiApplicationForm> { _, filter ->
             sql(
                 """
             select id, id AS application_id, created_by::text AS created, 1 AS revision, document::text, updated_at::text AS updated, true AS latest
             FROM application
+            WHERE ${predicate(filter.forColumns("id", updatedColumn = "updated_at"))}
         """
             )
         }
@@ -100,8 +104,14 @@ object BiQueries {
         }
 
     val getAttendanceReservations =
-        csvQuery<BiAttendanceReservation> { _ ->
-            sql("SELECT DISTINCT child_id, date FROM attendance_reservation")
+        chunkedCsvQuery<BiAttendanceReservation> { _, filter ->
+            sql(
+                """
+            SELECT DISTINCT child_id, date
+            FROM attendance_reservation
+            WHERE ${predicate(filter.forColumns("child_id", updatedColumn = null))}
+        """
+            )
         }
 
     val getBackupCares =
@@ -215,11 +225,12 @@ object BiQueries {
         }
 
     val getFeeDecisions =
-        csvQuery<BiFeeDecision> { _ ->
+        chunkedCsvQuery<BiFeeDecision> { _, filter ->
             sql(
                 """
             select id, created::text, updated::text, status, valid_during::text, decision_type, head_of_family_id, head_of_family_income::text, partner_id, partner_income::text, family_size, fee_thresholds::text, decision_number, document_key, approved_at::text, approved_by_id, decision_handler_id, sent_at::text, cancelled_at::text, total_fee, difference, document_contains_contact_info
             FROM fee_decision
+            WHERE ${predicate(filter.forColumns("id", updatedColumn = "updated"))}
         """
             )
         }
@@ -325,11 +336,12 @@ object BiQueries {
         }
 
     val getPlacements =
-        csvQuery<BiPlacement> { _ ->
+        chunkedCsvQuery<BiPlacement> { _, filter ->
             sql(
                 """
             select id, created_at::text AS created, updated_at::text AS updated, type, child_id, unit_id, start_date, end_date, termination_requested_date, terminated_by, place_guarantee
             FROM placement
+            WHERE ${predicate(filter.forColumns("id", updatedColumn = "updated_at"))}
         """
             )
         }
@@ -415,11 +427,12 @@ object BiQueries {
         }
 
     val getVoucherValueDecisions =
-        csvQuery<BiVoucherValueDecision> { _ ->
+        chunkedCsvQuery<BiVoucherValueDecision> { _, filter ->
             sql(
                 """
             select id, status, valid_from, valid_to, decision_number, head_of_family_id, partner_id, head_of_family_income::text, partner_income::text, family_size, fee_thresholds::text, document_key, created::text, approved_by, approved_at::text, sent_at::text, cancelled_at::text, decision_handler, child_id, child_date_of_birth, base_co_payment, sibling_discount, placement_unit_id, placement_type, co_payment, fee_alterations::text, base_value, voucher_value, final_co_payment, service_need_fee_coefficient, service_need_voucher_value_coefficient, service_need_fee_description_fi, service_need_fee_description_sv, service_need_voucher_value_description_fi, service_need_voucher_value_description_sv, updated::text, assistance_need_coefficient, decision_type, annulled_at::text, validity_updated_at::text, child_income::text, difference, service_need_missing, document_contains_contact_info
             FROM voucher_value_decision
+            WHERE ${predicate(filter.forColumns("id", updatedColumn = "updated"))}
         """
             )
         }
@@ -459,12 +472,24 @@ object BiQueries {
         }
 
     val getAttendanceReservationsDelta =
-        csvQuery<BiAttendanceReservationDelta> { config ->
+        chunkedCsvQuery<BiAttendanceReservationDelta> { config, filter ->
             sql(
                 """
             SELECT id, created_at::text, updated_at::text, child_id, date, start_time, end_time, created_by
             FROM attendance_reservation
             WHERE updated_at >= (current_date AT TIME ZONE 'Europe/Helsinki' - make_interval(days => ${bind(config.deltaWindowDays)}))::date
+            AND ${predicate(filter.forColumns("id", updatedColumn = "updated_at"))}
+        """
+            )
+        }
+
+    fun getDeletedRows(sourceTable: String, deletedSince: HelsinkiDateTime) =
+        csvQuery<BiDeletedRow> { _ ->
+            sql(
+                """
+            SELECT id, deleted_at::text
+            FROM bi_deleted_row
+            WHERE source_table = ${bind(sourceTable)} AND deleted_at >= ${bind(deletedSince)}
         """
             )
         }
@@ -477,6 +502,26 @@ object BiQueries {
         ): R
     }
 
+    /**
+     * A query whose rows can be restricted with a [BiRowFilter], so that they can be split by a
+     * UUID key column into disjoint ranges that are read independently, e.g. in parallel on
+     * separate connections.
+     */
+    interface ChunkedCsvQuery : CsvQuery {
+        fun <R> chunk(
+            tx: Database.Read,
+            config: BiExportConfig,
+            filter: BiRowFilter,
+            useResults: (records: Sequence<String>) -> R,
+        ): R
+
+        override operator fun <R> invoke(
+            tx: Database.Read,
+            config: BiExportConfig,
+            useResults: (records: Sequence<String>) -> R,
+        ): R = chunk(tx, config, BiRowFilter.ALL, useResults)
+    }
+
     class StreamingCsvQuery<T : Any>(
         private val clazz: KClass<T>,
         private val query: (Database.Read, BiExportConfig) -> Database.Result<T>,
@@ -491,6 +536,21 @@ object BiQueries {
             }
     }
 
+    class StreamingChunkedCsvQuery<T : Any>(
+        private val clazz: KClass<T>,
+        private val query: (Database.Read, BiExportConfig, BiRowFilter) -> Database.Result<T>,
+    ) : ChunkedCsvQuery {
+        override fun <R> chunk(
+            tx: Database.Read,
+            config: BiExportConfig,
+            filter: BiRowFilter,
+            useResults: (records: Sequence<String>) -> R,
+        ): R =
+            query(tx, config, filter).useSequence { rows ->
+                useResults(toCsvRecords(::convertToCsv, clazz, rows, config))
+            }
+    }
+
     private const val QUERY_STREAM_CHUNK_SIZE = 10_000
 
     private inline fun <reified T : Any> csvQuery(
@@ -499,4 +559,11 @@ object BiQueries {
         StreamingCsvQuery(T::class) { tx, config ->
             tx.createQuery { f(config) }.setFetchSize(QUERY_STREAM_CHUNK_SIZE).mapTo<T>()
         }
+
+    private inline fun <reified T : Any> chunkedCsvQuery(
+        crossinline f: QuerySql.Builder.(BiExportConfig, BiRowFilter) -> QuerySql
+    ): ChunkedCsvQuery =
+        StreamingChunkedCsvQuery(T::class) { tx, config, filter ->
+            tx.createQuery { f(config, filter) }.setFetchSize(QUERY_STREAM_CHUNK_SIZE).mapTo<T>()
+        }
 }
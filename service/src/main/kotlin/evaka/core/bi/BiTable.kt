@@ -4,10 +4,18 @@
 
 package evaka.core.bi
 
-enum class BiTable(val fileName: String, val query: BiQueries.CsvQuery) {
+enum class BiTable(
+    val fileName: String,
+    val query: BiQueries.CsvQuery,
+    /**
+     * Database table whose rows this BI table exports, if the table supports incremental export.
+     * The query must then be a [BiQueries.ChunkedCsvQuery] that supports filtering by update time.
+     */
+    val sourceTable: String? = null,
+) {
     Absence("absence_DELTA", BiQueries.getAbsencesDelta),
-    Application("application", BiQueries.getApplications),
-    ApplicationForm("application_form", BiQueries.getApplicationForms),
+    Application("application", BiQueries.getApplications, sourceTable = "application"),
+    ApplicationForm("application_form", BiQueries.getApplicationForms, sourceTable = "application"),
     AssistanceAction("assistance_action", BiQueries.getAssistanceActions),
     AssistanceActionOption("assistance_action_option", BiQueries.getAssistanceActionOptions),
     AssistanceActionOptionRef(
@@ -37,7 +45,7 @@ enum class BiTable(val fileName: String, val query: BiQueries.CsvQuery) {
     Employee("employee", BiQueries.getEmployees),
     EvakaUser("evaka_user", BiQueries.getEvakaUsers),
     FeeAlteration("fee_alteration", BiQueries.getFeeAlterations),
-    FeeDecision("fee_decision", BiQueries.getFeeDecisions),
+    FeeDecision("fee_decision", BiQueries.getFeeDecisions, sourceTable = "fee_decision"),
     FeeDecisionChild("fee_decision_child", BiQueries.getFeeDecisionChildren),
     FeeThresholds("fee_thresholds", BiQueries.getFeeThresholds),
     FridgeChild("fridge_child", BiQueries.getFridgeChildren),
@@ -51,8 +59,8 @@ enum class BiTable(val fileName: String, val query: BiQueries.CsvQuery) {
     ),
     Income("income", BiQueries.getIncomes),
     OtherAssistanceMeasure("other_assistance_measure", BiQueries.getOtherAssistanceMeasures),
-    Person("person", BiQueries.getPersons),
-    Placement("placement", BiQueries.getPlacements),
+    Person("person", BiQueries.getPersons, sourceTable = "person"),
+    Placement("placement", BiQueries.getPlacements, sourceTable = "placement"),
     PreschoolAssistance("preschool_assistance", BiQueries.getPreschoolAssistances),
     ServiceNeed("service_need", BiQueries.getServiceNeeds),
     ServiceNeedOption("service_need_option", BiQueries.getServiceNeedOptions),
@@ -71,5 +79,9 @@ enum class BiTable(val fileName: String, val query: BiQueries.CsvQuery) {
         "staff_occupancy_coefficient",
         BiQueries.getStaffOccupancyCoefficients,
     ),
-    VoucherValueDecision("voucher_value_decision", BiQueries.getVoucherValueDecisions),
+    VoucherValueDecision(
+        "voucher_value_decision",
+        BiQueries.getVoucherValueDecisions,
+        sourceTable = "voucher_value_decision",
+    ),
 }
@@ -12,6 +12,7 @@ import evaka.core.emailclient.DiscussionSurveyReservationNotificationData
 import evaka.core.emailclient.Email
 import evaka.core.emailclient.EmailClient
 import evaka.core.emailclient.IEmailMessageProvider
+import evaka.core.emailclient.getEmailRecipients
 import evaka.core.pis.EmailMessageType
 import evaka.core.pis.getPersonById
 import evaka.core.shared.HtmlSafe
@@ -26,6 +27,9 @@ import org.springframework.stereotype.Service
 
 private val logger = KotlinLogging.logger {}
 
+/** Maximum number of recipients in one batch notification job */
+const val EMAIL_BATCH_SIZE = 100
+
 @Service
 class CalendarEventNotificationService(
     private val emailClient: EmailClient,
@@ -38,25 +42,23 @@ class CalendarEventNotificationService(
         asyncJobRunner.registerHandler(::runSendDiscussionSurveyReservationMessage)
         asyncJobRunner.registerHandler(::runSendDiscussionSurveyReservationCancellationMessage)
         asyncJobRunner.registerHandler(::runSendCalendarEventDigestEmail)
+        asyncJobRunner.registerHandler(::runSendCalendarEventDigestEmails)
         asyncJobRunner.registerHandler(::runSendDiscussionTimeReminder)
+        asyncJobRunner.registerHandler(::runSendDiscussionTimeReminders)
         asyncJobRunner.registerHandler(::runSendDiscussionSurveyDigest)
+        asyncJobRunner.registerHandler(::runSendDiscussionSurveyDigests)
     }
 
     fun scheduleDiscussionTimeReminders(dbc: Database.Connection, now: HelsinkiDateTime) {
         dbc.transaction { tx ->
-            val recipientEventTimes =
-                tx.getRecipientsForEventTimeRemindersAt(now.plusDays(2).toLocalDate())
+            val recipients = tx.getRecipientsForEventTimeRemindersAt(now.plusDays(2).toLocalDate())
 
-            logger.info { "Scheduling ${recipientEventTimes.size} discussion time reminder mails" }
+            logger.info { "Scheduling discussion time reminders to ${recipients.size} recipients" }
             asyncJobRunner.plan(
                 tx,
                 payloads =
-                    recipientEventTimes.map {
-                        AsyncJob.SendDiscussionReservationReminderEmail(
-                            it.parentId,
-                            it.language,
-                            it.eventTimeId,
-                        )
+                    recipients.chunked(EMAIL_BATCH_SIZE).map {
+                        AsyncJob.SendDiscussionReservationReminderEmails(it)
                     },
                 runAt = now,
             )
@@ -74,22 +76,55 @@ class CalendarEventNotificationService(
             asyncJobRunner.plan(
                 tx,
                 payloads =
-                    parentsWithDiscussionSurveys
-                        .map { recipient ->
-                            recipient.surveys.map {
-                                AsyncJob.SendDiscussionSurveyCreationNotificationEmail(
-                                    recipientId = recipient.parentId,
-                                    language = recipient.language,
-                                    eventId = it,
-                                )
-                            }
-                        }
-                        .flatten(),
+                    parentsWithDiscussionSurveys.chunked(EMAIL_BATCH_SIZE).map {
+                        AsyncJob.SendDiscussionSurveyCreationNotificationEmails(it)
+                    },
                 runAt = now,
             )
         }
     }
 
+    fun runSendDiscussionSurveyDigests(
+        db: Database.Connection,
+        clock: EvakaClock,
+        msg: AsyncJob.SendDiscussionSurveyCreationNotificationEmails,
+    ) {
+        val (events, recipients) = db.read { tx ->
+            Pair(
+                tx.getCalendarEventsById(msg.recipients.flatMap { it.surveys }.toSet())
+                    .associateBy { it.id },
+                tx.getEmailRecipients(msg.recipients.map { it.parentId }),
+            )
+        }
+        val notifications =
+            msg.recipients.flatMap { parent ->
+                val recipient = recipients[parent.parentId] ?: return@flatMap emptyList()
+                parent.surveys.mapNotNull { eventId ->
+                    val event = events[eventId]
+                    if (event == null) {
+                        logger.info { "Skipping discussion survey that no longer exists ($eventId)" }
+                        return@mapNotNull null
+                    }
+                    Email.create(
+                            recipient,
+                            EmailMessageType.DISCUSSION_TIME_NOTIFICATION,
+                            emailEnv.sender(Language.fi),
+                            discussionSurveyCreationContent(parent.language, event),
+                            "${parent.parentId}: $eventId",
+                        )
+                        ?.let {
+                            it to
+                                AsyncJob.SendDiscussionSurveyCreationNotificationEmail(
+                                    recipientId = parent.parentId,
+                                    eventId = eventId,
+                                    language = parent.language,
+                                )
+                        }
+                }
+            }
+        sendAll(db, clock, notifications)
+    }
+
     fun runSendDiscussionSurveyDigest(
         db: Database.Connection,
         clock: EvakaClock,
@@ -100,22 +135,12 @@ class CalendarEventNotificationService(
             it.getCalendarEventById(msg.eventId) ?: throw NotFound("No discussion survey found")
         }
         val fromAddress = emailEnv.sender(Language.fi)
-        val content =
-            emailMessageProvider.discussionSurveyCreationNotification(
-                language = msg.language,
-                notificationDetails =
-                    DiscussionSurveyCreationNotificationData(
-                        eventId = msg.eventId,
-                        eventTitle = HtmlSafe(eventData.title),
-                        eventDescription = HtmlSafe(eventData.description),
-                    ),
-            )
         Email.create(
                 db,
                 msg.recipientId,
                 EmailMessageType.DISCUSSION_TIME_NOTIFICATION,
                 fromAddress,
-                content,
+                discussionSurveyCreationContent(msg.language, eventData),
                 "${msg.recipientId}: ${msg.eventId}",
             )
             ?.also { emailClient.send(it) }
@@ -125,35 +150,83 @@ class CalendarEventNotificationService(
         }
     }
 
+    private fun discussionSurveyCreationContent(language: Language, event: CalendarEvent) =
+        emailMessageProvider.discussionSurveyCreationNotification(
+            language = language,
+            notificationDetails =
+                DiscussionSurveyCreationNotificationData(
+                    eventId = event.id,
+                    eventTitle = HtmlSafe(event.title),
+                    eventDescription = HtmlSafe(event.description),
+                ),
+        )
+
     fun scheduleCalendarEventDigestEmails(dbc: Database.Connection, now: HelsinkiDateTime) {
         dbc.transaction { tx ->
             val parents = tx.getParentsWithNewEventsAfter(now.toLocalDate(), now.minusHours(24))
             logger.info { "Scheduling calendar event notifications to ${parents.size} parents" }
             asyncJobRunner.plan(
                 tx,
-                parents.map {
-                    AsyncJob.SendCalendarEventDigestEmail(it.parentId, it.language, it.events)
+                parents.chunked(EMAIL_BATCH_SIZE).map {
+                    AsyncJob.SendCalendarEventDigestEmails(it)
                 },
                 runAt = now,
             )
         }
     }
 
+    fun runSendCalendarEventDigestEmails(
+        dbc: Database.Connection,
+        clock: EvakaClock,
+        msg: AsyncJob.SendCalendarEventDigestEmails,
+    ) {
+        val (events, recipients) = dbc.read { tx ->
+            Pair(
+                tx.getCalendarEventsById(msg.digests.flatMap { it.events }.toSet())
+                    .associateBy { it.id },
+                tx.getEmailRecipients(msg.digests.map { it.parentId }),
+            )
+        }
+        val notifications =
+            msg.digests.mapNotNull { digest ->
+                val recipient = recipients[digest.parentId] ?: return@mapNotNull null
+                val notificationData =
+                    calendarEventNotificationData(digest.events.mapNotNull { events[it] })
+                if (notificationData.isEmpty()) {
+                    logger.info { "No events to notify for parent ${digest.parentId}" }
+                    return@mapNotNull null
+                }
+                Email.create(
+                        recipient,
+                        EmailMessageType.CALENDAR_EVENT_NOTIFICATION,
+                        emailEnv.sender(digest.language),
+                        emailMessageProvider.calendarEventNotification(
+                            digest.language,
+                            notificationData,
+                        ),
+                        "${clock.today()}:${digest.parentId}",
+                    )
+                    ?.let {
+                        it to
+                            AsyncJob.SendCalendarEventDigestEmail(
+                                digest.parentId,
+                                digest.language,
+                                digest.events,
+                            )
+                    }
+            }
+        sendAll(dbc, clock, notifications)
+    }
+
     fun runSendCalendarEventDigestEmail(
         dbc: Database.Connection,
         clock: EvakaClock,
         msg: AsyncJob.SendCalendarEventDigestEmail,
     ) {
         val notificationData =
-            dbc.read { tx -> tx.getCalendarEventsById(msg.events.toSet()) }
-                .map {
-                    CalendarEventNotificationData(
-                        HtmlSafe(it.title),
-                        it.period,
-                        it.groups.map { group -> HtmlSafe(group.name) },
-                    )
-                }
-                .sortedWith(compareBy({ it.period.start }, { it.title.toString() }))
+            calendarEventNotificationData(
+                dbc.read { tx -> tx.getCalendarEventsById(msg.events.toSet()) }
+            )
         if (notificationData.isEmpty()) {
             logger.info { "No events to notify for parent ${msg.parentId}" }
             return
@@ -172,6 +245,45 @@ class CalendarEventNotificationService(
         }
     }
 
+    private fun calendarEventNotificationData(events: List<CalendarEvent>) =
+        events
+            .map {
+                CalendarEventNotificationData(
+                    HtmlSafe(it.title),
+                    it.period,
+                    it.groups.map { group -> HtmlSafe(group.name) },
+                )
+            }
+            .sortedWith(compareBy({ it.period.start }, { it.title.toString() }))
+
+    /**
+     * Sends the emails of a batch job one by one. An email that fails is planned as its own
+     * single-recipient job instead of failing the batch, so that a retry never sends the rest of
+     * the batch again.
+     */
+    private fun sendAll(
+        dbc: Database.Connection,
+        clock: EvakaClock,
+        notifications: List<Pair<Email, AsyncJob>>,
+    ) {
+        val failed =
+            notifications.mapNotNull { (email, retry) ->
+                try {
+                    emailClient.send(email)
+                    null
+                } catch (e: Exception) {
+                    logger.warn(e) { "Failed to send email (traceId: ${email.traceId})" }
+                    retry
+                }
+            }
+        if (failed.isNotEmpty()) {
+            dbc.transaction { tx -> asyncJobRunner.plan(tx, failed, runAt = clock.now()) }
+        }
+        logger.info {
+            "Sent ${notifications.size - failed.size} emails, ${failed.size} planned to be retried"
+        }
+    }
+
     fun runSendDiscussionSurveyReservationMessage(
         db: Database.Connection,
         clock: EvakaClock,
@@ -272,4 +384,49 @@ class CalendarEventNotificationService(
             )
             ?.also { content -> emailClient.send(content) }
     }
+
+    fun runSendDiscussionTimeReminders(
+        db: Database.Connection,
+        clock: EvakaClock,
+        msg: AsyncJob.SendDiscussionReservationReminderEmails,
+    ) {
+        val (eventTimes, recipients) = db.read { tx ->
+            Pair(
+                tx.getEventTimeReminderInfos(msg.reminders.flatMap { it.eventTimes }.toSet()),
+                tx.getEmailRecipients(msg.reminders.map { it.parentId }),
+            )
+        }
+        val notifications =
+            msg.reminders.flatMap { parent ->
+                val recipient = recipients[parent.parentId] ?: return@flatMap emptyList()
+                parent.eventTimes.mapNotNull { eventTimeId ->
+                    val details = eventTimes[eventTimeId]
+                    if (details == null) {
+                        logger.info {
+                            "Skipping discussion time reminder, event time no longer exists (eventTimeId: $eventTimeId)"
+                        }
+                        return@mapNotNull null
+                    }
+                    Email.create(
+                            recipient,
+                            EmailMessageType.DISCUSSION_TIME_NOTIFICATION,
+                            emailEnv.sender(parent.language),
+                            emailMessageProvider.discussionTimeReservationReminder(
+                                parent.language,
+                                details,
+                            ),
+                            "${parent.parentId}: $eventTimeId",
+                        )
+                        ?.let {
+                            it to
+                                AsyncJob.SendDiscussionReservationReminderEmail(
+                                    parent.parentId,
+                                    parent.language,
+                                    eventTimeId,
+                                )
+                        }
+                }
+            }
+        sendAll(db, clock, notifications)
+    }
 }
@@ -530,8 +530,8 @@ data class ParentWithEvents(
 
 data class ParentWithEventTimes(
     val parentId: PersonId,
-    val eventTimeId: CalendarEventTimeId,
     val language: Language,
+    val eventTimes: List<CalendarEventTimeId>,
 )
 
 data class ParentWithDiscussionSurveys(
@@ -548,7 +548,7 @@ fun Database.Read.getRecipientsForEventTimeRemindersAt(
             """
 SELECT par.parent_id,
        par.language,
-       cet.id as event_time_id
+       array_agg(DISTINCT cet.id) AS event_times
 FROM calendar_event_time cet
 JOIN LATERAL (
     SELECT g.guardian_id AS parent_id, p.language
@@ -566,6 +566,7 @@ JOIN LATERAL (
     ) par ON TRUE
 WHERE cet.date = ${bind(date)}
   AND cet.child_id IS NOT NULL
+GROUP BY par.parent_id, par.language
 """
         )
     }
@@ -573,50 +574,37 @@ WHERE cet.date = ${bind(date)}
             ParentWithEventTimes(
                 parentId = column("parent_id"),
                 language = Language.tryValueOf(column<String?>("language")) ?: Language.fi,
-                eventTimeId = column("event_time_id"),
+                eventTimes = column("event_times"),
             )
         }
 }
 
 fun Database.Read.getEventTimeReminderInfo(
     eventTimeId: CalendarEventTimeId
-): DiscussionTimeReminderData? {
-    data class RawRow(
-        val title: String,
-        val firstName: String,
-        val lastName: String,
-        val date: LocalDate,
-        val startTime: LocalTime,
-        val endTime: LocalTime,
-        val childId: ChildId,
-    )
+): DiscussionTimeReminderData? = getEventTimeReminderInfos(setOf(eventTimeId))[eventTimeId]
 
-    return createQuery {
-        sql(
-            """
-SELECT p.id as child_id, 
-      ce.title,
-      p.first_name,
-      p.last_name,
-      cet.date,
-      cet.start_time,
-      cet.end_time
+fun Database.Read.getEventTimeReminderInfos(
+    eventTimeIds: Set<CalendarEventTimeId>
+): Map<CalendarEventTimeId, DiscussionTimeReminderData> =
+    createQuery {
+            sql(
+                """
+SELECT cet.id, cet.date, cet.start_time, cet.end_time
 FROM calendar_event_time cet
 JOIN person p on cet.child_id = p.id
 JOIN calendar_event ce ON cet.calendar_event_id = ce.id
-WHERE cet.id = ${bind(eventTimeId)}
+WHERE cet.id = ANY(${bind(eventTimeIds)})
 """
-        )
-    }
-        .exactlyOneOrNull<RawRow>()
-        ?.let {
-            DiscussionTimeReminderData(
-                date = it.date,
-                startTime = it.startTime,
-                endTime = it.endTime,
             )
         }
-}
+        .toMap {
+            column<CalendarEventTimeId>("id") to
+                DiscussionTimeReminderData(
+                    date = column("date"),
+                    startTime = column("start_time"),
+                    endTime = column("end_time"),
+                )
+        }
 
 fun Database.Read.getParentsWithNewEventsAfter(
     today: LocalDate,
@@ -286,23 +286,35 @@ fun updateDocumentCaseProcessHistory(
     }
 }
 
-fun autoCompleteDocumentCaseProcessHistory(
-    tx: Database.Transaction,
-    documentId: ChildDocumentId,
+/**
+ * Moves the case processes of the given automatically completed documents to the COMPLETED state
+ * with one statement. Processes that are already completed or have no history are left as is.
+ */
+fun Database.Transaction.autoCompleteDocumentCaseProcessHistories(
+    documentIds: List<ChildDocumentId>,
     now: HelsinkiDateTime,
-) {
-    val process = tx.getCaseProcessByChildDocumentId(documentId) ?: return
-    val currentProcessState = process.history.lastOrNull()?.state ?: return
-
-    if (currentProcessState != CaseProcessState.COMPLETED) {
-        tx.insertCaseProcessHistoryRow(
-            processId = process.id,
-            state = CaseProcessState.COMPLETED,
-            now = now,
-            userId = AuthenticatedUser.SystemInternalUser.evakaUserId,
-        )
-    }
+): Int = createUpdate {
+    sql(
+        """
+    INSERT INTO case_process_history (process_id, row_index, state, entered_at, entered_by)
+    SELECT p.process_id, last_row.row_index + 1, ${bind(CaseProcessState.COMPLETED)}, ${bind(now)}, ${bind(AuthenticatedUser.SystemInternalUser.evakaUserId)}
+    FROM (
+        SELECT DISTINCT process_id
+        FROM child_document
+        WHERE id = ANY(${bind(documentIds)}) AND process_id IS NOT NULL
+    ) p
+    JOIN LATERAL (
+        SELECT row_index, state
+        FROM case_process_history
+        WHERE process_id = p.process_id
+        ORDER BY row_index DESC
+        LIMIT 1
+    ) last_row ON true
+    WHERE last_row.state <> ${bind(CaseProcessState.COMPLETED)}
+"""
+    )
 }
+    .execute()
 
 fun Database.Transaction.cancelLastCaseProcessHistoryRow(
     processId: CaseProcessId,
@@ -11,12 +11,28 @@ import evaka.core.shared.ChildId
 import evaka.core.shared.ChildImageId
 import evaka.core.shared.db.Database
 import evaka.core.shared.domain.HelsinkiDateTime
+import io.github.oshai.kotlinlogging.KotlinLogging
+import java.awt.Color
+import java.awt.RenderingHints
+import java.awt.image.BufferedImage
+import java.io.ByteArrayOutputStream
+import javax.imageio.IIOImage
+import javax.imageio.ImageIO
+import javax.imageio.ImageWriteParam
+import kotlin.math.roundToInt
 import org.springframework.web.multipart.MultipartFile
 
+private val logger = KotlinLogging.logger {}
+
 data class ChildImage(val id: ChildImageId, val childId: ChildId, val updated: HelsinkiDateTime)
 
 val allowedContentTypes = setOf(ContentTypePattern.JPEG, ContentTypePattern.PNG)
 
+/** Longest side of a thumbnail in pixels. The mobile lists show images at most 128px wide */
+const val thumbnailSize = 256
+const val thumbnailContentType = "image/jpeg"
+private const val thumbnailQuality = 0.8f
+
 fun replaceImage(
     db: Database.Connection,
     documentClient: DocumentService,
@@ -24,15 +40,21 @@ fun replaceImage(
     file: MultipartFile,
     contentType: String,
 ): ChildImageId {
+    val bytes = file.bytes
+    val thumbnail = createThumbnail(bytes)
     var deletedId: ChildImageId? = null
     val imageId = db.transaction { tx ->
         deletedId = tx.deleteChildImage(childId)
-        val imageId = tx.insertChildImage(childId)
+        val imageId = tx.insertChildImage(childId, hasThumbnail = thumbnail != null)
 
-        documentClient.upload(DocumentKey.ChildImage(imageId), file.bytes, contentType)
+        documentClient.upload(DocumentKey.ChildImage(imageId), bytes, contentType)
+        if (thumbnail != null) {
+            val key = DocumentKey.ChildImageThumbnail(imageId)
+            documentClient.upload(key, thumbnail, thumbnailContentType)
+        }
         imageId
     }
-    deletedId?.let { documentClient.delete(DocumentKey.ChildImage(it)) }
+    deletedId?.let { deleteImageFile(documentClient, it) }
     return imageId
 }
 
@@ -45,4 +67,55 @@ fun deleteImage(
 
 fun deleteImageFile(documentClient: DocumentService, childImageId: ChildImageId) {
     documentClient.delete(DocumentKey.ChildImage(childImageId))
+    documentClient.delete(DocumentKey.ChildImageThumbnail(childImageId))
+}
+
+/**
+ * Scales the image down so that its longest side is at most [thumbnailSize] pixels and encodes it
+ * as a JPEG. Returns null if the image can't be decoded, in which case the original is served in
+ * place of the thumbnail.
+ */
+fun createThumbnail(bytes: ByteArray): ByteArray? {
+    val image =
+        try {
+            ImageIO.read(bytes.inputStream())
+        } catch (e: Exception) {
+            logger.warn(e) { "Failed to decode child image for thumbnail" }
+            null
+        } ?: return null
+
+    val scale = minOf(1.0, thumbnailSize.toDouble() / maxOf(image.width, image.height))
+    val width = maxOf(1, (image.width * scale).roundToInt())
+    val height = maxOf(1, (image.height * scale).roundToInt())
+    val thumbnail = BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+    val graphics = thumbnail.createGraphics()
+    try {
+        graphics.setRenderingHint(
+            RenderingHints.KEY_INTERPOLATION,
+            RenderingHints.VALUE_INTERPOLATION_BILINEAR,
+        )
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY)
+        // JPEG has no alpha channel, so transparent PNG pixels are painted white
+        graphics.drawImage(image, 0, 0, width, height, Color.WHITE, null)
+    } finally {
+        graphics.dispose()
+    }
+
+    val writer = ImageIO.getImageWritersByFormatName("jpeg").next()
+    return try {
+        ByteArrayOutputStream().use { output ->
+            ImageIO.createImageOutputStream(output).use { imageOutput ->
+                writer.output = imageOutput
+                val params =
+                    writer.defaultWriteParam.apply {
+                        compressionMode = ImageWriteParam.MODE_EXPLICIT
+                        compressionQuality = thumbnailQuality
+                    }
+                writer.write(null, IIOImage(thumbnail, null, null), params)
+            }
+            output.toByteArray()
+        }
+    } finally {
+        writer.dispose()
+    }
 }
@@ -18,13 +18,16 @@ import evaka.core.shared.domain.BadRequest
 import evaka.core.shared.domain.EvakaClock
 import evaka.core.shared.security.AccessControl
 import evaka.core.shared.security.Action
+import java.time.Duration
 import org.apache.commons.imaging.Imaging
+import org.springframework.http.CacheControl
 import org.springframework.http.MediaType
 import org.springframework.http.ResponseEntity
 import org.springframework.web.bind.annotation.DeleteMapping
 import org.springframework.web.bind.annotation.GetMapping
 import org.springframework.web.bind.annotation.PathVariable
 import org.springframework.web.bind.annotation.PutMapping
+import org.springframework.web.bind.annotation.RequestParam
 import org.springframework.web.bind.annotation.RequestPart
 import org.springframework.web.bind.annotation.RestController
 import org.springframework.web.multipart.MultipartFile
@@ -106,7 +109,7 @@ class ChildImageController(
         user: AuthenticatedUser.Citizen,
         clock: EvakaClock,
         @PathVariable imageId: ChildImageId,
-    ): ResponseEntity<Any> = getImageInternal(db, user, clock, imageId)
+    ): ResponseEntity<Any> = getImageInternal(db, user, clock, imageId, thumbnail = false)
 
     @ExcludeCodeGen
     @GetMapping("/employee-mobile/child-images/{imageId}")
@@ -115,15 +118,17 @@ class ChildImageController(
         user: AuthenticatedUser.MobileDevice,
         clock: EvakaClock,
         @PathVariable imageId: ChildImageId,
-    ): ResponseEntity<Any> = getImageInternal(db, user, clock, imageId)
+        @RequestParam thumbnail: Boolean = false,
+    ): ResponseEntity<Any> = getImageInternal(db, user, clock, imageId, thumbnail)
 
     private fun getImageInternal(
         db: Database,
         user: AuthenticatedUser,
         clock: EvakaClock,
         imageId: ChildImageId,
+        thumbnail: Boolean,
     ): ResponseEntity<Any> {
-        db.connect { dbc ->
+        val hasThumbnail = db.connect { dbc ->
             dbc.read {
                 accessControl.requirePermissionFor(
                     it,
@@ -132,12 +137,39 @@ class ChildImageController(
                     Action.ChildImage.DOWNLOAD,
                     imageId,
                 )
+                thumbnail && it.childImageHasThumbnail(imageId)
             }
         }
 
-        val documentLocation = documentClient.locate(DocumentKey.ChildImage(imageId))
-        return documentClient.responseInline(documentLocation, null).also {
-            Audit.ChildImageDownload.log(targetId = AuditId(imageId))
+        val documentLocation =
+            documentClient.locate(
+                if (hasThumbnail) DocumentKey.ChildImageThumbnail(imageId)
+                else DocumentKey.ChildImage(imageId)
+            )
+        val response = documentClient.responseInline(documentLocation, null)
+        // Until the thumbnail has been generated, the original is served under the thumbnail URL,
+        // so that response must not be cached
+        val servesFinalContent = !thumbnail || hasThumbnail
+        return (if (servesFinalContent) withImmutableCaching(response) else response).also {
+            Audit.ChildImageDownload.log(
+                targetId = AuditId(imageId),
+                meta = mapOf("thumbnail" to hasThumbnail),
+            )
         }
     }
+
+    /**
+     * A replaced image always gets a new id, so the content behind an image URL never changes and
+     * browsers may cache it for as long as they like. Redirects to short-lived presigned URLs (used
+     * when nginx is not available) must not be cached.
+     */
+    private fun withImmutableCaching(response: ResponseEntity<Any>): ResponseEntity<Any> =
+        if (response.statusCode.is2xxSuccessful) {
+            ResponseEntity.status(response.statusCode)
+                .headers(response.headers)
+                .cacheControl(CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable())
+                .body(response.body)
+        } else {
+            response
+        }
 }
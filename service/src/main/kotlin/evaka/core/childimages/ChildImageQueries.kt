@@ -8,10 +8,15 @@ import evaka.core.shared.ChildId
 import evaka.core.shared.ChildImageId
 import evaka.core.shared.db.Database
 
-fun Database.Transaction.insertChildImage(childId: ChildId): ChildImageId = createQuery {
+fun Database.Transaction.insertChildImage(
+    childId: ChildId,
+    hasThumbnail: Boolean = false,
+): ChildImageId = createQuery {
     sql(
         """
-        INSERT INTO child_images (child_id) VALUES (${bind(childId)}) RETURNING id
+INSERT INTO child_images (child_id, has_thumbnail)
+VALUES (${bind(childId)}, ${bind(hasThumbnail)})
+RETURNING id
     """
     )
 }
@@ -21,3 +26,29 @@ fun Database.Transaction.deleteChildImage(childId: ChildId): ChildImageId? = cre
     sql("DELETE FROM child_images WHERE child_id = ${bind(childId)} RETURNING id")
 }
     .exactlyOneOrNull<ChildImageId>()
+
+fun Database.Read.childImageHasThumbnail(imageId: ChildImageId): Boolean = createQuery {
+    sql("SELECT coalesce(has_thumbnail, FALSE) FROM child_images WHERE id = ${bind(imageId)}")
+}
+    .exactlyOneOrNull<Boolean>() ?: false
+
+fun Database.Read.getChildImagesWithPendingThumbnail(limit: Int): List<ChildImageId> =
+    createQuery {
+            sql(
+                """
+SELECT id FROM child_images
+WHERE has_thumbnail IS NULL
+ORDER BY created
+LIMIT ${bind(limit)}
+"""
+            )
+        }
+        .toList()
+
+fun Database.Transaction.setChildImageHasThumbnail(imageId: ChildImageId, hasThumbnail: Boolean) =
+    createUpdate {
+            sql(
+                "UPDATE child_images SET has_thumbnail = ${bind(hasThumbnail)} WHERE id = ${bind(imageId)}"
+            )
+        }
+        .execute()
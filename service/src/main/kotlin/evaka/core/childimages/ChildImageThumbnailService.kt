@@ -0,0 +1,56 @@
+// SPDX-FileCopyrightText: 2017-2025 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.childimages
+
+import evaka.core.s3.DocumentKey
+import evaka.core.s3.DocumentService
+import evaka.core.shared.async.AsyncJob
+import evaka.core.shared.async.AsyncJobRunner
+import evaka.core.shared.db.Database
+import evaka.core.shared.domain.EvakaClock
+import io.github.oshai.kotlinlogging.KotlinLogging
+import org.springframework.stereotype.Service
+
+private val logger = KotlinLogging.logger {}
+
+/** Generates thumbnails for child images uploaded before thumbnails were created on upload */
+@Service
+class ChildImageThumbnailService(
+    asyncJobRunner: AsyncJobRunner<AsyncJob>,
+    private val documentClient: DocumentService,
+) {
+    init {
+        asyncJobRunner.registerHandler(::generateChildImageThumbnails)
+    }
+
+    fun generateChildImageThumbnails(
+        db: Database.Connection,
+        clock: EvakaClock,
+        msg: AsyncJob.GenerateChildImageThumbnails,
+    ) {
+        val imageIds = db.read { tx -> tx.getChildImagesWithPendingThumbnail(msg.batchSize) }
+        var generated = 0
+        imageIds.forEach { imageId ->
+            val thumbnail =
+                try {
+                    val location = documentClient.locate(DocumentKey.ChildImage(imageId))
+                    createThumbnail(documentClient.get(location).bytes)
+                } catch (e: Exception) {
+                    logger.warn(e) { "Failed to read child image $imageId" }
+                    null
+                }
+            db.transaction { tx ->
+                if (thumbnail != null) {
+                    val key = DocumentKey.ChildImageThumbnail(imageId)
+                    documentClient.upload(key, thumbnail, thumbnailContentType)
+                    generated++
+                }
+                // Failed images are marked too, so they are not retried every night
+                tx.setChildImageHasThumbnail(imageId, hasThumbnail = thumbnail != null)
+            }
+        }
+        logger.info { "Generated $generated thumbnails for ${imageIds.size} child images" }
+    }
+}
@@ -8,6 +8,7 @@ import evaka.core.placement.ScheduleType
 import evaka.core.shared.ClubTermId
 import evaka.core.shared.data.DateSet
 import evaka.core.shared.db.Database
+import evaka.core.shared.db.ReferenceDataCache
 import evaka.core.shared.domain.EvakaClock
 import evaka.core.shared.domain.FiniteDateRange
 import evaka.core.shared.domain.toFiniteDateRange
@@ -35,19 +36,22 @@ data class ClubTerm(
         }
 }
 
-fun Database.Read.getClubTerms(range: FiniteDateRange?): List<ClubTerm> {
-    return createQuery {
-        sql(
-            """
-    SELECT id, term, application_period, term_breaks 
+private val clubTermCache =
+    ReferenceDataCache("club_term") { tx ->
+        tx.createQuery {
+                sql(
+                    """
+    SELECT id, term, application_period, term_breaks
     FROM club_term
-    ${if (range != null) "WHERE term && ${bind(range)}" else ""}
     ORDER BY term
     """
-        )
+                )
+            }
+            .toList<ClubTerm>()
     }
-        .toList()
-}
+
+fun Database.Read.getClubTerms(range: FiniteDateRange?): List<ClubTerm> =
+    clubTermCache.get(this).filter { range == null || it.term.overlaps(range) }
 
 fun Database.Read.getClubTerm(id: ClubTermId): ClubTerm? = createQuery {
     sql(
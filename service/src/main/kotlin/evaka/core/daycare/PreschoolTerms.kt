@@ -9,6 +9,7 @@ import evaka.core.placement.ScheduleType
 import evaka.core.shared.PreschoolTermId
 import evaka.core.shared.data.DateSet
 import evaka.core.shared.db.Database
+import evaka.core.shared.db.ReferenceDataCache
 import evaka.core.shared.domain.EvakaClock
 import evaka.core.shared.domain.FiniteDateRange
 import evaka.core.shared.domain.toFiniteDateRange
@@ -52,10 +53,11 @@ data class PreschoolTerm(
         }
 }
 
-fun Database.Read.getPreschoolTerms(range: FiniteDateRange?): List<PreschoolTerm> {
-    return createQuery {
-        sql(
-            """
+private val preschoolTermCache =
+    ReferenceDataCache("preschool_term") { tx ->
+        tx.createQuery {
+                sql(
+                    """
         SELECT
             id,
             finnish_preschool,
@@ -64,13 +66,15 @@ fun Database.Read.getPreschoolTerms(range: FiniteDateRange?): List<PreschoolTerm
             application_period,
             term_breaks
         FROM preschool_term
-        ${if (range != null) "WHERE extended_term && ${bind(range)}" else ""}
         ORDER BY extended_term
         """
-        )
+                )
+            }
+            .toList<PreschoolTerm>()
     }
-        .toList()
-}
+
+fun Database.Read.getPreschoolTerms(range: FiniteDateRange?): List<PreschoolTerm> =
+    preschoolTermCache.get(this).filter { range == null || it.extendedTerm.overlaps(range) }
 
 fun Database.Read.getPreschoolTerm(id: PreschoolTermId): PreschoolTerm? = createQuery {
     sql(
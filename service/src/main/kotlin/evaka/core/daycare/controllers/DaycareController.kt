@@ -8,11 +8,7 @@ import evaka.core.Audit
 import evaka.core.AuditId
 import evaka.core.absence.application.AbsenceApplicationStatus
 import evaka.core.absence.application.selectAbsenceApplications
-import evaka.core.application.getActiveTransferApplicationsFromUnit
-import evaka.core.backupcare.UnitBackupCare
-import evaka.core.backupcare.getBackupCaresForDaycare
 import evaka.core.daycare.CaretakerAmount
-import evaka.core.daycare.Caretakers
 import evaka.core.daycare.Daycare
 import evaka.core.daycare.DaycareFields
 import evaka.core.daycare.DaycareGroup
@@ -30,9 +26,7 @@ import evaka.core.daycare.getDaycareGroupSummaries
 import evaka.core.daycare.getDaycareGroups
 import evaka.core.daycare.getDaycareStub
 import evaka.core.daycare.getDaycares
-import evaka.core.daycare.getGroupStats
 import evaka.core.daycare.getLastGroupPlacementEndDate
-import evaka.core.daycare.getLastGroupPlacementEndDates
 import evaka.core.daycare.getLastPlacementDate
 import evaka.core.daycare.getOphUnitOIDs
 import evaka.core.daycare.getUnitFeatures
@@ -48,30 +42,13 @@ import evaka.core.daycare.updateUnitClosingDate
 import evaka.core.daycare.validateUnitClosingDate
 import evaka.core.messaging.createDaycareGroupMessageAccount
 import evaka.core.messaging.deleteDaycareGroupMessageAccount
-import evaka.core.occupancy.OccupancyPeriod
-import evaka.core.occupancy.OccupancyPeriodGroupLevel
-import evaka.core.occupancy.OccupancyResponse
-import evaka.core.occupancy.OccupancyType
-import evaka.core.occupancy.calculateOccupancyPeriodsGroupLevel
-import evaka.core.placement.DaycarePlacementWithDetails
-import evaka.core.placement.MissingBackupGroupPlacement
-import evaka.core.placement.MissingGroupPlacement
-import evaka.core.placement.TerminatedPlacement
-import evaka.core.placement.UnitChildrenCapacityFactors
-import evaka.core.placement.getDetailedDaycarePlacements
 import evaka.core.placement.getMissingGroupPlacements
-import evaka.core.placement.getTerminatedPlacements
-import evaka.core.placement.getUnitChildrenCapacities
 import evaka.core.placement.getWaitingUnitConfirmationApplicationsCount
 import evaka.core.placement.hasGroupPlacements
 import evaka.core.serviceneed.application.getUndecidedServiceApplicationsByUnit
-import evaka.core.shared.BackupCareId
-import evaka.core.shared.ChildId
 import evaka.core.shared.DaycareCaretakerId
 import evaka.core.shared.DaycareId
 import evaka.core.shared.GroupId
-import evaka.core.shared.GroupPlacementId
-import evaka.core.shared.PlacementId
 import evaka.core.shared.auth.AuthenticatedUser
 import evaka.core.shared.db.Database
 import evaka.core.shared.db.psqlCause
@@ -83,7 +60,6 @@ import evaka.core.shared.domain.NotFound
 import evaka.core.shared.security.AccessControl
 import evaka.core.shared.security.Action
 import evaka.core.shared.security.PilotFeature
-import evaka.core.shared.security.actionrule.AccessControlFilter
 import java.time.LocalDate
 import org.jdbi.v3.core.statement.UnableToExecuteStatementException
 import org.postgresql.util.PSQLState
@@ -627,8 +603,6 @@ class DaycareController(private val accessControl: AccessControl) {
         @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) from: LocalDate,
         @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) to: LocalDate,
     ): UnitGroupDetails {
-        val terminatedPlacementsViewWeeks = 2L
-        val period = FiniteDateRange(from, to)
         return db.connect { dbc ->
                 dbc.read { tx ->
                     accessControl.requirePermissionFor(
@@ -638,139 +612,12 @@ class DaycareController(private val accessControl: AccessControl) {
                         Action.Unit.READ_GROUP_DETAILS,
                         unitId,
                     )
-                    val groups = tx.getDaycareGroups(unitId, from, to)
-                    val groupLastPlacementDates = tx.getLastGroupPlacementEndDates(unitId)
-                    val placements = tx.getDetailedDaycarePlacements(unitId, null, period).toList()
-                    val backupCares = tx.getBackupCaresForDaycare(unitId, period)
-                    val (missingGroupPlacements, missingBackupPlacements) =
-                        if (
-                            accessControl.hasPermissionFor(
-                                tx,
-                                user,
-                                clock,
-                                Action.Unit.READ_MISSING_GROUP_PLACEMENTS,
-                                unitId,
-                            )
-                        ) {
-                            getMissingGroupPlacements(tx, unitId, clock.today().plusMonths(7))
-                        } else {
-                            Pair(emptyList(), emptyList())
-                        }
-                    val recentlyTerminatedPlacements =
-                        if (
-                            accessControl.hasPermissionFor(
-                                tx,
-                                user,
-                                clock,
-                                Action.Unit.READ_TERMINATED_PLACEMENTS,
-                                unitId,
-                            )
-                        ) {
-                            val terminatedPlacements =
-                                tx.getTerminatedPlacements(
-                                    clock.today(),
-                                    unitId,
-                                    clock.today().minusWeeks(terminatedPlacementsViewWeeks),
-                                    clock.today(),
-                                )
-                            val transferApplications =
-                                tx.getActiveTransferApplicationsFromUnit(unitId, clock.today())
-
-                            terminatedPlacements + transferApplications
-                        } else {
-                            emptyList()
-                        }
-                    val caretakers = tx.getGroupStats(unitId, FiniteDateRange(from, to))
-                    val backupCareIds =
-                        backupCares.map { it.id }.toSet() +
-                            missingBackupPlacements.map { it.backupCareId }.toSet()
-                    val placementIds =
-                        placements.map { it.id }.toSet() +
-                            missingGroupPlacements.map { it.placementId }.toSet()
-
-                    val childIds =
-                        placements.map { it.child.id }.toSet() +
-                            backupCares.map { it.child.id }.toSet()
-
-                    val serviceNeedPermissionByChild =
-                        accessControl.getPermittedActions<ChildId, Action.Child>(
-                            tx,
-                            user,
-                            clock,
-                            placements.map { it.child.id }.toSet(),
-                        )
-                    val responsePlacements = placements.map { placement ->
-                        if (
-                            serviceNeedPermissionByChild[placement.child.id]?.contains(
-                                Action.Child.READ_SERVICE_NEEDS
-                            ) == true
-                        ) {
-                            placement
-                        } else {
-                            placement.copy(serviceNeedDetail = null)
-                        }
-                    }
-
-                    val capacities =
-                        if (
-                            accessControl.hasPermissionFor(
-                                tx,
-                                user,
-                                clock,
-                                Action.Unit.READ_CHILD_CAPACITY_FACTORS,
-                                unitId,
-                            )
-                        ) {
-                            tx.getUnitChildrenCapacities(childIds, from)
-                        } else {
-                            listOf()
-                        }
-
-                    val groupOccupancies =
-                        if (
-                            accessControl.hasPermissionFor(
-                                tx,
-                                user,
-                                clock,
-                                Action.Unit.READ_OCCUPANCIES,
-                                unitId,
-                            )
-                        ) {
-                            getGroupOccupancies(
-                                tx,
-                                clock.today(),
-                                unitId,
-                                period,
-                                AccessControlFilter.PermitAll,
-                            )
-                        } else null
-
-                    UnitGroupDetails(
-                        groups = groups,
-                        groupLastPlacementDates = groupLastPlacementDates,
-                        placements = responsePlacements,
-                        backupCares = backupCares,
-                        missingGroupPlacements = missingGroupPlacements,
-                        missingBackupGroupPlacements = missingBackupPlacements,
-                        recentlyTerminatedPlacements = recentlyTerminatedPlacements,
-                        caretakers = caretakers,
-                        unitChildrenCapacityFactors = capacities,
-                        groupOccupancies = groupOccupancies,
-                        permittedBackupCareActions =
-                            accessControl.getPermittedActions(tx, user, clock, backupCareIds),
-                        permittedPlacementActions =
-                            accessControl.getPermittedActions(tx, user, clock, placementIds),
-                        permittedGroupPlacementActions =
-                            accessControl.getPermittedActions(
-                                tx,
-                                user,
-                                clock,
-                                placements.flatMap { placement ->
-                                    placement.groupPlacements.mapNotNull { groupPlacement ->
-                                        groupPlacement.id
-                                    }
-                                },
-                            ),
+                    tx.getUnitGroupDetails(
+                        accessControl,
+                        user,
+                        clock,
+                        unitId,
+                        FiniteDateRange(from, to),
                     )
                 }
             }
@@ -920,85 +767,3 @@ class DaycareController(private val accessControl: AccessControl) {
 
     data class UnitNotifications(val applications: Int, val groups: Int)
 }
-
-data class UnitGroupDetails(
-    val groups: List<DaycareGroup>,
-    val groupLastPlacementDates: Map<GroupId, LocalDate>,
-    val placements: List<DaycarePlacementWithDetails>,
-    val backupCares: List<UnitBackupCare>,
-    val missingGroupPlacements: List<MissingGroupPlacement>,
-    val missingBackupGroupPlacements: List<MissingBackupGroupPlacement>,
-    val recentlyTerminatedPlacements: List<TerminatedPlacement>,
-    val caretakers: Map<GroupId, Caretakers>,
-    val unitChildrenCapacityFactors: List<UnitChildrenCapacityFactors>,
-    val groupOccupancies: GroupOccupancies?,
-    val permittedBackupCareActions: Map<BackupCareId, Set<Action.BackupCare>>,
-    val permittedPlacementActions: Map<PlacementId, Set<Action.Placement>>,
-    val permittedGroupPlacementActions: Map<GroupPlacementId, Set<Action.GroupPlacement>>,
-)
-
-data class GroupOccupancies(
-    val confirmed: Map<GroupId, OccupancyResponse>,
-    val realized: Map<GroupId, OccupancyResponse>,
-)
-
-private fun getGroupOccupancies(
-    tx: Database.Read,
-    today: LocalDate,
-    unitId: DaycareId,
-    period: FiniteDateRange,
-    unitFilter: AccessControlFilter<DaycareId>,
-): GroupOccupancies {
-    return GroupOccupancies(
-        confirmed =
-            getGroupOccupancyResponses(
-                tx.calculateOccupancyPeriodsGroupLevel(
-                    today,
-                    unitId,
-                    period,
-                    OccupancyType.CONFIRMED,
-                    unitFilter,
-                )
-            ),
-        realized =
-            getGroupOccupancyResponses(
-                tx.calculateOccupancyPeriodsGroupLevel(
-                    today,
-                    unitId,
-                    period,
-                    OccupancyType.REALIZED,
-                    unitFilter,
-                )
-            ),
-    )
-}
-
-private fun getGroupOccupancyResponses(
-    occupancies: List<OccupancyPeriodGroupLevel>
-): Map<GroupId, OccupancyResponse> {
-    return occupancies
-        .groupBy { it.groupId }
-        .mapValues { (_, value) ->
-            val occupancyPeriods = value.map {
-                OccupancyPeriod(
-                    period = it.period,
-                    sum = it.sum,
-                    headcount = it.headcount,
-                    caretakers = it.caretakers,
-                    percentage = it.percentage,
-                )
-            }
-
-            OccupancyResponse(
-                occupancies = occupancyPeriods,
-                max =
-                    occupancyPeriods
-                        .filter { it.percentage != null }
-                        .maxByOrNull { it.percentage!! },
-                min =
-                    occupancyPeriods
-                        .filter { it.percentage != null }
-                        .minByOrNull { it.percentage!! },
-            )
-        }
-}
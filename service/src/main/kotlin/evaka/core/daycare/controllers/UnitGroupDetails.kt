@@ -0,0 +1,244 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.daycare.controllers
+
+import evaka.core.application.getActiveTransferApplicationsFromUnit
+import evaka.core.backupcare.UnitBackupCare
+import evaka.core.backupcare.getBackupCaresForDaycare
+import evaka.core.daycare.Caretakers
+import evaka.core.daycare.DaycareGroup
+import evaka.core.daycare.getDaycareGroups
+import evaka.core.daycare.getGroupStats
+import evaka.core.daycare.getLastGroupPlacementEndDates
+import evaka.core.occupancy.OccupancyPeriod
+import evaka.core.occupancy.OccupancyPeriodGroupLevel
+import evaka.core.occupancy.OccupancyResponse
+import evaka.core.occupancy.OccupancyType
+import evaka.core.occupancy.calculateOccupancyPeriodsGroupLevel
+import evaka.core.placement.DaycarePlacementWithDetails
+import evaka.core.placement.MissingBackupGroupPlacement
+import evaka.core.placement.MissingGroupPlacement
+import evaka.core.placement.TerminatedPlacement
+import evaka.core.placement.UnitChildrenCapacityFactors
+import evaka.core.placement.getDetailedDaycarePlacements
+import evaka.core.placement.getMissingGroupPlacements
+import evaka.core.placement.getTerminatedPlacements
+import evaka.core.placement.getUnitChildrenCapacities
+import evaka.core.shared.BackupCareId
+import evaka.core.shared.DaycareId
+import evaka.core.shared.GroupId
+import evaka.core.shared.GroupPlacementId
+import evaka.core.shared.PlacementId
+import evaka.core.shared.auth.AuthenticatedUser
+import evaka.core.shared.db.Database
+import evaka.core.shared.domain.EvakaClock
+import evaka.core.shared.domain.FiniteDateRange
+import evaka.core.shared.security.AccessControl
+import evaka.core.shared.security.Action
+import evaka.core.shared.security.actionrule.AccessControlFilter
+import java.time.LocalDate
+
+private const val TERMINATED_PLACEMENTS_VIEW_WEEKS = 2L
+
+/** Unit permissions that decide which optional parts are included in [UnitGroupDetails] */
+private val optionalUnitActions =
+    setOf(
+        Action.Unit.READ_MISSING_GROUP_PLACEMENTS,
+        Action.Unit.READ_TERMINATED_PLACEMENTS,
+        Action.Unit.READ_CHILD_CAPACITY_FACTORS,
+        Action.Unit.READ_OCCUPANCIES,
+    )
+
+data class UnitGroupDetails(
+    val groups: List<DaycareGroup>,
+    val groupLastPlacementDates: Map<GroupId, LocalDate>,
+    val placements: List<DaycarePlacementWithDetails>,
+    val backupCares: List<UnitBackupCare>,
+    val missingGroupPlacements: List<MissingGroupPlacement>,
+    val missingBackupGroupPlacements: List<MissingBackupGroupPlacement>,
+    val recentlyTerminatedPlacements: List<TerminatedPlacement>,
+    val caretakers: Map<GroupId, Caretakers>,
+    val unitChildrenCapacityFactors: List<UnitChildrenCapacityFactors>,
+    val groupOccupancies: GroupOccupancies?,
+    val permittedBackupCareActions: Map<BackupCareId, Set<Action.BackupCare>>,
+    val permittedPlacementActions: Map<PlacementId, Set<Action.Placement>>,
+    val permittedGroupPlacementActions: Map<GroupPlacementId, Set<Action.GroupPlacement>>,
+)
+
+data class GroupOccupancies(
+    val confirmed: Map<GroupId, OccupancyResponse>,
+    val realized: Map<GroupId, OccupancyResponse>,
+)
+
+/**
+ * Reads the groups, placements and backup cares of a unit during [period], as shown on the unit
+ * page.
+ *
+ * The caller must have checked [Action.Unit.READ_GROUP_DETAILS]. The permissions that decide the
+ * optional parts are evaluated together, and per-child permissions only for the one action that is
+ * needed, so that shared rule queries are executed once.
+ */
+fun Database.Read.getUnitGroupDetails(
+    accessControl: AccessControl,
+    user: AuthenticatedUser,
+    clock: EvakaClock,
+    unitId: DaycareId,
+    period: FiniteDateRange,
+): UnitGroupDetails {
+    val today = clock.today()
+    val unitActions =
+        accessControl
+            .getPermittedActions(
+                this,
+                user,
+                clock,
+                Action.Unit::class.java,
+                setOf(unitId),
+                actions = optionalUnitActions,
+            )
+            .getValue(unitId)
+
+    val groups = getDaycareGroups(unitId, period.start, period.end)
+    val groupLastPlacementDates = getLastGroupPlacementEndDates(unitId)
+    val placements = getDetailedDaycarePlacements(unitId, null, period).toList()
+    val backupCares = getBackupCaresForDaycare(unitId, period)
+    val (missingGroupPlacements, missingBackupPlacements) =
+        if (Action.Unit.READ_MISSING_GROUP_PLACEMENTS in unitActions) {
+            getMissingGroupPlacements(this, unitId, today.plusMonths(7))
+        } else {
+            Pair(emptyList(), emptyList())
+        }
+    val recentlyTerminatedPlacements =
+        if (Action.Unit.READ_TERMINATED_PLACEMENTS in unitActions) {
+            getTerminatedPlacements(
+                today,
+                unitId,
+                today.minusWeeks(TERMINATED_PLACEMENTS_VIEW_WEEKS),
+                today,
+            ) + getActiveTransferApplicationsFromUnit(unitId, today)
+        } else {
+            emptyList()
+        }
+    val caretakers = getGroupStats(unitId, period)
+    val childIds = placements.map { it.child.id }.toSet() + backupCares.map { it.child.id }.toSet()
+    val capacities =
+        if (Action.Unit.READ_CHILD_CAPACITY_FACTORS in unitActions) {
+            getUnitChildrenCapacities(childIds, period.start)
+        } else {
+            listOf()
+        }
+    val groupOccupancies =
+        if (Action.Unit.READ_OCCUPANCIES in unitActions) {
+            getGroupOccupancies(this, today, unitId, period, AccessControlFilter.PermitAll)
+        } else null
+
+    val serviceNeedPermissionByChild =
+        accessControl.getPermittedActions(
+            this,
+            user,
+            clock,
+            Action.Child::class.java,
+            placements.map { it.child.id }.toSet(),
+            actions = setOf(Action.Child.READ_SERVICE_NEEDS),
+        )
+    val responsePlacements = placements.map { placement ->
+        if (
+            serviceNeedPermissionByChild[placement.child.id]?.contains(
+                Action.Child.READ_SERVICE_NEEDS
+            ) == true
+        ) {
+            placement
+        } else {
+            placement.copy(serviceNeedDetail = null)
+        }
+    }
+
+    val backupCareIds =
+        backupCares.map { it.id }.toSet() + missingBackupPlacements.map { it.backupCareId }.toSet()
+    val placementIds =
+        placements.map { it.id }.toSet() + missingGroupPlacements.map { it.placementId }.toSet()
+    val groupPlacementIds = placements.flatMap { placement ->
+        placement.groupPlacements.mapNotNull { groupPlacement -> groupPlacement.id }
+    }
+    return UnitGroupDetails(
+        groups = groups,
+        groupLastPlacementDates = groupLastPlacementDates,
+        placements = responsePlacements,
+        backupCares = backupCares,
+        missingGroupPlacements = missingGroupPlacements,
+        missingBackupGroupPlacements = missingBackupPlacements,
+        recentlyTerminatedPlacements = recentlyTerminatedPlacements,
+        caretakers = caretakers,
+        unitChildrenCapacityFactors = capacities,
+        groupOccupancies = groupOccupancies,
+        permittedBackupCareActions =
+            accessControl.getPermittedActions(this, user, clock, backupCareIds),
+        permittedPlacementActions =
+            accessControl.getPermittedActions(this, user, clock, placementIds),
+        permittedGroupPlacementActions =
+            accessControl.getPermittedActions(this, user, clock, groupPlacementIds),
+    )
+}
+
+private fun getGroupOccupancies(
+    tx: Database.Read,
+    today: LocalDate,
+    unitId: DaycareId,
+    period: FiniteDateRange,
+    unitFilter: AccessControlFilter<DaycareId>,
+): GroupOccupancies {
+    return GroupOccupancies(
+        confirmed =
+            getGroupOccupancyResponses(
+                tx.calculateOccupancyPeriodsGroupLevel(
+                    today,
+                    unitId,
+                    period,
+                    OccupancyType.CONFIRMED,
+                    unitFilter,
+                )
+            ),
+        realized =
+            getGroupOccupancyResponses(
+                tx.calculateOccupancyPeriodsGroupLevel(
+                    today,
+                    unitId,
+                    period,
+                    OccupancyType.REALIZED,
+                    unitFilter,
+                )
+            ),
+    )
+}
+
+private fun getGroupOccupancyResponses(
+    occupancies: List<OccupancyPeriodGroupLevel>
+): Map<GroupId, OccupancyResponse> {
+    return occupancies
+        .groupBy { it.groupId }
+        .mapValues { (_, value) ->
+            val occupancyPeriods = value.map {
+                OccupancyPeriod(
+                    period = it.period,
+                    sum = it.sum,
+                    headcount = it.headcount,
+                    caretakers = it.caretakers,
+                    percentage = it.percentage,
+                )
+            }
+
+            OccupancyResponse(
+                occupancies = occupancyPeriods,
+                max =
+                    occupancyPeriods
+                        .filter { it.percentage != null }
+                        .maxByOrNull { it.percentage!! },
+                min =
+                    occupancyPeriods
+                        .filter { it.percentage != null }
+                        .minByOrNull { it.percentage!! },
+            )
+        }
+}
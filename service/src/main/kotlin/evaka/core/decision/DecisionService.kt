@@ -183,10 +183,9 @@ class DecisionService(
         preschoolManager: UnitManager,
         reasoning: PdfReasoning?,
     ): DocumentLocation {
-        val decisionBytes =
-            createDecisionPdf(
+        val page =
+            createDecisionPage(
                 templateProvider,
-                pdfGenerator,
                 settings,
                 decision,
                 child,
@@ -198,16 +197,11 @@ class DecisionService(
                 reasoning,
             )
 
-        return uploadPdfToS3(
-            DocumentKey.Decision(decision.id, decision.type, decisionLanguage),
-            decisionBytes,
-        )
-    }
-
-    private fun uploadPdfToS3(document: DocumentKey, bytes: ByteArray): DocumentLocation =
-        documentClient.upload(document, bytes, "application/pdf").also {
+        val key = DocumentKey.Decision(decision.id, decision.type, decisionLanguage)
+        return pdfGenerator.renderAndUpload(page, key).also {
             logger.debug { "PDF (object name: ${it.key}) uploaded to S3" }
         }
+    }
 
     fun deliverDecisionToGuardians(
         tx: Database.Transaction,
@@ -428,25 +422,49 @@ fun createDecisionPdf(
     unitManager: UnitManager,
     preschoolManager: UnitManager,
     reasoning: PdfReasoning? = null,
-): ByteArray {
-    val template = createTemplate(templateProvider, decision, isTransferApplication)
-    val isPartTimeDecision: Boolean = decision.type == DecisionType.DAYCARE_PART_TIME
-
-    val pages =
-        generateDecisionPages(
-            template,
-            lang,
+): ByteArray =
+    pdfService.render(
+        createDecisionPage(
+            templateProvider,
             settings,
             decision,
             child,
+            isTransferApplication,
+            serviceNeed,
+            lang,
             unitManager,
             preschoolManager,
-            isPartTimeDecision,
-            serviceNeed,
             reasoning,
         )
+    )
+
+private fun createDecisionPage(
+    templateProvider: ITemplateProvider,
+    settings: Map<SettingType, String>,
+    decision: Decision,
+    child: PersonDTO,
+    isTransferApplication: Boolean,
+    serviceNeed: ServiceNeed?,
+    lang: OfficialLanguage,
+    unitManager: UnitManager,
+    preschoolManager: UnitManager,
+    reasoning: PdfReasoning?,
+): Page {
+    val template = createTemplate(templateProvider, decision, isTransferApplication)
+    val isPartTimeDecision: Boolean = decision.type == DecisionType.DAYCARE_PART_TIME
 
-    return pdfService.render(pages)
+    return generateDecisionPages(
+        template,
+        lang,
+        settings,
+        decision,
+        child,
+        unitManager,
+        preschoolManager,
+        isPartTimeDecision,
+        serviceNeed,
+        reasoning,
+    )
 }
 
 internal fun generateDecisionPages(
@@ -4,11 +4,11 @@
 
 package evaka.core.document.archival
 
-import evaka.core.s3.Document
+import evaka.core.s3.DocumentStream
 
 interface ArchivalClient {
     fun putDocument(
-        documentContent: Document,
+        documentContent: DocumentStream,
         metadataXml: String,
         masterId: String,
         classId: String,
@@ -11,7 +11,7 @@ import evaka.core.document.childdocument.ChildDocumentDetails
 import evaka.core.invoicing.domain.FeeDecisionDetailed
 import evaka.core.invoicing.domain.VoucherValueDecisionDetailed
 import evaka.core.pis.service.PersonDTO
-import evaka.core.s3.Document
+import evaka.core.s3.DocumentStream
 import evaka.core.shared.ChildDocumentId
 import evaka.core.user.EvakaUser
 
@@ -20,21 +20,21 @@ interface ArchivalIntegrationClient {
         caseProcess: CaseProcess,
         child: PersonDTO,
         decision: Decision,
-        document: Document,
+        document: DocumentStream,
         user: EvakaUser,
     ): String?
 
     fun uploadFeeDecisionToArchive(
         caseProcess: CaseProcess,
         decision: FeeDecisionDetailed,
-        document: Document,
+        document: DocumentStream,
         user: EvakaUser,
     ): String?
 
     fun uploadVoucherValueDecisionToArchive(
         caseProcess: CaseProcess,
         decision: VoucherValueDecisionDetailed,
-        document: Document,
+        document: DocumentStream,
         user: EvakaUser,
     ): String?
 
@@ -44,7 +44,7 @@ interface ArchivalIntegrationClient {
         childInfo: PersonDTO,
         childDocumentDetails: ChildDocumentDetails,
         documentMetadata: DocumentMetadata,
-        documentContent: Document,
+        documentContent: DocumentStream,
         evakaUser: EvakaUser,
     ): String?
 
@@ -53,7 +53,7 @@ interface ArchivalIntegrationClient {
             caseProcess: CaseProcess,
             child: PersonDTO,
             decision: Decision,
-            document: Document,
+            document: DocumentStream,
             user: EvakaUser,
         ): String {
             throw RuntimeException("Decision archival not in use")
@@ -62,7 +62,7 @@ interface ArchivalIntegrationClient {
         override fun uploadFeeDecisionToArchive(
             caseProcess: CaseProcess,
             decision: FeeDecisionDetailed,
-            document: Document,
+            document: DocumentStream,
             user: EvakaUser,
         ): String {
             throw RuntimeException("Fee decision archival not in use")
@@ -71,7 +71,7 @@ interface ArchivalIntegrationClient {
         override fun uploadVoucherValueDecisionToArchive(
             caseProcess: CaseProcess,
             decision: VoucherValueDecisionDetailed,
-            document: Document,
+            document: DocumentStream,
             user: EvakaUser,
         ): String {
             throw RuntimeException("Voucher value decision archival not in use")
@@ -83,7 +83,7 @@ interface ArchivalIntegrationClient {
             childInfo: PersonDTO,
             childDocumentDetails: ChildDocumentDetails,
             documentMetadata: DocumentMetadata,
-            documentContent: Document,
+            documentContent: DocumentStream,
             evakaUser: EvakaUser,
         ): String {
             throw RuntimeException("Child document archival not in use")
@@ -4,6 +4,8 @@
 
 package evaka.core.document.archival
 
+import evaka.core.caseprocess.CaseProcess
+import evaka.core.caseprocess.DocumentMetadata
 import evaka.core.caseprocess.getCaseProcessByApplicationId
 import evaka.core.caseprocess.getCaseProcessByChildDocumentId
 import evaka.core.caseprocess.getCaseProcessByFeeDecisionId
@@ -13,6 +15,7 @@ import evaka.core.decision.Decision
 import evaka.core.decision.DecisionStatus
 import evaka.core.decision.getDecision
 import evaka.core.decision.markDecisionAsArchived
+import evaka.core.document.childdocument.ChildDocumentDetails
 import evaka.core.document.childdocument.getChildDocument
 import evaka.core.document.childdocument.getChildDocumentPublishedVersion
 import evaka.core.document.childdocument.markDocumentAsArchived
@@ -25,8 +28,10 @@ import evaka.core.invoicing.domain.FeeDecisionStatus
 import evaka.core.invoicing.domain.VoucherValueDecisionDetailed
 import evaka.core.invoicing.domain.VoucherValueDecisionStatus
 import evaka.core.pis.getPersonById
+import evaka.core.pis.service.PersonDTO
 import evaka.core.s3.DocumentKey
 import evaka.core.s3.DocumentService
+import evaka.core.shared.ChildDocumentId
 import evaka.core.shared.PersonId
 import evaka.core.shared.async.AsyncJob
 import evaka.core.shared.async.AsyncJobRunner
@@ -36,12 +41,18 @@ import evaka.core.shared.domain.BadRequest
 import evaka.core.shared.domain.EvakaClock
 import evaka.core.shared.domain.HelsinkiDateTime
 import evaka.core.shared.domain.NotFound
+import evaka.core.user.EvakaUser
 import evaka.core.user.getEvakaUser
 import io.github.oshai.kotlinlogging.KotlinLogging
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
 import org.springframework.stereotype.Service
 
 private val logger = KotlinLogging.logger {}
 
+/** Maximum number of concurrent uploads within one bulk archival job */
+const val BULK_ARCHIVAL_CONCURRENCY = 4
+
 @Service
 class ArchivalService(
     asyncJobRunner: AsyncJobRunner<AsyncJob>?,
@@ -62,6 +73,9 @@ class ArchivalService(
         asyncJobRunner?.registerHandler<AsyncJob.ArchiveChildDocument> { db, _, msg ->
             uploadChildDocumentToArchive(db, msg)
         }
+        asyncJobRunner?.registerHandler<AsyncJob.ArchiveChildDocuments> { db, clock, msg ->
+            uploadChildDocumentsToArchive(db, clock, msg)
+        }
     }
 
     fun uploadDecisionToArchive(
@@ -87,16 +101,16 @@ class ArchivalService(
         val documentKey =
             decision.documentKey
                 ?: throw NotFound("Document key not found for decision ${decision.id}")
-        val document = getDocument(DocumentKey.Decision(documentKey))
-
         val instanceId =
-            archivalIntegrationClient.uploadDecisionToArchive(
-                caseProcess,
-                child,
-                decision,
-                document,
-                user,
-            )
+            getDocumentStream(DocumentKey.Decision(documentKey)).use { document ->
+                archivalIntegrationClient.uploadDecisionToArchive(
+                    caseProcess,
+                    child,
+                    decision,
+                    document,
+                    user,
+                )
+            }
 
         db.transaction { tx -> tx.markDecisionAsArchived(decision.id, clock.now()) }
         logger.info { "Successfully archived decision ${decision.id} to instance $instanceId" }
@@ -123,15 +137,15 @@ class ArchivalService(
         val documentKey =
             decision.documentKey
                 ?: throw NotFound("Document key not found for fee decision ${decision.id}")
-        val document = getDocument(DocumentKey.FeeDecision(documentKey))
-
         val instanceId =
-            archivalIntegrationClient.uploadFeeDecisionToArchive(
-                caseProcess,
-                decision,
-                document,
-                user,
-            )
+            getDocumentStream(DocumentKey.FeeDecision(documentKey)).use { document ->
+                archivalIntegrationClient.uploadFeeDecisionToArchive(
+                    caseProcess,
+                    decision,
+                    document,
+                    user,
+                )
+            }
 
         db.transaction { tx -> tx.markFeeDecisionAsArchived(decision.id, clock.now()) }
         logger.info { "Successfully archived fee decision ${decision.id} to instance $instanceId" }
@@ -164,15 +178,15 @@ class ArchivalService(
                 ?: throw NotFound(
                     "Document key not found for voucher value decision ${decision.id}"
                 )
-        val document = getDocument(DocumentKey.VoucherValueDecision(documentKey))
-
         val instanceId =
-            archivalIntegrationClient.uploadVoucherValueDecisionToArchive(
-                caseProcess,
-                decision,
-                document,
-                user,
-            )
+            getDocumentStream(DocumentKey.VoucherValueDecision(documentKey)).use { document ->
+                archivalIntegrationClient.uploadVoucherValueDecisionToArchive(
+                    caseProcess,
+                    decision,
+                    document,
+                    user,
+                )
+            }
 
         db.transaction { tx -> tx.markVoucherValueDecisionAsArchived(decision.id, clock.now()) }
         logger.info {
@@ -185,19 +199,87 @@ class ArchivalService(
         logger.info { "Starting archival process for document $documentId" }
 
         val evakaUser = getUser(db, user)
+        val upload = db.read { tx -> tx.getChildDocumentUpload(documentId) }
+        val instanceId = uploadChildDocument(upload, evakaUser)
+
+        db.transaction { tx -> tx.markDocumentAsArchived(documentId, HelsinkiDateTime.now()) }
+        logger.info { "Successfully archived document $documentId to instance $instanceId" }
+    }
+
+    /**
+     * Archives a group of child documents in one job. The documents are read in one transaction,
+     * uploaded on at most [concurrency] threads, and the successfully uploaded ones are marked as
+     * archived in one transaction. Failed documents don't stop the others, but fail the job after
+     * all uploads have finished.
+     */
+    fun uploadChildDocumentsToArchive(
+        db: Database.Connection,
+        clock: EvakaClock,
+        msg: AsyncJob.ArchiveChildDocuments,
+        concurrency: Int = BULK_ARCHIVAL_CONCURRENCY,
+    ) {
+        val documentIds = msg.documentIds
+        logger.info { "Starting bulk archival process for ${documentIds.size} documents" }
 
-        val document = db.read { tx ->
-            tx.getChildDocument(msg.documentId) ?: throw NotFound("document $documentId not found")
+        val evakaUser = getUser(db, msg.user)
+        val uploads = db.read { tx ->
+            documentIds.map { documentId -> runCatching { tx.getChildDocumentUpload(documentId) } }
         }
-        val childInfo = getPerson(db, document.child.id)
-        val caseProcess = db.read { tx -> tx.getCaseProcessByChildDocumentId(documentId) }
-        val documentMetadata = db.read { tx -> tx.getChildDocumentMetadata(documentId) }
+        val tasks = uploads.map { upload ->
+            Callable { upload.mapCatching { uploadChildDocument(it, evakaUser) } }
+        }
+        val results =
+            Executors.newFixedThreadPool(concurrency).use { it.invokeAll(tasks) }.map { it.get() }
 
-        val publishedVersion = db.read { tx -> tx.getChildDocumentPublishedVersion(documentId) }
+        val archived = documentIds.zip(results).filter { (_, result) -> result.isSuccess }
+        db.transaction { tx ->
+            archived.forEach { (documentId, _) ->
+                tx.markDocumentAsArchived(documentId, clock.now())
+            }
+        }
+        archived.forEach { (documentId, result) ->
+            logger.info {
+                "Successfully archived document $documentId to instance ${result.getOrNull()}"
+            }
+        }
 
-        if (publishedVersion == null) {
-            throw NotFound("No published version found for document $documentId")
+        val errors = documentIds.zip(results).mapNotNull { (documentId, result) ->
+            result.exceptionOrNull()?.also { logger.error(it) { "Failed to archive $documentId" } }
+        }
+        if (errors.isNotEmpty()) {
+            val error =
+                RuntimeException(
+                    "Failed to archive ${errors.size} of ${documentIds.size} documents",
+                    errors.first(),
+                )
+            errors.drop(1).forEach { error.addSuppressed(it) }
+            throw error
         }
+    }
+
+    private class ChildDocumentUpload(
+        val documentId: ChildDocumentId,
+        val details: ChildDocumentDetails,
+        val childInfo: PersonDTO,
+        val caseProcess: CaseProcess?,
+        val metadata: DocumentMetadata,
+        val documentKey: String,
+    )
+
+    private fun Database.Read.getChildDocumentUpload(
+        documentId: ChildDocumentId
+    ): ChildDocumentUpload {
+        val document =
+            getChildDocument(documentId) ?: throw NotFound("document $documentId not found")
+        val childInfo =
+            getPersonById(document.child.id)
+                ?: throw IllegalStateException("No person found with ${document.child.id}")
+        val caseProcess = getCaseProcessByChildDocumentId(documentId)
+        val documentMetadata = getChildDocumentMetadata(documentId)
+
+        val publishedVersion =
+            getChildDocumentPublishedVersion(documentId)
+                ?: throw NotFound("No published version found for document $documentId")
 
         if (publishedVersion.documentKey == null) {
             throw IllegalStateException(
@@ -205,22 +287,28 @@ class ArchivalService(
             )
         }
 
-        val documentContent = getDocument(DocumentKey.ChildDocument(publishedVersion.documentKey))
+        return ChildDocumentUpload(
+            documentId,
+            document,
+            childInfo,
+            caseProcess,
+            documentMetadata,
+            publishedVersion.documentKey,
+        )
+    }
 
-        val instanceId =
+    private fun uploadChildDocument(upload: ChildDocumentUpload, evakaUser: EvakaUser): String? =
+        getDocumentStream(DocumentKey.ChildDocument(upload.documentKey)).use { documentContent ->
             archivalIntegrationClient.uploadChildDocumentToArchive(
-                caseProcess = caseProcess,
-                documentId = documentId,
-                childInfo = childInfo,
-                childDocumentDetails = document,
-                documentMetadata = documentMetadata,
+                caseProcess = upload.caseProcess,
+                documentId = upload.documentId,
+                childInfo = upload.childInfo,
+                childDocumentDetails = upload.details,
+                documentMetadata = upload.metadata,
                 documentContent = documentContent,
                 evakaUser = evakaUser,
             )
-
-        db.transaction { tx -> tx.markDocumentAsArchived(documentId, HelsinkiDateTime.now()) }
-        logger.info { "Successfully archived document $documentId to instance $instanceId" }
-    }
+        }
 
     private fun getUser(db: Database.Connection, user: AuthenticatedUser?) =
         (user ?: AuthenticatedUser.SystemInternalUser).let {
@@ -234,7 +322,9 @@ class ArchivalService(
         tx.getPersonById(personId) ?: throw IllegalStateException("No person found with $personId")
     }
 
-    private fun getDocument(key: DocumentKey) = documentClient.get(documentClient.locate(key))
+    /** Opens the document for streaming, so that it's never held in memory as a whole */
+    private fun getDocumentStream(key: DocumentKey) =
+        documentClient.getStream(documentClient.locate(key))
 }
 
 fun validateArchivability(decision: Decision) {
@@ -20,6 +20,7 @@ fun planChildDocumentArchival(
     asyncJobRunner: AsyncJobRunner<AsyncJob>,
     delayDays: Int,
     limit: Int = 0,
+    bulkSize: Int = 0,
 ) {
     logger.info(mapOf("eventCode" to "CHILD_DOCUMENT_ARCHIVAL_PLANNING_STARTED")) {
         "Planning child document archival jobs (delay: $delayDays days, limit: ${if (limit > 0) limit else "none"})"
@@ -44,8 +45,14 @@ fun planChildDocumentArchival(
     db.transaction { tx ->
         asyncJobRunner.plan(
             tx,
-            documentIds.asSequence().map { documentId ->
-                AsyncJob.ArchiveChildDocument(user = null, documentId = documentId)
+            if (bulkSize > 0) {
+                documentIds.asSequence().chunked(bulkSize).map { chunk ->
+                    AsyncJob.ArchiveChildDocuments(user = null, documentIds = chunk)
+                }
+            } else {
+                documentIds.asSequence().map { documentId ->
+                    AsyncJob.ArchiveChildDocument(user = null, documentId = documentId)
+                }
             },
             retryCount = 1, // Run once, no retries on failure
             runAt = clock.now(),
@@ -26,6 +26,7 @@ import evaka.core.shared.db.PredicateSql
 import evaka.core.shared.domain.DateRange
 import evaka.core.shared.domain.HelsinkiDateTime
 import evaka.core.shared.domain.NotFound
+import evaka.core.shared.domain.toFiniteDateRange
 import java.time.LocalDate
 import org.jdbi.v3.json.Json
 
@@ -499,6 +500,33 @@ fun Database.Transaction.updateChildDocumentStatus(
         .updateExactlyOne()
 }
 
+/**
+ * Returns up to [limit] published but not yet completed documents whose template is no longer
+ * valid on [today] and whose type is completed automatically at the end of validity.
+ */
+fun Database.Read.getChildDocumentIdsToCompleteAtEndOfTerm(
+    today: LocalDate,
+    limit: Int,
+): List<ChildDocumentId> = createQuery {
+    sql(
+        """
+SELECT cd.id
+FROM child_document cd
+JOIN document_template dt on dt.id = cd.template_id
+WHERE dt.validity << ${bind(today.toFiniteDateRange())}
+    AND dt.type = ANY (${bind(ChildDocumentType.entries.filter { it.autoCompleteAtEndOfValidity })})
+    AND cd.status <> 'COMPLETED'
+    AND EXISTS (
+        SELECT 1 FROM child_document_published_version v
+        WHERE v.child_document_id = cd.id
+    )
+ORDER BY cd.id
+LIMIT ${bind(limit)}
+"""
+    )
+}
+    .toList<ChildDocumentId>()
+
 fun Database.Transaction.markCompletedAndPublish(
     ids: List<ChildDocumentId>,
     now: HelsinkiDateTime,
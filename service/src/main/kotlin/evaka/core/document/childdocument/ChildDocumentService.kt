@@ -6,7 +6,7 @@ package evaka.core.document.childdocument
 
 import evaka.core.EmailEnv
 import evaka.core.caseprocess.CaseProcessState
-import evaka.core.caseprocess.autoCompleteDocumentCaseProcessHistory
+import evaka.core.caseprocess.autoCompleteDocumentCaseProcessHistories
 import evaka.core.caseprocess.getCaseProcessByChildDocumentId
 import evaka.core.caseprocess.insertCaseProcessHistoryRow
 import evaka.core.daycare.domain.Language
@@ -30,6 +30,7 @@ import evaka.core.sficlient.storeSentSfiMessage
 import evaka.core.shared.ChildDocumentId
 import evaka.core.shared.async.AsyncJob
 import evaka.core.shared.async.AsyncJobRunner
+import evaka.core.shared.async.JobParams
 import evaka.core.shared.auth.AuthenticatedUser
 import evaka.core.shared.db.Database
 import evaka.core.shared.domain.EvakaClock
@@ -38,15 +39,24 @@ import evaka.core.shared.domain.HelsinkiDateTime
 import evaka.core.shared.domain.NotFound
 import evaka.core.shared.domain.OfficialLanguage
 import evaka.core.shared.domain.UiLanguage
-import evaka.core.shared.domain.toFiniteDateRange
 import evaka.core.shared.message.IMessageProvider
 import io.github.oshai.kotlinlogging.KotlinLogging
+import java.time.Duration
 import java.time.LocalDate
 import org.springframework.http.ResponseEntity
 import org.springframework.stereotype.Service
 
 private val logger = KotlinLogging.logger {}
 
+/** Documents completed per transaction at the end of term */
+private const val END_OF_TERM_BATCH_SIZE = 500
+
+/**
+ * Rate of PDF generation for documents completed at the end of term. The main async job pool has
+ * only a few workers, so this leaves room for other jobs.
+ */
+private const val END_OF_TERM_PDFS_PER_MINUTE = 100
+
 enum class EmailNotificationPolicy {
     NEVER,
     ON_NEW_VERSION,
@@ -98,12 +108,13 @@ class ChildDocumentService(
             generateChildDocumentHtml(
                 document.copy(content = versionContent, publishedContent = versionContent)
             )
-        val pdfBytes = pdfGenerator.render(html)
+        val location =
+            pdfGenerator.renderAndUpload(
+                html,
+                DocumentKey.ChildDocument(documentId, requestedVersion),
+            )
 
         db.transaction { tx ->
-            val versionedKey = DocumentKey.ChildDocument(documentId, requestedVersion)
-            val location = documentClient.upload(versionedKey, pdfBytes, "application/pdf")
-
             tx.updateChildDocumentPublishedVersionKey(documentId, requestedVersion, location.key)
 
             // Delete old read markers now that new a PDF is ready to download
@@ -242,43 +253,81 @@ class ChildDocumentService(
         return documentClient.responseAttachment(documentLocation, null)
     }
 
+    /**
+     * Completes and publishes the documents whose template validity has ended.
+     *
+     * Documents are handled in batches, each in its own transaction, so that a large number of
+     * documents doesn't keep one transaction open for long. Completed documents are no longer
+     * selected, so an interrupted run continues from where it stopped the next time it runs.
+     *
+     * @return the number of completed documents
+     */
     fun completeAndPublishChildDocumentsAtEndOfTerm(
-        tx: Database.Transaction,
+        db: Database.Connection,
         now: HelsinkiDateTime,
-    ) {
-        val documentIds =
-            tx.createQuery {
-                    sql(
-                        """
-                SELECT cd.id
-                FROM child_document cd
-                JOIN document_template dt on dt.id = cd.template_id
-                WHERE dt.validity << ${bind(now.toLocalDate().toFiniteDateRange())} 
-                    AND dt.type = ANY (${bind(
-                        ChildDocumentType.entries.filter { it.autoCompleteAtEndOfValidity }
-                    )})
-                    AND cd.status <> 'COMPLETED'
-                    AND EXISTS (
-                        SELECT 1 FROM child_document_published_version v
-                        WHERE v.child_document_id = cd.id
-                    )
-            """
-                    )
+    ): Int {
+        var completed = 0
+        var pdfsPlanned = 0
+        do {
+            val batch =
+                db.transaction { tx ->
+                    val documentIds =
+                        tx.getChildDocumentIdsToCompleteAtEndOfTerm(
+                            now.toLocalDate(),
+                            limit = END_OF_TERM_BATCH_SIZE,
+                        )
+                    if (documentIds.isNotEmpty()) {
+                        val versionMap = tx.markCompletedAndPublish(documentIds, now)
+                        if (versionMap.isNotEmpty()) {
+                            scheduleEndOfTermPdfGeneration(tx, versionMap, now, pdfsPlanned)
+                            scheduleEmailNotification(tx, versionMap.keys.toList(), now)
+                            pdfsPlanned += versionMap.size
+                        }
+                        tx.autoCompleteDocumentCaseProcessHistories(documentIds, now)
+                    }
+                    documentIds
                 }
-                .toList<ChildDocumentId>()
+            completed += batch.size
+        } while (batch.size == END_OF_TERM_BATCH_SIZE)
 
-        if (documentIds.isNotEmpty()) {
-            val versionMap = tx.markCompletedAndPublish(documentIds, now)
+        logger.info { "Completed $completed child documents at the end of term" }
+        return completed
+    }
 
-            if (versionMap.isNotEmpty()) {
-                schedulePdfGeneration(tx, AuthenticatedUser.SystemInternalUser, versionMap, now)
-                scheduleEmailNotification(tx, versionMap.keys.toList(), now)
-            }
+    /**
+     * Plans PDF generation at a steady rate of [END_OF_TERM_PDFS_PER_MINUTE] instead of all at
+     * once. Jobs are claimed in run_at order, so other jobs planned in the meantime don't have to
+     * wait until every PDF has been generated.
+     *
+     * @param alreadyPlanned the number of PDFs planned by earlier batches of the same run
+     */
+    private fun scheduleEndOfTermPdfGeneration(
+        tx: Database.Transaction,
+        documentVersions: Map<ChildDocumentId, Int>,
+        now: HelsinkiDateTime,
+        alreadyPlanned: Int,
+    ) {
+        logger.info { "Scheduling generation of ${documentVersions.size} child document pdfs" }
 
-            documentIds.forEach { documentId ->
-                autoCompleteDocumentCaseProcessHistory(tx = tx, documentId = documentId, now = now)
-            }
-        }
+        asyncJobRunner.plan(
+            tx,
+            documentVersions.entries.mapIndexed { index, (documentId, versionNumber) ->
+                JobParams(
+                    payload =
+                        AsyncJob.CreateChildDocumentPdf(
+                            documentId,
+                            versionNumber,
+                            AuthenticatedUser.SystemInternalUser,
+                        ),
+                    retryCount = 10,
+                    retryInterval = Duration.ofMinutes(5),
+                    runAt =
+                        now.plusSeconds(
+                            (alreadyPlanned + index) * 60L / END_OF_TERM_PDFS_PER_MINUTE
+                        ),
+                )
+            },
+        )
     }
 
     fun scheduleEmailNotification(
@@ -286,9 +335,7 @@ class ChildDocumentService(
         ids: List<ChildDocumentId>,
         now: HelsinkiDateTime,
     ) {
-        val payloads: List<AsyncJob.SendChildDocumentNotificationEmail> = ids.flatMap {
-            getChildDocumentNotifications(tx, it, now.toLocalDate())
-        }
+        val payloads = getChildDocumentNotifications(tx, ids, now.toLocalDate())
 
         logger.info { "Scheduling sending of ${payloads.size} child document notification emails" }
         asyncJobRunner.plan(tx, payloads = payloads, runAt = now, retryCount = 10)
@@ -357,28 +404,28 @@ class ChildDocumentService(
 
     private fun getChildDocumentNotifications(
         tx: Database.Read,
-        documentId: ChildDocumentId,
+        documentIds: List<ChildDocumentId>,
         today: LocalDate,
     ): List<AsyncJob.SendChildDocumentNotificationEmail> {
         return tx.createQuery {
                 sql(
                     """
 WITH child_document AS (
-    SELECT child_id, type, status
+    SELECT id, child_id, type, status
     FROM child_document
-    WHERE id = ${bind(documentId)}
+    WHERE id = ANY(${bind(documentIds)})
 ), parents AS (
-    SELECT g.guardian_id AS parent_id, child_document.child_id, child_document.type, child_document.status
+    SELECT g.guardian_id AS parent_id, child_document.id AS document_id, child_document.child_id, child_document.type, child_document.status
     FROM guardian g
     JOIN child_document ON child_document.child_id = g.child_id
     
     UNION DISTINCT 
     
-    SELECT fp.parent_id, child_document.child_id, child_document.type, child_document.status
+    SELECT fp.parent_id, child_document.id AS document_id, child_document.child_id, child_document.type, child_document.status
     FROM foster_parent fp
     JOIN child_document ON child_document.child_id = fp.child_id AND fp.valid_during @> ${bind(today)}
 )
-SELECT parents.child_id, parents.type AS document_type, parents.status AS document_status, person.id AS recipient_id, person.language
+SELECT parents.document_id, parents.child_id, parents.type AS document_type, parents.status AS document_status, person.id AS recipient_id, person.language
 FROM parents 
 JOIN person ON person.id = parents.parent_id
 WHERE person.email IS NOT NULL AND person.email != ''
@@ -404,7 +451,7 @@ WHERE person.email IS NOT NULL AND person.email != ''
                     }
 
                 AsyncJob.SendChildDocumentNotificationEmail(
-                    documentId = documentId,
+                    documentId = column("document_id"),
                     childId = column("child_id"),
                     recipientId = column("recipient_id"),
                     language = getLanguage(column("language")),
@@ -32,9 +32,24 @@ private constructor(
             fromAddress: FromAddress,
             content: EmailContent,
             traceId: String,
+        ): Email? =
+            create(
+                dbc.read { tx -> tx.getEmailRecipient(personId) },
+                emailType,
+                fromAddress,
+                content,
+                traceId,
+            )
+
+        /** Like the other [create], but with the recipient already read by [getEmailRecipients] */
+        fun create(
+            recipient: EmailRecipient,
+            emailType: EmailMessageType,
+            fromAddress: FromAddress,
+            content: EmailContent,
+            traceId: String,
         ): Email? {
-            val (toAddress, disabledEmailTypes) =
-                dbc.read { tx -> tx.getEmailAddressAndDisabledTypes(personId) }
+            val (personId, toAddress, disabledEmailTypes) = recipient
 
             if (toAddress == null) {
                 logger.warn {
@@ -101,17 +116,30 @@ interface EmailClient {
     fun send(email: Email)
 }
 
-private data class EmailAndEnabledEmailTypes(
+data class EmailRecipient(
+    val personId: PersonId,
     val email: String?,
     val disabledEmailTypes: Set<EmailMessageType>,
 )
 
-private fun Database.Read.getEmailAddressAndDisabledTypes(
-    personId: PersonId
-): EmailAndEnabledEmailTypes {
+private fun Database.Read.getEmailRecipient(personId: PersonId): EmailRecipient {
     return createQuery {
-        sql("""SELECT email, disabled_email_types FROM person WHERE id = ${bind(personId)}""")
+        sql(
+            """SELECT id AS person_id, email, disabled_email_types FROM person WHERE id = ${bind(personId)}"""
+        )
     }
-        .exactlyOne<EmailAndEnabledEmailTypes>()
+        .exactlyOne<EmailRecipient>()
         .let { it.copy(email = it.email?.trim()) }
 }
+
+/** Reads the email recipients of many persons at once. Persons that don't exist are left out */
+fun Database.Read.getEmailRecipients(
+    personIds: Collection<PersonId>
+): Map<PersonId, EmailRecipient> =
+    createQuery {
+            sql(
+                """SELECT id AS person_id, email, disabled_email_types FROM person WHERE id = ANY(${bind(personIds)})"""
+            )
+        }
+        .toList<EmailRecipient>()
+        .associate { it.personId to it.copy(email = it.email?.trim()) }
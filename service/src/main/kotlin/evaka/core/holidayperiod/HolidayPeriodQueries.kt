@@ -7,6 +7,7 @@ package evaka.core.holidayperiod
 import evaka.core.shared.HolidayPeriodId
 import evaka.core.shared.db.Database
 import evaka.core.shared.db.Predicate
+import evaka.core.shared.db.ReferenceDataCache
 import evaka.core.shared.domain.FiniteDateRange
 import java.time.LocalDate
 
@@ -22,8 +23,13 @@ WHERE ${predicate(where.forTable("h"))}
     }
     .mapTo<HolidayPeriod>()
 
+private val holidayPeriodCache =
+    ReferenceDataCache("holiday_period") { tx ->
+        tx.getHolidayPeriods(Predicate.alwaysTrue()).toList().sortedBy { it.period.start }
+    }
+
 fun Database.Read.getHolidayPeriodsInRange(range: FiniteDateRange): List<HolidayPeriod> =
-    getHolidayPeriods(Predicate { where("$it.period && ${bind(range)}") }).toList()
+    holidayPeriodCache.get(this).filter { it.period.overlaps(range) }
 
 fun Database.Read.getHolidayPeriodsWithReservationDeadline(
     reservationDeadline: LocalDate
@@ -33,8 +39,7 @@ fun Database.Read.getHolidayPeriodsWithReservationDeadline(
         )
         .toList()
 
-fun Database.Read.getHolidayPeriods(): List<HolidayPeriod> =
-    getHolidayPeriods(Predicate.alwaysTrue()).toList().sortedBy { it.period.start }
+fun Database.Read.getHolidayPeriods(): List<HolidayPeriod> = holidayPeriodCache.get(this)
 
 fun Database.Read.getHolidayPeriod(id: HolidayPeriodId): HolidayPeriod? =
     getHolidayPeriods(Predicate { where("$it.id = ${bind(id)}") }).exactlyOneOrNull()
@@ -277,19 +277,19 @@ INSERT INTO fee_decision (
     ${bind { it.created }},
     NULL
 ) ON CONFLICT (id) DO UPDATE SET
-    status = ${bind { it.status }},
-    decision_number = ${bind { it.decisionNumber }},
-    decision_type = ${bind { it.decisionType }},
-    valid_during = ${bind { it.validDuring }},
-    head_of_family_id = ${bind { it.headOfFamilyId }},
-    partner_id = ${bind { it.partnerId }},
-    head_of_family_income = ${bindJson { it.headOfFamilyIncome }},
-    partner_income = ${bindJson { it.partnerIncome }},
-    family_size = ${bind { it.familySize }},
-    fee_thresholds = ${bindJson { it.feeThresholds }},
-    difference = ${bind { it.difference }},
-    total_fee = ${bind { it.totalFee }},
-    created = ${bind { it.created }}
+    status = excluded.status,
+    decision_number = excluded.decision_number,
+    decision_type = excluded.decision_type,
+    valid_during = excluded.valid_during,
+    head_of_family_id = excluded.head_of_family_id,
+    partner_id = excluded.partner_id,
+    head_of_family_income = excluded.head_of_family_income,
+    partner_income = excluded.partner_income,
+    family_size = excluded.family_size,
+    fee_thresholds = excluded.fee_thresholds,
+    difference = excluded.difference,
+    total_fee = excluded.total_fee,
+    created = excluded.created
 """
         )
     }
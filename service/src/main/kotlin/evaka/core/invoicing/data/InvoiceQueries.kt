@@ -28,6 +28,7 @@ import evaka.core.shared.domain.HelsinkiDateTime
 import evaka.core.shared.mapToPaged
 import java.time.LocalDate
 import java.time.YearMonth
+import java.util.UUID
 
 fun invoiceDetailedQuery(where: Predicate) = QuerySql {
     sql(
@@ -497,11 +498,17 @@ fun Database.Transaction.insertDraftInvoices(
 private fun Database.Transaction.insertInvoicesWithoutRows(
     status: InvoiceStatus,
     invoices: List<DraftInvoice>,
-): List<InvoiceId> =
-    prepareBatch(invoices) {
-            sql(
-                """
+): List<InvoiceId> {
+    if (invoices.isEmpty()) return emptyList()
+
+    // Generated here so that the returned ids are guaranteed to be in the same order as invoices
+    val ids = invoices.map { InvoiceId(UUID.randomUUID()) }
+    val rows = ids.zip(invoices)
+    execute {
+        sql(
+            """
 INSERT INTO invoice (
+    id,
     status,
     period_start,
     period_end,
@@ -512,32 +519,58 @@ INSERT INTO invoice (
     codebtor,
     revision_number,
     replaced_invoice_id
-) VALUES (
+)
+SELECT
+    id,
     ${bind(status)},
-    ${bind { it.periodStart }},
-    ${bind { it.periodEnd }},
-    ${bind { it.dueDate }},
-    ${bind { it.invoiceDate }},
-    ${bind { it.areaId }},
-    ${bind { it.headOfFamily }},
-    ${bind { it.codebtor }},
-    ${bind { it.revisionNumber }},
-    ${bind { it.replacedInvoiceId }}
-) RETURNING id
+    period_start,
+    period_end,
+    due_date,
+    invoice_date,
+    area_id,
+    head_of_family,
+    codebtor,
+    revision_number,
+    replaced_invoice_id
+FROM unnest(
+    ${bindColumn(rows) { (id, _) -> id }},
+    ${bindColumn(rows) { (_, invoice) -> invoice.periodStart }},
+    ${bindColumn(rows) { (_, invoice) -> invoice.periodEnd }},
+    ${bindColumn(rows) { (_, invoice) -> invoice.dueDate }},
+    ${bindColumn(rows) { (_, invoice) -> invoice.invoiceDate }},
+    ${bindColumn(rows) { (_, invoice) -> invoice.areaId }},
+    ${bindColumn(rows) { (_, invoice) -> invoice.headOfFamily }},
+    ${bindColumn(rows) { (_, invoice) -> invoice.codebtor }},
+    ${bindColumn(rows) { (_, invoice) -> invoice.revisionNumber }},
+    ${bindColumn(rows) { (_, invoice) -> invoice.replacedInvoiceId }}
+) AS t(
+    id,
+    period_start,
+    period_end,
+    due_date,
+    invoice_date,
+    area_id,
+    head_of_family,
+    codebtor,
+    revision_number,
+    replaced_invoice_id
+)
 """
-            )
-        }
-        .executeAndReturn()
-        .toList()
+        )
+    }
+    return ids
+}
 
 private fun Database.Transaction.insertInvoiceRows(
     invoiceRows: List<Pair<InvoiceId, List<DraftInvoiceRow>>>
 ) {
-    val batchRows: Sequence<Triple<InvoiceId, Int, DraftInvoiceRow>> =
-        invoiceRows.asSequence().flatMap { (invoiceId, rows) ->
+    val rows: List<Triple<InvoiceId, Int, DraftInvoiceRow>> =
+        invoiceRows.flatMap { (invoiceId, rows) ->
             rows.withIndex().map { (idx, row) -> Triple(invoiceId, idx, row) }
         }
-    executeBatch(batchRows) {
+    if (rows.isEmpty()) return
+
+    execute {
         sql(
             """
 INSERT INTO invoice_row (
@@ -552,18 +585,19 @@ INSERT INTO invoice_row (
     unit_id,
     description,
     correction_id
-) VALUES (
-    ${bind { (invoiceId, _, _) -> invoiceId }},
-    ${bind { (_, idx, _) -> idx }},
-    ${bind { (_, _, row) -> row.childId }},
-    ${bind { (_, _, row) -> row.amount }},
-    ${bind { (_, _, row) -> row.unitPrice }},
-    ${bind { (_, _, row) -> row.periodStart }},
-    ${bind { (_, _, row) -> row.periodEnd }},
-    ${bind { (_, _, row) -> row.product }},
-    ${bind { (_, _, row) -> row.unitId }},
-    ${bind { (_, _, row) -> row.description }},
-    ${bind { (_, _, row) -> row.correctionId }}
+)
+SELECT * FROM unnest(
+    ${bindColumn(rows) { (invoiceId, _, _) -> invoiceId }},
+    ${bindColumn(rows) { (_, idx, _) -> idx }},
+    ${bindColumn(rows) { (_, _, row) -> row.childId }},
+    ${bindColumn(rows) { (_, _, row) -> row.amount }},
+    ${bindColumn(rows) { (_, _, row) -> row.unitPrice }},
+    ${bindColumn(rows) { (_, _, row) -> row.periodStart }},
+    ${bindColumn(rows) { (_, _, row) -> row.periodEnd }},
+    ${bindColumn(rows) { (_, _, row) -> row.product }},
+    ${bindColumn(rows) { (_, _, row) -> row.unitId }},
+    ${bindColumn(rows) { (_, _, row) -> row.description }},
+    ${bindColumn(rows) { (_, _, row) -> row.correctionId }}
 )
 """
         )
@@ -575,12 +609,12 @@ private fun Database.Transaction.insertInvoicedFeeDecisions(
 ) {
     if (relations.isEmpty()) return
 
-    executeBatch(relations) {
+    execute {
         sql(
             """
-        INSERT INTO invoiced_fee_decision (invoice_id, fee_decision_id) 
-        VALUES (${bind { pair -> pair.first }}, ${bind { pair -> pair.second }})
-    """
+INSERT INTO invoiced_fee_decision (invoice_id, fee_decision_id)
+SELECT * FROM unnest(${bindColumn(relations) { it.first }}, ${bindColumn(relations) { it.second }})
+"""
         )
     }
 }
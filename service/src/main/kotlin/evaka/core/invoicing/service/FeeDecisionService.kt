@@ -270,11 +270,12 @@ class FeeDecisionService(
         val settings = tx.getSettings()
         val lang = getDecisionLanguage(decision)
 
-        val pdfByteArray =
-            pdfGenerator.generateFeeDecisionPdf(FeeDecisionPdfData(decision, settings, lang))
         val documentKey =
-            documentClient
-                .upload(DocumentKey.FeeDecision(decision.id, lang), pdfByteArray, "application/pdf")
+            pdfGenerator
+                .generateFeeDecisionPdf(
+                    FeeDecisionPdfData(decision, settings, lang),
+                    DocumentKey.FeeDecision(decision.id, lang),
+                )
                 .key
         tx.updateFeeDecisionDocumentKey(decision.id, documentKey)
     }
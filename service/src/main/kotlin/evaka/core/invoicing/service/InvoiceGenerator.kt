@@ -31,13 +31,13 @@ import evaka.core.shared.data.DateSet
 import evaka.core.shared.db.Database
 import evaka.core.shared.db.Predicate
 import evaka.core.shared.domain.FiniteDateRange
+import evaka.core.shared.domain.OperationalCalendar
+import evaka.core.shared.domain.UnitOperationDays
 import evaka.core.shared.domain.asDistinctPeriods
-import evaka.core.shared.domain.getHolidays
 import evaka.core.shared.domain.getOperationalDatesForChildren
 import evaka.core.shared.noopTracer
 import evaka.core.shared.withSpan
 import io.opentelemetry.api.trace.Tracer
-import java.time.DayOfWeek
 import java.time.Duration
 import java.time.LocalDate
 import java.time.Month
@@ -311,14 +311,9 @@ class InvoiceGenerator(
                     "Missing prices for period ${range.start} - ${range.end}, cannot generate invoices"
                 )
 
-        val holidays = getHolidays(range)
         val businessDays =
             DateSet.ofDates(
-                range.dates().filter {
-                    it.dayOfWeek != DayOfWeek.SATURDAY &&
-                        it.dayOfWeek != DayOfWeek.SUNDAY &&
-                        !holidays.contains(it)
-                }
+                OperationalCalendar.operationalDates(UnitOperationDays.BUSINESS_DAYS, range)
             )
 
         val defaultServiceNeedOptions =
@@ -28,6 +28,7 @@ import evaka.core.invoicing.domain.VoucherValueDecisionType
 import evaka.core.pdfgen.PdfGenerator
 import evaka.core.pis.EmailMessageType
 import evaka.core.s3.DocumentKey
+import evaka.core.s3.DocumentLocation
 import evaka.core.s3.DocumentService
 import evaka.core.setting.SettingType
 import evaka.core.setting.getSettings
@@ -77,11 +78,7 @@ class VoucherValueDecisionService(
 
         val settings = tx.getSettings()
 
-        val pdf = generatePdf(decision, settings)
-        val key =
-            documentClient
-                .upload(DocumentKey.VoucherValueDecision(decisionId), pdf, "application/pdf")
-                .key
+        val key = generatePdf(decision, settings, DocumentKey.VoucherValueDecision(decisionId)).key
         tx.updateVoucherValueDecisionDocumentKey(decision.id, key)
     }
 
@@ -239,13 +236,15 @@ class VoucherValueDecisionService(
     private fun generatePdf(
         decision: VoucherValueDecisionDetailed,
         settings: Map<SettingType, String>,
-    ): ByteArray {
+        target: DocumentKey,
+    ): DocumentLocation {
         val lang =
             if (decision.placement.unit.language == "sv") OfficialLanguage.SV
             else OfficialLanguage.FI
 
         return pdfGenerator.generateVoucherValueDecisionPdf(
-            VoucherValueDecisionPdfData(decision, settings, lang)
+            VoucherValueDecisionPdfData(decision, settings, lang),
+            target,
         )
     }
 
@@ -22,6 +22,7 @@ import evaka.core.shared.MessageDraftId
 import evaka.core.shared.MessageId
 import evaka.core.shared.MessageThreadFolderId
 import evaka.core.shared.MessageThreadId
+import evaka.core.shared.PageCursor
 import evaka.core.shared.PersonId
 import evaka.core.shared.auth.AuthenticatedUser
 import evaka.core.shared.db.Database
@@ -144,10 +145,11 @@ class MessageController(
         clock: EvakaClock,
         @PathVariable accountId: MessageAccountId,
         @RequestParam page: Int,
+        @RequestParam cursor: String? = null,
     ): PagedMessageThreads {
         return db.connect { dbc ->
             requireMessageAccountAccess(dbc, user, clock, accountId)
-            getReceivedMessages(dbc, user.id, accountId, page)
+            getReceivedMessages(dbc, user.id, accountId, page, cursor = cursor)
         }
     }
 
@@ -158,11 +160,12 @@ class MessageController(
         clock: EvakaClock,
         @PathVariable accountId: MessageAccountId,
         @RequestParam page: Int,
+        @RequestParam cursor: String? = null,
         @RequestParam childId: ChildId? = null,
     ): PagedMessageThreads {
         return db.connect { dbc ->
             requireMessageAccountAccess(dbc, user, clock, accountId)
-            getReceivedMessages(dbc, user.employeeId!!, accountId, page, childId)
+            getReceivedMessages(dbc, user.employeeId!!, accountId, page, childId, cursor)
         }
     }
 
@@ -172,6 +175,7 @@ class MessageController(
         accountId: MessageAccountId,
         page: Int,
         childId: ChildId? = null,
+        cursor: String? = null,
     ): PagedMessageThreads {
         return dbc.read {
                 val accountAccessLimit = it.getAccountAccessLimit(accountId, employeeId)
@@ -186,6 +190,7 @@ class MessageController(
                     childId = childId,
                     deletedMessageBody = featureConfig.deletedMessagePlaceholderBody,
                     deletedMessageTitle = featureConfig.deletedMessagePlaceholderTitle,
+                    cursor = cursor?.let(PageCursor::decode),
                 )
             }
             .also {
@@ -203,6 +208,7 @@ class MessageController(
         clock: EvakaClock,
         @PathVariable accountId: MessageAccountId,
         @RequestParam page: Int,
+        @RequestParam cursor: String? = null,
     ): PagedMessageThreads {
         return db.connect { dbc ->
                 requireMessageAccountAccess(dbc, user, clock, accountId)
@@ -224,6 +230,7 @@ class MessageController(
                             accountAccessLimit,
                             deletedMessageBody = featureConfig.deletedMessagePlaceholderBody,
                             deletedMessageTitle = featureConfig.deletedMessagePlaceholderTitle,
+                            cursor = cursor?.let(PageCursor::decode),
                         )
                     }
                 }
@@ -271,6 +278,7 @@ class MessageController(
         @PathVariable accountId: MessageAccountId,
         @PathVariable folderId: MessageThreadFolderId,
         @RequestParam page: Int,
+        @RequestParam cursor: String? = null,
     ): PagedMessageThreads {
         return db.connect { dbc ->
                 requireMessageAccountAccess(dbc, user, clock, accountId)
@@ -285,6 +293,7 @@ class MessageController(
                         folderId,
                         deletedMessageBody = featureConfig.deletedMessagePlaceholderBody,
                         deletedMessageTitle = featureConfig.deletedMessagePlaceholderTitle,
+                        cursor = cursor?.let(PageCursor::decode),
                     )
                 }
             }
@@ -303,6 +312,7 @@ class MessageController(
         clock: EvakaClock,
         @PathVariable accountId: MessageAccountId,
         @RequestParam page: Int,
+        @RequestParam cursor: String? = null,
     ): PagedMessageCopies {
         return db.connect { dbc ->
                 requireMessageAccountAccess(dbc, user, clock, accountId)
@@ -315,6 +325,7 @@ class MessageController(
                         accountAccessLimit,
                         deletedMessageBody = featureConfig.deletedMessagePlaceholderBody,
                         deletedMessageTitle = featureConfig.deletedMessagePlaceholderTitle,
+                        cursor = cursor?.let(PageCursor::decode),
                     )
                 }
             }
@@ -333,10 +344,11 @@ class MessageController(
         clock: EvakaClock,
         @PathVariable accountId: MessageAccountId,
         @RequestParam page: Int,
+        @RequestParam cursor: String? = null,
     ): PagedSentMessages {
         return db.connect { dbc ->
             requireMessageAccountAccess(dbc, user, clock, accountId)
-            getSentMessages(dbc, user.id, accountId, page)
+            getSentMessages(dbc, user.id, accountId, page, cursor)
         }
     }
 
@@ -347,10 +359,11 @@ class MessageController(
         clock: EvakaClock,
         @PathVariable accountId: MessageAccountId,
         @RequestParam page: Int,
+        @RequestParam cursor: String? = null,
     ): PagedSentMessages {
         return db.connect { dbc ->
             requireMessageAccountAccess(dbc, user, clock, accountId)
-            getSentMessages(dbc, user.employeeId!!, accountId, page)
+            getSentMessages(dbc, user.employeeId!!, accountId, page, cursor)
         }
     }
 
@@ -359,6 +372,7 @@ class MessageController(
         employeeId: EmployeeId,
         accountId: MessageAccountId,
         page: Int,
+        cursor: String?,
     ): PagedSentMessages {
         return dbc.read {
                 val accountAccessLimit = it.getAccountAccessLimit(accountId, employeeId)
@@ -369,6 +383,7 @@ class MessageController(
                     accountAccessLimit,
                     deletedMessageBody = featureConfig.deletedMessagePlaceholderBody,
                     deletedMessageTitle = featureConfig.deletedMessagePlaceholderTitle,
+                    cursor = cursor?.let(PageCursor::decode),
                 )
             }
             .also {
@@ -16,6 +16,7 @@ import evaka.core.shared.ChildId
 import evaka.core.shared.FeatureConfig
 import evaka.core.shared.MessageAccountId
 import evaka.core.shared.MessageThreadId
+import evaka.core.shared.PageCursor
 import evaka.core.shared.auth.AuthenticatedUser
 import evaka.core.shared.auth.CitizenAuthLevel
 import evaka.core.shared.db.Database
@@ -160,6 +161,7 @@ class MessageControllerCitizen(
         user: AuthenticatedUser.Citizen,
         clock: EvakaClock,
         @RequestParam page: Int,
+        @RequestParam cursor: String? = null,
     ): PagedCitizenMessageThreads {
         return db.connect { dbc ->
                 val accountId = dbc.read { it.getCitizenMessageAccount(user.id) }
@@ -174,6 +176,7 @@ class MessageControllerCitizen(
                                 featureConfig.financeMessageAccountName,
                                 deletedMessageBody = featureConfig.deletedMessagePlaceholderBody,
                                 deletedMessageTitle = featureConfig.deletedMessagePlaceholderTitle,
+                                cursor = cursor?.let(PageCursor::decode),
                             )
                         }
                         .mapTo(::PagedCitizenMessageThreads) {
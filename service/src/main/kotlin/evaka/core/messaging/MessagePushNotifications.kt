@@ -12,10 +12,12 @@ import evaka.core.shared.async.AsyncJob
 import evaka.core.shared.async.AsyncJobRunner
 import evaka.core.shared.auth.AuthenticatedUser
 import evaka.core.shared.db.Database
+import evaka.core.shared.db.PredicateSql
 import evaka.core.shared.db.QuerySql
 import evaka.core.shared.domain.EvakaClock
 import evaka.core.shared.security.AccessControl
 import evaka.core.shared.security.Action
+import evaka.core.webpush.VapidJwt
 import evaka.core.webpush.WebPush
 import evaka.core.webpush.WebPushCrypto
 import evaka.core.webpush.WebPushEndpoint
@@ -31,9 +33,12 @@ import org.springframework.stereotype.Service
 class MessagePushNotifications(
     private val webPush: WebPush?,
     private val accessControl: AccessControl,
-    asyncJobRunner: AsyncJobRunner<AsyncJob>,
+    private val asyncJobRunner: AsyncJobRunner<AsyncJob>,
 ) {
     init {
+        asyncJobRunner.registerHandler { db, clock, job: AsyncJob.SendMessagePushNotifications ->
+            send(db, clock, job.message)
+        }
         asyncJobRunner.registerHandler { db, clock, job: AsyncJob.SendMessagePushNotification ->
             send(db, clock, job.recipient, job.device)
         }
@@ -84,41 +89,43 @@ END
     fun getAsyncJobs(
         tx: Database.Read,
         messages: Collection<MessageId>,
-    ): List<AsyncJob.SendMessagePushNotification> =
+    ): List<AsyncJob.SendMessagePushNotifications> =
         tx.createQuery {
                 sql(
                     """
-SELECT recipient, device
+SELECT DISTINCT message
 FROM (${subquery(getPendingPushNotifications())}) notification
 WHERE notification.message = ANY(${bind(messages)})
 """
                 )
             }
-            .toList<AsyncJob.SendMessagePushNotification>()
+            .toList<AsyncJob.SendMessagePushNotifications>()
 
     data class GroupMessageNotification(
+        val recipient: MessageRecipientId,
+        val device: MobileDeviceId,
         val groupId: GroupId,
         val groupName: String,
         val senderName: String?,
         val endpoint: WebPushEndpoint,
     )
 
-    private fun Database.Read.getNotification(
-        messageRecipient: MessageRecipientId,
-        device: MobileDeviceId,
-    ): GroupMessageNotification? = createQuery {
+    private fun Database.Read.getNotifications(
+        where: PredicateSql
+    ): List<GroupMessageNotification> = createQuery {
         sql(
             """
-SELECT group_id, group_name, sender_name, mdps.endpoint, mdps.auth_secret, mdps.ecdh_key
+SELECT recipient, notification.device, group_id, group_name, sender_name, mdps.endpoint, mdps.auth_secret, mdps.ecdh_key
 FROM (${subquery(getPendingPushNotifications())}) notification
 JOIN mobile_device_push_subscription mdps ON mdps.device = notification.device
-WHERE notification.recipient = ${bind(messageRecipient)}
-AND notification.device = ${bind(device)}
+WHERE ${predicate(where)}
 """
         )
     }
-        .exactlyOneOrNull {
+        .toList {
             GroupMessageNotification(
+                recipient = column("recipient"),
+                device = column("device"),
                 groupId = column("group_id"),
                 groupName = column("group_name"),
                 senderName = column("sender_name"),
@@ -130,6 +137,57 @@ AND notification.device = ${bind(device)}
             )
         }
 
+    private fun Database.Read.isPermitted(
+        clock: EvakaClock,
+        notification: GroupMessageNotification,
+    ): Boolean =
+        accessControl.hasPermissionFor(
+            this,
+            AuthenticatedUser.MobileDevice(notification.device),
+            clock,
+            Action.Group.RECEIVE_PUSH_NOTIFICATIONS,
+            notification.groupId,
+        )
+
+    /**
+     * Sends the notifications of one message to all devices.
+     *
+     * The pending notifications are read once for the whole message. A delivery that fails for
+     * any reason other than an expired subscription is retried separately with a
+     * [AsyncJob.SendMessagePushNotification] job, so the devices that already got the notification
+     * don't get it again.
+     */
+    fun send(dbc: Database.Connection, clock: EvakaClock, message: MessageId) {
+        if (webPush == null) return
+
+        val notifications =
+            dbc.transaction { tx ->
+                tx.getNotifications(
+                        PredicateSql { where("notification.message = ${bind(message)}") }
+                    )
+                    .filter { tx.isPermitted(clock, it) }
+                    .map { Pair(webPush.getValidToken(tx, clock, it.endpoint.uri), it) }
+            }
+        dbc.close()
+
+        val failed =
+            notifications.mapNotNull { (vapidJwt, notification) ->
+                try {
+                    deliver(dbc, webPush, vapidJwt, notification)
+                    null
+                } catch (e: Exception) {
+                    logger.warn(e) { "Failed to send push notification to ${notification.device}" }
+                    AsyncJob.SendMessagePushNotification(
+                        notification.recipient,
+                        notification.device,
+                    )
+                }
+            }
+        if (failed.isNotEmpty()) {
+            dbc.transaction { tx -> asyncJobRunner.plan(tx, failed, runAt = clock.now()) }
+        }
+    }
+
     fun send(
         dbc: Database.Connection,
         clock: EvakaClock,
@@ -140,20 +198,29 @@ AND notification.device = ${bind(device)}
 
         val (vapidJwt, notification) =
             dbc.transaction { tx ->
-                tx.getNotification(recipient, device)
-                    ?.takeIf {
-                        accessControl.hasPermissionFor(
-                            tx,
-                            AuthenticatedUser.MobileDevice(device),
-                            clock,
-                            Action.Group.RECEIVE_PUSH_NOTIFICATIONS,
-                            it.groupId,
-                        )
-                    }
+                tx.getNotifications(
+                        PredicateSql {
+                            where(
+                                "notification.recipient = ${bind(recipient)} AND notification.device = ${bind(device)}"
+                            )
+                        }
+                    )
+                    .singleOrNull()
+                    ?.takeIf { tx.isPermitted(clock, it) }
                     ?.let { Pair(webPush.getValidToken(tx, clock, it.endpoint.uri), it) }
             } ?: return
         dbc.close()
 
+        deliver(dbc, webPush, vapidJwt, notification)
+    }
+
+    private fun deliver(
+        dbc: Database.Connection,
+        webPush: WebPush,
+        vapidJwt: VapidJwt,
+        notification: GroupMessageNotification,
+    ) {
+        val device = notification.device
         logger.info(mapOf("endpoint" to notification.endpoint.uri)) {
             "Sending push notification to $device"
         }
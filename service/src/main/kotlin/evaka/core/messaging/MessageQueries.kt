@@ -58,124 +58,105 @@ fun Database.Read.getFolder(id: MessageThreadFolderId) = createQuery {
 }
     .exactlyOneOrNull<MessageThreadFolder>()
 
+/**
+ * Returns the unread counts of the given accounts from the `message_unread_count` table, which
+ * database triggers keep up to date whenever messages are sent, read, moved or deleted. The table
+ * may contain zero counts, which are skipped.
+ *
+ * Unless they are a unit supervisor, employees see only messages from one week before they were
+ * added to the group in a group account's inbox. Those inbox counts depend on the employee, so they
+ * are computed from the messages instead of the counter table.
+ */
 fun Database.Read.getUnreadMessagesCountsEmployee(
     idFilter: AccessControlFilter<MessageAccountId>,
     employeeId: EmployeeId,
 ): Set<UnreadCountByAccount> {
-    data class RawData(
-        val accountId: MessageAccountId,
-        val isCopy: Boolean,
-        val folderId: MessageThreadFolderId?,
-        val count: Int,
-    )
-
     val data = createQuery {
         sql(
-            // NOTE:
-            // This SQL is very fragile performance-wise. Always measure performance after
-            // making changes!
             """
-        WITH limits AS (
-            SELECT
-                daycare_group_id,
-                (created - interval '1 week')::date AS access_limit
-            FROM daycare_group_acl 
-            WHERE employee_id = ${bind(employeeId)}
-        ),
-        accounts AS (
-            SELECT id, daycare_group_id 
-            FROM message_account 
+        WITH accounts AS (
+            SELECT id, daycare_group_id
+            FROM message_account
             WHERE ${predicate(idFilter.forTable("message_account"))}
+        ),
+        restricted_accounts AS (
+            SELECT acc.id, (dga.created - interval '1 week')::date AS access_limit
+            FROM accounts acc
+            JOIN daycare_group dg ON dg.id = acc.daycare_group_id
+            LEFT JOIN daycare_group_acl dga ON dga.daycare_group_id = dg.id AND dga.employee_id = ${bind(employeeId)}
+            WHERE NOT EXISTS (
+                SELECT FROM daycare_acl da
+                WHERE da.employee_id = ${bind(employeeId)} AND da.daycare_id = dg.daycare_id AND da.role = 'UNIT_SUPERVISOR'
+            )
         )
-        SELECT 
-            acc.id as account_id, 
-            mt.is_copy as is_copy, 
-            mtp.folder_id, 
-            count(mt.id) AS count
+        SELECT c.account_id, c.is_copy, c.folder_id, c.count
         FROM accounts acc
-            LEFT JOIN limits l ON l.daycare_group_id = acc.daycare_group_id
-            LEFT JOIN daycare_group dg ON dg.id = acc.daycare_group_id
-            LEFT JOIN daycare_acl da ON da.employee_id = ${bind(employeeId)} AND da.daycare_id = dg.daycare_id
-            JOIN message_recipients mr ON mr.recipient_id = acc.id
-            JOIN message m ON mr.message_id = m.id AND m.sent_at IS NOT NULL
-            JOIN message_thread_participant mtp ON m.thread_id = mtp.thread_id AND mtp.participant_id = acc.id 
-            JOIN message_thread mt ON m.thread_id = mt.id
-            LEFT JOIN message_thread_folder mtf ON mtp.folder_id = mtf.id
-        WHERE
-            mr.read_at IS NULL AND
-            (
-                mtp.folder_id IS NOT NULL OR
-                da.role = 'UNIT_SUPERVISOR' OR
-                mtp.last_message_timestamp >= l.access_limit OR
-                m.sent_at >= l.access_limit OR 
-                dg.id IS NULL
-            ) AND
-            (mtp.folder_id IS NULL OR mtf.name != 'ARCHIVE')
-        GROUP BY acc.id, mt.is_copy, mtp.folder_id
+        JOIN message_unread_count c ON c.account_id = acc.id
+        LEFT JOIN message_thread_folder mtf ON mtf.id = c.folder_id
+        WHERE c.count > 0
+            AND (c.folder_id IS NULL OR mtf.name != 'ARCHIVE')
+            AND NOT (c.folder_id IS NULL AND acc.id IN (SELECT id FROM restricted_accounts))
+        UNION ALL
+        SELECT ra.id AS account_id, mt.is_copy, NULL AS folder_id, count(*) AS count
+        FROM restricted_accounts ra
+        JOIN message_recipients mr ON mr.recipient_id = ra.id AND mr.read_at IS NULL
+        JOIN message m ON mr.message_id = m.id AND m.sent_at IS NOT NULL
+        JOIN message_thread_participant mtp ON m.thread_id = mtp.thread_id AND mtp.participant_id = ra.id
+        JOIN message_thread mt ON m.thread_id = mt.id
+        WHERE mtp.folder_id IS NULL
+            AND (mtp.last_message_timestamp >= ra.access_limit OR m.sent_at >= ra.access_limit)
+        GROUP BY ra.id, mt.is_copy
         """
         )
     }
-        .toList<RawData>()
+        .toList<UnreadCountRow>()
 
     return data
         .groupBy { it.accountId }
-        .map { (accountId, counts) ->
-            UnreadCountByAccount(
-                accountId = accountId,
-                unreadCount = counts.find { !it.isCopy && it.folderId == null }?.count ?: 0,
-                unreadCopyCount = counts.find { it.isCopy && it.folderId == null }?.count ?: 0,
-                unreadCountByFolder =
-                    counts.filter { it.folderId != null }.associate { it.folderId!! to it.count },
-            )
-        }
+        .map { (accountId, counts) -> counts.toUnreadCount(accountId) }
         .toSet()
 }
 
 fun Database.Read.getUnreadMessagesCountsCitizen(
     idFilter: AccessControlFilter<MessageAccountId>
 ): Set<UnreadCountByAccount> {
-    data class RawData(
-        val accountId: MessageAccountId,
-        val isCopy: Boolean,
-        val folderId: MessageThreadFolderId?,
-        val count: Int,
-    )
-
     val data = createQuery {
         sql(
             """
-        SELECT 
-            acc.id as account_id, 
-            coalesce(mt.is_copy, false) as is_copy, 
-            mtp.folder_id, 
-            count(mt.id) AS count
+        SELECT acc.id AS account_id, c.is_copy, c.folder_id, c.count
         FROM message_account acc
-        LEFT JOIN message_recipients mr ON mr.recipient_id = acc.id AND mr.read_at IS NULL
-        LEFT JOIN message m ON mr.message_id = m.id AND m.sent_at IS NOT NULL
-        LEFT JOIN message_thread mt ON m.thread_id = mt.id
-        LEFT JOIN message_thread_participant mtp ON m.thread_id = mtp.thread_id AND mtp.participant_id = acc.id
-        LEFT JOIN message_thread_folder mtf ON mtp.folder_id = mtf.id
-        WHERE ${predicate(idFilter.forTable("acc"))} AND (mtp.folder_id IS NULL OR mtf.name != 'ARCHIVE')
-        GROUP BY acc.id, mt.is_copy, mtp.folder_id
+        LEFT JOIN message_unread_count c ON c.account_id = acc.id AND c.count > 0
+        LEFT JOIN message_thread_folder mtf ON mtf.id = c.folder_id
+        WHERE ${predicate(idFilter.forTable("acc"))} AND (c.folder_id IS NULL OR mtf.name != 'ARCHIVE')
         """
         )
     }
-        .toList<RawData>()
+        .toList<UnreadCountRow>()
 
     return data
         .groupBy { it.accountId }
-        .map { (accountId, counts) ->
-            UnreadCountByAccount(
-                accountId = accountId,
-                unreadCount = counts.find { !it.isCopy && it.folderId == null }?.count ?: 0,
-                unreadCopyCount = counts.find { it.isCopy && it.folderId == null }?.count ?: 0,
-                unreadCountByFolder =
-                    counts.filter { it.folderId != null }.associate { it.folderId!! to it.count },
-            )
-        }
+        .map { (accountId, counts) -> counts.toUnreadCount(accountId) }
         .toSet()
 }
 
+private data class UnreadCountRow(
+    val accountId: MessageAccountId,
+    val isCopy: Boolean?,
+    val folderId: MessageThreadFolderId?,
+    val count: Int?,
+)
+
+private fun List<UnreadCountRow>.toUnreadCount(accountId: MessageAccountId) =
+    UnreadCountByAccount(
+        accountId = accountId,
+        unreadCount = find { it.isCopy == false && it.folderId == null }?.count ?: 0,
+        unreadCopyCount = find { it.isCopy == true && it.folderId == null }?.count ?: 0,
+        unreadCountByFolder =
+            filter { it.folderId != null }
+                .groupBy { it.folderId!! }
+                .mapValues { (_, rows) -> rows.sumOf { it.count ?: 0 } },
+    )
+
 fun Database.Read.getUnreadMessagesCountsByDaycare(
     daycareId: DaycareId
 ): Set<UnreadCountByAccountAndGroup> {
@@ -183,29 +164,51 @@ fun Database.Read.getUnreadMessagesCountsByDaycare(
     return createQuery {
         sql(
             """
-WITH target_accounts AS (
-    SELECT acc.id, acc.daycare_group_id
-    FROM message_account acc
-    JOIN daycare_group dg ON acc.daycare_group_id = dg.id
-    WHERE acc.active = true
-      AND dg.daycare_id = ${bind(daycareId)}
-)
 SELECT
-    ta.id as account_id,
-    ta.daycare_group_id as group_id,
-    COUNT(*) FILTER (WHERE mr.read_at IS NULL AND NOT mt.is_copy) as unread_count,
-    COUNT(*) FILTER (WHERE mr.read_at IS NULL AND mt.is_copy) as unread_copy_count
-FROM target_accounts ta
-LEFT JOIN message_recipients mr ON mr.recipient_id = ta.id AND mr.read_at IS NULL
-LEFT JOIN message m ON mr.message_id = m.id AND m.sent_at IS NOT NULL
-LEFT JOIN message_thread mt ON m.thread_id = mt.id
-GROUP BY ta.id, ta.daycare_group_id
+    acc.id as account_id,
+    acc.daycare_group_id as group_id,
+    coalesce(sum(c.count) FILTER (WHERE NOT c.is_copy), 0) as unread_count,
+    coalesce(sum(c.count) FILTER (WHERE c.is_copy), 0) as unread_copy_count
+FROM message_account acc
+JOIN daycare_group dg ON acc.daycare_group_id = dg.id
+LEFT JOIN message_unread_count c ON c.account_id = acc.id
+WHERE acc.active = true
+  AND dg.daycare_id = ${bind(daycareId)}
+GROUP BY acc.id, acc.daycare_group_id
 """
         )
     }
         .toSet<UnreadCountByAccountAndGroup>()
 }
 
+/**
+ * Recomputes the unread counts of all accounts and fixes the ones that have drifted from the
+ * messages. Returns the number of fixed accounts.
+ */
+fun Database.Transaction.reconcileMessageUnreadCounts(): Int {
+    val drifted = createQuery {
+        sql(
+            """
+SELECT DISTINCT account_id
+FROM (
+    (SELECT account_id, folder_id, is_copy, count FROM message_unread_count_source
+     EXCEPT
+     SELECT account_id, folder_id, is_copy, count FROM message_unread_count WHERE count <> 0)
+    UNION ALL
+    (SELECT account_id, folder_id, is_copy, count FROM message_unread_count WHERE count <> 0
+     EXCEPT
+     SELECT account_id, folder_id, is_copy, count FROM message_unread_count_source)
+) diff
+"""
+        )
+    }
+        .toList<MessageAccountId>()
+    if (drifted.isNotEmpty()) {
+        execute { sql("SELECT refresh_message_unread_counts(${bind(drifted)})") }
+    }
+    return drifted.size
+}
+
 fun Database.Transaction.markThreadRead(
     now: HelsinkiDateTime,
     accountId: MessageAccountId,
@@ -344,22 +347,13 @@ fun Database.Transaction.insertRecipients(
     }
     if (rows.isEmpty()) return
 
-    rows.chunked(500).forEach { chunk ->
-        val messageIds = chunk.map { it.first }
-        val recipientIds = chunk.map { it.second }
-
-        createUpdate {
-            sql(
-                """
+    execute {
+        sql(
+            """
 INSERT INTO message_recipients (message_id, recipient_id)
-SELECT * FROM UNNEST(
-    ${bind(messageIds)}::uuid[],
-    ${bind(recipientIds)}::uuid[]
-)
+SELECT * FROM unnest(${bindColumn(rows) { it.first }}, ${bindColumn(rows) { it.second }})
 """
-            )
-        }
-            .execute()
+        )
     }
 }
 
@@ -372,22 +366,13 @@ fun Database.Transaction.insertMessageThreadChildren(
         }
     if (rows.isEmpty()) return
 
-    rows.chunked(500).forEach { chunk ->
-        val threadIds = chunk.map { it.first }
-        val childIds = chunk.map { it.second }
-
-        createUpdate {
-            sql(
-                """
+    execute {
+        sql(
+            """
 INSERT INTO message_thread_children (thread_id, child_id)
-SELECT * FROM UNNEST(
-    ${bind(threadIds)}::uuid[],
-    ${bind(childIds)}::uuid[]
-)
+SELECT * FROM unnest(${bindColumn(rows) { it.first }}, ${bindColumn(rows) { it.second }})
 """
-            )
-        }
-            .execute()
+        )
     }
 }
 
@@ -556,6 +541,7 @@ WHERE
 
 private data class ReceivedThread(
     val id: MessageThreadId,
+    val lastMessageTimestamp: HelsinkiDateTime,
     val title: String,
     val type: MessageType,
     val urgent: Boolean,
@@ -567,24 +553,63 @@ private data class ReceivedThread(
     @Json val children: List<MessageChild>,
 )
 
-data class PagedMessageThreads(val data: List<MessageThread>, val total: Int, val pages: Int) {
-    fun <T, R> mapTo(f: PagedFactory<T, R>, mapper: (MessageThread) -> T): R =
-        f(data.map(mapper), total, pages)
+data class PagedMessageThreads(
+    val data: List<MessageThread>,
+    val total: Int,
+    val pages: Int,
+    val nextCursor: String? = null,
+) {
+    fun <T, R> mapTo(f: KeysetPagedFactory<T, R>, mapper: (MessageThread) -> T): R =
+        f(data.map(mapper), total, pages, nextCursor)
 }
 
 data class PagedCitizenMessageThreads(
     val data: List<CitizenMessageThread>,
     val total: Int,
     val pages: Int,
+    val nextCursor: String? = null,
 )
 
 private data class PagedReceivedThreads(
     val data: List<ReceivedThread>,
     val total: Int,
     val pages: Int,
+    val nextCursor: String?,
 )
 
-/** Return all threads that are visible to the account through sent and received messages */
+/**
+ * Matches the inbox with `IS NULL`, because `IS NOT DISTINCT FROM` a bound value can't use an index
+ */
+private fun folderPredicate(folderId: MessageThreadFolderId?) =
+    if (folderId == null) Predicate { where("$it.folder_id IS NULL") }
+    else Predicate { where("$it.folder_id = ${bind(folderId)}") }
+
+/** Matches the rows after [cursor] in a listing ordered by `timestamp DESC, id DESC` */
+private fun seekPredicate(cursor: PageCursor?, timestamp: String, id: String): PredicateSql =
+    if (cursor == null) PredicateSql.alwaysTrue()
+    else
+        PredicateSql {
+            where("($timestamp, $id) < (${bind(cursor.timestamp)}, ${bind(cursor.id)})")
+        }
+
+private fun Database.Read.countThreads(filter: PredicateSql): Int =
+    createQuery {
+            sql(
+                """
+SELECT count(*)
+FROM message_thread_participant tp
+JOIN message_thread t ON t.id = tp.thread_id
+WHERE ${predicate(filter)}
+"""
+            )
+        }
+        .exactlyOne<Int>()
+
+/**
+ * Return all threads that are visible to the account through sent and received messages.
+ *
+ * If [cursor] is given, the page after it is returned and [page] is ignored.
+ */
 fun Database.Read.getThreads(
     accountId: MessageAccountId,
     pageSize: Int,
@@ -597,6 +622,7 @@ fun Database.Read.getThreads(
     messagesSortDirection: SortDirection = SortDirection.ASC,
     deletedMessageBody: String,
     deletedMessageTitle: String,
+    cursor: PageCursor? = null,
 ): PagedMessageThreads {
     val personAccountPredicate =
         if (personAccountId != null) {
@@ -616,12 +642,26 @@ EXISTS (
         } else {
             Predicate.alwaysTrue()
         }
+    val filter =
+        PredicateSql.all(
+            PredicateSql {
+                where(
+                    """
+tp.participant_id = ${bind(accountId)} AND
+EXISTS (SELECT 1 FROM message m WHERE m.thread_id = t.id AND (m.sender_id = ${bind(accountId)} OR m.sent_at IS NOT NULL))
+"""
+                )
+            },
+            folderPredicate(folderId).forTable("tp"),
+            personAccountPredicate.forTable("tp"),
+        )
+    val total = countThreads(filter)
     val threads = createQuery {
         sql(
             """
 SELECT
-    COUNT(*) OVER () AS count,
     t.id,
+    tp.last_message_timestamp,
     CASE
         WHEN first_msg.content_deleted_at IS NOT NULL
         THEN ${bind(deletedMessageTitle)}
@@ -653,16 +693,16 @@ LEFT JOIN LATERAL (
     ORDER BY m.sent_at, m.created
     LIMIT 1
 ) first_msg ON TRUE
-WHERE tp.participant_id = ${bind(accountId)}
-AND ${predicate(personAccountPredicate.forTable("tp"))}
-AND tp.folder_id IS NOT DISTINCT FROM ${bind(folderId)}
-AND EXISTS (SELECT 1 FROM message m WHERE m.thread_id = t.id AND (m.sender_id = ${bind(accountId)} OR m.sent_at IS NOT NULL))
-ORDER BY tp.last_message_timestamp DESC
-LIMIT ${bind(pageSize)} OFFSET ${bind((page - 1) * pageSize)}
+WHERE ${predicate(filter.and(seekPredicate(cursor, "tp.last_message_timestamp", "tp.thread_id")))}
+ORDER BY tp.last_message_timestamp DESC, tp.thread_id DESC
+LIMIT ${bind(pageSize + 1)} OFFSET ${bind(if (cursor == null) (page - 1) * pageSize else 0)}
 """
         )
     }
-        .mapToPaged(::PagedReceivedThreads, pageSize)
+        .toList<ReceivedThread>()
+        .toKeysetPaged(::PagedReceivedThreads, total, pageSize) {
+            PageCursor(it.lastMessageTimestamp, it.id.raw)
+        }
 
     val messagesByThread =
         getThreadMessages(
@@ -701,7 +741,11 @@ WHERE ma.id = ${bind(groupAccountId)} AND dga.employee_id = ${bind(employeeId)}
         }
 }
 
-/** Return all threads in which the account has received messages */
+/**
+ * Return all threads in which the account has received messages.
+ *
+ * If [cursor] is given, the page after it is returned and [page] is ignored.
+ */
 fun Database.Read.getReceivedThreads(
     accountId: MessageAccountId,
     pageSize: Int,
@@ -714,6 +758,7 @@ fun Database.Read.getReceivedThreads(
     childId: ChildId? = null,
     deletedMessageBody: String,
     deletedMessageTitle: String,
+    cursor: PageCursor? = null,
 ): PagedMessageThreads {
     val accountAccessPredicate =
         if (accountAccessLimit is AccountAccessLimit.AvailableFrom)
@@ -734,12 +779,29 @@ fun Database.Read.getReceivedThreads(
             }
         else Predicate.alwaysTrue()
 
+    val filter =
+        PredicateSql.all(
+            PredicateSql {
+                where(
+                    """
+tp.participant_id = ${bind(accountId)} AND
+tp.last_received_timestamp IS NOT NULL AND
+NOT t.is_copy AND
+EXISTS (SELECT 1 FROM message m WHERE m.thread_id = t.id AND m.sent_at IS NOT NULL)
+"""
+                )
+            },
+            folderPredicate(folderId).forTable("tp"),
+            accountAccessPredicate.forTable("tp"),
+            childPredicate.forTable("t"),
+        )
+    val total = countThreads(filter)
     val threads = createQuery {
         sql(
             """
 SELECT
-    COUNT(*) OVER () AS count,
     t.id,
+    tp.last_message_timestamp,
     CASE
         WHEN first_msg.content_deleted_at IS NOT NULL
         THEN ${bind(deletedMessageTitle)}
@@ -772,19 +834,16 @@ LEFT JOIN LATERAL (
     ORDER BY m.sent_at, m.created
     LIMIT 1
 ) first_msg ON TRUE
-WHERE
-    tp.participant_id = ${bind(accountId)} AND
-    tp.last_received_timestamp IS NOT NULL AND
-    NOT t.is_copy AND
-    tp.folder_id IS NOT DISTINCT FROM ${bind(folderId)} AND 
-    EXISTS (SELECT 1 FROM message m WHERE m.thread_id = t.id AND m.sent_at IS NOT NULL) AND
-    ${predicate(accountAccessPredicate.forTable("tp").and(childPredicate.forTable("t")))}
-ORDER BY tp.last_message_timestamp DESC
-LIMIT ${bind(pageSize)} OFFSET ${bind((page - 1) * pageSize)}
+WHERE ${predicate(filter.and(seekPredicate(cursor, "tp.last_message_timestamp", "tp.thread_id")))}
+ORDER BY tp.last_message_timestamp DESC, tp.thread_id DESC
+LIMIT ${bind(pageSize + 1)} OFFSET ${bind(if (cursor == null) (page - 1) * pageSize else 0)}
         """
         )
     }
-        .mapToPaged(::PagedReceivedThreads, pageSize)
+        .toList<ReceivedThread>()
+        .toKeysetPaged(::PagedReceivedThreads, total, pageSize) {
+            PageCursor(it.lastMessageTimestamp, it.id.raw)
+        }
 
     val messagesByThread =
         getThreadMessages(
@@ -912,7 +971,7 @@ private fun combineThreadsAndMessages(
                 )
             }
         }
-    return PagedMessageThreads(messageThreads, threads.total, threads.pages)
+    return PagedMessageThreads(messageThreads, threads.total, threads.pages, threads.nextCursor)
 }
 
 data class MessageCopy(
@@ -937,8 +996,14 @@ data class MessageCopy(
     @Json val attachments: List<Attachment>,
 )
 
-data class PagedMessageCopies(val data: List<MessageCopy>, val total: Int, val pages: Int)
+data class PagedMessageCopies(
+    val data: List<MessageCopy>,
+    val total: Int,
+    val pages: Int,
+    val nextCursor: String? = null,
+)
 
+/** If [cursor] is given, the page after it is returned and [page] is ignored */
 fun Database.Read.getMessageCopiesByAccount(
     accountId: MessageAccountId,
     pageSize: Int,
@@ -946,19 +1011,37 @@ fun Database.Read.getMessageCopiesByAccount(
     accountAccessLimit: AccountAccessLimit = AccountAccessLimit.NoFurtherLimit,
     deletedMessageBody: String,
     deletedMessageTitle: String,
+    cursor: PageCursor? = null,
 ): PagedMessageCopies {
     val accountAccessPredicate =
         if (accountAccessLimit is AccountAccessLimit.AvailableFrom)
             Predicate { where("$it.sent_at >= ${bind(accountAccessLimit.date)}") }
         else Predicate.alwaysTrue()
+    val filter =
+        PredicateSql {
+                where("rec.recipient_id = ${bind(accountId)} AND t.is_copy AND m.sent_at IS NOT NULL")
+            }
+            .and(accountAccessPredicate.forTable("m"))
 
     val accountContext = getMessageAccountContext(accountId)
 
+    val total = createQuery {
+            sql(
+                """
+SELECT count(*)
+FROM message_recipients rec
+JOIN message m ON rec.message_id = m.id
+JOIN message_thread t ON m.thread_id = t.id
+WHERE ${predicate(filter)}
+"""
+            )
+        }
+        .exactlyOne<Int>()
+
     return createQuery {
             sql(
                 """
     SELECT
-        COUNT(*) OVER () AS count,
         t.id AS thread_id,
         m.id AS message_id,
         CASE
@@ -1004,14 +1087,13 @@ fun Database.Read.getMessageCopiesByAccount(
     JOIN message_account sender_acc ON sender_acc.id = m.sender_id
     JOIN message_account recipient_acc ON recipient_acc.id = rec.recipient_id
     JOIN message_thread t ON m.thread_id = t.id
-    WHERE rec.recipient_id = ${bind(accountId)} AND t.is_copy AND m.sent_at IS NOT NULL AND
-        ${predicate(accountAccessPredicate.forTable("m"))}
-    ORDER BY m.sent_at DESC
-    LIMIT ${bind(pageSize)} OFFSET ${bind((page - 1) * pageSize)}
+    WHERE ${predicate(filter.and(seekPredicate(cursor, "m.sent_at", "m.id")))}
+    ORDER BY m.sent_at DESC, m.id DESC
+    LIMIT ${bind(pageSize + 1)} OFFSET ${bind(if (cursor == null) (page - 1) * pageSize else 0)}
 """
             )
         }
-        .mapToPaged(::PagedMessageCopies, pageSize) {
+        .toList {
             val messageCopy = row<MessageCopy>()
             val allRecipientNames = messageCopy.recipientNames.toSet()
             val areaRecipients = allRecipientNames.intersect(accountContext.careAreaNames)
@@ -1030,6 +1112,9 @@ fun Database.Read.getMessageCopiesByAccount(
             }
             messageCopy.copy(recipientNames = filteredRecipients.toList())
         }
+        .toKeysetPaged(::PagedMessageCopies, total, pageSize) {
+            PageCursor(it.sentAt, it.messageId.raw)
+        }
 }
 
 data class MessageAccountContext(
@@ -1298,8 +1383,14 @@ ORDER BY type, name  -- groups first
         }
 }
 
-data class PagedSentMessages(val data: List<SentMessage>, val total: Int, val pages: Int)
+data class PagedSentMessages(
+    val data: List<SentMessage>,
+    val total: Int,
+    val pages: Int,
+    val nextCursor: String? = null,
+)
 
+/** If [cursor] is given, the page after it is returned and [page] is ignored */
 fun Database.Read.getMessagesSentByAccount(
     accountId: MessageAccountId,
     pageSize: Int,
@@ -1307,11 +1398,27 @@ fun Database.Read.getMessagesSentByAccount(
     accountAccessLimit: AccountAccessLimit = AccountAccessLimit.NoFurtherLimit,
     deletedMessageBody: String,
     deletedMessageTitle: String,
+    cursor: PageCursor? = null,
 ): PagedSentMessages {
     val accountAccessPredicate =
         if (accountAccessLimit is AccountAccessLimit.AvailableFrom)
             Predicate { where("$it.sent_at >= ${bind(accountAccessLimit.date)}") }
         else Predicate.alwaysTrue()
+    val filter =
+        PredicateSql { where("m.sender_id = ${bind(accountId)}") }
+            .and(accountAccessPredicate.forTable("m"))
+
+    // All messages of a content are sent at once, so they are one row in the listing
+    val total = createQuery {
+            sql(
+                """
+SELECT count(DISTINCT m.content_id)
+FROM message m
+WHERE ${predicate(filter)}
+"""
+            )
+        }
+        .exactlyOne<Int>()
 
     return createQuery {
             sql(
@@ -1327,8 +1434,7 @@ WITH pageable_messages AS (
         t.sensitive,
         bool_or(m.content_deleted_at IS NOT NULL) AS is_content_deleted,
         first_msg.content_deleted_at AS first_message_content_deleted_at,
-        max(m.content_deleted_at) AS content_deleted_at,
-        COUNT(*) OVER () AS count
+        max(m.content_deleted_at) AS content_deleted_at
     FROM message m
     JOIN message_thread t ON m.thread_id = t.id
     LEFT JOIN LATERAL (
@@ -1338,14 +1444,12 @@ WITH pageable_messages AS (
         ORDER BY m2.sent_at, m2.created
         LIMIT 1
     ) first_msg ON TRUE
-    WHERE sender_id = ${bind(accountId)} AND
-        ${predicate(accountAccessPredicate.forTable("m"))}
+    WHERE ${predicate(filter.and(seekPredicate(cursor, "COALESCE(m.sent_at, m.created)", "m.content_id")))}
     GROUP BY m.content_id, m.sent_at, m.created, m.recipient_names, t.title, t.message_type, t.urgent, t.sensitive, first_msg.content_deleted_at
-    ORDER BY sent_at DESC
-    LIMIT ${bind(pageSize)} OFFSET ${bind((page - 1) * pageSize)}
+    ORDER BY sent_at DESC, m.content_id DESC
+    LIMIT ${bind(pageSize + 1)} OFFSET ${bind(if (cursor == null) (page - 1) * pageSize else 0)}
 )
 SELECT
-    msg.count,
     msg.content_id,
     msg.sent_at,
     msg.recipient_names,
@@ -1375,12 +1479,15 @@ SELECT
     END AS attachments
 FROM pageable_messages msg
 JOIN message_content mc ON msg.content_id = mc.id
-GROUP BY msg.count, msg.content_id, msg.sent_at, msg.recipient_names, mc.content, msg.message_type, msg.urgent, msg.sensitive, msg.title, msg.is_content_deleted, msg.first_message_content_deleted_at, msg.content_deleted_at
-ORDER BY msg.sent_at DESC
+GROUP BY msg.content_id, msg.sent_at, msg.recipient_names, mc.content, msg.message_type, msg.urgent, msg.sensitive, msg.title, msg.is_content_deleted, msg.first_message_content_deleted_at, msg.content_deleted_at
+ORDER BY msg.sent_at DESC, msg.content_id DESC
 """
             )
         }
-        .mapToPaged(::PagedSentMessages, pageSize)
+        .toList<SentMessage>()
+        .toKeysetPaged(::PagedSentMessages, total, pageSize) {
+            PageCursor(it.sentAt, it.contentId.raw)
+        }
 }
 
 data class ThreadWithParticipants(
@@ -34,7 +34,8 @@ import evaka.core.shared.domain.DateRange
 import evaka.core.shared.domain.FiniteDateRange
 import evaka.core.shared.domain.HelsinkiDateTime
 import evaka.core.shared.domain.HelsinkiDateTimeRange
-import evaka.core.shared.domain.getHolidays
+import evaka.core.shared.domain.OperationalCalendar
+import evaka.core.shared.domain.UnitOperationDays
 import evaka.core.shared.domain.getOperationalDatesForChildren
 import evaka.core.shared.domain.toFiniteDateRange
 import evaka.core.shared.security.actionrule.AccessControlFilter
@@ -437,18 +438,18 @@ private fun Database.Read.getDailyGroupCaretakers(
         if (groupId == null) Predicate.alwaysTrue()
         else Predicate { where("$it.id = ${bind(groupId)}") }
 
-    val holidays = getHolidays(period)
-
     data class OccupancyGroup(
         @Nested val key: UnitGroupKey,
         val shiftCareOpenOnHolidays: Boolean,
         val groupValidity: DateRange,
         val operationDays: Set<Int>,
-    )
-    fun OccupancyGroup.isOperational(date: LocalDate) =
-        groupValidity.includes(date) &&
-            operationDays.contains(date.dayOfWeek.value) &&
-            (shiftCareOpenOnHolidays || date !in holidays)
+    ) {
+        val unitOperationDays = UnitOperationDays(operationDays, shiftCareOpenOnHolidays)
+
+        fun isOperational(date: LocalDate) =
+            groupValidity.includes(date) &&
+                OperationalCalendar.isOperational(unitOperationDays, date)
+    }
     val groups = createQuery {
         sql(
             """
@@ -11,6 +11,8 @@ import evaka.core.invoicing.domain.VoucherValueDecisionType
 import evaka.core.invoicing.service.FeeDecisionPdfData
 import evaka.core.invoicing.service.VoucherValueDecisionPdfData
 import evaka.core.placement.PlacementType
+import evaka.core.s3.DocumentKey
+import evaka.core.s3.DocumentLocation
 import evaka.core.setting.SettingType
 import evaka.core.shared.domain.OfficialLanguage
 import evaka.core.shared.domain.europeHelsinki
@@ -23,8 +25,10 @@ import java.io.File
 import java.math.BigDecimal
 import java.math.RoundingMode
 import java.nio.file.Paths
+import java.security.MessageDigest
 import java.time.LocalDate
 import java.time.format.DateTimeFormatter
+import java.util.HexFormat
 import java.util.Locale
 import kotlin.math.abs
 import org.openpdf.text.pdf.BaseFont
@@ -34,6 +38,9 @@ import org.thymeleaf.context.Context
 import org.xhtmlrenderer.pdf.ITextFontResolver
 import org.xhtmlrenderer.pdf.ITextRenderer
 
+/** Bump to invalidate every cached render, e.g. after upgrading the PDF renderer */
+private const val RENDER_CACHE_VERSION = 1
+
 class Template(val name: String)
 
 class Page(val template: Template, val context: Context)
@@ -43,22 +50,31 @@ class PdfGenerator(
     private val templateProvider: ITemplateProvider,
     private val templateEngine: ITemplateEngine,
     private val tracer: Tracer = noopTracer(),
+    private val renderCache: PdfRenderCache? = null,
 ) {
-    fun render(page: Page): ByteArray =
-        tracer.withSpan("render pdf ${page.template.name}") {
-            val html =
-                tracer.withSpan("process") {
-                    templateEngine.process(page.template.name, page.context)
-                }
+    private val fontDirectory by lazy { getResourceFile("ttf") }
+
+    /** Identifies the font set, so that changing fonts invalidates cached renders */
+    private val fontFingerprint by lazy {
+        val digest = MessageDigest.getInstance("SHA-256")
+        fontDirectory
+            .listFiles()
+            .orEmpty()
+            .sortedBy { it.name }
+            .forEach { file ->
+                digest.update(file.name.toByteArray())
+                digest.update(file.readBytes())
+            }
+        HexFormat.of().formatHex(digest.digest())
+    }
 
-            render(html)
-        }
+    fun render(page: Page): ByteArray = renderPage(page) { render(it) }
 
     fun render(html: String): ByteArray {
         val output = ByteArrayOutputStream()
         tracer.withSpan("render html") {
             with(ITextRenderer()) {
-                fontResolver.addFontDirectory(getResourceFile("ttf"), BaseFont.IDENTITY_H, true)
+                fontResolver.addFontDirectory(fontDirectory, BaseFont.IDENTITY_H, true)
                 setDocumentFromString(html)
                 layout()
                 createPDF(output, true)
@@ -67,19 +83,62 @@ class PdfGenerator(
         return output.toByteArray()
     }
 
-    fun generateFeeDecisionPdf(data: FeeDecisionPdfData): ByteArray {
-        val template = Template(templateProvider.getFeeDecisionPath())
-        val page = Page(template, createFeeDecisionPdfContext(data))
-
-        return render(page)
+    /**
+     * Renders the page like [render] and uploads it as [target]. If [target] already holds a
+     * rendering of identical HTML, both the render and the upload are skipped. Use this for
+     * documents that are regenerated or republished with unchanged content.
+     */
+    fun renderAndUpload(page: Page, target: DocumentKey): DocumentLocation =
+        renderPage(page) { renderAndUpload(it, target) }
+
+    /**
+     * Renders the HTML like [render] and uploads it as [target], unless [target] is already a
+     * rendering of identical HTML.
+     *
+     * The comparison uses a hash of the HTML, which is produced from the template, the document
+     * content and the locale, and of the font set. Any change to these renders the document again.
+     */
+    fun renderAndUpload(html: String, target: DocumentKey): DocumentLocation {
+        checkNotNull(renderCache) { "PdfGenerator was created without a PdfRenderCache" }
+        val digest = MessageDigest.getInstance("SHA-256")
+        digest.update("$RENDER_CACHE_VERSION\n$fontFingerprint\n".toByteArray())
+        digest.update(html.toByteArray())
+        return renderCache.renderAndUpload(target, HexFormat.of().formatHex(digest.digest())) {
+            render(html)
+        }
     }
 
-    fun generateVoucherValueDecisionPdf(data: VoucherValueDecisionPdfData): ByteArray {
-        val template = Template(templateProvider.getVoucherValueDecisionPath())
-        val page = Page(template, createVoucherValueDecisionPdfContext(data))
+    private fun <T> renderPage(page: Page, renderHtml: (html: String) -> T): T =
+        tracer.withSpan("render pdf ${page.template.name}") {
+            val html =
+                tracer.withSpan("process") {
+                    templateEngine.process(page.template.name, page.context)
+                }
 
-        return render(page)
-    }
+            renderHtml(html)
+        }
+
+    fun generateFeeDecisionPdf(data: FeeDecisionPdfData): ByteArray = render(feeDecisionPage(data))
+
+    fun generateFeeDecisionPdf(data: FeeDecisionPdfData, target: DocumentKey): DocumentLocation =
+        renderAndUpload(feeDecisionPage(data), target)
+
+    fun generateVoucherValueDecisionPdf(data: VoucherValueDecisionPdfData): ByteArray =
+        render(voucherValueDecisionPage(data))
+
+    fun generateVoucherValueDecisionPdf(
+        data: VoucherValueDecisionPdfData,
+        target: DocumentKey,
+    ): DocumentLocation = renderAndUpload(voucherValueDecisionPage(data), target)
+
+    private fun feeDecisionPage(data: FeeDecisionPdfData): Page =
+        Page(Template(templateProvider.getFeeDecisionPath()), createFeeDecisionPdfContext(data))
+
+    private fun voucherValueDecisionPage(data: VoucherValueDecisionPdfData): Page =
+        Page(
+            Template(templateProvider.getVoucherValueDecisionPath()),
+            createVoucherValueDecisionPdfContext(data),
+        )
 
     private fun createVoucherValueDecisionPdfContext(data: VoucherValueDecisionPdfData): Context {
         return Context().apply {
@@ -0,0 +1,61 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.pdfgen
+
+import evaka.core.s3.DocumentKey
+import evaka.core.s3.DocumentLocation
+import evaka.core.s3.DocumentService
+import io.github.oshai.kotlinlogging.KotlinLogging
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
+import org.springframework.stereotype.Component
+
+private val logger = KotlinLogging.logger {}
+
+/** S3 user metadata key of the hash the stored PDF was rendered from */
+const val RENDER_HASH_METADATA = "render-hash"
+
+/**
+ * Skips rendering and uploading a PDF document when the stored document is already a rendering of
+ * identical input.
+ *
+ * The hash of the input (see [PdfGenerator.renderAndUpload]) is stored as metadata of the uploaded
+ * document itself, so no separate copy of the PDF is kept anywhere. The cached rendering lives in
+ * the document's own bucket and key, and is deleted together with the document. Failures to read
+ * the metadata are logged and the document is rendered again.
+ */
+@Component
+class PdfRenderCache(private val documentService: DocumentService, meterRegistry: MeterRegistry) {
+    private val hits = Counter.builder("pdfRenderCacheHits").register(meterRegistry)
+    private val misses = Counter.builder("pdfRenderCacheMisses").register(meterRegistry)
+    private val errors = Counter.builder("pdfRenderCacheErrors").register(meterRegistry)
+
+    fun renderAndUpload(
+        target: DocumentKey,
+        hash: String,
+        render: () -> ByteArray,
+    ): DocumentLocation {
+        val location = documentService.locate(target)
+        val storedHash =
+            try {
+                documentService.getMetadata(location)?.get(RENDER_HASH_METADATA)
+            } catch (e: Exception) {
+                errors.increment()
+                logger.warn(e) { "Failed to read render hash of ${location.key}" }
+                null
+            }
+        if (storedHash == hash) {
+            hits.increment()
+            return location
+        }
+        misses.increment()
+        return documentService.upload(
+            target,
+            render(),
+            "application/pdf",
+            mapOf(RENDER_HASH_METADATA to hash),
+        )
+    }
+}
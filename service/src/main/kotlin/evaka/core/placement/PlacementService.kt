@@ -516,6 +516,8 @@ fun Database.Read.getDetailedDaycarePlacements(
         }
     val defaultServiceNeedOptions =
         getServiceNeedOptions().filter { it.defaultOption }.associateBy { it.validPlacementType }
+    val groupPlacementsByPlacement = groupPlacements.groupBy { it.daycarePlacementId }
+    val serviceNeedsByPlacement = serviceNeeds.groupBy { it.placementId }
 
     return daycarePlacements
         .map { daycarePlacement ->
@@ -528,13 +530,11 @@ fun Database.Read.getDetailedDaycarePlacements(
                 type = daycarePlacement.type,
                 serviceNeedDetail =
                     PlacementServiceNeedDetail(
-                        serviceNeeds =
-                            serviceNeeds.filter { it.placementId == daycarePlacement.id },
+                        serviceNeeds = serviceNeedsByPlacement[daycarePlacement.id] ?: emptyList(),
                         defaultServiceNeedOption = defaultServiceNeedOptions[daycarePlacement.type],
                         missingServiceNeedDays = daycarePlacement.missingServiceNeedDays,
                     ),
-                groupPlacements =
-                    groupPlacements.filter { it.daycarePlacementId == daycarePlacement.id },
+                groupPlacements = groupPlacementsByPlacement[daycarePlacement.id] ?: emptyList(),
                 terminatedBy = daycarePlacement.terminatedBy,
                 terminationRequestedDate = daycarePlacement.terminationRequestedDate,
                 placeGuarantee = daycarePlacement.placeGuarantee,
@@ -7,6 +7,7 @@ package evaka.core.reports
 import evaka.core.Audit
 import evaka.core.AuditId
 import evaka.core.absence.getAbsencesOfChildrenByRange
+import evaka.core.attendance.StaffAttendance
 import evaka.core.attendance.getStaffAttendancesForDateRange
 import evaka.core.dailyservicetimes.ServiceTimesPresenceStatus
 import evaka.core.dailyservicetimes.getDailyServiceTimesForChildren
@@ -430,7 +431,7 @@ fun getAttendanceReservationReport(
         when (reservationType) {
             ReservationType.RESERVATION -> tx.getReservations(range, allChildren)
             ReservationType.REALIZATION -> tx.getRealizations(range, allChildren)
-        }
+        }.mapValues { (_, reservations) -> reservations.groupBy { it.start.toLocalDate() } }
     val absences =
         tx.getAbsencesOfChildrenByRange(allChildren, range.asDateRange())
             .groupBy { it.childId }
@@ -449,147 +450,251 @@ fun getAttendanceReservationReport(
             }
         }
 
-    val dailyChildData = placementStuff.map { placementInfo ->
-        val date = placementInfo.date
-        val childId = placementInfo.childId
-
-        val serviceNeed = serviceNeedsMap[childId]?.firstOrNull { it.range.includes(date) }
-        val childAgeYears = Period.between(childInfoMap[childId]!!.dateOfBirth, date).years
-        val serviceNeedFactor =
-            when {
-                daycare.type.any {
-                    listOf(CareType.FAMILY, CareType.GROUP_FAMILY).contains(it)
-                } -> {
-                    familyUnitPlacementCoefficient.toDouble()
-                }
-
-                childAgeYears < 3 -> {
-                    serviceNeed?.occupancyCoefficientUnder
-                        ?: placementInfo.occupancyCoefficientUnder
-                }
-
-                else -> {
-                    serviceNeed?.occupancyCoefficientOver ?: placementInfo.occupancyCoefficientOver
-                }
-            }
-        val assistanceNeedFactor =
-            assistanceNeedsMap[childId]?.firstOrNull { it.range.includes(date) }?.capacityFactor
-                ?: 1.0
-        val capacityFactor = serviceNeedFactor * assistanceNeedFactor
-        val reservations =
-            reservationsMap[childId]?.filter { it.start.toLocalDate() == date } ?: emptyList()
-        val absenceCategories = absences[childId]?.get(date) ?: emptySet()
-        val fullDayAbsence = absenceCategories == placementInfo.placementType.absenceCategories()
-        val serviceTimes =
-            serviceTimesMap[childId]
-                ?.firstOrNull { it.validityPeriod.includes(date) }
-                ?.getTimesOnDate(date)
-
-        DailyChildData(
-            childId = childId,
-            date = date,
-            groupId = placementInfo.groupId,
-            groupName = placementInfo.groupName,
-            age = childAgeYears,
-            capacityFactor = capacityFactor,
-            serviceTimes = serviceTimes,
-            reservations = reservations,
-            fullDayAbsence = fullDayAbsence,
-            hasShiftCare = placementInfo.hasShiftCare,
-        )
-    }
-
+    val isFamilyUnit =
+        daycare.type.any { listOf(CareType.FAMILY, CareType.GROUP_FAMILY).contains(it) }
+    val operationDays = daycare.shiftCareOperationDays ?: daycare.operationDays
     val seqEnd = HelsinkiDateTime.atStartOfDay(end).plusDays(1).minusMinutes(15)
-    return dailyChildData
-        .groupBy { if (groupIds != null) Group(it.groupId, it.groupName) else Group(null, null) }
-        .let { it.ifEmpty { mapOf(Group(null, null) to emptyList()) } }
-        .flatMap { (group, childrenInGroup) ->
-            generateSequence(HelsinkiDateTime.atStartOfDay(start)) {
-                    if (it < seqEnd) it.plusMinutes(15) else null
+    val slots =
+        generateSequence(HelsinkiDateTime.atStartOfDay(start)) {
+                if (it < seqEnd) it.plusMinutes(15) else null
+            }
+            .filter { operationDays.contains(it.dayOfWeek.value) }
+            .toList()
+    val slotsByDate =
+        slots.indices
+            .groupBy { slots[it].toLocalDate() }
+            .mapValues { (_, indices) -> indices.first()..indices.last() }
+
+    fun groupOf(placementInfo: PlacementInfoRow) =
+        if (groupIds != null) Group(placementInfo.groupId, placementInfo.groupName)
+        else Group(null, null)
+
+    // Groups are reported in the order in which they first appear in the placement rows
+    val accumulators =
+        placementStuff
+            .map { groupOf(it) }
+            .distinct()
+            .ifEmpty { listOf(Group(null, null)) }
+            .associateWith { SlotAccumulator(slots.size) }
+
+    // Each child's days are walked once in date order, so every range lookup is a cursor step
+    // instead of a scan over the child's ranges
+    placementStuff
+        .groupBy { it.childId }
+        .forEach { (childId, placementRows) ->
+            val dateOfBirth = childInfoMap[childId]!!.dateOfBirth
+            val serviceNeeds =
+                RangeCursor(serviceNeedsMap[childId] ?: emptyList(), { it.range.start }) {
+                    it.range.end
                 }
-                .filter {
-                    (daycare.shiftCareOperationDays ?: daycare.operationDays).contains(
-                        it.dayOfWeek.value
-                    )
+            val assistanceNeeds =
+                RangeCursor(assistanceNeedsMap[childId] ?: emptyList(), { it.range.start }) {
+                    it.range.end
                 }
-                .map { intervalStart ->
-                    val interval =
-                        HelsinkiDateTimeRange(intervalStart, intervalStart.plusMinutes(15))
-                    val presentChildren =
-                        when (reservationType) {
-                            ReservationType.RESERVATION -> {
-                                childrenInGroup.filter {
-                                    it.isPresent(interval) == PresenceStatus.PRESENT
-                                }
-                            }
-
-                            ReservationType.REALIZATION -> {
-                                childrenInGroup.filter { it.wasPresent(interval) }
+            val serviceTimes =
+                RangeCursor(
+                    serviceTimesMap[childId] ?: emptyList(),
+                    { it.validityPeriod.start },
+                ) {
+                    it.validityPeriod.end
+                }
+            val childReservations = reservationsMap[childId] ?: emptyMap()
+            val childAbsences = absences[childId] ?: emptyMap()
+
+            placementRows
+                .sortedBy { it.date }
+                .forEach { placementInfo ->
+                    val date = placementInfo.date
+                    val childAgeYears = Period.between(dateOfBirth, date).years
+                    val serviceNeed = serviceNeeds.at(date)
+                    val serviceNeedFactor =
+                        when {
+                            isFamilyUnit -> {
+                                familyUnitPlacementCoefficient.toDouble()
                             }
-                        }
 
-                    val unknownChildren =
-                        when (reservationType) {
-                            ReservationType.RESERVATION -> {
-                                childrenInGroup.filter {
-                                    it.date == intervalStart.toLocalDate() &&
-                                        it.isPresent(interval) == PresenceStatus.UNKNOWN
-                                }
+                            childAgeYears < 3 -> {
+                                serviceNeed?.occupancyCoefficientUnder
+                                    ?: placementInfo.occupancyCoefficientUnder
                             }
 
-                            ReservationType.REALIZATION -> {
-                                emptyList()
+                            else -> {
+                                serviceNeed?.occupancyCoefficientOver
+                                    ?: placementInfo.occupancyCoefficientOver
                             }
                         }
+                    val assistanceNeedFactor = assistanceNeeds.at(date)?.capacityFactor ?: 1.0
+                    val absenceCategories = childAbsences[date] ?: emptySet()
+
+                    val child =
+                        DailyChildData(
+                            childId = childId,
+                            date = date,
+                            groupId = placementInfo.groupId,
+                            groupName = placementInfo.groupName,
+                            age = childAgeYears,
+                            capacityFactor = serviceNeedFactor * assistanceNeedFactor,
+                            serviceTimes = serviceTimes.at(date)?.getTimesOnDate(date),
+                            reservations = childReservations[date] ?: emptyList(),
+                            fullDayAbsence =
+                                absenceCategories ==
+                                    placementInfo.placementType.absenceCategories(),
+                            hasShiftCare = placementInfo.hasShiftCare,
+                        )
+                    accumulators
+                        .getValue(groupOf(placementInfo))
+                        .add(child, reservationType, slots, slotsByDate[date])
+                }
+        }
 
-                    val staffAttendances =
+    return accumulators.flatMap { (group, accumulator) ->
+        val staffCoefficients =
+            when (reservationType) {
+                ReservationType.RESERVATION -> null
+                ReservationType.REALIZATION ->
+                    staffCoefficientsPerSlot(
+                        slots,
                         if (group.id != null) {
-                                staffAttendancesMap[group.id] ?: emptyList()
-                            } else {
-                                staffAttendancesMap.values.flatten()
-                            }
-                            .filter {
-                                if (it.departed != null)
-                                    HelsinkiDateTimeRange(it.arrived, it.departed)
-                                        .overlaps(interval)
-                                else it.arrived < interval.end
-                            }
+                            staffAttendancesMap[group.id] ?: emptyList()
+                        } else {
+                            staffAttendancesMap.values.flatten()
+                        },
+                    )
+            }
+        slots.mapIndexed { slot, intervalStart ->
+            val capacityFactor = accumulator.capacityFactor[slot]
+            AttendanceReservationReportRow(
+                groupId = group.id,
+                groupName = group.name,
+                dateTime = intervalStart,
+                childCountUnder3 = accumulator.childCountUnder3[slot],
+                childCountOver3 = accumulator.childCountOver3[slot],
+                childCount = accumulator.childCountUnder3[slot] + accumulator.childCountOver3[slot],
+                capacityFactor =
+                    BigDecimal(capacityFactor).setScale(2, RoundingMode.HALF_UP).toDouble(),
+                staffCount =
+                    if (staffCoefficients == null) {
+                        BigDecimal(capacityFactor / 7)
+                            .setScale(1, RoundingMode.HALF_UP)
+                            .toDouble()
+                    } else {
+                        staffCoefficients[slot]
+                            .divide(BigDecimal.valueOf(7), 1, RoundingMode.HALF_UP)
+                            .toDouble()
+                    },
+                unknownChildCount = accumulator.unknownChildCount[slot],
+                unknownChildCapacityFactor =
+                    BigDecimal(accumulator.unknownChildCapacityFactor[slot])
+                        .setScale(2, RoundingMode.HALF_UP)
+                        .toDouble(),
+            )
+        }
+    }
+}
 
-                    AttendanceReservationReportRow(
-                        groupId = group.id,
-                        groupName = group.name,
-                        dateTime = intervalStart,
-                        childCountUnder3 = presentChildren.count { it.age < 3 },
-                        childCountOver3 = presentChildren.count { it.age >= 3 },
-                        childCount = presentChildren.count(),
-                        capacityFactor =
-                            BigDecimal(presentChildren.sumOf { it.capacityFactor })
-                                .setScale(2, RoundingMode.HALF_UP)
-                                .toDouble(),
-                        staffCount =
-                            when (reservationType) {
-                                ReservationType.RESERVATION -> {
-                                    BigDecimal(presentChildren.sumOf { it.capacityFactor } / 7)
-                                        .setScale(1, RoundingMode.HALF_UP)
-                                        .toDouble()
+private const val SLOT_MINUTES = 15L
+private const val PRESENCE_BUFFER_MINUTES = 15L
+
+/**
+ * Per-slot totals of one report group, indexed by the position of the slot in the report's
+ * ascending list of 15-minute slots.
+ */
+private class SlotAccumulator(slotCount: Int) {
+    val childCountUnder3 = IntArray(slotCount)
+    val childCountOver3 = IntArray(slotCount)
+    val capacityFactor = DoubleArray(slotCount)
+    val unknownChildCount = IntArray(slotCount)
+    val unknownChildCapacityFactor = DoubleArray(slotCount)
+
+    /**
+     * Adds the child's day to every slot it is present in. Presence follows the rules of
+     * [DailyChildData.isPresent] and [DailyChildData.wasPresent]: a reservation or service time
+     * counts until 15 minutes after its end, so it may also reach the first slots of the next day.
+     */
+    fun add(
+        child: DailyChildData,
+        reservationType: ReservationType,
+        slots: List<HelsinkiDateTime>,
+        slotsOfDate: IntRange?,
+    ) {
+        val presence =
+            when (reservationType) {
+                ReservationType.RESERVATION -> {
+                    if (child.fullDayAbsence) return
+                    if (child.reservations.isNotEmpty()) {
+                        child.reservations
+                    } else {
+                        when (val serviceTimes = child.serviceTimes) {
+                            is ServiceTimesPresenceStatus.Present ->
+                                listOf(serviceTimes.times.asHelsinkiDateTimeRange(child.date))
+                            is ServiceTimesPresenceStatus.Absent -> return
+                            is ServiceTimesPresenceStatus.Unknown,
+                            null -> {
+                                slotsOfDate?.forEach {
+                                    unknownChildCount[it]++
+                                    unknownChildCapacityFactor[it] += child.capacityFactor
                                 }
+                                return
+                            }
+                        }
+                    }
+                }
 
-                                ReservationType.REALIZATION -> {
-                                    staffAttendances
-                                        .sumOf { it.occupancyCoefficient }
-                                        .divide(BigDecimal.valueOf(7), 1, RoundingMode.HALF_UP)
-                                        .toDouble()
-                                }
-                            },
-                        unknownChildCount = unknownChildren.count(),
-                        unknownChildCapacityFactor =
-                            BigDecimal(unknownChildren.sumOf { it.capacityFactor })
-                                .setScale(2, RoundingMode.HALF_UP)
-                                .toDouble(),
-                    )
+                ReservationType.REALIZATION -> child.reservations
+            }
+        var next = 0
+        presence
+            .sortedBy { it.start }
+            .forEach { range ->
+                var slot = maxOf(next, slots.firstSlotEndingAfter(range.start))
+                val end = range.end.plusMinutes(PRESENCE_BUFFER_MINUTES)
+                while (slot < slots.size && slots[slot] < end) {
+                    if (child.age < 3) childCountUnder3[slot]++ else childCountOver3[slot]++
+                    capacityFactor[slot] += child.capacityFactor
+                    slot++
                 }
-                .toList()
+                next = maxOf(next, slot)
+            }
+    }
+}
+
+private fun staffCoefficientsPerSlot(
+    slots: List<HelsinkiDateTime>,
+    staffAttendances: List<StaffAttendance>,
+): Array<BigDecimal> {
+    val coefficients = Array(slots.size) { BigDecimal.ZERO }
+    staffAttendances.forEach { attendance ->
+        var slot = slots.firstSlotEndingAfter(attendance.arrived)
+        while (
+            slot < slots.size && (attendance.departed == null || slots[slot] < attendance.departed)
+        ) {
+            coefficients[slot] += attendance.occupancyCoefficient
+            slot++
         }
+    }
+    return coefficients
+}
+
+/** Returns the index of the first slot whose 15-minute interval ends after the given time */
+private fun List<HelsinkiDateTime>.firstSlotEndingAfter(time: HelsinkiDateTime): Int =
+    -(binarySearch { if (it.plusMinutes(SLOT_MINUTES) <= time) -1 else 1 } + 1)
+
+/**
+ * Finds the range containing a date from a list of non-overlapping ranges. Dates must be looked up
+ * in ascending order.
+ */
+private class RangeCursor<T>(
+    values: List<T>,
+    private val startOf: (T) -> LocalDate,
+    private val endOf: (T) -> LocalDate?,
+) {
+    private val sorted = values.sortedBy(startOf)
+    private var index = 0
+
+    fun at(date: LocalDate): T? {
+        while (index < sorted.size && endOf(sorted[index])?.let { it < date } == true) index++
+        return sorted.getOrNull(index)?.takeIf { startOf(it) <= date }
+    }
 }
 
 fun getAttendanceReservationReportByChild(
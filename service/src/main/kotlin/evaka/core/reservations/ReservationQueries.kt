@@ -47,20 +47,52 @@ fun Database.Transaction.deleteAbsencesCreatedFromQuestionnaire(
         .execute()
 }
 
+/**
+ * Takes transaction-scoped locks that serialize reservation and absence writes of the given
+ * children.
+ *
+ * The locks are always acquired in the same order, so two transactions writing overlapping sets of
+ * children (e.g. both guardians of siblings) wait for each other instead of deadlocking on
+ * absence and reservation rows.
+ */
+fun Database.Transaction.lockChildrenForReservationWrite(childIds: Collection<ChildId>) {
+    if (childIds.isEmpty()) return
+
+    execute {
+        sql(
+            """
+SELECT pg_advisory_xact_lock(key)
+FROM (
+    SELECT DISTINCT hashtextextended('reservations:' || child_id::text, 0) AS key
+    FROM unnest(${bind(childIds)}) AS child_id
+    ORDER BY key
+) keys
+"""
+        )
+    }
+}
+
 fun Database.Transaction.clearOldReservations(
     reservations: List<Pair<ChildId, LocalDate>>
-): List<AttendanceReservationId> =
-    prepareBatch(reservations) {
+): List<AttendanceReservationId> {
+    if (reservations.isEmpty()) return emptyList()
+
+    return createUpdate {
             sql(
                 """
-DELETE FROM attendance_reservation
-WHERE child_id = ${bind { (childId, _) -> childId }} AND date = ${bind { (_, date) -> date }}
-RETURNING id
+DELETE FROM attendance_reservation ar
+USING unnest(
+    ${bindColumn(reservations) { (childId, _) -> childId }},
+    ${bindColumn(reservations) { (_, date) -> date }}
+) AS t(child_id, date)
+WHERE ar.child_id = t.child_id AND ar.date = t.date
+RETURNING ar.id
 """
             )
         }
-        .executeAndReturn()
+        .executeAndReturnGeneratedKeys()
         .toList()
+}
 
 fun Database.Transaction.deleteReservationsInRange(childId: ChildId, range: DateRange): Int {
     return createUpdate {
@@ -108,39 +140,45 @@ fun Database.Transaction.insertValidReservations(
     createdAt: HelsinkiDateTime,
     reservations: List<ReservationInsert>,
 ): List<AttendanceReservationId> {
-    return reservations.mapNotNull {
-        createQuery {
+    if (reservations.isEmpty()) return emptyList()
+
+    return createUpdate {
             sql(
                 """
 INSERT INTO attendance_reservation (child_id, date, start_time, end_time, created_at, created_by)
-SELECT ${bind(it.childId)}, ${bind(it.date)}, ${bind(it.range?.start)}, ${bind(it.range?.end)}, ${bind(createdAt)}, ${bind(userId)}
-FROM realized_placement_all(${bind(it.date)}) rp
+SELECT r.child_id, r.date, r.start_time, r.end_time, ${bind(createdAt)}, ${bind(userId)}
+FROM unnest(
+    ${bindColumn(reservations) { it.childId }},
+    ${bindColumn(reservations) { it.date }},
+    ${bindColumn(reservations) { it.range?.start }},
+    ${bindColumn(reservations) { it.range?.end }},
+    ${bindColumn(reservations) { it.date.isHoliday() }}
+) AS r(child_id, date, start_time, end_time, is_holiday)
+JOIN LATERAL realized_placement_all(r.date) rp ON rp.child_id = r.child_id
 JOIN daycare d ON d.id = rp.unit_id AND 'RESERVATIONS' = ANY(d.enabled_pilot_features)
-LEFT JOIN service_need sn ON sn.placement_id = rp.placement_id AND daterange(sn.start_date, sn.end_date, '[]') @> ${bind(it.date)}
+LEFT JOIN service_need sn ON sn.placement_id = rp.placement_id AND daterange(sn.start_date, sn.end_date, '[]') @> r.date
 WHERE 
-    rp.child_id = ${bind(it.childId)} AND (
-        CASE
-            WHEN sn.shift_care = 'INTERMITTENT'
-            THEN TRUE
-            WHEN sn.shift_care = 'FULL'
-            THEN (
-                extract(isodow FROM ${bind(it.date)}) = ANY(coalesce(d.shift_care_operation_days, d.operation_days)) AND 
-                (d.shift_care_open_on_holidays OR ${bind(!it.date.isHoliday())})
-            )
-            ELSE (
-                extract(isodow FROM ${bind(it.date)}) = ANY(d.operation_days) AND
-                ${bind(!it.date.isHoliday())}
-            )
-        END
-    ) AND
-    NOT EXISTS(SELECT 1 FROM absence ab WHERE ab.child_id = ${bind(it.childId)} AND ab.date = ${bind(it.date)})
+    CASE
+        WHEN sn.shift_care = 'INTERMITTENT'
+        THEN TRUE
+        WHEN sn.shift_care = 'FULL'
+        THEN (
+            extract(isodow FROM r.date) = ANY(coalesce(d.shift_care_operation_days, d.operation_days)) AND 
+            (d.shift_care_open_on_holidays OR NOT r.is_holiday)
+        )
+        ELSE (
+            extract(isodow FROM r.date) = ANY(d.operation_days) AND
+            NOT r.is_holiday
+        )
+    END AND
+    NOT EXISTS(SELECT 1 FROM absence ab WHERE ab.child_id = r.child_id AND ab.date = r.date)
 ON CONFLICT DO NOTHING
 RETURNING id
 """
             )
         }
-            .exactlyOneOrNull<AttendanceReservationId>()
-    }
+        .executeAndReturnGeneratedKeys()
+        .toList()
 }
 
 fun Database.Read.getReservations(where: Predicate): List<ReservationRow> = createQuery {
@@ -214,13 +214,17 @@ fun createReservationsAndAbsences(
         throw BadRequest("Some days are not reservable", "NON_RESERVABLE_DAYS")
     }
 
+    // Everything below reads and writes the current state of these children, so concurrent
+    // submissions for the same children must be applied one at a time
+    val childIds = requests.map { it.childId }.toSet()
+    tx.lockChildrenForReservationWrite(childIds)
+
     val today = now.toLocalDate()
     val reservationsRange = reservationRequestRange(requests)
     val clubTerms = tx.getClubTerms(reservationsRange)
     val preschoolTerms = tx.getPreschoolTerms(reservationsRange)
     val holidayPeriods = tx.getHolidayPeriodsInRange(reservationsRange)
 
-    val childIds = requests.map { it.childId }.toSet()
     val placements = tx.getReservationPlacements(childIds, reservationsRange.asDateRange())
     val plannedAbsenceEnabledRanges =
         tx.getPlannedAbsenceEnabledRanges(
@@ -335,7 +339,11 @@ fun createReservationsAndAbsences(
                     request
                 }
             }
-            .toList()
+            // The final state of each (child, date) is given by its last request, and rows are
+            // written in (child, date) order so that concurrent writers lock them in the same order
+            .associateBy { it.childId to it.date }
+            .values
+            .sortedWith(compareBy({ it.childId }, { it.date }))
 
     val deletedAbsences =
         if (isCitizen) {
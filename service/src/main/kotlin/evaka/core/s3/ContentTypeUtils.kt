@@ -5,9 +5,18 @@
 package evaka.core.s3
 
 import evaka.core.shared.domain.BadRequest
+import java.io.ByteArrayInputStream
 import java.io.InputStream
+import org.apache.tika.detect.DefaultDetector
+import org.apache.tika.detect.Detector
+import org.apache.tika.metadata.Metadata
 
-val tika: org.apache.tika.Tika = org.apache.tika.Tika()
+/** Content type detection never reads more than this many bytes from the start of a file */
+const val CONTENT_TYPE_DETECTION_PREFIX_BYTES = 64 * 1024
+
+// The same detector chain the Tika facade uses, created once. It is only ever given a prefix of
+// the file, so no detector in the chain can read further into the file than the prefix
+private val detector: Detector = DefaultDetector()
 
 enum class ContentTypePattern(
     private val type: String,
@@ -41,8 +50,21 @@ enum class ContentTypePattern(
     }
 }
 
+/**
+ * Detects the content type of [file] from its first [CONTENT_TYPE_DETECTION_PREFIX_BYTES] bytes. If
+ * the stream supports mark/reset, it is reset to the start afterwards, so the same stream can then
+ * be uploaded as is.
+ */
+fun detectContentType(file: InputStream): String {
+    val markSupported = file.markSupported()
+    if (markSupported) file.mark(CONTENT_TYPE_DETECTION_PREFIX_BYTES)
+    val prefix = file.readNBytes(CONTENT_TYPE_DETECTION_PREFIX_BYTES)
+    if (markSupported) file.reset()
+    return ByteArrayInputStream(prefix).use { detector.detect(it, Metadata()).toString() }
+}
+
 fun checkFileContentType(file: InputStream, allowedContentTypes: Set<ContentTypePattern>): String {
-    val detectedContentType = tika.detect(file)
+    val detectedContentType = detectContentType(file)
     allowedContentTypes.find { it.matchesContentType(detectedContentType) }
         ?: throw BadRequest("Invalid content type $detectedContentType", "INVALID_CONTENT_TYPE")
     return detectedContentType
@@ -53,7 +75,7 @@ fun checkFileContentTypeAndExtension(
     fileExtension: String,
     allowedContentTypes: List<ContentTypePattern>,
 ): String {
-    val detectedContentType = tika.detect(file)
+    val detectedContentType = detectContentType(file)
     val contentTypePattern =
         allowedContentTypes.find { it.matchesContentType(detectedContentType) }
             ?: throw BadRequest("Invalid content type $detectedContentType", "INVALID_CONTENT_TYPE")
@@ -37,6 +37,10 @@ sealed interface DocumentKey {
         constructor(id: ChildImageId) : this("child-images/$id")
     }
 
+    data class ChildImageThumbnail(override val value: String) : DocumentKey {
+        constructor(id: ChildImageId) : this("child-images/thumbnails/$id")
+    }
+
     data class Decision(override val value: String) : DocumentKey {
         constructor(
             id: DecisionId,
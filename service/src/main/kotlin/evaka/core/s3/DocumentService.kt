@@ -4,18 +4,50 @@
 
 package evaka.core.s3
 
+import evaka.core.shared.domain.NotFound
+import java.io.Closeable
 import java.io.InputStream
 import org.springframework.http.ContentDisposition
 import org.springframework.http.ResponseEntity
 
 class Document(val name: String, val bytes: ByteArray, val contentType: String)
 
+/**
+ * A document whose content is read from storage only as the stream is consumed, so the whole file
+ * is never held in memory. Must be closed after use.
+ */
+class DocumentStream(
+    val name: String,
+    val contentType: String,
+    val contentLength: Long,
+    val inputStream: InputStream,
+) : Closeable {
+    override fun close() = inputStream.close()
+}
+
 data class DocumentLocation(val bucket: String, val key: String)
 
 interface DocumentService {
     fun locate(key: DocumentKey): DocumentLocation
 
-    fun get(location: DocumentLocation): Document
+    /** Reads the whole document into memory. Prefer [getStream] for anything that isn't small */
+    fun get(location: DocumentLocation): Document =
+        getStream(location).use {
+            Document(it.name, it.inputStream.readAllBytes(), it.contentType)
+        }
+
+    fun getStream(location: DocumentLocation): DocumentStream
+
+    /** Reads the whole document into memory, or returns null if it doesn't exist */
+    fun getOrNull(location: DocumentLocation): Document? =
+        try {
+            get(location)
+        } catch (e: NotFound) {
+            null
+        }
+
+    /** Returns the user metadata of the document, or null if it doesn't exist */
+    fun getMetadata(location: DocumentLocation): Map<String, String>? = null
 
     fun response(
         location: DocumentLocation,
@@ -38,6 +70,17 @@ interface DocumentService {
             location
         }
 
+    /**
+     * Uploads the document with user [metadata] that can be read back with [getMetadata].
+     * Implementations that don't support metadata store the document without it.
+     */
+    fun upload(
+        key: DocumentKey,
+        bytes: ByteArray,
+        contentType: String,
+        metadata: Map<String, String>,
+    ): DocumentLocation = upload(key, bytes, contentType)
+
     fun upload(
         document: DocumentKey,
         inputStream: InputStream,
@@ -6,9 +6,16 @@ package evaka.core.s3
 
 import evaka.core.BucketEnv
 import evaka.core.shared.domain.NotFound
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.DistributionSummary
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.MeterRegistry
+import java.io.FilterInputStream
 import java.io.InputStream
 import java.net.URL
 import java.time.Duration
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 import org.springframework.http.ContentDisposition
 import org.springframework.http.HttpStatus
 import org.springframework.http.ResponseEntity
@@ -17,7 +24,10 @@ import software.amazon.awssdk.core.sync.RequestBody
 import software.amazon.awssdk.services.s3.S3Client
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest
 import software.amazon.awssdk.services.s3.model.GetObjectRequest
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException
 import software.amazon.awssdk.services.s3.model.PutObjectRequest
+import software.amazon.awssdk.services.s3.model.S3Exception
 import software.amazon.awssdk.services.s3.presigner.S3Presigner
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest
 
@@ -28,7 +38,21 @@ class S3DocumentService(
     private val s3Client: S3Client,
     private val s3Presigner: S3Presigner,
     private val env: BucketEnv,
+    meterRegistry: MeterRegistry,
 ) : DocumentService {
+    /** Sizes of documents read fully into heap by [get] */
+    private val bufferedReadBytes =
+        DistributionSummary.builder("documentBufferedReadBytes")
+            .baseUnit("bytes")
+            .register(meterRegistry)
+    private val streamedReadBytes =
+        Counter.builder("documentStreamedReadBytes").baseUnit("bytes").register(meterRegistry)
+    private val openStreams = AtomicInteger()
+
+    init {
+        Gauge.builder("documentStreamsOpen") { openStreams.get() }.register(meterRegistry)
+    }
+
     override fun locate(key: DocumentKey): DocumentLocation =
         DocumentLocation(
             bucket =
@@ -36,6 +60,7 @@ class S3DocumentService(
                     is DocumentKey.Attachment -> env.attachments
                     is DocumentKey.ChildDocument -> env.data
                     is DocumentKey.ChildImage -> env.data
+                    is DocumentKey.ChildImageThumbnail -> env.data
                     is DocumentKey.Decision -> env.decisions
                     is DocumentKey.FeeDecision -> env.feeDecisions
                     is DocumentKey.VoucherValueDecision -> env.voucherValueDecisions
@@ -46,12 +71,60 @@ class S3DocumentService(
     override fun get(location: DocumentLocation): Document {
         val request = GetObjectRequest.builder().bucket(location.bucket).key(location.key).build()
         val stream = s3Client.getObject(request) ?: throw NotFound("File not found")
-        return stream.use {
-            Document(
-                name = location.key,
-                bytes = it.readAllBytes(),
-                contentType = it.response().contentType(),
-            )
+        return stream
+            .use {
+                Document(
+                    name = location.key,
+                    bytes = it.readAllBytes(),
+                    contentType = it.response().contentType(),
+                )
+            }
+            .also { bufferedReadBytes.record(it.bytes.size.toDouble()) }
+    }
+
+    override fun getOrNull(location: DocumentLocation): Document? =
+        try {
+            get(location)
+        } catch (e: NoSuchKeyException) {
+            null
+        }
+
+    override fun getMetadata(location: DocumentLocation): Map<String, String>? {
+        val request = HeadObjectRequest.builder().bucket(location.bucket).key(location.key).build()
+        return try {
+            s3Client.headObject(request).metadata()
+        } catch (_: NoSuchKeyException) {
+            null
+        } catch (e: S3Exception) {
+            if (e.statusCode() == HttpStatus.NOT_FOUND.value()) null else throw e
+        }
+    }
+
+    override fun getStream(location: DocumentLocation): DocumentStream {
+        val request = GetObjectRequest.builder().bucket(location.bucket).key(location.key).build()
+        val stream = s3Client.getObject(request) ?: throw NotFound("File not found")
+        openStreams.incrementAndGet()
+        return DocumentStream(
+            name = location.key,
+            contentType = stream.response().contentType(),
+            contentLength = stream.response().contentLength(),
+            inputStream = MeteredInputStream(stream),
+        )
+    }
+
+    private inner class MeteredInputStream(input: InputStream) : FilterInputStream(input) {
+        private val closed = AtomicBoolean(false)
+
+        override fun read(): Int = super.read().also { if (it >= 0) streamedReadBytes.increment() }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int =
+            super.read(b, off, len).also { if (it > 0) streamedReadBytes.increment(it.toDouble()) }
+
+        override fun close() {
+            if (closed.compareAndSet(false, true)) {
+                openStreams.decrementAndGet()
+            }
+            super.close()
         }
     }
 
@@ -89,16 +162,36 @@ class S3DocumentService(
     }
 
     override fun upload(
+        key: DocumentKey,
+        bytes: ByteArray,
+        contentType: String,
+        metadata: Map<String, String>,
+    ): DocumentLocation {
+        val location = locate(key)
+        upload(location, bytes.inputStream(), bytes.size.toLong(), contentType, metadata)
+        return location
+    }
+
+    override fun upload(
+        location: DocumentLocation,
+        inputStream: InputStream,
+        size: Long,
+        contentType: String,
+    ) = upload(location, inputStream, size, contentType, emptyMap())
+
+    private fun upload(
         location: DocumentLocation,
         inputStream: InputStream,
         size: Long,
         contentType: String,
+        metadata: Map<String, String>,
     ) {
         val request =
             PutObjectRequest.builder()
                 .bucket(location.bucket)
                 .key(location.key)
                 .contentType(contentType)
+                .metadata(metadata)
                 .build()
 
         val body = RequestBody.fromInputStream(inputStream, size)
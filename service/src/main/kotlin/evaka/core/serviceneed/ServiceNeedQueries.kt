@@ -14,6 +14,7 @@ import evaka.core.shared.PlacementId
 import evaka.core.shared.ServiceNeedId
 import evaka.core.shared.ServiceNeedOptionId
 import evaka.core.shared.db.Database
+import evaka.core.shared.db.ReferenceDataCache
 import evaka.core.shared.domain.FiniteDateRange
 import evaka.core.shared.domain.HelsinkiDateTime
 import evaka.core.shared.domain.NotFound
@@ -195,10 +196,11 @@ WHERE placement_id = ${bind(placementId)} AND daterange(sn.start_date, sn.end_da
         .filter { it.id != excluding }
 }
 
-fun Database.Read.getServiceNeedOptions(): List<ServiceNeedOption> {
-    return createQuery {
-        sql(
-            """
+private val serviceNeedOptionCache =
+    ReferenceDataCache("service_need_option") { tx ->
+        tx.createQuery {
+                sql(
+                    """
 SELECT
     id,
     name_fi,
@@ -227,10 +229,13 @@ SELECT
 FROM service_need_option
 ORDER BY display_order, daycare_hours_per_week DESC, part_day, part_week, name_fi
         """
-        )
+                )
+            }
+            .toList<ServiceNeedOption>()
     }
-        .toList<ServiceNeedOption>()
-}
+
+fun Database.Read.getServiceNeedOptions(): List<ServiceNeedOption> =
+    serviceNeedOptionCache.get(this)
 
 fun Database.Read.findServiceNeedOptionById(id: ServiceNeedOptionId): ServiceNeedOption? {
     return createQuery {
@@ -7,12 +7,16 @@ package evaka.core.sficlient.rest
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties
 import com.fasterxml.jackson.annotation.JsonInclude
 import com.fasterxml.jackson.annotation.JsonValue
+import evaka.core.s3.DocumentStream
 import evaka.core.shared.domain.HelsinkiDateTime
+import java.io.Closeable
 import java.util.UUID
 import okhttp3.HttpUrl
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.MultipartBody
-import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.RequestBody
+import okio.BufferedSink
+import okio.source
 
 // https://api.messages-qa.suomi.fi/api-docs
 data class ApiUrls(
@@ -60,12 +64,38 @@ data class AccessTokenResponse(
 private val pdfMediaType = "application/pdf".toMediaType()
 
 // https://api.messages-qa.suomi.fi/api-docs#operations-messages-postV3Attachments
-fun pdfUploadBody(fileName: String, pdfBytes: ByteArray) =
+fun pdfUploadBody(fileName: String, pdf: RequestBody) =
     MultipartBody.Builder()
         .setType(MultipartBody.FORM)
-        .addFormDataPart("file", fileName, pdfBytes.toRequestBody(pdfMediaType))
+        .addFormDataPart("file", fileName, pdf)
         .build()
 
+/**
+ * Streams a PDF document from storage into the request body without loading it into memory.
+ *
+ * The first write consumes the stream opened when the body was created. If OkHttp writes the body
+ * again (e.g. when a 401 response triggers re-authentication), the document is opened again.
+ */
+class PdfDocumentRequestBody(private val open: () -> DocumentStream) : RequestBody(), Closeable {
+    private var pending: DocumentStream? = open()
+    private val contentLength = pending!!.contentLength
+
+    override fun contentType() = pdfMediaType
+
+    override fun contentLength() = contentLength
+
+    override fun writeTo(sink: BufferedSink) {
+        val document = pending ?: open()
+        pending = null
+        document.use { sink.writeAll(it.inputStream.source()) }
+    }
+
+    override fun close() {
+        pending?.close()
+        pending = null
+    }
+}
+
 // https://api.messages.suomi.fi/api-docs/#model-messages.api.rest.v2.AttachmentReference
 data class AttachmentReference(val attachmentId: UUID)
 
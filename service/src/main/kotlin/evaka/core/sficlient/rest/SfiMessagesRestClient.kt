@@ -6,8 +6,8 @@ package evaka.core.sficlient.rest
 
 import evaka.core.Sensitive
 import evaka.core.SfiEnv
-import evaka.core.s3.Document
 import evaka.core.s3.DocumentLocation
+import evaka.core.s3.DocumentStream
 import evaka.core.sficlient.SfiMessage
 import evaka.core.sficlient.SfiMessagesClient
 import evaka.core.shared.config.defaultJsonMapperBuilder
@@ -116,7 +116,7 @@ class Config(env: SfiEnv) {
 
 class SfiMessagesRestClient(
     env: SfiEnv,
-    private val getDocument: (location: DocumentLocation) -> Document,
+    private val getDocument: (location: DocumentLocation) -> DocumentStream,
     private val passwordStore: PasswordStore,
 ) : SfiMessagesClient {
     private val config = Config(env)
@@ -200,8 +200,8 @@ class SfiMessagesRestClient(
             }
     }
 
-    private fun uploadFile(fileName: String, pdfBytes: ByteArray): AttachmentReference {
-        logger.info { "Uploading file $fileName (${pdfBytes.size} bytes)" }
+    private fun uploadFile(fileName: String, pdf: PdfDocumentRequestBody): AttachmentReference {
+        logger.info { "Uploading file $fileName (${pdf.contentLength()} bytes)" }
 
         httpClient
             .newCall(
@@ -209,7 +209,7 @@ class SfiMessagesRestClient(
                     .url(config.urls.attachments)
                     .header("Authorization", authorizationHeader.get().value)
                     .header("Accept", "application/json")
-                    .post(pdfUploadBody(fileName, pdfBytes))
+                    .post(pdfUploadBody(fileName, pdf))
                     .build()
             )
             .execute()
@@ -226,7 +226,7 @@ class SfiMessagesRestClient(
     }
 
     override fun send(msg: SfiMessage) {
-        val pdfBytes = getDocument(DocumentLocation(msg.documentBucket, msg.documentKey)).bytes
+        val location = DocumentLocation(msg.documentBucket, msg.documentKey)
 
         logger.info(
             mapOf("meta" to mapOf("documentId" to msg.documentId, "messageId" to msg.messageId))
@@ -234,7 +234,9 @@ class SfiMessagesRestClient(
             "Sending SFI message about ${msg.documentId} with messageId: ${msg.messageId}"
         }
 
-        val attachmentReference = uploadFile(msg.documentDisplayName, pdfBytes)
+        val attachmentReference =
+            PdfDocumentRequestBody { getDocument(location) }
+                .use { uploadFile(msg.documentDisplayName, it) }
 
         httpClient
             .newCall(
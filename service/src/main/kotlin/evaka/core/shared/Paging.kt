@@ -6,6 +6,11 @@ package evaka.core.shared
 
 import evaka.core.shared.db.Database
 import evaka.core.shared.db.Row
+import evaka.core.shared.domain.BadRequest
+import evaka.core.shared.domain.HelsinkiDateTime
+import java.time.Instant
+import java.util.Base64
+import java.util.UUID
 
 typealias PagedFactory<T, R> = (data: List<T>, total: Int, pages: Int) -> R
 
@@ -40,3 +45,46 @@ data class WithCount<T>(val count: Int, val data: T)
 inline fun <reified T> withCountMapper(): Row.() -> WithCount<T> = {
     WithCount(column("count"), row())
 }
+
+typealias KeysetPagedFactory<T, R> =
+    (data: List<T>, total: Int, pages: Int, nextCursor: String?) -> R
+
+/**
+ * Position after a row in a listing ordered by a timestamp and an id, both descending.
+ *
+ * Clients get it as an opaque string and pass it back to fetch the next page, which is then found
+ * by seeking past the row in an index instead of reading and skipping every earlier row like
+ * OFFSET does.
+ */
+data class PageCursor(val timestamp: HelsinkiDateTime, val id: UUID) {
+    fun encode(): String =
+        Base64.getUrlEncoder()
+            .withoutPadding()
+            .encodeToString("${timestamp.toInstant()}_$id".toByteArray())
+
+    companion object {
+        fun decode(value: String): PageCursor =
+            runCatching {
+                    val (timestamp, id) =
+                        String(Base64.getUrlDecoder().decode(value)).split('_', limit = 2)
+                    PageCursor(HelsinkiDateTime.from(Instant.parse(timestamp)), UUID.fromString(id))
+                }
+                .getOrElse { throw BadRequest("Invalid page cursor", cause = it) }
+    }
+}
+
+/**
+ * Builds a page from rows fetched with `LIMIT pageSize + 1`. The extra row is not returned: it only
+ * tells that there is a next page, whose cursor points after the last returned row.
+ */
+fun <T, R> List<T>.toKeysetPaged(
+    f: KeysetPagedFactory<T, R>,
+    total: Int,
+    pageSize: Int,
+    cursorOf: (T) -> PageCursor,
+): R {
+    val hasNext = size > pageSize
+    val data = if (hasNext) take(pageSize) else this
+    val pages = if (total == 0) 1 else (total + pageSize - 1) / pageSize
+    return f(data, total, pages, if (hasNext) cursorOf(data.last()).encode() else null)
+}
@@ -9,6 +9,9 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo
 import evaka.core.application.ApplicationType
 import evaka.core.application.PlacementToolData
 import evaka.core.calendarevent.CalendarEventTime
+import evaka.core.calendarevent.ParentWithDiscussionSurveys
+import evaka.core.calendarevent.ParentWithEventTimes
+import evaka.core.calendarevent.ParentWithEvents
 import evaka.core.daycare.domain.Language
 import evaka.core.document.childdocument.ChildDocumentNotificationType
 import evaka.core.invoicing.service.IncomeNotificationType
@@ -83,6 +86,11 @@ sealed interface AsyncJob : AsyncJobPayload {
         override val user: AuthenticatedUser? = null
     }
 
+    data class SendMessagePushNotifications(val message: MessageId) : AsyncJob {
+        override val user: AuthenticatedUser? = null
+    }
+
+    /** Retries one failed delivery of [SendMessagePushNotifications] */
     data class SendMessagePushNotification(
         val recipient: MessageRecipientId,
         val device: MobileDeviceId,
@@ -245,6 +253,10 @@ sealed interface AsyncJob : AsyncJobPayload {
         override val user: AuthenticatedUser? = null
     }
 
+    data class GenerateChildImageThumbnails(val batchSize: Int) : AsyncJob {
+        override val user: AuthenticatedUser? = null
+    }
+
     data class DeleteDecisionPdf(val key: String) : AsyncJob {
         override val user: AuthenticatedUser? = null
     }
@@ -261,6 +273,10 @@ sealed interface AsyncJob : AsyncJobPayload {
         override val user: AuthenticatedUser? = null
     }
 
+    data class SendCalendarEventDigestEmails(val digests: List<ParentWithEvents>) : AsyncJob {
+        override val user: AuthenticatedUser? = null
+    }
+
     data class UpdateFromVtj(val ssn: String) : AsyncJob {
         override val user: AuthenticatedUser? = null
     }
@@ -373,6 +389,17 @@ sealed interface AsyncJob : AsyncJobPayload {
         override val user: AuthenticatedUser? = null
     }
 
+    data class SendDiscussionSurveyCreationNotificationEmails(
+        val recipients: List<ParentWithDiscussionSurveys>
+    ) : AsyncJob {
+        override val user: AuthenticatedUser? = null
+    }
+
+    data class SendDiscussionReservationReminderEmails(val reminders: List<ParentWithEventTimes>) :
+        AsyncJob {
+        override val user: AuthenticatedUser? = null
+    }
+
     class SyncJamixDiets : AsyncJob {
         override val user: AuthenticatedUser? = null
     }
@@ -502,6 +529,12 @@ sealed interface AsyncJob : AsyncJobPayload {
         override val user: AuthenticatedUser? = null,
     ) : AsyncJob
 
+    /** Archives many child documents in one job, see [ArchiveChildDocument] */
+    data class ArchiveChildDocuments(
+        val documentIds: List<ChildDocumentId>,
+        override val user: AuthenticatedUser? = null,
+    ) : AsyncJob
+
     data class MigrateMunicipalMessageThreads(val batchSize: Int) : AsyncJob {
         override val user: AuthenticatedUser? = null
     }
@@ -522,6 +555,7 @@ sealed interface AsyncJob : AsyncJobPayload {
                     DeletePersonalDevicesIfNeeded::class,
                     DvvModificationsRefresh::class,
                     GarbageCollectPairing::class,
+                    GenerateChildImageThumbnails::class,
                     GenerateFinanceDecisions::class,
                     InitializeFamilyFromApplication::class,
                     InvoiceCorrectionMigration::class,
@@ -558,15 +592,21 @@ sealed interface AsyncJob : AsyncJobPayload {
         val email =
             AsyncJobRunner.Pool(
                 AsyncJobPool.Id(AsyncJob::class, "email"),
-                AsyncJobPool.Config(concurrency = 1),
+                AsyncJobPool.Config(
+                    concurrency = 1,
+                    releaseConnectionsBetweenTransactions = true,
+                ),
                 setOf(
                     SendAbsenceApplicationDecidedEmail::class,
                     SendApplicationEmail::class,
                     SendCalendarEventDigestEmail::class,
+                    SendCalendarEventDigestEmails::class,
                     SendChildDocumentNotificationEmail::class,
                     SendConfirmationCodeEmail::class,
                     SendDiscussionReservationReminderEmail::class,
+                    SendDiscussionReservationReminderEmails::class,
                     SendDiscussionSurveyCreationNotificationEmail::class,
+                    SendDiscussionSurveyCreationNotificationEmails::class,
                     SendDiscussionSurveyReservationCancellationEmail::class,
                     SendDiscussionSurveyReservationEmail::class,
                     SendEmailChangedEmail::class,
@@ -594,36 +634,50 @@ sealed interface AsyncJob : AsyncJobPayload {
         val urgent =
             AsyncJobRunner.Pool(
                 AsyncJobPool.Id(AsyncJob::class, "urgent"),
-                AsyncJobPool.Config(concurrency = 4),
+                AsyncJobPool.Config(
+                    concurrency = 4,
+                    releaseConnectionsBetweenTransactions = true,
+                ),
                 setOf(
                     MarkMessagesAsSent::class,
                     SendAbsencePushNotification::class,
                     SendCalendarEventReservationPushNotification::class,
                     SendMessagePushNotification::class,
+                    SendMessagePushNotifications::class,
                     UpdateMessageThreadRecipients::class,
                 ),
             )
         val suomiFi =
             AsyncJobRunner.Pool(
                 AsyncJobPool.Id(AsyncJob::class, "suomiFi"),
-                AsyncJobPool.Config(concurrency = 1),
+                AsyncJobPool.Config(
+                    concurrency = 1,
+                    releaseConnectionsBetweenTransactions = true,
+                ),
                 setOf(SendMessage::class),
             )
         val varda =
             AsyncJobRunner.Pool(
                 AsyncJobPool.Id(AsyncJob::class, "varda"),
-                AsyncJobPool.Config(concurrency = 1),
+                AsyncJobPool.Config(
+                    concurrency = 1,
+                    releaseConnectionsBetweenTransactions = true,
+                ),
                 setOf(VardaUpdateChild::class),
             )
         val archival =
             AsyncJobRunner.Pool(
                 AsyncJobPool.Id(AsyncJob::class, "archival"),
-                AsyncJobPool.Config(concurrency = 4),
+                AsyncJobPool.Config(
+                    concurrency = 4,
+                    releaseConnectionsBetweenTransactions = true,
+                ),
                 setOf(
                     ArchiveDecision::class,
                     ArchiveFeeDecision::class,
                     ArchiveVoucherValueDecision::class,
                     ArchiveChildDocument::class,
+                    ArchiveChildDocuments::class,
                 ),
             )
     }
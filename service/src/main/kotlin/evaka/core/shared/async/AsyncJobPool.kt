@@ -14,19 +14,23 @@ import evaka.core.shared.withValue
 import fi.espoo.voltti.logging.MdcKey
 import fi.espoo.voltti.logging.loggers.error
 import fi.espoo.voltti.logging.loggers.info
+import fi.espoo.voltti.logging.loggers.warn
 import io.github.oshai.kotlinlogging.KotlinLogging
 import io.micrometer.core.instrument.Counter
 import io.micrometer.core.instrument.Gauge
 import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Timer
 import io.opentelemetry.api.trace.Span
 import io.opentelemetry.api.trace.StatusCode
 import io.opentelemetry.api.trace.Tracer
 import java.lang.reflect.UndeclaredThrowableException
 import java.time.Duration
+import java.util.concurrent.Executors
 import java.util.concurrent.FutureTask
 import java.util.concurrent.SynchronousQueue
 import java.util.concurrent.ThreadPoolExecutor
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicReference
 import kotlin.concurrent.thread
@@ -44,9 +48,27 @@ class AsyncJobPool<T : AsyncJobPayload>(
         override fun toString(): String = "${jobType.simpleName}.$pool"
     }
 
-    private data class Metrics(val executedJobs: Counter, val failedJobs: Counter)
+    private data class Metrics(
+        val executedJobs: Counter,
+        val failedJobs: Counter,
+        val idleConnectionTime: (jobName: String) -> Timer,
+    )
 
-    data class Config(val concurrency: Int = 1, val throttleInterval: Duration? = null)
+    /**
+     * @param releaseConnectionsBetweenTransactions if true, no database connection is held while a
+     *   job handler runs. The job is started and completed in two short transactions, and the
+     *   worker and the handler return their connections to the pool after every transaction. Useful
+     *   for pools whose jobs mostly wait for remote services between transactions. The claimed job
+     *   row is not locked while the handler runs, so the claim is renewed periodically instead.
+     * @param claimRenewalInterval how often the claim of a job is renewed while its handler runs
+     *   without a connection. Must be shorter than the retry interval of the pool's jobs.
+     */
+    data class Config(
+        val concurrency: Int = 1,
+        val throttleInterval: Duration? = null,
+        val releaseConnectionsBetweenTransactions: Boolean = false,
+        val claimRenewalInterval: Duration = Duration.ofSeconds(30),
+    )
 
     data class Handler<T : AsyncJobPayload>(
         val handler: (db: Database, clock: EvakaClock, msg: T, remainingAttempts: Int) -> Unit
@@ -66,6 +88,21 @@ class AsyncJobPool<T : AsyncJobPayload>(
     private val metrics: AtomicReference<Metrics> = AtomicReference()
 
     private val throttleInterval = config.throttleInterval ?: Duration.ZERO
+    private val releaseConnectionsBetweenTransactions = config.releaseConnectionsBetweenTransactions
+    private val claimRenewalInterval = config.claimRenewalInterval
+    private val claimRenewer =
+        if (releaseConnectionsBetweenTransactions) {
+            Executors.newSingleThreadScheduledExecutor { r ->
+                thread(
+                    start = false,
+                    isDaemon = true,
+                    name = "$fullName.claim-renewer",
+                    block = r::run,
+                )
+            }
+        } else {
+            null
+        }
     private val executor = config.let {
         val corePoolSize = 1
         val maximumPoolSize = it.concurrency
@@ -115,6 +152,13 @@ class AsyncJobPool<T : AsyncJobPayload>(
                     .tag("jobType", id.jobType.simpleName!!)
                     .tag("pool", id.pool)
                     .register(meterRegistry),
+                idleConnectionTime = { jobName ->
+                    Timer.builder("asyncJobConnectionIdleTime")
+                        .tag("jobType", id.jobType.simpleName!!)
+                        .tag("pool", id.pool)
+                        .tag("job", jobName)
+                        .register(meterRegistry)
+                },
             )
         )
     }
@@ -137,7 +181,13 @@ class AsyncJobPool<T : AsyncJobPayload>(
 
     private fun runWorker(clock: EvakaClock, maxCount: Int) =
         tracer.withDetachedSpan("asyncjob.worker $fullName") {
-            Database(jdbi, tracer).connect { dbc ->
+            val workerDb =
+                Database(
+                    jdbi,
+                    tracer,
+                    releaseHandleAfterTransaction = releaseConnectionsBetweenTransactions,
+                )
+            workerDb.connect { dbc ->
                 dbc.transaction { it.upsertPermit(this.id) }
                 var executed = 0
                 while (maxCount - executed > 0 && !executor.isTerminating) {
@@ -194,25 +244,57 @@ class AsyncJobPool<T : AsyncJobPayload>(
             MdcKey.SPAN_ID.set(randomTracingId())
             Span.current().setAttribute(Tracing.evakaTraceId, traceId)
             logger.info(logMeta) { "Running async job $job" }
-            val completed = db.transaction { tx ->
-                tx.setLockTimeout(Duration.ofSeconds(5))
-                tx.startJob(job, clock.now())?.let { msg ->
-                    msg.user?.let {
-                        MdcKey.USER_ID.set(it.rawId().toString())
-                        MdcKey.USER_ID_HASH.set(it.rawIdHash.toString())
-                        Span.current().setAttribute(Tracing.enduserIdHash, it.rawIdHash)
+            val result =
+                if (releaseConnectionsBetweenTransactions) {
+                    val msg = db.transaction { tx ->
+                        tx.setLockTimeout(Duration.ofSeconds(5))
+                        tx.startJob(job, clock.now())
+                    }
+                    if (msg == null) {
+                        JobResult.CONTENDED
+                    } else {
+                        // The job row is not locked while the handler runs, so the claim must be
+                        // renewed to keep other workers from running the job at the same time
+                        val claimLost = AtomicBoolean(false)
+                        val renewal =
+                            claimRenewer!!.scheduleWithFixedDelay(
+                                { renewClaim(clock, job, claimLost) },
+                                claimRenewalInterval.toMillis(),
+                                claimRenewalInterval.toMillis(),
+                                TimeUnit.MILLISECONDS,
+                            )
+                        try {
+                            runHandler(clock, job, msg)
+                        } finally {
+                            renewal.cancel(false)
+                        }
+                        if (
+                            !claimLost.get() &&
+                                db.transaction { tx -> tx.completeJob(job, clock.now()) }
+                        ) {
+                            JobResult.COMPLETED
+                        } else {
+                            JobResult.CLAIM_LOST
+                        }
+                    }
+                } else {
+                    db.transaction { tx ->
+                        tx.setLockTimeout(Duration.ofSeconds(5))
+                        tx.startJob(job, clock.now())?.let { msg ->
+                            runHandler(clock, job, msg)
+                            tx.completeJob(job, clock.now())
+                            JobResult.COMPLETED
+                        } ?: JobResult.CONTENDED
+                    }
+                }
+            when (result) {
+                JobResult.COMPLETED -> logger.info(logMeta) { "Completed async job $job" }
+                JobResult.CONTENDED ->
+                    logger.info(logMeta) { "Skipped async job $job due to contention" }
+                JobResult.CLAIM_LOST ->
+                    logger.warn(logMeta) {
+                        "Async job $job was claimed by another worker while it was running"
                     }
-                    registration
-                        .handlerFor(job.jobType)
-                        .run(Database(jdbi, tracer), clock, msg, job.remainingAttempts)
-                    tx.completeJob(job, clock.now())
-                    true
-                } ?: false
-            }
-            if (completed) {
-                logger.info(logMeta) { "Completed async job $job" }
-            } else {
-                logger.info(logMeta) { "Skipped async job $job due to contention" }
             }
         } catch (e: Throwable) {
             metrics.get()?.failedJobs?.increment()
@@ -235,7 +317,53 @@ class AsyncJobPool<T : AsyncJobPayload>(
         }
     }
 
+    private enum class JobResult {
+        COMPLETED,
+        CONTENDED,
+        CLAIM_LOST,
+    }
+
+    private fun renewClaim(clock: EvakaClock, job: ClaimedJobRef<out T>, claimLost: AtomicBoolean) {
+        if (claimLost.get()) return
+        try {
+            val renewed =
+                Database(jdbi, tracer).connect { dbc ->
+                    dbc.transaction { tx -> tx.renewJobClaim(job, clock.now()) }
+                }
+            if (!renewed) claimLost.set(true)
+        } catch (e: Exception) {
+            logger.error(e) { "Failed to renew the claim of async job $job" }
+        }
+    }
+
+    private fun runHandler(clock: EvakaClock, job: ClaimedJobRef<out T>, msg: AsyncJobPayload) {
+        msg.user?.let {
+            MdcKey.USER_ID.set(it.rawId().toString())
+            MdcKey.USER_ID_HASH.set(it.rawIdHash.toString())
+            Span.current().setAttribute(Tracing.enduserIdHash, it.rawIdHash)
+        }
+        val handlerDb =
+            Database(
+                jdbi,
+                tracer,
+                releaseHandleAfterTransaction = releaseConnectionsBetweenTransactions,
+            )
+        try {
+            registration
+                .handlerFor(job.jobType)
+                .run(handlerDb, clock, msg, job.remainingAttempts)
+        } finally {
+            // time the handler kept a connection checked out without using it
+            metrics
+                .get()
+                ?.idleConnectionTime
+                ?.invoke(job.jobType.name)
+                ?.record(handlerDb.idleHandleTime)
+        }
+    }
+
     override fun close() {
+        claimRenewer?.shutdownNow()
         executor.shutdown()
         if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
             logger.error { "Some async jobs did not terminate in time during shutdown" }
@@ -9,6 +9,7 @@ import evaka.core.shared.domain.HelsinkiDateTime
 import io.github.oshai.kotlinlogging.KotlinLogging
 import java.util.UUID
 import org.jdbi.v3.core.qualifier.QualifiedType
+import org.jdbi.v3.jackson3.Jackson3Config
 import org.jdbi.v3.json.Json
 
 private val logger = KotlinLogging.logger {}
@@ -32,6 +33,29 @@ RETURNING id
     .executeAndReturnGeneratedKeys()
     .exactlyOne<UUID>()
 
+/** Inserts all the given jobs with a single statement */
+fun Database.Transaction.insertJobs(jobs: List<JobParams<*>>) {
+    if (jobs.isEmpty()) return
+
+    // Same serialization as bindJson, done once per payload
+    val jsonMapper = handle.getConfig(Jackson3Config::class.java).mapper
+    execute {
+        sql(
+            """
+INSERT INTO async_job (type, retry_count, initial_retry_count, retry_interval, run_at, payload)
+SELECT type, retry_count, retry_count, retry_interval, run_at, payload::jsonb
+FROM unnest(
+    ${bindColumn(jobs) { AsyncJobType.ofPayload(it.payload).name }},
+    ${bindColumn(jobs) { it.retryCount }},
+    ${bindColumn(jobs) { it.retryInterval }},
+    ${bindColumn(jobs) { it.runAt }},
+    ${bindColumn(jobs) { jsonMapper.writeValueAsString(it.payload) }}
+) AS t(type, retry_count, retry_interval, run_at, payload)
+"""
+        )
+    }
+}
+
 fun Database.Transaction.upsertPermit(pool: AsyncJobPool.Id<*>) {
     createUpdate {
         sql(
@@ -137,16 +161,43 @@ RETURNING payload
         )
     }
 
-fun Database.Transaction.completeJob(job: ClaimedJobRef<*>, now: HelsinkiDateTime) = createUpdate {
-    sql(
-        """
+/**
+ * Postpones the retry of a running job by its retry interval, unless another worker has claimed it
+ * after [job] was claimed.
+ *
+ * @return true if the claim is still held
+ */
+fun Database.Transaction.renewJobClaim(job: ClaimedJobRef<*>, now: HelsinkiDateTime): Boolean =
+    createUpdate {
+        sql(
+            """
+UPDATE async_job
+SET run_at = ${bind(now)} + retry_interval
+WHERE id = ${bind(job.jobId)}
+AND claimed_by = ${bind(job.txId)}
+AND completed_at IS NULL
+"""
+        )
+    }
+        .execute() == 1
+
+/**
+ * Marks the job completed, unless another worker has claimed it after [job] was claimed.
+ *
+ * @return true if the job was marked completed
+ */
+fun Database.Transaction.completeJob(job: ClaimedJobRef<*>, now: HelsinkiDateTime): Boolean =
+    createUpdate {
+        sql(
+            """
 UPDATE async_job
 SET completed_at = ${bind(now)}
 WHERE id = ${bind(job.jobId)}
+AND claimed_by = ${bind(job.txId)}
 """
-    )
-}
-    .execute()
+        )
+    }
+        .execute() == 1
 
 fun Database.Transaction.removeCompletedJobs(completedBefore: HelsinkiDateTime): Int =
     createUpdate {
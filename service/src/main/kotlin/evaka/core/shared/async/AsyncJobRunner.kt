@@ -9,6 +9,7 @@ import evaka.core.shared.domain.EvakaClock
 import evaka.core.shared.domain.HelsinkiDateTime
 import evaka.core.shared.domain.RealEvakaClock
 import io.github.oshai.kotlinlogging.KotlinLogging
+import io.micrometer.core.instrument.Counter
 import io.micrometer.core.instrument.MeterRegistry
 import io.opentelemetry.api.trace.Tracer
 import java.time.Duration
@@ -34,6 +35,7 @@ import org.jdbi.v3.core.Jdbi
 private const val defaultRetryCount =
     24 * 60 / 5 // 24h when used with default 5 minute retry interval
 private val defaultRetryInterval = Duration.ofMinutes(5)
+private const val PLAN_BATCH_SIZE = 1_000
 
 class AsyncJobRunner<T : AsyncJobPayload>(
     payloadType: KClass<T>,
@@ -53,6 +55,7 @@ class AsyncJobRunner<T : AsyncJobPayload>(
     }
 
     val name = "${AsyncJobRunner::class.simpleName}.${payloadType.simpleName}"
+    private val payloadTypeName = payloadType.simpleName!!
 
     private val logger = KotlinLogging.logger {}
     private val stateLock = ReentrantReadWriteLock()
@@ -67,6 +70,7 @@ class AsyncJobRunner<T : AsyncJobPayload>(
             pool.id to pool.jobs.map { AsyncJobType(it) }.toSet()
         }
     private val backgroundTimer: AtomicReference<Timer> = AtomicReference()
+    private val meterRegistry: AtomicReference<MeterRegistry> = AtomicReference()
 
     inner class PoolRegistration(val id: AsyncJobPool.Id<T>) : AsyncJobPool.Registration<T> {
         override fun jobTypes() = jobsPerPool[id] ?: emptySet()
@@ -79,7 +83,10 @@ class AsyncJobRunner<T : AsyncJobPayload>(
     private val isBusy: Boolean
         get() = pools.any { it.activeWorkerCount > 0 }
 
-    fun registerMeters(registry: MeterRegistry) = pools.forEach { it.registerMeters(registry) }
+    fun registerMeters(registry: MeterRegistry) {
+        meterRegistry.set(registry)
+        pools.forEach { it.registerMeters(registry) }
+    }
 
     inline fun <reified P : T> registerHandler(
         noinline handler: (db: Database.Connection, clock: EvakaClock, msg: P) -> Unit
@@ -156,17 +163,49 @@ class AsyncJobRunner<T : AsyncJobPayload>(
     fun plan(tx: Database.Transaction, jobs: Iterable<JobParams<out T>>) =
         plan(tx, jobs.asSequence())
 
+    /**
+     * Plans async jobs to be executed.
+     *
+     * Jobs are inserted in batches with one statement per batch, and a single summary is logged
+     * per job type.
+     */
     fun plan(tx: Database.Transaction, jobs: Sequence<JobParams<out T>>) = stateLock.read {
-        jobs.forEach { job ->
-            val jobType = AsyncJobType.ofPayload(job.payload)
-            val id = tx.insertJob(job)
+        val planned = linkedMapOf<AsyncJobType<out T>, PlannedJobs>()
+        jobs.chunked(PLAN_BATCH_SIZE).forEach { batch ->
+            tx.insertJobs(batch)
+            batch.forEach { job ->
+                planned.getOrPut(AsyncJobType.ofPayload(job.payload)) { PlannedJobs() }.add(job)
+            }
+        }
+        planned.forEach { (jobType, jobs) ->
             logger.info {
-                "$name planned job $jobType(id=$id, runAt=${job.runAt}, retryCount=${job.retryCount}, retryInterval=${job.retryInterval})"
+                "$name planned ${jobs.count} $jobType jobs (runAt=${jobs.firstRunAt}..${jobs.lastRunAt})"
             }
+            meterRegistry
+                .get()
+                ?.let { registry ->
+                    Counter.builder("asyncJobsPlanned")
+                        .tag("jobType", payloadTypeName)
+                        .tag("job", jobType.name)
+                        .register(registry)
+                }
+                ?.increment(jobs.count.toDouble())
             afterCommitHooks[jobType]?.let { tx.afterCommit(it) }
         }
     }
 
+    private class PlannedJobs {
+        var count: Int = 0
+        var firstRunAt: HelsinkiDateTime? = null
+        var lastRunAt: HelsinkiDateTime? = null
+
+        fun add(job: JobParams<*>) {
+            count += 1
+            firstRunAt = minOf(firstRunAt ?: job.runAt, job.runAt)
+            lastRunAt = maxOf(lastRunAt ?: job.runAt, job.runAt)
+        }
+    }
+
     fun startBackgroundPolling(
         clock: EvakaClock = RealEvakaClock(),
         pollingInterval: Duration = Duration.ofMinutes(1),
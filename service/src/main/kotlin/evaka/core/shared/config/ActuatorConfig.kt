@@ -5,9 +5,12 @@
 package evaka.core.shared.config
 
 import evaka.core.shared.db.Database
+import evaka.core.shared.db.QueryMetrics
 import io.opentelemetry.api.trace.Tracer
 import org.jdbi.v3.core.Jdbi
 import org.jdbi.v3.core.JdbiException
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation
 import org.springframework.boot.health.contributor.AbstractHealthIndicator
 import org.springframework.boot.health.contributor.Health
 import org.springframework.boot.health.contributor.HealthIndicator
@@ -20,6 +23,15 @@ class ActuatorConfig {
     fun databaseHealthEndpoint(jdbi: Jdbi, tracer: Tracer): HealthIndicator {
         return DatabaseHealthIndicator(jdbi, tracer)
     }
+
+    @Bean
+    fun slowQueriesEndpoint(queryMetrics: QueryMetrics) = SlowQueriesEndpoint(queryMetrics)
+}
+
+/** Lists the most recent statements that exceeded the slow query threshold */
+@Endpoint(id = "slowqueries")
+class SlowQueriesEndpoint(private val queryMetrics: QueryMetrics) {
+    @ReadOperation fun slowQueries(): List<QueryMetrics.SlowQuery> = queryMetrics.slowQueries()
 }
 
 class DatabaseHealthIndicator(private val jdbi: Jdbi, private val tracer: Tracer) :
@@ -0,0 +1,33 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.shared.config
+
+import evaka.core.auditEventSink
+import io.micrometer.core.instrument.MeterRegistry
+import org.springframework.context.SmartLifecycle
+import org.springframework.context.annotation.Bean
+import org.springframework.context.annotation.Configuration
+
+@Configuration
+class AuditConfig {
+    /**
+     * Writes audit events asynchronously while the application is running. Uses the lowest phase,
+     * so the sink starts before and stops after everything that could produce audit events.
+     */
+    @Bean
+    fun auditEventSinkLifecycle(meterRegistry: MeterRegistry): SmartLifecycle =
+        object : SmartLifecycle {
+            override fun start() {
+                auditEventSink.registerMeters(meterRegistry)
+                auditEventSink.start()
+            }
+
+            override fun stop() = auditEventSink.close()
+
+            override fun isRunning(): Boolean = auditEventSink.isRunning
+
+            override fun getPhase(): Int = Int.MIN_VALUE
+        }
+}
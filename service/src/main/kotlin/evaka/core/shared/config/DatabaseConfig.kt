@@ -8,21 +8,34 @@ import com.zaxxer.hikari.HikariConfig
 import com.zaxxer.hikari.HikariDataSource
 import evaka.core.DatabaseEnv
 import evaka.core.shared.db.Database
+import evaka.core.shared.db.QueryMetrics
 import evaka.core.shared.db.configureJdbi
+import io.micrometer.core.instrument.MeterRegistry
 import java.util.concurrent.TimeUnit
 import javax.sql.DataSource
 import org.flywaydb.core.Flyway
 import org.flywaydb.database.postgresql.PostgreSQLConfigurationExtension
 import org.jdbi.v3.core.Jdbi
+import org.jdbi.v3.core.statement.SqlLogger
 import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
 
 @Configuration
 class DatabaseConfig {
     @Bean
-    fun jdbi(dataSource: DataSource, env: DatabaseEnv) =
+    fun queryMetrics(env: DatabaseEnv, meterRegistry: MeterRegistry) =
+        QueryMetrics(
+            meterRegistry,
+            env.slowQueryThreshold,
+            delegate = if (env.logSql) Database.sqlLogger else SqlLogger.NOP_SQL_LOGGER,
+        )
+
+    @Bean
+    fun jdbi(dataSource: DataSource, env: DatabaseEnv, queryMetrics: QueryMetrics) =
         configureJdbi(Jdbi.create(dataSource)).apply {
-            if (env.logSql) {
+            if (env.queryMetricsEnabled) {
+                setSqlLogger(queryMetrics)
+            } else if (env.logSql) {
                 setSqlLogger(Database.sqlLogger)
             }
         }
@@ -65,6 +78,20 @@ class DatabaseConfig {
                     "socketTimeout",
                     TimeUnit.SECONDS.convert(15, TimeUnit.MINUTES).toInt(),
                 )
+                // A statement is prepared on the server after it has been executed this many times
+                // on the same connection, after which its parse and analysis are skipped. The
+                // driver caches prepared statements per connection by SQL text, which the
+                // database layer keeps canonical (see canonicalSql). The driver defaults of 256
+                // statements and 5 MiB are too small for the number of distinct statements.
+                addDataSourceProperty("prepareThreshold", env.prepareThreshold)
+                addDataSourceProperty(
+                    "preparedStatementCacheQueries",
+                    env.preparedStatementCacheQueries,
+                )
+                addDataSourceProperty(
+                    "preparedStatementCacheSizeMiB",
+                    env.preparedStatementCacheSizeMiB,
+                )
             }
         return SwappableDataSource(HikariDataSource(hikariConfig), hikariConfig)
     }
@@ -93,6 +93,9 @@ class HttpFilterConfig {
         private fun HttpServletRequest.isAuthorized(user: AuthenticatedUser): Boolean =
             when {
                 requestURI.startsWith("/system/") -> user is AuthenticatedUser.SystemInternalUser
+                // Also covers variants such as a trailing slash or path parameters
+                requestURI.startsWith("/slowqueries") ->
+                    user is AuthenticatedUser.SystemInternalUser
                 requestURI.startsWith("/citizen/") -> user is AuthenticatedUser.Citizen
                 requestURI.startsWith("/employee/") -> user is AuthenticatedUser.Employee
                 requestURI.startsWith("/employee-mobile/") -> user is AuthenticatedUser.MobileDevice
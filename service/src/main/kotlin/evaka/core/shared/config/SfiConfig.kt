@@ -30,7 +30,7 @@ class SfiConfig {
             logger.info { "Using real REST Suomi.fi Messages API client. Configuration: $it" }
             SfiMessagesRestClient(
                 it,
-                documentClient::get,
+                documentClient::getStream,
                 AwsSsmPasswordStore(ssmClient.getObject(), it),
             )
         }
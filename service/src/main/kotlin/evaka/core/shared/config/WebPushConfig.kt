@@ -6,10 +6,13 @@ package evaka.core.shared.config
 
 import evaka.core.WebPushEnv
 import evaka.core.webpush.WebPush
+import io.micrometer.core.instrument.MeterRegistry
 import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
 
 @Configuration
 class WebPushConfig {
-    @Bean fun webPush(env: WebPushEnv?): WebPush? = env?.let { WebPush(it) }
+    @Bean
+    fun webPush(env: WebPushEnv?, meterRegistry: MeterRegistry): WebPush? =
+        env?.let { WebPush(it, meterRegistry) }
 }
@@ -0,0 +1,125 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.shared.db
+
+import java.util.concurrent.ConcurrentHashMap
+
+private const val MAX_CACHED_STATEMENTS = 5_000
+private val canonicalSqlCache = ConcurrentHashMap<String, String>()
+
+/**
+ * Returns the canonical form of the given SQL text: comments are removed, every run of whitespace
+ * is replaced with a single space, and leading and trailing whitespace is trimmed. String
+ * literals, quoted identifiers and dollar-quoted strings are kept as is.
+ *
+ * The JDBC driver reuses server-side prepared statements only for statements with exactly the same
+ * text, so formatting differences (e.g. indentation of a subquery or predicate fragment embedded in
+ * different queries) would otherwise prevent reuse. Canonical text is also shorter, so more
+ * statements fit in the driver's per-connection statement cache.
+ */
+fun canonicalSql(sql: String): String {
+    canonicalSqlCache[sql]?.let {
+        return it
+    }
+    val canonical = canonicalize(sql)
+    if (canonicalSqlCache.size < MAX_CACHED_STATEMENTS) {
+        canonicalSqlCache[sql] = canonical
+    }
+    return canonical
+}
+
+private fun canonicalize(sql: String): String {
+    val result = StringBuilder(sql.length)
+    var pendingSpace = false
+    var i = 0
+
+    fun append(end: Int) {
+        if (pendingSpace && result.isNotEmpty()) result.append(' ')
+        pendingSpace = false
+        result.append(sql, i, end)
+        i = end
+    }
+
+    while (i < sql.length) {
+        val c = sql[i]
+        when {
+            c.isWhitespace() -> {
+                pendingSpace = true
+                i++
+            }
+            c == '-' && sql.startsWith("--", i) -> {
+                pendingSpace = true
+                i = sql.indexOf('\n', i).let { if (it < 0) sql.length else it }
+            }
+            c == '/' && sql.startsWith("/*", i) -> {
+                pendingSpace = true
+                i = blockCommentEnd(sql, i)
+            }
+            c == '\'' -> append(quotedEnd(sql, i, '\'', backslashEscapes = isEscapeString(sql, i)))
+            c == '"' -> append(quotedEnd(sql, i, '"', backslashEscapes = false))
+            c == '$' -> append(dollarQuotedEnd(sql, i))
+            else -> append(i + 1)
+        }
+    }
+    return result.toString()
+}
+
+/** Returns true if the literal starting at [start] is an escape string, i.e. `E'...'` */
+private fun isEscapeString(sql: String, start: Int): Boolean =
+    start > 0 &&
+        sql[start - 1].let { it == 'E' || it == 'e' } &&
+        (start == 1 || !sql[start - 2].let { it.isLetterOrDigit() || it == '_' })
+
+private fun quotedEnd(sql: String, start: Int, quote: Char, backslashEscapes: Boolean): Int {
+    var i = start + 1
+    while (i < sql.length) {
+        val c = sql[i]
+        when {
+            backslashEscapes && c == '\\' -> i += 2
+            c == quote && i + 1 < sql.length && sql[i + 1] == quote -> i += 2
+            c == quote -> return i + 1
+            else -> i++
+        }
+    }
+    return sql.length
+}
+
+private fun blockCommentEnd(sql: String, start: Int): Int {
+    // Block comments can be nested in PostgreSQL
+    var depth = 0
+    var i = start
+    while (i < sql.length) {
+        when {
+            sql.startsWith("/*", i) -> {
+                depth++
+                i += 2
+            }
+            sql.startsWith("*/", i) -> {
+                depth--
+                i += 2
+                if (depth == 0) return i
+            }
+            else -> i++
+        }
+    }
+    return sql.length
+}
+
+private fun dollarQuotedEnd(sql: String, start: Int): Int {
+    fun isTagChar(c: Char) = c.isLetterOrDigit() || c == '_'
+    var tagEnd = start + 1
+    while (tagEnd < sql.length && isTagChar(sql[tagEnd])) tagEnd++
+    // A dollar sign that doesn't start a `$tag$` is part of an identifier or a positional
+    // parameter, and a tag can't start with a digit
+    val isDollarQuote =
+        tagEnd < sql.length &&
+            sql[tagEnd] == '$' &&
+            !(start > 0 && isTagChar(sql[start - 1])) &&
+            !(tagEnd > start + 1 && sql[start + 1].isDigit())
+    if (!isDollarQuote) return start + 1
+    val tag = sql.substring(start, tagEnd + 1)
+    val end = sql.indexOf(tag, tagEnd + 1)
+    return if (end < 0) sql.length else end + tag.length
+}
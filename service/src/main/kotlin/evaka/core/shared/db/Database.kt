@@ -8,6 +8,10 @@ import evaka.core.shared.domain.NotFound
 import evaka.core.shared.withSpan
 import io.opentelemetry.api.trace.Tracer
 import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.reflect.KClass
 import kotlin.reflect.KType
 import kotlin.reflect.typeOf
@@ -19,6 +23,7 @@ import org.jdbi.v3.core.mapper.ColumnMapper
 import org.jdbi.v3.core.qualifier.QualifiedType
 import org.jdbi.v3.core.result.RowView
 import org.jdbi.v3.core.statement.Slf4JSqlLogger
+import org.jdbi.v3.core.transaction.TransactionIsolationLevel
 import org.jdbi.v3.json.Json
 import org.slf4j.LoggerFactory
 
@@ -46,11 +51,26 @@ import org.slf4j.LoggerFactory
  *
  * Tied to the thread that created it, and throws `IllegalStateException` if used in the wrong
  * thread.
+ *
+ * If [releaseHandleAfterTransaction] is true, connections return their raw handle to the pool as
+ * soon as each transaction finishes instead of keeping it until they are closed. This is useful
+ * for code that does slow non-database work (e.g. HTTP calls) between transactions.
  */
-class Database(private val jdbi: Jdbi, private val tracer: Tracer) {
+class Database(
+    private val jdbi: Jdbi,
+    private val tracer: Tracer,
+    private val releaseHandleAfterTransaction: Boolean = false,
+) {
     private val threadId = ThreadId()
     private var hasOpenHandle = false
 
+    /**
+     * Total time the connections of this reference have held a raw handle without running a
+     * transaction
+     */
+    var idleHandleTime: Duration = Duration.ZERO
+        private set
+
     /**
      * Opens a database connection, runs the given function, and closes the connection.
      *
@@ -66,7 +86,14 @@ class Database(private val jdbi: Jdbi, private val tracer: Tracer) {
     fun connectWithManualLifecycle(): Connection {
         threadId.assertCurrentThread()
         check(!hasOpenHandle) { "Already connected to database" }
-        return Connection(threadId, tracer, this::openHandle)
+        return Connection(
+            threadId,
+            tracer,
+            this::openHandle,
+            releaseHandleAfterTransaction,
+            onIdleHandle = { idleHandleTime += it },
+            openWorkerHandle = jdbi::open,
+        )
     }
 
     private fun openHandle(): Handle =
@@ -85,17 +112,41 @@ class Database(private val jdbi: Jdbi, private val tracer: Tracer) {
      *
      * Whenever a transaction is started, the underlying raw handle is opened lazily. Once the
      * connection is closed with `close()` and any new transaction will once again lazily open a raw
-     * handle.
+     * handle. If `releaseHandleAfterTransaction` is true, the raw handle is also closed after every
+     * transaction.
      */
     open class Connection
     internal constructor(
         private val threadId: ThreadId,
         private val tracer: Tracer,
         private val openRawHandle: () -> Handle,
+        private val releaseHandleAfterTransaction: Boolean = false,
+        private val onIdleHandle: (Duration) -> Unit = {},
+        private val openWorkerHandle: (() -> Handle)? = null,
     ) : AutoCloseable {
         private var rawHandle: Handle? = null
+        private var idleSince: Long? = null
 
-        private fun getRawHandle(): Handle = rawHandle ?: openRawHandle().also { rawHandle = it }
+        private fun getRawHandle(): Handle {
+            idleSince?.let { onIdleHandle(Duration.ofNanos(System.nanoTime() - it)) }
+            idleSince = null
+            return rawHandle ?: openRawHandle().also { rawHandle = it }
+        }
+
+        private fun afterTransaction() {
+            if (releaseHandleAfterTransaction) {
+                closeRawHandle()
+            } else if (rawHandle != null) {
+                idleSince = System.nanoTime()
+            }
+        }
+
+        private fun closeRawHandle() {
+            idleSince?.let { onIdleHandle(Duration.ofNanos(System.nanoTime() - it)) }
+            idleSince = null
+            this.rawHandle?.close()
+            this.rawHandle = null
+        }
 
         /**
          * Enters read mode, runs the given function, and exits read mode regardless of any
@@ -115,6 +166,54 @@ class Database(private val jdbi: Jdbi, private val tracer: Tracer) {
                 }
             } finally {
                 handle.isReadOnly = false
+                afterTransaction()
+            }
+        }
+
+        /**
+         * Runs the given function for every input in read mode on up to [parallelism] connections
+         * in parallel, and returns the results in the same order as the inputs.
+         *
+         * Every connection reads the same snapshot of the database (exported with
+         * `pg_export_snapshot`), so the results are consistent as if they had been read in one
+         * repeatable read transaction. The function is called from worker threads, so it must not
+         * use anything tied to the calling thread. Each worker takes one more connection from the
+         * pool while this one is also held, so [parallelism] must stay well below the pool size.
+         *
+         * Throws `IllegalStateException` if this database connection is already in read mode or a
+         * transaction
+         */
+        fun <T, R> parallelRead(
+            inputs: List<T>,
+            parallelism: Int,
+            f: (tx: Read, input: T) -> R,
+        ): List<R> {
+            threadId.assertCurrentThread()
+            require(parallelism > 0) { "Parallelism must be positive" }
+            val handle = this.getRawHandle()
+            check(!handle.isInTransaction) { "Already in a transaction" }
+            handle.isReadOnly = true
+            try {
+                return tracer.withSpan("db.transaction parallel read") {
+                    handle.inTransaction<List<R>, Exception>(
+                        TransactionIsolationLevel.REPEATABLE_READ
+                    ) {
+                        val workers = parallelism.coerceAtMost(inputs.size)
+                        if (workers <= 1 || openWorkerHandle == null) {
+                            val tx = Read(it)
+                            inputs.map { input -> f(tx, input) }
+                        } else {
+                            val snapshot =
+                                it.createQuery("SELECT pg_export_snapshot()")
+                                    .mapTo(String::class.java)
+                                    .one()
+                            readInParallel(openWorkerHandle, snapshot, workers, inputs, f)
+                        }
+                    }
+                }
+            } finally {
+                handle.isReadOnly = false
+                afterTransaction()
             }
         }
 
@@ -130,31 +229,39 @@ class Database(private val jdbi: Jdbi, private val tracer: Tracer) {
             val handle = this.getRawHandle()
             check(!handle.isInTransaction) { "Already in a transaction" }
             val hooks = TransactionHooks()
-            return tracer
-                .withSpan("db.transaction read/write") {
-                    handle.inTransaction<T, Exception> { f(Transaction(it, hooks)) }
+            val result =
+                try {
+                    tracer.withSpan("db.transaction read/write") {
+                        handle.inTransaction<T, Exception> { f(Transaction(it, hooks)) }
+                    }
+                } finally {
+                    afterTransaction()
                 }
-                .also { hooks.afterCommit.forEach { it() } }
+            hooks.afterCommit.forEach { it() }
+            return result
         }
 
         fun executeOutsideTransaction(f: QuerySql.Builder.() -> QuerySql): Int {
             threadId.assertCurrentThread()
             val handle = this.getRawHandle()
             check(!handle.isInTransaction) { "Already in a transaction" }
-            return tracer.withSpan("db.executeOutsideTransaction read/write") {
-                val fragment = QuerySql.Builder().run { f(this) }
-                val raw = handle.createUpdate(fragment.sql.toString())
-                for ((idx, binding) in fragment.bindings.withIndex()) {
-                    raw.bindByType(idx, binding.value, binding.type)
+            return try {
+                tracer.withSpan("db.executeOutsideTransaction read/write") {
+                    val fragment = QuerySql.Builder().run { f(this) }
+                    val raw = handle.createUpdate(canonicalSql(fragment.sql.toString()))
+                    for ((idx, binding) in fragment.bindings.withIndex()) {
+                        raw.bindByType(idx, binding.value, binding.type)
+                    }
+                    raw.execute()
                 }
-                raw.execute()
+            } finally {
+                afterTransaction()
             }
         }
 
         override fun close() {
             threadId.assertCurrentThread()
-            this.rawHandle?.close()
-            this.rawHandle = null
+            closeRawHandle()
         }
     }
 
@@ -169,10 +276,11 @@ class Database(private val jdbi: Jdbi, private val tracer: Tracer) {
             createQuery(QuerySql.Builder().run { f(this) })
 
         fun createQuery(fragment: QuerySql): Query {
-            val raw = handle.createQuery(fragment.sql.toString())
+            val raw = handle.createQuery(canonicalSql(fragment.sql.toString()))
             for ((idx, binding) in fragment.bindings.withIndex()) {
                 raw.bindByType(idx, binding.value, binding.type)
             }
+            raw.define(QueryMetrics.BINDINGS_ATTRIBUTE, fragment.bindings)
             return Query(raw)
         }
 
@@ -199,10 +307,11 @@ class Database(private val jdbi: Jdbi, private val tracer: Tracer) {
             createUpdate(QuerySql.Builder().run { f(this) })
 
         fun createUpdate(fragment: QuerySql): Update {
-            val raw = handle.createUpdate(fragment.sql.toString())
+            val raw = handle.createUpdate(canonicalSql(fragment.sql.toString()))
             for ((idx, binding) in fragment.bindings.withIndex()) {
                 raw.bindByType(idx, binding.value, binding.type)
             }
+            raw.define(QueryMetrics.BINDINGS_ATTRIBUTE, fragment.bindings)
             return Update(raw)
         }
 
@@ -211,7 +320,7 @@ class Database(private val jdbi: Jdbi, private val tracer: Tracer) {
 
         fun <R> prepareBatch(f: BatchSql.Builder<R>.() -> BatchSql<R>): PreparedBatch<R> {
             val batch = BatchSql.Builder<R>().run { f(this) }
-            val raw = handle.prepareBatch(batch.sql.toString())
+            val raw = handle.prepareBatch(canonicalSql(batch.sql.toString()))
             return PreparedBatch(raw, batch.bindings)
         }
 
@@ -445,7 +554,7 @@ class Database(private val jdbi: Jdbi, private val tracer: Tracer) {
         SqlStatement<Update>() {
         override fun self(): Update = this
 
-        fun execute() = raw.execute()
+        fun execute(): Int = raw.execute().also { QueryMetrics.recordRows(raw.context, it) }
 
         fun executeAndReturnGeneratedKeys(): UpdateResult =
             UpdateResult(raw.executeAndReturnGeneratedKeys())
@@ -590,6 +699,57 @@ class Database(private val jdbi: Jdbi, private val tracer: Tracer) {
 
 internal data class TransactionHooks(val afterCommit: LinkedHashSet<() -> Unit> = LinkedHashSet())
 
+/**
+ * Runs [f] for every input on [workers] threads, each with its own connection that reads the
+ * exported [snapshot]. The exporting transaction must stay open until this function returns.
+ */
+private fun <T, R> readInParallel(
+    openHandle: () -> Handle,
+    snapshot: String,
+    workers: Int,
+    inputs: List<T>,
+    f: (tx: Database.Read, input: T) -> R,
+): List<R> {
+    val results = arrayOfNulls<Any?>(inputs.size)
+    val next = AtomicInteger()
+    val tasks =
+        (1..workers).map { _ ->
+            Callable {
+                openHandle().use { handle ->
+                    handle.isReadOnly = true
+                    handle.useTransaction<Exception>(TransactionIsolationLevel.REPEATABLE_READ) {
+                        it.execute("SET TRANSACTION SNAPSHOT '$snapshot'")
+                        val tx = Database.Read(it)
+                        try {
+                            while (true) {
+                                val index = next.getAndIncrement()
+                                if (index >= inputs.size) break
+                                results[index] = f(tx, inputs[index])
+                            }
+                        } catch (e: Throwable) {
+                            // Stops the other workers from taking more inputs
+                            next.set(inputs.size)
+                            throw e
+                        }
+                    }
+                }
+            }
+        }
+    val futures = Executors.newFixedThreadPool(workers).use { it.invokeAll(tasks) }
+    val errors =
+        futures.mapNotNull { future ->
+            runCatching { future.get() }
+                .exceptionOrNull()
+                ?.let { if (it is ExecutionException) it.cause ?: it else it }
+        }
+    if (errors.isNotEmpty()) {
+        errors.drop(1).forEach { errors.first().addSuppressed(it) }
+        throw errors.first()
+    }
+    @Suppress("UNCHECKED_CAST")
+    return results.toList() as List<R>
+}
+
 internal data class ThreadId(val id: Long = Thread.currentThread().threadId()) {
     fun assertCurrentThread() =
         assert(Thread.currentThread().threadId() == id) {
@@ -675,6 +835,22 @@ abstract class SqlBuilder {
         return PositionalBinding
     }
 
+    /**
+     * Binds one column of the given rows as a single typed array query parameter.
+     *
+     * Binding every column of a collection this way and expanding them with `unnest(...)` writes
+     * all the rows with one statement. A batch sends every row separately, so this is the
+     * preferred way to insert, upsert or delete large numbers of rows. Example:
+     * ```
+     * INSERT INTO absence (child_id, date)
+     * SELECT * FROM unnest(${bindColumn(rows) { it.childId }}, ${bindColumn(rows) { it.date }})
+     * ```
+     *
+     * The element type must have an SQL array type registered in `configureJdbi`.
+     */
+    inline fun <R, reified T> bindColumn(rows: Collection<R>, getValue: (row: R) -> T): Binding =
+        bind(rows.map(getValue))
+
     fun insertDefault(): Binding {
         return DefaultValue
     }
@@ -863,15 +1039,26 @@ private class ResultSequence<T>(iterable: org.jdbi.v3.core.result.ResultIterable
 private class ResultIterator<T>(private val inner: org.jdbi.v3.core.result.ResultIterator<T>) :
     Iterator<T>, AutoCloseable {
     private var closed = false
+    private var rows = 0
+    private var rowsRecorded = false
 
     override fun hasNext(): Boolean =
-        if (closed) error("The iterator has already been closed") else inner.hasNext()
+        if (closed) error("The iterator has already been closed")
+        else inner.hasNext().also { if (!it) recordRows() }
 
     override fun next(): T =
-        if (closed) error("The iterator has already been closed") else inner.next()
+        if (closed) error("The iterator has already been closed") else inner.next().also { rows++ }
 
     override fun close() {
+        recordRows()
         closed = true
         inner.close()
     }
+
+    private fun recordRows() {
+        if (!rowsRecorded) {
+            rowsRecorded = true
+            QueryMetrics.recordRows(inner.context, rows)
+        }
+    }
 }
@@ -4,11 +4,15 @@
 
 package evaka.core.shared.db
 
+import evaka.core.invoicing.service.ProductKey
 import evaka.core.shared.Id
 import evaka.core.shared.config.defaultJsonMapperBuilder
 import evaka.core.shared.domain.FiniteDateRange
+import evaka.core.shared.domain.HelsinkiDateTime
 import evaka.core.shared.domain.TimeRange
+import evaka.core.shared.domain.TimeRangeEndpoint
 import java.lang.reflect.Type
+import java.time.Duration
 import java.time.LocalDate
 import java.util.Optional
 import java.util.UUID
@@ -112,6 +116,18 @@ fun configureJdbi(jdbi: Jdbi): Jdbi {
     }
     jdbi.registerArrayType(TimeRange::class.java, "timerange") { tr -> tr?.toDbString() }
     jdbi.registerArrayType(LocalDate::class.java, "date")
+    jdbi.registerArrayType(ProductKey::class.java, "text") { it.value }
+    jdbi.registerArrayType(HelsinkiDateTime::class.java, "timestamptz") {
+        it.toZonedDateTime().toOffsetDateTime().toString()
+    }
+    jdbi.registerArrayType(Duration::class.java, "interval") { it.toString() }
+    jdbi.registerArrayType { elementType, _ ->
+        val erasedType = GenericTypes.getErasedType(elementType)
+        Optional.ofNullable(
+            SqlArrayType.of<TimeRangeEndpoint>("time") { it?.toDbString() }
+                .takeIf { TimeRangeEndpoint::class.java.isAssignableFrom(erasedType) }
+        )
+    }
     jdbi.registerArrayType { elementType, _ ->
         Optional.ofNullable(
             (elementType as? Class<*>)?.let { elementClass ->
@@ -0,0 +1,184 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.shared.db
+
+import evaka.core.shared.domain.HelsinkiDateTime
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.DistributionSummary
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Timer
+import java.security.MessageDigest
+import java.sql.SQLException
+import java.time.Duration
+import java.time.temporal.ChronoUnit
+import java.util.HexFormat
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.jvm.optionals.getOrNull
+import org.jdbi.v3.core.generic.GenericTypes
+import org.jdbi.v3.core.statement.SqlLogger
+import org.jdbi.v3.core.statement.StatementContext
+
+/**
+ * JDBI SQL logger that records Micrometer metrics for every statement, grouped by statement
+ * fingerprint, and keeps the most recent slow statements in a bounded in-memory buffer.
+ *
+ * A fingerprint consists of the function that executed the statement and a hash of the canonical
+ * SQL text. Statements are always built with bind parameters, so the SQL text of a call site is
+ * stable and fingerprints can be cached by SQL text. The call site is therefore looked up with a
+ * stack walk only the first time a statement is seen.
+ *
+ * Slow statements are captured with the shapes (types and collection sizes) of their bind
+ * parameters, never their values.
+ */
+class QueryMetrics(
+    private val meterRegistry: MeterRegistry,
+    private val slowQueryThreshold: Duration,
+    private val slowQueryCapacity: Int = 100,
+    private val delegate: SqlLogger = SqlLogger.NOP_SQL_LOGGER,
+) : SqlLogger {
+    data class Fingerprint(val callSite: String, val sqlHash: String)
+
+    data class SlowQuery(
+        val executedAt: HelsinkiDateTime,
+        val callSite: String,
+        val sqlHash: String,
+        val sql: String,
+        val durationMs: Long,
+        val bindings: List<String>,
+    )
+
+    private class Meters(
+        val fingerprint: Fingerprint,
+        val normalizedSql: String,
+        val duration: Timer,
+        val errors: Counter,
+        val rows: DistributionSummary,
+    )
+
+    private val meters = ConcurrentHashMap<String, Meters>()
+    private val overflow by lazy { createMeters(Fingerprint("other", "other"), "") }
+    private val slowQueries = ArrayDeque<SlowQuery>()
+
+    /** Returns the captured slow statements, newest first */
+    fun slowQueries(): List<SlowQuery> = synchronized(slowQueries) { slowQueries.reversed() }
+
+    override fun logBeforeExecution(context: StatementContext) =
+        delegate.logBeforeExecution(context)
+
+    override fun logAfterExecution(context: StatementContext) {
+        val meters = metersFor(context.renderedSql)
+        val elapsed = Duration.ofNanos(context.getElapsedTime(ChronoUnit.NANOS))
+        meters.duration.record(elapsed)
+        context.define(ROWS_ATTRIBUTE, meters.rows)
+        if (elapsed >= slowQueryThreshold) {
+            captureSlowQuery(context, meters, elapsed)
+        }
+        delegate.logAfterExecution(context)
+    }
+
+    override fun logException(context: StatementContext, ex: SQLException) {
+        metersFor(context.renderedSql).errors.increment()
+        delegate.logException(context, ex)
+    }
+
+    private fun metersFor(sql: String?): Meters {
+        if (sql == null) return overflow
+        meters[sql]?.let {
+            return it
+        }
+        if (meters.size >= MAX_STATEMENTS) return overflow
+        return meters.computeIfAbsent(sql) {
+            val normalized = canonicalSql(it)
+            createMeters(Fingerprint(findCallSite(), hash(normalized)), normalized)
+        }
+    }
+
+    private fun createMeters(fingerprint: Fingerprint, normalizedSql: String) =
+        Meters(
+            fingerprint,
+            normalizedSql,
+            Timer.builder("dbStatementDuration")
+                .tag("callSite", fingerprint.callSite)
+                .tag("sqlHash", fingerprint.sqlHash)
+                .register(meterRegistry),
+            Counter.builder("dbStatementErrors")
+                .tag("callSite", fingerprint.callSite)
+                .tag("sqlHash", fingerprint.sqlHash)
+                .register(meterRegistry),
+            DistributionSummary.builder("dbStatementRows")
+                .tag("callSite", fingerprint.callSite)
+                .tag("sqlHash", fingerprint.sqlHash)
+                .register(meterRegistry),
+        )
+
+    private fun captureSlowQuery(context: StatementContext, meters: Meters, elapsed: Duration) {
+        @Suppress("UNCHECKED_CAST")
+        val bindings = context.getAttribute(BINDINGS_ATTRIBUTE) as? List<ValueBinding<*>>
+        val slowQuery =
+            SlowQuery(
+                executedAt = HelsinkiDateTime.now(),
+                callSite = meters.fingerprint.callSite,
+                sqlHash = meters.fingerprint.sqlHash,
+                sql = meters.normalizedSql,
+                durationMs = elapsed.toMillis(),
+                bindings = bindings?.map { shapeOf(it) } ?: emptyList(),
+            )
+        synchronized(slowQueries) {
+            if (slowQueries.size >= slowQueryCapacity) slowQueries.removeFirst()
+            slowQueries.addLast(slowQuery)
+        }
+    }
+
+    companion object {
+        internal const val BINDINGS_ATTRIBUTE = "evaka.queryMetrics.bindings"
+        private const val ROWS_ATTRIBUTE = "evaka.queryMetrics.rows"
+        private const val MAX_STATEMENTS = 5_000
+
+        private val callSiteWalker = StackWalker.getInstance()
+        private val databaseLayerClasses =
+            listOf(
+                "evaka.core.shared.db.Database",
+                "evaka.core.shared.db.QueryMetrics",
+                "evaka.core.shared.db.Result",
+            )
+
+        private fun hash(normalizedSql: String): String =
+            HexFormat.of()
+                .formatHex(MessageDigest.getInstance("SHA-256").digest(normalizedSql.toByteArray()))
+                .take(12)
+
+        /** Finds the first evaka function on the stack outside the database layer */
+        private fun findCallSite(): String =
+            callSiteWalker
+                .walk { frames ->
+                    frames
+                        .filter { frame ->
+                            frame.className.startsWith("evaka.") &&
+                                databaseLayerClasses.none { frame.className.startsWith(it) } &&
+                                frame.methodName != "invoke"
+                        }
+                        .findFirst()
+                }
+                .getOrNull()
+                ?.let { frame ->
+                    val className = frame.className.substringAfterLast('.').substringBefore('$')
+                    "$className.${frame.methodName}"
+                } ?: "unknown"
+
+        private fun shapeOf(binding: ValueBinding<*>): String {
+            val type = GenericTypes.getErasedType(binding.type.type).simpleName
+            return when (val value = binding.value) {
+                null -> "$type(null)"
+                is Collection<*> -> "$type(size=${value.size})"
+                is Array<*> -> "$type(size=${value.size})"
+                else -> type
+            }
+        }
+
+        internal fun recordRows(context: StatementContext, rows: Int) {
+            (context.getAttribute(ROWS_ATTRIBUTE) as? DistributionSummary)?.record(rows.toDouble())
+        }
+    }
+}
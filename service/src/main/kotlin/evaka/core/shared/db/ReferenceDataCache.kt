@@ -0,0 +1,71 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.shared.db
+
+import io.micrometer.core.instrument.FunctionCounter
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Metrics
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * In-memory cache of a small reference data table that changes a few times a year.
+ *
+ * Every statement that modifies the table changes its version in `reference_data_version` (see the
+ * `bump_reference_data_version` triggers). The cache keeps one immutable snapshot tagged with the
+ * version it was loaded at, and every read compares that to the current version with a single
+ * primary key lookup. Reads are therefore never stale: a transaction sees the same data it would
+ * have read from the table itself, including its own uncommitted changes. Because versions are
+ * never reused, a snapshot loaded from a transaction that later rolls back just never matches
+ * again.
+ *
+ * Hit and miss counters are registered to [meterRegistry]. Caches are usually top-level values
+ * created before the application context, so by default they use the global registry, which Spring
+ * Boot adds the application's registry to.
+ */
+class ReferenceDataCache<T : Any>(
+    private val family: String,
+    meterRegistry: MeterRegistry = Metrics.globalRegistry,
+    private val load: (tx: Database.Read) -> T,
+) {
+    private class Snapshot<T>(val version: String?, val value: T)
+
+    private val snapshot = AtomicReference<Snapshot<T>?>()
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    init {
+        FunctionCounter.builder("referenceDataCacheHits", hits) { it.get().toDouble() }
+            .tag("family", family)
+            .register(meterRegistry)
+        FunctionCounter.builder("referenceDataCacheMisses", misses) { it.get().toDouble() }
+            .tag("family", family)
+            .register(meterRegistry)
+    }
+
+    fun get(tx: Database.Read): T {
+        val version = tx.referenceDataVersion(family)
+        snapshot.get()?.let { cached ->
+            if (cached.version == version) {
+                hits.incrementAndGet()
+                return cached.value
+            }
+        }
+        misses.incrementAndGet()
+        val value = load(tx)
+        // A concurrent commit between reading the version and loading the data would make the
+        // loaded data newer than its version, so the snapshot is only kept if nothing changed
+        if (tx.referenceDataVersion(family) == version) {
+            snapshot.set(Snapshot(version, value))
+        }
+        return value
+    }
+}
+
+private fun Database.Read.referenceDataVersion(family: String): String? =
+    createQuery {
+            sql("SELECT version FROM reference_data_version WHERE family = ${bind(family)}")
+        }
+        .exactlyOneOrNull<String>()
@@ -6,6 +6,8 @@ package evaka.core.shared.domain
 
 import java.time.DayOfWeek
 import java.time.LocalDate
+import java.util.BitSet
+import java.util.concurrent.ConcurrentHashMap
 
 // Butcher-Meeus Algorithm
 // Source: https://www.baeldung.com/java-determine-easter-date-specific-year
@@ -101,8 +103,56 @@ private fun holidaysInFinland(year: Int): Sequence<LocalDate> {
 
 fun getHolidays(range: FiniteDateRange): Set<LocalDate> =
     (range.start.year..range.end.year)
-        .flatMap { year -> holidaysInFinland(year) }
+        .flatMap { year -> OperationalCalendar.holidays(year) }
         .filter { range.includes(it) }
         .toSet()
 
-fun isHoliday(date: LocalDate): Boolean = getHolidays(FiniteDateRange(date, date)).isNotEmpty()
+fun isHoliday(date: LocalDate): Boolean = OperationalCalendar.holidays(date.year).contains(date)
+
+/** Operation days of a unit: ISO days of week (1 = Monday) and whether holidays are included */
+data class UnitOperationDays(val daysOfWeek: Set<Int>, val openOnHolidays: Boolean) {
+    companion object {
+        /** Monday to Friday, excluding holidays */
+        val BUSINESS_DAYS = UnitOperationDays((1..5).toSet(), openOnHolidays = false)
+    }
+}
+
+/**
+ * In-memory calendar of Finnish holidays and unit operational days.
+ *
+ * Holidays are computed once per year. Operational days are stored as one bitmap per year and unit
+ * operation day configuration, indexed by day of year. The cache key is the configuration itself
+ * rather than a unit id, so changing a unit's operation days needs no invalidation: lookups simply
+ * start using another bitmap. The number of distinct configurations is small, so both caches stay
+ * tiny.
+ */
+object OperationalCalendar {
+    private val holidaysByYear = ConcurrentHashMap<Int, Set<LocalDate>>()
+    private val operationalDaysByYear = ConcurrentHashMap<Pair<UnitOperationDays, Int>, BitSet>()
+
+    fun holidays(year: Int): Set<LocalDate> =
+        holidaysByYear.computeIfAbsent(year) { holidaysInFinland(it).toSet() }
+
+    fun isOperational(unit: UnitOperationDays, date: LocalDate): Boolean =
+        operationalDays(unit, date.year).get(date.dayOfYear - 1)
+
+    /** Returns the operational dates of [unit] in [range] */
+    fun operationalDates(unit: UnitOperationDays, range: FiniteDateRange): Sequence<LocalDate> =
+        range.dates().filter { isOperational(unit, it) }
+
+    private fun operationalDays(unit: UnitOperationDays, year: Int): BitSet =
+        operationalDaysByYear.computeIfAbsent(unit to year) {
+            val holidays = holidays(year)
+            val yearStart = LocalDate.of(year, 1, 1)
+            BitSet(yearStart.lengthOfYear()).apply {
+                yearStart.datesUntil(yearStart.plusYears(1)).forEach { date ->
+                    if (
+                        unit.daysOfWeek.contains(date.dayOfWeek.value) &&
+                            (unit.openOnHolidays || !holidays.contains(date))
+                    ) {
+                        set(date.dayOfYear - 1)
+                    }
+                }
+            }
+        }
+}
@@ -66,7 +66,11 @@ fun Database.Read.getOperationalDatesForChildren(
         val operationDays: Set<Int>,
         val shiftCareOperationDays: Set<Int>?,
         val shiftCareOpenOnHolidays: Boolean,
-    )
+    ) {
+        val normal = UnitOperationDays(operationDays, openOnHolidays = false)
+        val shiftCare =
+            UnitOperationDays(shiftCareOperationDays ?: operationDays, shiftCareOpenOnHolidays)
+    }
     val operationDaysByDaycareId: Map<DaycareId, DaycareOperationDays> = createQuery {
         sql(
             """
@@ -79,8 +83,6 @@ fun Database.Read.getOperationalDatesForChildren(
         .toList<DaycareOperationDays>()
         .associateBy { it.unitId }
 
-    val holidays = getHolidays(range)
-
     data class ShiftCareRange(
         val childId: ChildId,
         val range: FiniteDateRange,
@@ -116,18 +118,11 @@ fun Database.Read.getOperationalDatesForChildren(
                     return@filter true
                 }
                 val hasShiftCare = fullShiftCareRanges[childId]?.includes(date) ?: false
-                val daycareOperationDays =
-                    operationDaysByDaycareId[unitId]?.let {
-                        it.shiftCareOperationDays?.takeIf { hasShiftCare } ?: it.operationDays
-                    } ?: return@filter false
-                if (!daycareOperationDays.contains(date.dayOfWeek.value)) {
-                    return@filter false
-                }
-                if (holidays.contains(date)) {
-                    return@filter hasShiftCare &&
-                        (operationDaysByDaycareId[unitId]?.shiftCareOpenOnHolidays ?: false)
-                }
-                true
+                val unit = operationDaysByDaycareId[unitId] ?: return@filter false
+                OperationalCalendar.isOperational(
+                    if (hasShiftCare) unit.shiftCare else unit.normal,
+                    date,
+                )
             }
 
         childId to operationalDays.toSet()
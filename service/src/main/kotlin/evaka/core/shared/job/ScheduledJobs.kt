@@ -30,6 +30,7 @@ import evaka.core.invoicing.service.NewCustomerIncomeNotification
 import evaka.core.invoicing.service.OutdatedIncomeNotifications
 import evaka.core.jamix.JamixService
 import evaka.core.koski.KoskiUpdateService
+import evaka.core.messaging.reconcileMessageUnreadCounts
 import evaka.core.messaging.upsertEmployeeMessageAccount
 import evaka.core.nekku.NekkuService
 import evaka.core.note.child.daily.deleteExpiredNotes
@@ -53,6 +54,9 @@ import evaka.core.shared.auth.upsertAclRowsFromScheduled
 import evaka.core.shared.db.Database
 import evaka.core.shared.db.runSanityChecks
 import evaka.core.shared.domain.EvakaClock
+import evaka.core.shared.security.deleteExpiredEmployeeChildAcl
+import evaka.core.shared.security.getEmployeeChildAclUnits
+import evaka.core.shared.security.rebuildEmployeeChildAcl
 import evaka.core.titania.cleanTitaniaErrors
 import evaka.core.varda.VardaUpdateService
 import io.github.oshai.kotlinlogging.KotlinLogging
@@ -255,6 +259,10 @@ enum class ScheduledJob(
         ScheduledJobs::scheduleMigrateBulletinMessageThreads,
         ScheduledJobSettings(enabled = true, schedule = JobSchedule.daily(LocalTime.of(22, 0))),
     ),
+    ScheduleChildImageThumbnailGeneration(
+        ScheduledJobs::scheduleChildImageThumbnailGeneration,
+        ScheduledJobSettings(enabled = true, schedule = JobSchedule.nightly()),
+    ),
     DatabaseSanityChecks(
         ScheduledJobs::databaseSanityChecks,
         ScheduledJobSettings(enabled = true, schedule = JobSchedule.nightly()),
@@ -320,6 +328,14 @@ enum class ScheduledJob(
         ScheduledJobs::deleteOldDailyServiceTimeNotifications,
         ScheduledJobSettings(enabled = true, schedule = JobSchedule.nightly()),
     ),
+    ReconcileMessageUnreadCounts(
+        ScheduledJobs::reconcileMessageUnreadCounts,
+        ScheduledJobSettings(enabled = true, schedule = JobSchedule.nightly()),
+    ),
+    RebuildEmployeeChildAcl(
+        ScheduledJobs::rebuildEmployeeChildAcl,
+        ScheduledJobSettings(enabled = true, schedule = JobSchedule.nightly()),
+    ),
 }
 
 private val logger = KotlinLogging.logger {}
@@ -548,6 +564,32 @@ WHERE id IN (SELECT id FROM attendances_to_end)
         }
     }
 
+    fun reconcileMessageUnreadCounts(db: Database.Connection, clock: EvakaClock) {
+        val fixedCount = db.transaction { it.reconcileMessageUnreadCounts() }
+        if (fixedCount > 0) {
+            logger.warn { "Fixed drifted unread message counts of $fixedCount accounts" }
+        }
+    }
+
+    fun rebuildEmployeeChildAcl(db: Database.Connection, clock: EvakaClock) {
+        // Rows are only needed while the access is valid, but a year of margin keeps them
+        // available to checks made with a clock that is behind the real date
+        val expiredBefore = clock.today().minusYears(1)
+        val expiredCount = db.transaction { it.deleteExpiredEmployeeChildAcl(expiredBefore) }
+        logger.info { "Deleted $expiredCount expired employee child ACL rows" }
+
+        // Each batch of units is compared and fixed in a transaction of its own
+        val fixedCount =
+            db.read { it.getEmployeeChildAclUnits() }
+                .chunked(100)
+                .sumOf { units ->
+                    db.transaction { it.rebuildEmployeeChildAcl(units, expiredBefore) }
+                }
+        if (fixedCount > 0) {
+            logger.warn { "Fixed drifted employee child ACL rows of $fixedCount children" }
+        }
+    }
+
     fun removeOldAsyncJobs(db: Database.Connection, clock: EvakaClock) {
         db.removeOldAsyncJobs(clock.now())
     }
@@ -608,9 +650,7 @@ WHERE id IN (SELECT id FROM attendances_to_end)
     }
 
     fun completeChildDocumentsWithExpiredTemplate(db: Database.Connection, clock: EvakaClock) {
-        db.transaction { tx ->
-            childDocumentService.completeAndPublishChildDocumentsAtEndOfTerm(tx, clock.now())
-        }
+        childDocumentService.completeAndPublishChildDocumentsAtEndOfTerm(db, clock.now())
     }
 
     fun sendCalendarEventDigests(db: Database.Connection, clock: EvakaClock) {
@@ -640,6 +680,16 @@ WHERE id IN (SELECT id FROM attendances_to_end)
             )
         }
 
+    fun scheduleChildImageThumbnailGeneration(db: Database.Connection, clock: EvakaClock) =
+        db.transaction { tx ->
+            asyncJobRunner.plan(
+                tx,
+                listOf(AsyncJob.GenerateChildImageThumbnails(batchSize = 1000)),
+                retryCount = 1,
+                runAt = clock.now(),
+            )
+        }
+
     fun databaseSanityChecks(db: Database.Connection, clock: EvakaClock) = db.transaction {
         runSanityChecks(it, clock)
     }
@@ -693,6 +743,7 @@ WHERE id IN (SELECT id FROM attendances_to_end)
             asyncJobRunner,
             childDocumentArchivalEnv.delayDays,
             childDocumentArchivalEnv.limit,
+            childDocumentArchivalEnv.bulkSize,
         )
     }
 
@@ -0,0 +1,136 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.shared.logging
+
+import fi.espoo.voltti.logging.loggers.audit
+import io.github.oshai.kotlinlogging.KLogger
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Timer
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.concurrent.thread
+import org.slf4j.MDC
+
+/**
+ * Writes audit events to [logger].
+ *
+ * Until [start] is called (and again after [close]), events are written synchronously on the
+ * calling thread. Once started, the calling thread only captures the event into a bounded queue,
+ * and a dedicated writer thread serializes and writes it. Events are never dropped: when the queue
+ * is full, [submit] blocks until the writer has caught up.
+ *
+ * The time and the MDC of the submitting thread are captured with each event and logged with it,
+ * so asynchronously written events carry the same timestamp and request context (user, trace,
+ * route) as synchronously written ones.
+ *
+ * The writer is a daemon thread, so a JVM shutdown hook drains the queue if the JVM exits without
+ * [close] being called first.
+ */
+class AuditEventSink(private val logger: KLogger, private val capacity: Int = 10_000) :
+    AutoCloseable {
+    private class Event(
+        val message: String,
+        val args: Map<String, Any?>,
+        val timestamp: Instant,
+        val mdc: Map<String, String>?,
+    )
+
+    private val queue = ArrayBlockingQueue<Event>(capacity)
+    private val writeTimer = AtomicReference<Timer>()
+    private val writer = AtomicReference<Thread>()
+    private val shutdownHook = AtomicReference<Thread>()
+    @Volatile
+    var isRunning = false
+        private set
+
+    fun registerMeters(registry: MeterRegistry) {
+        Gauge.builder("auditEventQueueDepth", queue) { it.size.toDouble() }.register(registry)
+        Gauge.builder("auditEventQueueCapacity") { capacity }.register(registry)
+        writeTimer.set(Timer.builder("auditEventWriteTime").register(registry))
+    }
+
+    @Synchronized
+    fun start() {
+        if (isRunning) return
+        isRunning = true
+        writer.set(thread(name = "audit-event-writer", isDaemon = true) { writeQueuedEvents() })
+        val hook = thread(start = false, name = "audit-event-sink-shutdown") { close() }
+        Runtime.getRuntime().addShutdownHook(hook)
+        shutdownHook.set(hook)
+    }
+
+    fun submit(message: String, args: Map<String, Any?>) {
+        if (isRunning) {
+            queue.put(Event(message, args, Instant.now(), MDC.getCopyOfContextMap()))
+            // The writer may have stopped between the check and the put
+            if (!isRunning) writeRemaining()
+        } else {
+            write(message, args)
+        }
+    }
+
+    /** Stops the writer thread after it has written all queued events */
+    @Synchronized
+    override fun close() {
+        if (!isRunning) return
+        isRunning = false
+        shutdownHook.getAndSet(null)?.let { hook ->
+            if (hook != Thread.currentThread()) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(hook)
+                } catch (_: IllegalStateException) {
+                    // The JVM is already shutting down, and the hook waits for this call
+                }
+            }
+        }
+        writer.getAndSet(null)?.join(SHUTDOWN_TIMEOUT.toMillis())
+        writeRemaining()
+    }
+
+    private fun writeRemaining() = generateSequence { queue.poll() }.forEach { writeCaptured(it) }
+
+    private fun writeQueuedEvents() {
+        val batch = ArrayList<Event>(BATCH_SIZE)
+        while (isRunning || queue.isNotEmpty()) {
+            val first = queue.poll(POLL_INTERVAL.toMillis(), TimeUnit.MILLISECONDS) ?: continue
+            batch.add(first)
+            queue.drainTo(batch, BATCH_SIZE - 1)
+            batch.forEach { writeCaptured(it) }
+            batch.clear()
+        }
+    }
+
+    private fun writeCaptured(event: Event) {
+        try {
+            timed {
+                logger.audit(event.args, event.timestamp, event.mdc ?: emptyMap()) {
+                    event.message
+                }
+            }
+        } catch (e: Exception) {
+            logger.error(e) { "Failed to write audit event ${event.message}" }
+        }
+    }
+
+    private fun write(message: String, args: Map<String, Any?>) = timed {
+        logger.audit(args) { message }
+    }
+
+    private inline fun timed(f: () -> Unit) {
+        val start = System.nanoTime()
+        f()
+        writeTimer.get()?.record(System.nanoTime() - start, TimeUnit.NANOSECONDS)
+    }
+
+    companion object {
+        private const val BATCH_SIZE = 256
+        private val POLL_INTERVAL = Duration.ofMillis(100)
+        private val SHUTDOWN_TIMEOUT = Duration.ofSeconds(30)
+    }
+}
@@ -318,21 +318,25 @@ class AccessControl(private val actionRuleMapping: ActionRuleMapping, private va
     ) where A : Action.ScopedAction<T>, A : Enum<A> =
         getPermittedActions(tx, user, clock, A::class.java, targets.toSet())
 
+    /**
+     * Evaluates [actions] (by default all actions of [actionClass]) for all [targets] at once, so
+     * that a rule query shared by several actions is only executed once.
+     */
     fun <T, A> getPermittedActions(
         tx: Database.Read,
         user: AuthenticatedUser,
         clock: EvakaClock,
         actionClass: Class<A>,
         targets: Set<T>,
+        actions: Set<A> = EnumSet.allOf(actionClass),
     ): Map<T, Set<A>> where A : Action.ScopedAction<T>, A : Enum<A> {
         return tracer.withSpan("getPermittedActions", Tracing.actionClass withValue actionClass) {
-            val allActions: Set<A> = EnumSet.allOf(actionClass)
             val queryCtx = QueryContext(tx, user, clock.now())
             val unscopedEvaluator = UnscopedEvaluator(queryCtx)
             val scopedEvaluator = ScopedEvaluator(queryCtx)
             val globalPermissions = EnumSet.noneOf(actionClass)
             val individualPermissions = targets.associateWith { EnumSet.noneOf(actionClass) }
-            for (action in allActions) {
+            for (action in actions) {
                 val rules =
                     actionRuleMapping
                         .rulesOf(action)
@@ -4,11 +4,16 @@
 
 package evaka.core.shared.security
 
+import evaka.core.shared.ChildId
+import evaka.core.shared.DaycareId
 import evaka.core.shared.EmployeeId
 import evaka.core.shared.MobileDeviceId
 import evaka.core.shared.auth.AuthenticatedUser
+import evaka.core.shared.db.Database
+import evaka.core.shared.db.DatabaseEnum
 import evaka.core.shared.db.QuerySql
 import evaka.core.shared.domain.HelsinkiDateTime
+import java.time.LocalDate
 
 data class ChildAclConfig(
     /** Enables access via direct placements */
@@ -25,15 +30,19 @@ data class ChildAclConfig(
     }
 
     /**
-     * Returns a list of employee ACL queries based on this configuration.
+     * Returns an employee ACL query based on this configuration.
      *
-     * The queries return (child_id, unit_id, role) rows for the given user.
+     * The query returns (child_id, unit_id, role) rows for the given user.
      */
-    fun aclQueries(user: AuthenticatedUser.Employee, now: HelsinkiDateTime) =
-        listOfNotNull(
-            if (this.placement) employeeChildAclViaPlacement(user.id, now) else null,
-            if (this.backupCare) employeeChildAclViaBackupCare(user.id, now) else null,
-            if (this.application) employeeChildAclViaApplication(user.id) else null,
+    fun aclQuery(user: AuthenticatedUser.Employee, now: HelsinkiDateTime) =
+        employeeChildAcl(
+            user.id,
+            now,
+            listOfNotNull(
+                if (this.placement) ChildAclVia.PLACEMENT else null,
+                if (this.backupCare) ChildAclVia.BACKUP_CARE else null,
+                if (this.application) ChildAclVia.APPLICATION else null,
+            ),
         )
 
     /**
@@ -49,42 +58,118 @@ data class ChildAclConfig(
         )
 }
 
-fun employeeChildAclViaPlacement(employee: EmployeeId, now: HelsinkiDateTime) = QuerySql {
-    sql(
-        """
-SELECT pl.child_id, pl.unit_id, role
-FROM placement pl
-JOIN daycare_acl ON pl.unit_id = daycare_acl.daycare_id
-WHERE ${bind(now.toLocalDate())} < pl.end_date + INTERVAL '1 month'
-AND daycare_acl.employee_id = ${bind(employee)}
-"""
-    )
+/** The mechanisms through which an employee gets access to a child via their unit role */
+enum class ChildAclVia : DatabaseEnum {
+    PLACEMENT,
+    BACKUP_CARE,
+    APPLICATION;
+
+    override val sqlType: String = "child_acl_via"
 }
 
-fun employeeChildAclViaBackupCare(employee: EmployeeId, now: HelsinkiDateTime) = QuerySql {
+/**
+ * Returns (child_id, unit_id, role) rows of the children the given employee has access to.
+ *
+ * The rows come from `employee_child_acl`, which the database keeps up to date from placements,
+ * backup cares, placement plans and the unit ACL. Access via placements and backup cares lasts
+ * until a month after their end.
+ *
+ * The rows are updated when the transaction that changes their sources commits. A check later in
+ * the same transaction must call [refreshEmployeeChildAcl] first to see that transaction's own
+ * changes, as child-level `HasUnitRole` rules do.
+ */
+fun employeeChildAcl(
+    employee: EmployeeId,
+    now: HelsinkiDateTime,
+    via: Collection<ChildAclVia>,
+) = QuerySql {
     sql(
         """
-SELECT bc.child_id, bc.unit_id, role
-FROM backup_care bc
-JOIN daycare_acl ON unit_id = daycare_acl.daycare_id
-WHERE ${bind(now.toLocalDate())} < bc.end_date + INTERVAL '1 month'
-AND daycare_acl.employee_id = ${bind(employee)}
+SELECT acl.child_id, acl.unit_id, acl.role
+FROM employee_child_acl acl
+WHERE acl.employee_id = ${bind(employee)}
+AND acl.via = ANY(${bind(via)})
+AND (acl.access_until IS NULL OR ${bind(now.toLocalDate())} < acl.access_until)
 """
     )
 }
 
-fun employeeChildAclViaApplication(employee: EmployeeId) = QuerySql {
-    sql(
-        """
-SELECT a.child_id, pp.unit_id, role
-FROM placement_plan pp
-JOIN application a ON pp.application_id = a.id
-JOIN daycare_acl ON pp.unit_id = daycare_acl.daycare_id
-WHERE a.status = ANY ('{SENT,WAITING_PLACEMENT,WAITING_CONFIRMATION,WAITING_DECISION,WAITING_MAILING,WAITING_UNIT_CONFIRMATION}'::application_status_type[])
-AND NOT (role = 'SPECIAL_EDUCATION_TEACHER' AND coalesce((a.document -> 'careDetails' ->> 'assistanceNeeded')::boolean, FALSE) IS FALSE)
-AND daycare_acl.employee_id = ${bind(employee)}
+/**
+ * Applies the `employee_child_acl` changes of the writes the current transaction has made so far.
+ * The rows are otherwise refreshed only when the transaction commits.
+ */
+fun Database.Transaction.refreshEmployeeChildAcl() {
+    execute { sql("SET CONSTRAINTS refresh_employee_child_acl IMMEDIATE") }
+    execute { sql("SET CONSTRAINTS refresh_employee_child_acl DEFERRED") }
+}
+
+/**
+ * Deletes `employee_child_acl` rows whose access ended before the given date. Returns the number of
+ * deleted rows.
+ *
+ * The rows are materialized without regard to the current date, so the date should leave a
+ * generous margin: access checks use the application clock, which may be behind the real date.
+ */
+fun Database.Transaction.deleteExpiredEmployeeChildAcl(expiredBefore: LocalDate): Int = execute {
+    sql("DELETE FROM employee_child_acl WHERE access_until < ${bind(expiredBefore)}")
+}
+
+fun Database.Read.getEmployeeChildAclUnits(): List<DaycareId> =
+    createQuery { sql("SELECT id FROM daycare ORDER BY id") }.toList<DaycareId>()
+
+/**
+ * Recomputes the `employee_child_acl` rows of the given units and fixes the rows that have drifted
+ * from the placements, backup cares, applications and unit ACL. Rows that expired before
+ * [expiredBefore] are ignored, because [deleteExpiredEmployeeChildAcl] deletes them. Returns the
+ * number of fixed (unit, child) pairs.
+ */
+fun Database.Transaction.rebuildEmployeeChildAcl(
+    units: Collection<DaycareId>,
+    expiredBefore: LocalDate,
+): Int {
+    val drifted = createQuery {
+        sql(
+            """
+WITH src AS (
+    SELECT employee_id, child_id, unit_id, role, via, access_until
+    FROM employee_child_acl_source
+    WHERE unit_id = ANY(${bind(units)})
+    AND (access_until IS NULL OR access_until >= ${bind(expiredBefore)})
+), acl AS (
+    SELECT employee_id, child_id, unit_id, role, via, access_until
+    FROM employee_child_acl
+    WHERE unit_id = ANY(${bind(units)})
+    AND (access_until IS NULL OR access_until >= ${bind(expiredBefore)})
+)
+SELECT DISTINCT coalesce(src.unit_id, acl.unit_id) AS unit_id, coalesce(src.child_id, acl.child_id) AS child_id
+FROM src
+FULL JOIN acl
+    ON acl.employee_id = src.employee_id
+    AND acl.child_id = src.child_id
+    AND acl.unit_id = src.unit_id
+    AND acl.role = src.role
+    AND acl.via = src.via
+WHERE src.employee_id IS NULL
+    OR acl.employee_id IS NULL
+    OR acl.access_until IS DISTINCT FROM src.access_until
 """
-    )
+        )
+    }
+        .toList { column<DaycareId>("unit_id") to column<ChildId>("child_id") }
+    if (drifted.isNotEmpty()) {
+        execute {
+            sql(
+                """
+SELECT refresh_employee_child_acl(
+    ${bind(drifted.map { it.first })},
+    ${bind(drifted.map { it.second })},
+    '{}'::uuid[]
+)
+"""
+            )
+        }
+    }
+    return drifted.size
 }
 
 fun mobileChildAclViaPlacement(mobileDevice: MobileDeviceId, now: HelsinkiDateTime) = QuerySql {
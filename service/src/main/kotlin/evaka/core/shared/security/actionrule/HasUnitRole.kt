@@ -44,12 +44,14 @@ import evaka.core.shared.ServiceApplicationId
 import evaka.core.shared.ServiceNeedId
 import evaka.core.shared.auth.AuthenticatedUser
 import evaka.core.shared.auth.UserRole
+import evaka.core.shared.db.Database
 import evaka.core.shared.db.QuerySql
 import evaka.core.shared.domain.HelsinkiDateTime
 import evaka.core.shared.domain.toFiniteDateRange
 import evaka.core.shared.security.AccessControlDecision
 import evaka.core.shared.security.ChildAclConfig
 import evaka.core.shared.security.PilotFeature
+import evaka.core.shared.security.refreshEmployeeChildAcl
 import evaka.core.shared.utils.emptyEnumSet
 import evaka.core.shared.utils.toEnumSet
 import java.util.EnumSet
@@ -74,9 +76,10 @@ data class HasUnitRole(
         copy(unitProviderTypes = allOf.toEnumSet())
 
     private fun <T : Id<*>> rule(
-        getUnitRoles: GetUnitRoles
+        usesChildAcl: Boolean = false,
+        getUnitRoles: GetUnitRoles,
     ): DatabaseActionRule.Scoped<T, HasUnitRole> =
-        DatabaseActionRule.Scoped.Simple(this, Query(getUnitRoles))
+        DatabaseActionRule.Scoped.Simple(this, Query(getUnitRoles, usesChildAcl))
 
     /**
      * Creates a rule that is based on the relation between an employee and a child.
@@ -89,29 +92,31 @@ data class HasUnitRole(
         idChildQuery:
             QuerySql.Builder.(user: AuthenticatedUser.Employee, now: HelsinkiDateTime) -> QuerySql,
     ): DatabaseActionRule.Scoped<T, HasUnitRole> =
-        DatabaseActionRule.Scoped.Simple(
-            this,
-            Query { user, now ->
-                val aclQueries = cfg.aclQueries(user, now)
-                union(
-                    all = true,
-                    aclQueries.map { aclQuery ->
-                        QuerySql {
-                            sql(
-                                """
+        rule(usesChildAcl = true) { user, now ->
+            sql(
+                """
 SELECT target.id, acl.role, acl.unit_id
 FROM (${subquery { idChildQuery(user, now) }}) target
-JOIN (${subquery(aclQuery)}) acl USING (child_id)
+JOIN (${subquery(cfg.aclQuery(user, now))}) acl USING (child_id)
 """
-                            )
-                        }
-                    },
-                )
-            },
-        )
+            )
+        }
+
+    /** @param usesChildAcl true if the query reads `employee_child_acl` */
+    private class Query<T : Id<*>>(
+        private val getUnitRoles: GetUnitRoles,
+        private val usesChildAcl: Boolean,
+    ) : DatabaseActionRule.Scoped.Query<T, HasUnitRole> {
+        /**
+         * Makes the ACL rows reflect the writes the current transaction has made before the check.
+         * A read-only transaction can't have any.
+         */
+        private fun refreshChildAcl(ctx: DatabaseActionRule.QueryContext) {
+            if (usesChildAcl && ctx.tx is Database.Transaction) {
+                ctx.tx.refreshEmployeeChildAcl()
+            }
+        }
 
-    private class Query<T : Id<*>>(private val getUnitRoles: GetUnitRoles) :
-        DatabaseActionRule.Scoped.Query<T, HasUnitRole> {
         override fun cacheKey(user: AuthenticatedUser, now: HelsinkiDateTime): Any =
             when (user) {
                 is AuthenticatedUser.Employee -> QuerySql { getUnitRoles(user, now) }
@@ -124,6 +129,7 @@ JOIN (${subquery(aclQuery)}) acl USING (child_id)
         ): Map<T, DatabaseActionRule.Deferred<HasUnitRole>> =
             when (ctx.user) {
                 is AuthenticatedUser.Employee -> {
+                    refreshChildAcl(ctx)
                     val targetCheck = targets.idTargetPredicate()
                     ctx.tx
                         .createQuery {
@@ -161,6 +167,7 @@ WHERE ${predicate(targetCheck.forTable("fragment"))}
         ): QuerySql? =
             when (ctx.user) {
                 is AuthenticatedUser.Employee -> {
+                    refreshChildAcl(ctx)
                     QuerySql {
                         sql(
                             """
@@ -446,19 +453,12 @@ FROM backup_pickup bp
         }
 
     fun inPlacementUnitOfChild(cfg: ChildAclConfig = ChildAclConfig()) =
-        rule<ChildId> { user, now ->
-            union(
-                all = true,
-                cfg.aclQueries(user, now).map { aclQuery ->
-                    QuerySql {
-                        sql(
-                            """
+        rule<ChildId>(usesChildAcl = true) { user, now ->
+            sql(
+                """
 SELECT acl.child_id AS id, acl.role, acl.unit_id
-FROM (${subquery(aclQuery)}) acl
+FROM (${subquery(cfg.aclQuery(user, now))}) acl
 """
-                        )
-                    }
-                },
             )
         }
 
@@ -785,15 +785,11 @@ AND attachment.type = 'EXTENDED_CARE'
         }
 
     fun inPlacementUnitOfChildWithServiceVoucherPlacement(cfg: ChildAclConfig = ChildAclConfig()) =
-        rule<ChildId> { user, now ->
-            union(
-                all = true,
-                cfg.aclQueries(user, now).map { aclQuery ->
-                    QuerySql {
-                        sql(
-                            """
+        rule<ChildId>(usesChildAcl = true) { user, now ->
+            sql(
+                """
 SELECT acl.child_id AS id, acl.role, acl.unit_id
-FROM (${subquery(aclQuery)}) acl
+FROM (${subquery(cfg.aclQuery(user, now))}) acl
 WHERE EXISTS (
     SELECT 1 FROM placement p
     JOIN daycare pd ON pd.id = p.unit_id
@@ -801,9 +797,6 @@ WHERE EXISTS (
       AND pd.provider_type = 'PRIVATE_SERVICE_VOUCHER'
 )
 """
-                        )
-                    }
-                },
             )
         }
 
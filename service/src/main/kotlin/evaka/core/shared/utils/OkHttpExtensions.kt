@@ -45,10 +45,20 @@ fun basicAuthInterceptor(username: String, password: String): okhttp3.Intercepto
     }
 }
 
-fun streamRequestBody(contentType: MediaType, inputStream: InputStream): RequestBody =
+/**
+ * A request body that copies [inputStream] to the request as it is sent. Without a known
+ * [contentLength] the body is sent chunked.
+ */
+fun streamRequestBody(
+    contentType: MediaType,
+    inputStream: InputStream,
+    contentLength: Long = -1L,
+): RequestBody =
     object : RequestBody() {
         override fun contentType() = contentType
 
+        override fun contentLength() = contentLength
+
         override fun isOneShot() = true
 
         override fun writeTo(sink: BufferedSink) {
@@ -6,6 +6,8 @@ package evaka.core.webpush
 
 import com.fasterxml.jackson.annotation.JsonTypeInfo
 import evaka.core.WebPushEnv
+import evaka.core.shared.TimeoutConfig
+import evaka.core.shared.buildHttpClient
 import evaka.core.shared.config.SealedSubclassSimpleName
 import evaka.core.shared.config.defaultJsonMapperBuilder
 import evaka.core.shared.db.Database
@@ -13,14 +15,19 @@ import evaka.core.shared.domain.EvakaClock
 import evaka.core.shared.utils.writerFor
 import fi.espoo.voltti.logging.loggers.error
 import io.github.oshai.kotlinlogging.KotlinLogging
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
 import java.net.URI
 import java.security.SecureRandom
 import java.security.interfaces.ECPublicKey
 import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
 import kotlin.code
 import kotlin.collections.toTypedArray
 import kotlin.toString
-import okhttp3.OkHttpClient
+import okhttp3.ConnectionPool
+import okhttp3.Protocol
 import okhttp3.Request
 import okhttp3.RequestBody.Companion.toRequestBody
 import org.springframework.http.HttpStatus
@@ -123,12 +130,37 @@ data class WebPushRequestHeaders(
 private val VAPID_JWT_NEW_VALID_DURATION = Duration.ofHours(12)
 private val VAPID_JWT_MIN_VALID_DURATION = Duration.ofHours(1)
 
-class WebPush(env: WebPushEnv) {
-    private val httpClient = OkHttpClient()
+/**
+ * Sends web push notifications.
+ *
+ * VAPID tokens are signed once per push service origin and kept in memory until shortly before
+ * they expire. The database copy of each token is only read when the in-memory one is missing or
+ * about to expire, so all instances of the service share the same token per origin. Requests are
+ * sent with one shared HTTP client, so connections (multiplexed HTTP/2 connections for most push
+ * services) to each push service are reused.
+ */
+class WebPush(env: WebPushEnv, meterRegistry: MeterRegistry) {
+    private val httpClient =
+        buildHttpClient(
+                timeouts =
+                    TimeoutConfig(
+                        connectTimeout = Duration.ofSeconds(10),
+                        readTimeout = Duration.ofSeconds(30),
+                        writeTimeout = Duration.ofSeconds(30),
+                    ),
+                customize = {
+                    it.connectionPool(ConnectionPool(20, 5, TimeUnit.MINUTES))
+                        .protocols(listOf(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                },
+            )
+            .client
     private val secureRandom = SecureRandom()
     private val jsonWriter = defaultJsonMapperBuilder().build().writerFor<List<WebPushPayload>>()
     private val vapidKeyPair: WebPushKeyPair =
         WebPushKeyPair.fromPrivateKey(WebPushCrypto.decodePrivateKey(env.vapidPrivateKey.value))
+    private val vapidJwts = ConcurrentHashMap<String, VapidJwt>()
+    private val vapidJwtSignatures =
+        Counter.builder("webPushVapidJwtSignatures").register(meterRegistry)
     val applicationServerKey: String
         get() = vapidKeyPair.publicKeyBase64()
 
@@ -137,19 +169,33 @@ class WebPush(env: WebPushEnv) {
     class SubscriptionExpired(val status: HttpStatus, cause: Throwable) :
         RuntimeException("Subscription expired (HTTP $status)", cause)
 
-    fun getValidToken(tx: Database.Transaction, clock: EvakaClock, endpoint: URI): VapidJwt =
-        tx.getOrRefreshToken(
-            // Pessimistically create a fresh JWT token every time, but it only gets saved and used
-            // if we don't find a valid existing one from the database cache
-            newToken =
-                VapidJwt.create(
-                    vapidKeyPair,
-                    expiresAt = clock.now().plus(VAPID_JWT_NEW_VALID_DURATION),
-                    endpoint,
-                ),
-            // Avoid using JWT tokens that expire very soon
-            minValidThreshold = clock.now().plus(VAPID_JWT_MIN_VALID_DURATION),
-        )
+    fun getValidToken(tx: Database.Transaction, clock: EvakaClock, endpoint: URI): VapidJwt {
+        val origin = VapidJwt.origin(endpoint)
+        // Avoid using JWT tokens that expire very soon
+        val minValidThreshold = clock.now().plus(VAPID_JWT_MIN_VALID_DURATION)
+        vapidJwts[origin]
+            ?.takeUnless { it.expiresAt.isBefore(minValidThreshold) }
+            ?.let {
+                return it
+            }
+        val publicKey = WebPushCrypto.encode(vapidKeyPair.publicKey)
+        val token =
+            tx.getToken(origin, publicKey)?.takeUnless { it.expiresAt.isBefore(minValidThreshold) }
+                ?: tx.getOrRefreshToken(
+                    // Only gets saved and used if another instance hasn't saved a valid token in
+                    // the meantime
+                    newToken =
+                        VapidJwt.create(
+                                vapidKeyPair,
+                                expiresAt = clock.now().plus(VAPID_JWT_NEW_VALID_DURATION),
+                                endpoint,
+                            )
+                            .also { vapidJwtSignatures.increment() },
+                    minValidThreshold = minValidThreshold,
+                )
+        vapidJwts[origin] = token
+        return token
+    }
 
     fun send(vapidJwt: VapidJwt, notification: WebPushNotification) {
         val webPushRequest =
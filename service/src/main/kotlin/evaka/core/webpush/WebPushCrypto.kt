@@ -70,20 +70,20 @@ data class VapidJwt(
     override fun hashCode(): Int = Objects.hash(origin, publicKey.contentHashCode(), jwt, expiresAt)
 
     companion object {
-        private fun URI.origin(): String {
-            val port = ":$port".takeIf { port != -1 } ?: ""
-            return "$scheme://$host$port"
+        fun origin(uri: URI): String {
+            val port = ":${uri.port}".takeIf { uri.port != -1 } ?: ""
+            return "${uri.scheme}://${uri.host}$port"
         }
 
         fun create(keyPair: WebPushKeyPair, expiresAt: HelsinkiDateTime, uri: URI) =
             VapidJwt(
-                origin = uri.origin(),
+                origin = origin(uri),
                 publicKey = WebPushCrypto.encode(keyPair.publicKey),
                 // 2. Application Server Self-Identification
                 // Reference: https://datatracker.ietf.org/doc/html/rfc8292#section-2
                 jwt =
                     JWT.create()
-                        .withAudience(uri.origin())
+                        .withAudience(origin(uri))
                         .withExpiresAt(expiresAt.toInstant())
                         .withSubject("https://github.com/espoon-voltti/evaka")
                         .sign(Algorithm.ECDSA256(keyPair.privateKey)),
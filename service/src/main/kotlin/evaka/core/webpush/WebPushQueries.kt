@@ -58,6 +58,17 @@ DELETE FROM mobile_device_push_subscription WHERE device = ${bind(device)}
 }
     .execute()
 
+fun Database.Read.getToken(origin: String, publicKey: ByteArray): VapidJwt? = createQuery {
+    sql(
+        """
+SELECT origin, public_key, jwt, expires_at
+FROM vapid_jwt
+WHERE (origin, public_key) = (${bind(origin)}, ${bind(publicKey)})
+"""
+    )
+}
+    .exactlyOneOrNull<VapidJwt>()
+
 fun Database.Transaction.getOrRefreshToken(
     newToken: VapidJwt,
     minValidThreshold: HelsinkiDateTime,
@@ -80,16 +91,8 @@ RETURNING origin, public_key, jwt, expires_at
         .exactlyOneOrNull<VapidJwt?>()
     return savedNewToken
         // We didn't save anything -> there must be a valid token in the db
-        ?: createQuery {
-            sql(
-                """
-SELECT origin, public_key, jwt, expires_at
-FROM vapid_jwt
-WHERE (origin, public_key) = (${bind(newToken.origin)}, ${bind(newToken.publicKey)})
-"""
-            )
-        }
-            .exactlyOne<VapidJwt>()
+        ?: getToken(newToken.origin, newToken.publicKey)
+        ?: error("VAPID JWT not found")
 }
 
 fun Database.Read.getPushCategories(device: MobileDeviceId): Set<PushNotificationCategory> =
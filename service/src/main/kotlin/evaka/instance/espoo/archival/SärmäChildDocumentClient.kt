@@ -13,7 +13,7 @@ import evaka.core.document.childdocument.*
 import evaka.core.invoicing.domain.FeeDecisionDetailed
 import evaka.core.invoicing.domain.VoucherValueDecisionDetailed
 import evaka.core.pis.service.PersonDTO
-import evaka.core.s3.Document
+import evaka.core.s3.DocumentStream
 import evaka.core.shared.ChildDocumentId
 import evaka.core.user.EvakaUser
 import fi.espoo.voltti.logging.loggers.info
@@ -32,7 +32,7 @@ class SärmäChildDocumentClient(
         caseProcess: CaseProcess,
         child: PersonDTO,
         decision: Decision,
-        document: Document,
+        document: DocumentStream,
         user: EvakaUser,
     ): String {
         TODO("Not yet implemented")
@@ -41,7 +41,7 @@ class SärmäChildDocumentClient(
     override fun uploadFeeDecisionToArchive(
         caseProcess: CaseProcess,
         decision: FeeDecisionDetailed,
-        document: Document,
+        document: DocumentStream,
         user: EvakaUser,
     ): String {
         TODO("Not yet implemented")
@@ -50,7 +50,7 @@ class SärmäChildDocumentClient(
     override fun uploadVoucherValueDecisionToArchive(
         caseProcess: CaseProcess,
         decision: VoucherValueDecisionDetailed,
-        document: Document,
+        document: DocumentStream,
         user: EvakaUser,
     ): String {
         TODO("Not yet implemented")
@@ -62,7 +62,7 @@ class SärmäChildDocumentClient(
         childInfo: PersonDTO,
         childDocumentDetails: ChildDocumentDetails,
         documentMetadata: DocumentMetadata,
-        documentContent: Document,
+        documentContent: DocumentStream,
         evakaUser: EvakaUser,
     ): String? {
         val classId =
@@ -6,7 +6,8 @@ package evaka.instance.espoo.archival
 
 import evaka.core.ArchiveEnv
 import evaka.core.document.archival.ArchivalClient
-import evaka.core.s3.Document
+import evaka.core.s3.DocumentStream
+import evaka.core.shared.utils.streamRequestBody
 import java.time.Duration
 import okhttp3.*
 import okhttp3.MediaType.Companion.toMediaType
@@ -22,7 +23,7 @@ class SärmäHttpClient(private val archiveEnv: ArchiveEnv?) : ArchivalClient {
             .build()
 
     override fun putDocument(
-        documentContent: Document,
+        documentContent: DocumentStream,
         metadataXml: String,
         masterId: String,
         classId: String,
@@ -31,7 +32,12 @@ class SärmäHttpClient(private val archiveEnv: ArchiveEnv?) : ArchivalClient {
         if (archiveEnv == null) {
             throw IllegalStateException("Archive environment not configured")
         }
-        val pdfBody = documentContent.bytes.toRequestBody("application/pdf".toMediaType())
+        val pdfBody =
+            streamRequestBody(
+                "application/pdf".toMediaType(),
+                documentContent.inputStream,
+                documentContent.contentLength,
+            )
         val requestBody =
             MultipartBody.Builder()
                 .setType(MultipartBody.FORM)
@@ -55,7 +61,7 @@ class SärmäHttpClient(private val archiveEnv: ArchiveEnv?) : ArchivalClient {
                 )
                 .addFormDataPart(
                     "instance_1_record_payload_content_size",
-                    documentContent.bytes.size.toString(),
+                    documentContent.contentLength.toString(),
                 )
                 .addFormDataPart("instance_1_record_payload_data", documentContent.name, pdfBody)
                 .build()
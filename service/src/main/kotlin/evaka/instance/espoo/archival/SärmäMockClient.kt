@@ -5,11 +5,11 @@
 package evaka.instance.espoo.archival
 
 import evaka.core.document.archival.ArchivalClient
-import evaka.core.s3.Document
+import evaka.core.s3.DocumentStream
 
 class SärmäMockClient : ArchivalClient {
     override fun putDocument(
-        documentContent: Document,
+        documentContent: DocumentStream,
         metadataXml: String,
         masterId: String,
         classId: String,
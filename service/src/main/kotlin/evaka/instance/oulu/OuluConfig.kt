@@ -28,6 +28,7 @@ import evaka.core.mealintegration.MealTypeMapper
 import evaka.core.shared.ArchiveProcessConfig
 import evaka.core.shared.ArchiveProcessType
 import evaka.core.shared.FeatureConfig
+import evaka.core.shared.async.AsyncJobPool
 import evaka.core.shared.async.AsyncJobRunner
 import evaka.core.shared.auth.PasswordConstraints
 import evaka.core.shared.auth.PasswordSpecification
@@ -56,6 +57,7 @@ import evaka.instance.oulu.payment.service.ProEPaymentGenerator
 import evaka.instance.oulu.security.OuluActionRuleMapping
 import evaka.instance.oulu.template.config.OuluTemplateProvider
 import evaka.instance.oulu.util.FinanceDateProvider
+import io.micrometer.core.instrument.MeterRegistry
 import io.opentelemetry.api.trace.Tracer
 import java.time.MonthDay
 import org.jdbi.v3.core.Jdbi
@@ -232,8 +234,18 @@ class OuluConfig {
         jdbi: Jdbi,
         tracer: Tracer,
         env: Environment,
+        ouluEnv: OuluEnv,
     ): AsyncJobRunner<OuluAsyncJob> =
-        AsyncJobRunner(OuluAsyncJob::class, listOf(OuluAsyncJob.pool), jdbi, tracer)
+        AsyncJobRunner(
+            OuluAsyncJob::class,
+            listOf(
+                OuluAsyncJob.pool.withConfig(
+                    AsyncJobPool.Config(concurrency = ouluEnv.biExport.tableConcurrency)
+                )
+            ),
+            jdbi,
+            tracer,
+        )
 
     @Bean fun evakaOuluDWJob(dwExportClient: DwExportClient) = DwExportJob(dwExportClient)
 
@@ -242,10 +254,21 @@ class OuluConfig {
         OuluBiSftpExportClient(SftpClient(ouluEnv.fabric.sftp, ouluEnv.fabric.remotePath))
 
     @Bean
-    fun ouluBiJob(biExportClient: BiExportClient): BiExportJob =
+    fun ouluBiJob(
+        biExportClient: BiExportClient,
+        ouluEnv: OuluEnv,
+        meterRegistry: MeterRegistry,
+    ): BiExportJob =
         BiExportJob(
             biExportClient,
-            BiExportConfig(includePII = false, includeLegacyColumns = false, deltaWindowDays = 730),
+            BiExportConfig(
+                includePII = false,
+                includeLegacyColumns = false,
+                deltaWindowDays = 730,
+                chunkParallelism = ouluEnv.biExport.chunkParallelism,
+                fullSnapshotInterval = ouluEnv.biExport.fullSnapshotInterval,
+            ),
+            meterRegistry,
         )
 
     @Bean
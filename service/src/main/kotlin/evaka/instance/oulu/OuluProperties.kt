@@ -7,6 +7,7 @@ package evaka.instance.oulu
 import evaka.core.Sensitive
 import evaka.core.SftpEnv
 import evaka.core.lookup
+import java.time.Duration
 import org.springframework.core.env.Environment
 
 data class OuluEnv(
@@ -15,6 +16,7 @@ data class OuluEnv(
     val bucket: BucketProperties,
     val dwExport: DwExportProperties,
     val fabric: FabricProperties,
+    val biExport: BiExportProperties = BiExportProperties(),
 ) {
     companion object {
         fun fromEnvironment(env: Environment) =
@@ -28,6 +30,7 @@ data class OuluEnv(
                         sftp = SftpProperties.fromEnvironment(env, "evakaoulu.dw_export.sftp"),
                     ),
                 fabric = FabricProperties.fromEnvironment(env),
+                biExport = BiExportProperties.fromEnvironment(env),
             )
     }
 }
@@ -68,6 +71,36 @@ data class BucketProperties(val export: String) {
 
 data class DwExportProperties(val prefix: String, val sftp: SftpProperties)
 
+data class BiExportProperties(
+    /**
+     * Maximum number of BI tables exported concurrently. DW queries run in the same async job pool,
+     * so this limits them too.
+     */
+    val tableConcurrency: Int = 1,
+    /** Number of connections used to read a single large BI table in parallel chunks */
+    val chunkParallelism: Int = 1,
+    /**
+     * If set, large BI tables are exported incrementally with a full snapshot at most this often
+     */
+    val fullSnapshotInterval: Duration? = null,
+) {
+    companion object {
+        fun fromEnvironment(env: Environment): BiExportProperties {
+            val defaults = BiExportProperties()
+            return BiExportProperties(
+                tableConcurrency =
+                    env.lookup<Int?>("evakaoulu.bi_export.table_concurrency")
+                        ?: defaults.tableConcurrency,
+                chunkParallelism =
+                    env.lookup<Int?>("evakaoulu.bi_export.chunk_parallelism")
+                        ?: defaults.chunkParallelism,
+                fullSnapshotInterval =
+                    env.lookup<Duration?>("evakaoulu.bi_export.full_snapshot_interval"),
+            )
+        }
+    }
+}
+
 data class FabricProperties(val sftp: SftpEnv, val remotePath: String) {
     companion object {
         fun fromEnvironment(env: Environment) =
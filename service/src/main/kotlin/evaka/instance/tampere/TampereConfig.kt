@@ -20,6 +20,7 @@ import evaka.core.shared.ArchiveProcessConfig
 import evaka.core.shared.ArchiveProcessType
 import evaka.core.shared.FeatureConfig
 import evaka.core.shared.async.AsyncJob
+import evaka.core.shared.async.AsyncJobPool
 import evaka.core.shared.async.AsyncJobRunner
 import evaka.core.shared.auth.PasswordConstraints
 import evaka.core.shared.auth.PasswordSpecification
@@ -39,6 +40,7 @@ import evaka.trevaka.frends.newFrendsHttpClient
 import evaka.trevaka.security.TrevakaActionRuleMapping
 import evaka.trevaka.titania.TrimStartTitaniaEmployeeIdConverter
 import evaka.trevaka.tomcat.tomcatAccessLoggingCustomizer
+import io.micrometer.core.instrument.MeterRegistry
 import io.opentelemetry.api.trace.Tracer
 import java.time.Duration
 import java.time.MonthDay
@@ -146,14 +148,35 @@ class TampereConfig {
         jdbi: Jdbi,
         tracer: Tracer,
         env: Environment,
+        properties: TampereProperties,
     ): AsyncJobRunner<TampereAsyncJob> =
-        AsyncJobRunner(TampereAsyncJob::class, listOf(TampereAsyncJob.pool), jdbi, tracer)
+        AsyncJobRunner(
+            TampereAsyncJob::class,
+            listOf(
+                TampereAsyncJob.pool.withConfig(
+                    AsyncJobPool.Config(concurrency = properties.biExport.tableConcurrency)
+                )
+            ),
+            jdbi,
+            tracer,
+        )
 
     @Bean
-    fun tampereBiJob(biExportClient: BiExportClient): BiExportJob =
+    fun tampereBiJob(
+        biExportClient: BiExportClient,
+        properties: TampereProperties,
+        meterRegistry: MeterRegistry,
+    ): BiExportJob =
         BiExportJob(
             biExportClient,
-            BiExportConfig(includePII = true, includeLegacyColumns = true, deltaWindowDays = 60),
+            BiExportConfig(
+                includePII = true,
+                includeLegacyColumns = true,
+                deltaWindowDays = 60,
+                chunkParallelism = properties.biExport.chunkParallelism,
+                fullSnapshotInterval = properties.biExport.fullSnapshotInterval,
+            ),
+            meterRegistry,
         )
 
     @Bean
@@ -5,6 +5,7 @@
 package evaka.instance.tampere
 
 import evaka.trevaka.frends.FrendsArchivalProperties
+import java.time.Duration
 import java.time.Month
 import org.springframework.boot.context.properties.ConfigurationProperties
 
@@ -40,7 +41,17 @@ data class BucketProperties(val export: String) {
     fun allBuckets() = listOf(export)
 }
 
-data class BiExportProperties(val prefix: String)
+data class BiExportProperties(
+    val prefix: String,
+    /** Maximum number of BI tables exported concurrently */
+    val tableConcurrency: Int = 1,
+    /** Number of connections used to read a single large BI table in parallel chunks */
+    val chunkParallelism: Int = 1,
+    /**
+     * If set, large BI tables are exported incrementally with a full snapshot at most this often
+     */
+    val fullSnapshotInterval: Duration? = null,
+)
 
 data class ArchivalProperties(
     val baseUrl: String,
@@ -7,7 +7,7 @@ package evaka.instance.tampere.archival
 import com.profium.reception._2022._03.Collections
 import com.profium.sahke2.Agent
 import evaka.core.document.childdocument.ChildDocumentDetails
-import evaka.core.s3.Document
+import evaka.core.s3.DocumentStream
 import evaka.trevaka.archival.status
 import evaka.trevaka.jaxb.localDateToXMLGregorianCalendar
 import java.time.LocalDate
@@ -15,10 +15,10 @@ import org.apache.tika.mime.MimeTypes
 
 internal fun transform(
     childDocumentDetails: ChildDocumentDetails,
-    document: Document,
+    document: DocumentStream,
     ownerDetails: OwnerDetails,
     authorDetails: List<AuthorDetails>,
-): Pair<Collections.Collection, Map<String, Document>> {
+): Pair<Collections.Collection, Map<String, DocumentStream>> {
     val originalId = childDocumentDetails.id.toString()
     val publicationDate =
         childDocumentDetails.publishedAt?.toLocalDate()?.let { localDateToXMLGregorianCalendar(it) }
@@ -16,8 +16,9 @@ import evaka.core.document.childdocument.ChildDocumentDetails
 import evaka.core.invoicing.domain.FeeDecisionDetailed
 import evaka.core.invoicing.domain.VoucherValueDecisionDetailed
 import evaka.core.pis.service.PersonDTO
-import evaka.core.s3.Document
+import evaka.core.s3.DocumentStream
 import evaka.core.shared.ChildDocumentId
+import evaka.core.shared.utils.streamRequestBody
 import evaka.core.user.EvakaUser
 import evaka.core.user.EvakaUserType
 import evaka.instance.tampere.ArchivalProperties
@@ -51,7 +52,7 @@ class TampereArchivalClient(
         caseProcess: CaseProcess,
         child: PersonDTO,
         decision: Decision,
-        document: Document,
+        document: DocumentStream,
         user: EvakaUser,
     ): String? {
         val (collection, content) = transform(caseProcess, decision, document, child)
@@ -62,7 +63,7 @@ class TampereArchivalClient(
     override fun uploadFeeDecisionToArchive(
         caseProcess: CaseProcess,
         decision: FeeDecisionDetailed,
-        document: Document,
+        document: DocumentStream,
         user: EvakaUser,
     ): String? {
         val (collection, content) = transform(caseProcess, decision, document)
@@ -73,7 +74,7 @@ class TampereArchivalClient(
     override fun uploadVoucherValueDecisionToArchive(
         caseProcess: CaseProcess,
         decision: VoucherValueDecisionDetailed,
-        document: Document,
+        document: DocumentStream,
         user: EvakaUser,
     ): String? {
         val (collection, content) = transform(caseProcess, decision, document)
@@ -87,7 +88,7 @@ class TampereArchivalClient(
         childInfo: PersonDTO,
         childDocumentDetails: ChildDocumentDetails,
         documentMetadata: DocumentMetadata,
-        documentContent: Document,
+        documentContent: DocumentStream,
         evakaUser: EvakaUser,
     ): String? {
         val ownerDetails =
@@ -113,11 +114,18 @@ class TampereArchivalClient(
                 }
         }
 
-    private fun postRecord(collections: Collections, content: Map<String, Document>): Success? {
+    private fun postRecord(
+        collections: Collections,
+        content: Map<String, DocumentStream>,
+    ): Success? {
         val xml = marshal(collections)
         val metadata = xml.toRequestBody("application/xml".toMediaType())
         val files = content.mapValues { (_, document) ->
-            document.bytes.toRequestBody(document.contentType.toMediaType())
+            streamRequestBody(
+                document.contentType.toMediaType(),
+                document.inputStream,
+                document.contentLength,
+            )
         }
         val body =
             MultipartBody.Builder()
@@ -9,7 +9,7 @@ import evaka.core.caseprocess.CaseProcess
 import evaka.core.decision.Decision
 import evaka.core.decision.DecisionType
 import evaka.core.pis.service.PersonDTO
-import evaka.core.s3.Document
+import evaka.core.s3.DocumentStream
 import evaka.trevaka.archival.status
 import evaka.trevaka.jaxb.localDateToXMLGregorianCalendar
 import org.apache.tika.mime.MimeTypes
@@ -17,9 +17,9 @@ import org.apache.tika.mime.MimeTypes
 internal fun transform(
     caseProcess: CaseProcess,
     decision: Decision,
-    document: Document,
+    document: DocumentStream,
     child: PersonDTO,
-): Pair<Collections.Collection, Map<String, Document>> {
+): Pair<Collections.Collection, Map<String, DocumentStream>> {
     val originalId = decision.id.toString()
     val title = title(decision)
     val decisionSentDate =
@@ -7,7 +7,7 @@ package evaka.instance.tampere.archival
 import com.profium.reception._2022._03.Collections
 import evaka.core.caseprocess.CaseProcess
 import evaka.core.invoicing.domain.FeeDecisionDetailed
-import evaka.core.s3.Document
+import evaka.core.s3.DocumentStream
 import evaka.trevaka.archival.status
 import evaka.trevaka.jaxb.localDateToXMLGregorianCalendar
 import org.apache.tika.mime.MimeTypes
@@ -15,8 +15,8 @@ import org.apache.tika.mime.MimeTypes
 internal fun transform(
     caseProcess: CaseProcess,
     feeDecision: FeeDecisionDetailed,
-    document: Document,
-): Pair<Collections.Collection, Map<String, Document>> {
+    document: DocumentStream,
+): Pair<Collections.Collection, Map<String, DocumentStream>> {
     val originalId = feeDecision.id.toString()
     val decisionApprovalDate =
         feeDecision.approvedAt?.let { localDateToXMLGregorianCalendar(it.toLocalDate()) }
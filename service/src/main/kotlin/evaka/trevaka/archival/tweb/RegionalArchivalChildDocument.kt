@@ -8,17 +8,17 @@ import com.profium.reception._2022._03.Collections
 import evaka.core.caseprocess.CaseProcess
 import evaka.core.document.childdocument.ChildDocumentDetails
 import evaka.core.pis.service.PersonDTO
-import evaka.core.s3.Document
+import evaka.core.s3.DocumentStream
 import evaka.trevaka.archival.status
 import evaka.trevaka.jaxb.localDateToXMLGregorianCalendar
 import org.apache.tika.mime.MimeTypes
 
 internal fun transformChildDocument(
     childDocumentDetails: ChildDocumentDetails,
-    document: Document,
+    document: DocumentStream,
     childInfo: PersonDTO,
     caseProcess: CaseProcess,
-): Pair<Collections.Collection, Map<String, Document>> {
+): Pair<Collections.Collection, Map<String, DocumentStream>> {
     val originalId = childDocumentDetails.id.toString()
     return Collections.Collection().apply {
         type = "record"
@@ -9,7 +9,7 @@ import evaka.core.caseprocess.CaseProcess
 import evaka.core.decision.Decision
 import evaka.core.decision.DecisionType
 import evaka.core.pis.service.PersonDTO
-import evaka.core.s3.Document
+import evaka.core.s3.DocumentStream
 import evaka.core.shared.ArchiveProcessType
 import evaka.core.shared.FeatureConfig
 import evaka.trevaka.archival.status
@@ -19,10 +19,10 @@ import org.apache.tika.mime.MimeTypes
 internal fun transformDecision(
     caseProcess: CaseProcess,
     decision: Decision,
-    document: Document,
+    document: DocumentStream,
     child: PersonDTO,
     featureConfig: FeatureConfig,
-): Pair<Collections.Collection, Map<String, Document>> {
+): Pair<Collections.Collection, Map<String, DocumentStream>> {
     val originalId = decision.id.toString()
     return Collections.Collection().apply {
         type = "record"
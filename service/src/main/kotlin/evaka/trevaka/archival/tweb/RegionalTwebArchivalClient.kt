@@ -18,7 +18,7 @@ import evaka.core.invoicing.domain.FeeDecisionDetailed
 import evaka.core.invoicing.domain.PersonDetailed
 import evaka.core.invoicing.domain.VoucherValueDecisionDetailed
 import evaka.core.pis.service.PersonDTO
-import evaka.core.s3.Document
+import evaka.core.s3.DocumentStream
 import evaka.core.shared.ChildDocumentId
 import evaka.core.shared.FeatureConfig
 import evaka.core.shared.sftp.SftpClient
@@ -46,7 +46,7 @@ class RegionalTwebArchivalClient(
         caseProcess: CaseProcess,
         child: PersonDTO,
         decision: Decision,
-        document: Document,
+        document: DocumentStream,
         user: EvakaUser,
     ): String {
         val (collection, content) =
@@ -58,7 +58,7 @@ class RegionalTwebArchivalClient(
     override fun uploadFeeDecisionToArchive(
         caseProcess: CaseProcess,
         decision: FeeDecisionDetailed,
-        document: Document,
+        document: DocumentStream,
         user: EvakaUser,
     ): String {
         val (collection, content) = transformFeeDecision(caseProcess, decision, document)
@@ -69,7 +69,7 @@ class RegionalTwebArchivalClient(
     override fun uploadVoucherValueDecisionToArchive(
         caseProcess: CaseProcess,
         decision: VoucherValueDecisionDetailed,
-        document: Document,
+        document: DocumentStream,
         user: EvakaUser,
     ): String {
         val (collection, content) = transformVoucherDecision(caseProcess, decision, document)
@@ -83,7 +83,7 @@ class RegionalTwebArchivalClient(
         childInfo: PersonDTO,
         childDocumentDetails: ChildDocumentDetails,
         documentMetadata: DocumentMetadata,
-        documentContent: Document,
+        documentContent: DocumentStream,
         evakaUser: EvakaUser,
     ): String {
         val (collection, content) =
@@ -107,27 +107,30 @@ class RegionalTwebArchivalClient(
                 }
         }
 
-    private fun postRecord(collections: Collections, content: Map<String, Document>): String {
+    private fun postRecord(
+        collections: Collections,
+        content: Map<String, DocumentStream>,
+    ): String {
         val xml = marshal(collections)
-        collections.collection
-            .first()
-            .content
-            .file
-            .map { file ->
+        val files =
+            collections.collection.first().content.file.map { file ->
                 Pair(
                     file,
                     content[file.originalId]
                         ?: error("Metadata to content mismatch for ${file.originalId}"),
                 )
             }
-            .forEach { (meta, content) ->
-                content.bytes.inputStream().use {
-                    client.put(it, "${properties.sftp.prefix}${meta.name}")
+        // All files of the record are uploaded in one SFTP session
+        client.session { session ->
+            files.forEach { (meta, content) ->
+                content.inputStream.use {
+                    session.put(it, "${properties.sftp.prefix}${meta.name}")
                 }
                 xml.byteInputStream().use {
-                    client.put(it, "${properties.sftp.prefix}${meta.originalId}.xml")
+                    session.put(it, "${properties.sftp.prefix}${meta.originalId}.xml")
                 }
             }
+        }
 
         return "static-sftp-response"
     }
@@ -0,0 +1,4 @@
+-- NULL: a thumbnail has not been generated yet, FALSE: the image could not be thumbnailed
+ALTER TABLE child_images ADD COLUMN has_thumbnail boolean;
+
+CREATE INDEX idx$child_images_thumbnail_pending ON child_images (created) WHERE has_thumbnail IS NULL;
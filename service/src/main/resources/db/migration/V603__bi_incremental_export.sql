@@ -0,0 +1,54 @@
+-- Incremental BI export state per exported BI table
+CREATE TABLE bi_export_state (
+    bi_table text PRIMARY KEY,
+    source_table text NOT NULL,
+    -- NULL until the first export of the table has completed
+    high_water_mark timestamp with time zone,
+    last_full_export_at timestamp with time zone
+);
+
+CREATE INDEX idx$bi_export_state_source_table ON bi_export_state (source_table);
+
+-- Tombstones of rows deleted from tables that are exported incrementally
+CREATE TABLE bi_deleted_row (
+    source_table text NOT NULL,
+    id uuid NOT NULL,
+    deleted_at timestamp with time zone NOT NULL DEFAULT now()
+);
+
+CREATE INDEX idx$bi_deleted_row_source_table_deleted_at ON bi_deleted_row (source_table, deleted_at);
+
+-- Deletions are only recorded once an incremental export of the table has been started, so
+-- instances that don't use incremental BI exports don't accumulate tombstones
+CREATE FUNCTION trigger_bi_record_deleted_rows() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    IF EXISTS (SELECT FROM bi_export_state WHERE source_table = TG_TABLE_NAME) THEN
+        INSERT INTO bi_deleted_row (source_table, id)
+        SELECT TG_TABLE_NAME, id FROM deleted_rows;
+    END IF;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER bi_record_deleted_rows AFTER DELETE ON person
+    REFERENCING OLD TABLE AS deleted_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_bi_record_deleted_rows();
+CREATE TRIGGER bi_record_deleted_rows AFTER DELETE ON application
+    REFERENCING OLD TABLE AS deleted_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_bi_record_deleted_rows();
+CREATE TRIGGER bi_record_deleted_rows AFTER DELETE ON placement
+    REFERENCING OLD TABLE AS deleted_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_bi_record_deleted_rows();
+CREATE TRIGGER bi_record_deleted_rows AFTER DELETE ON fee_decision
+    REFERENCING OLD TABLE AS deleted_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_bi_record_deleted_rows();
+CREATE TRIGGER bi_record_deleted_rows AFTER DELETE ON voucher_value_decision
+    REFERENCING OLD TABLE AS deleted_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_bi_record_deleted_rows();
+
+CREATE INDEX idx$person_updated ON person (updated);
+CREATE INDEX idx$application_updated_at ON application (updated_at);
+CREATE INDEX idx$placement_updated_at ON placement (updated_at);
+CREATE INDEX idx$fee_decision_updated ON fee_decision (updated);
+CREATE INDEX idx$voucher_value_decision_updated ON voucher_value_decision (updated);
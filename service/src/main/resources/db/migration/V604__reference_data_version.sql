@@ -0,0 +1,28 @@
+-- Version of each family of cached reference data, changed by every statement that modifies the
+-- family's table. A version combines the transaction id with a sequence value, so a version is
+-- never reused, even if the sequence is reset or the writing transaction rolls back.
+CREATE TABLE reference_data_version (
+    family text PRIMARY KEY,
+    version text NOT NULL
+);
+
+CREATE SEQUENCE reference_data_version_seq;
+
+CREATE FUNCTION trigger_bump_reference_data_version() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    INSERT INTO reference_data_version (family, version)
+    VALUES (TG_TABLE_NAME, pg_current_xact_id()::text || '.' || nextval('reference_data_version_seq'))
+    ON CONFLICT (family) DO UPDATE SET version = excluded.version;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER bump_reference_data_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON service_need_option
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_bump_reference_data_version();
+CREATE TRIGGER bump_reference_data_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON preschool_term
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_bump_reference_data_version();
+CREATE TRIGGER bump_reference_data_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON club_term
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_bump_reference_data_version();
+CREATE TRIGGER bump_reference_data_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON holiday_period
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_bump_reference_data_version();
@@ -0,0 +1,238 @@
+-- Unread received messages per account, folder and thread type. Inbox counts have folder_id NULL.
+-- Archive folders are counted too and filtered out by queries that don't want them.
+CREATE TABLE message_unread_count (
+    account_id uuid NOT NULL REFERENCES message_account (id) ON DELETE CASCADE,
+    folder_id uuid REFERENCES message_thread_folder (id) ON DELETE CASCADE,
+    is_copy boolean NOT NULL,
+    count integer NOT NULL
+);
+
+CREATE UNIQUE INDEX uniq$message_unread_count ON message_unread_count (account_id, folder_id, is_copy) NULLS NOT DISTINCT;
+CREATE INDEX idx$message_unread_count_folder ON message_unread_count (folder_id);
+
+-- The source of truth for message_unread_count
+CREATE VIEW message_unread_count_source AS
+SELECT mr.recipient_id AS account_id, mtp.folder_id, mt.is_copy, count(*)::integer AS count
+FROM message_recipients mr
+JOIN message m ON m.id = mr.message_id AND m.sent_at IS NOT NULL
+JOIN message_thread mt ON mt.id = m.thread_id
+JOIN message_thread_participant mtp ON mtp.thread_id = m.thread_id AND mtp.participant_id = mr.recipient_id
+WHERE mr.read_at IS NULL
+GROUP BY mr.recipient_id, mtp.folder_id, mt.is_copy;
+
+-- Recomputes the counts of the given accounts from the messages. Only used to fix drifted counts;
+-- the triggers below keep the counts up to date incrementally.
+CREATE FUNCTION refresh_message_unread_counts(accounts uuid[]) RETURNS void
+LANGUAGE sql AS $$
+    UPDATE message_unread_count SET count = 0 WHERE account_id = ANY(accounts) AND count <> 0;
+
+    INSERT INTO message_unread_count (account_id, folder_id, is_copy, count)
+    SELECT account_id, folder_id, is_copy, count
+    FROM message_unread_count_source
+    WHERE account_id = ANY(accounts)
+    ON CONFLICT (account_id, folder_id, is_copy) DO UPDATE SET count = excluded.count;
+$$;
+
+-- Adds the given deltas to the counts. Counts that drop to zero are kept as zero rows.
+--
+-- Deltas of accounts and folders that no longer exist are skipped: they come from rows that are
+-- being deleted by the cascade of the account or folder, and the cascade deletes the counts too.
+-- Rows are upserted in key order, so that concurrent transactions lock them in the same order.
+CREATE FUNCTION add_message_unread_counts(deltas message_unread_count[]) RETURNS void
+LANGUAGE sql AS $$
+    INSERT INTO message_unread_count AS c (account_id, folder_id, is_copy, count)
+    SELECT d.account_id, d.folder_id, d.is_copy, sum(d.count)
+    FROM unnest(deltas) d
+    WHERE EXISTS (SELECT FROM message_account acc WHERE acc.id = d.account_id)
+        AND (d.folder_id IS NULL OR EXISTS (SELECT FROM message_thread_folder mtf WHERE mtf.id = d.folder_id))
+    GROUP BY d.account_id, d.folder_id, d.is_copy
+    HAVING sum(d.count) <> 0
+    ORDER BY d.account_id, d.folder_id, d.is_copy
+    ON CONFLICT (account_id, folder_id, is_copy) DO UPDATE SET count = c.count + excluded.count;
+$$;
+
+-- Adds +1 or -1 for each unread (recipient, message) pair to the folder the recipient has the
+-- message's thread in
+CREATE FUNCTION add_message_recipient_unread_counts(recipients uuid[], messages uuid[], signs integer[]) RETURNS void
+LANGUAGE sql AS $$
+    SELECT add_message_unread_counts(array_agg((mtp.participant_id, mtp.folder_id, mt.is_copy, d.sign)::message_unread_count))
+    FROM unnest(recipients, messages, signs) d(recipient_id, message_id, sign)
+    JOIN message m ON m.id = d.message_id AND m.sent_at IS NOT NULL
+    JOIN message_thread mt ON mt.id = m.thread_id
+    JOIN message_thread_participant mtp ON mtp.thread_id = m.thread_id AND mtp.participant_id = d.recipient_id;
+$$;
+
+-- The triggers below turn each change into deltas of the counts. A delta is computed from the
+-- changed rows and the current state of the other tables, which the same statement hasn't changed.
+-- Deletes of messages and threads are handled before the row is deleted, because the cascaded
+-- deletes of their recipients and participants can't see them anymore afterwards.
+
+CREATE FUNCTION trigger_message_recipients_unread_count() RETURNS trigger
+LANGUAGE plpgsql AS $$
+DECLARE
+    recipients uuid[];
+    messages uuid[];
+    signs integer[];
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        SELECT array_agg(recipient_id), array_agg(message_id), array_agg(1)
+        INTO recipients, messages, signs
+        FROM new_rows WHERE read_at IS NULL;
+    ELSIF TG_OP = 'DELETE' THEN
+        SELECT array_agg(recipient_id), array_agg(message_id), array_agg(-1)
+        INTO recipients, messages, signs
+        FROM old_rows WHERE read_at IS NULL;
+    ELSE
+        SELECT array_agg(d.recipient_id), array_agg(d.message_id), array_agg(d.sign)
+        INTO recipients, messages, signs
+        FROM old_rows o
+        JOIN new_rows n ON n.id = o.id
+        CROSS JOIN LATERAL (
+            SELECT o.recipient_id, o.message_id, -1 WHERE o.read_at IS NULL
+            UNION ALL
+            SELECT n.recipient_id, n.message_id, 1 WHERE n.read_at IS NULL
+        ) d(recipient_id, message_id, sign)
+        WHERE (o.read_at IS NULL) <> (n.read_at IS NULL)
+            OR o.recipient_id <> n.recipient_id
+            OR o.message_id <> n.message_id;
+    END IF;
+
+    IF recipients IS NOT NULL THEN
+        PERFORM add_message_recipient_unread_counts(recipients, messages, signs);
+    END IF;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER message_unread_count AFTER INSERT ON message_recipients
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_message_recipients_unread_count();
+CREATE TRIGGER message_unread_count_update AFTER UPDATE ON message_recipients
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_message_recipients_unread_count();
+CREATE TRIGGER message_unread_count_delete AFTER DELETE ON message_recipients
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_message_recipients_unread_count();
+
+-- Deltas of the unread recipients of the given messages, as if the messages had the given sent
+-- time and thread
+CREATE FUNCTION message_unread_count_deltas(messages message[], sign integer) RETURNS message_unread_count[]
+LANGUAGE sql STABLE AS $$
+    SELECT array_agg((mtp.participant_id, mtp.folder_id, mt.is_copy, sign)::message_unread_count)
+    FROM unnest(messages) m
+    JOIN message_recipients mr ON mr.message_id = m.id AND mr.read_at IS NULL
+    JOIN message_thread mt ON mt.id = m.thread_id
+    JOIN message_thread_participant mtp ON mtp.thread_id = m.thread_id AND mtp.participant_id = mr.recipient_id
+    WHERE m.sent_at IS NOT NULL;
+$$;
+
+CREATE FUNCTION trigger_message_unread_count() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM add_message_unread_counts(message_unread_count_deltas(ARRAY[OLD], -1));
+        RETURN OLD;
+    END IF;
+
+    PERFORM add_message_unread_counts(
+        message_unread_count_deltas(array_agg(o), -1) || message_unread_count_deltas(array_agg(n), 1)
+    )
+    FROM old_rows o
+    JOIN new_rows n ON n.id = o.id
+    WHERE (o.sent_at IS NULL) <> (n.sent_at IS NULL) OR o.thread_id <> n.thread_id
+    HAVING count(*) > 0;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER message_unread_count_update AFTER UPDATE ON message
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_message_unread_count();
+CREATE TRIGGER message_unread_count_delete BEFORE DELETE ON message
+    FOR EACH ROW EXECUTE FUNCTION trigger_message_unread_count();
+
+-- Deltas of the unread messages the given participants have received in their threads, as if
+-- the participants had the given folders
+CREATE FUNCTION message_thread_participant_unread_count_deltas(participants message_thread_participant[], sign integer) RETURNS message_unread_count[]
+LANGUAGE sql STABLE AS $$
+    SELECT array_agg((mtp.participant_id, mtp.folder_id, mt.is_copy, sign)::message_unread_count)
+    FROM unnest(participants) mtp
+    JOIN message_thread mt ON mt.id = mtp.thread_id
+    JOIN message m ON m.thread_id = mtp.thread_id AND m.sent_at IS NOT NULL
+    JOIN message_recipients mr ON mr.message_id = m.id AND mr.recipient_id = mtp.participant_id
+    WHERE mr.read_at IS NULL;
+$$;
+
+CREATE FUNCTION trigger_message_thread_participant_unread_count() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        PERFORM add_message_unread_counts(message_thread_participant_unread_count_deltas(array_agg(n), 1))
+        FROM new_rows n;
+    ELSIF TG_OP = 'DELETE' THEN
+        PERFORM add_message_unread_counts(message_thread_participant_unread_count_deltas(array_agg(o), -1))
+        FROM old_rows o;
+    ELSE
+        -- Most updates only touch the message timestamps, which don't affect the counts
+        PERFORM add_message_unread_counts(
+            message_thread_participant_unread_count_deltas(array_agg(o), -1)
+                || message_thread_participant_unread_count_deltas(array_agg(n), 1)
+        )
+        FROM old_rows o
+        JOIN new_rows n ON n.id = o.id
+        WHERE o.folder_id IS DISTINCT FROM n.folder_id
+            OR o.participant_id <> n.participant_id
+            OR o.thread_id <> n.thread_id
+        HAVING count(*) > 0;
+    END IF;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER message_unread_count AFTER INSERT ON message_thread_participant
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_message_thread_participant_unread_count();
+CREATE TRIGGER message_unread_count_update AFTER UPDATE ON message_thread_participant
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_message_thread_participant_unread_count();
+CREATE TRIGGER message_unread_count_delete AFTER DELETE ON message_thread_participant
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_message_thread_participant_unread_count();
+
+-- Deltas of all unread messages of the given threads, as if the threads had the given type
+CREATE FUNCTION message_thread_unread_count_deltas(threads message_thread[], sign integer) RETURNS message_unread_count[]
+LANGUAGE sql STABLE AS $$
+    SELECT array_agg((mtp.participant_id, mtp.folder_id, mt.is_copy, sign)::message_unread_count)
+    FROM unnest(threads) mt
+    JOIN message m ON m.thread_id = mt.id AND m.sent_at IS NOT NULL
+    JOIN message_recipients mr ON mr.message_id = m.id AND mr.read_at IS NULL
+    JOIN message_thread_participant mtp ON mtp.thread_id = mt.id AND mtp.participant_id = mr.recipient_id;
+$$;
+
+CREATE FUNCTION trigger_message_thread_unread_count() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM add_message_unread_counts(message_thread_unread_count_deltas(ARRAY[OLD], -1));
+        RETURN OLD;
+    END IF;
+
+    PERFORM add_message_unread_counts(
+        message_thread_unread_count_deltas(array_agg(o), -1) || message_thread_unread_count_deltas(array_agg(n), 1)
+    )
+    FROM old_rows o
+    JOIN new_rows n ON n.id = o.id
+    WHERE o.is_copy <> n.is_copy
+    HAVING count(*) > 0;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER message_unread_count_update AFTER UPDATE ON message_thread
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_message_thread_unread_count();
+CREATE TRIGGER message_unread_count_delete BEFORE DELETE ON message_thread
+    FOR EACH ROW EXECUTE FUNCTION trigger_message_thread_unread_count();
+
+INSERT INTO message_unread_count (account_id, folder_id, is_copy, count)
+SELECT account_id, folder_id, is_copy, count FROM message_unread_count_source;
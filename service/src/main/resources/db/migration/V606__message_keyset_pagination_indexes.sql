@@ -0,0 +1,11 @@
+-- Thread listings are ordered by (last_message_timestamp, thread_id) within a folder, so pages after
+-- a cursor are found with an index range scan
+CREATE INDEX idx$thread_participant_folder_message
+    ON message_thread_participant (participant_id, folder_id, last_message_timestamp, thread_id);
+DROP INDEX idx$thread_participant_message;
+
+-- Sent message listings are ordered by the sent timestamp, or creation timestamp until the message
+-- has been sent, and content
+CREATE INDEX idx$message_sender_sent_content
+    ON message (sender_id, (COALESCE(sent_at, created)), content_id);
+DROP INDEX idx$message_sender_id;
@@ -0,0 +1,257 @@
+CREATE TYPE child_acl_via AS ENUM ('PLACEMENT', 'BACKUP_CARE', 'APPLICATION');
+
+-- Roles of employees in the units of children, used by child-level access control checks.
+-- Access via placements and backup cares ends a month after their end date, so those rows store
+-- the first date without access. Access via applications has no end date. Expired rows are kept
+-- so that the access is decided by the application clock at query time, and a nightly job deletes
+-- rows that expired long ago.
+CREATE TABLE employee_child_acl (
+    employee_id uuid NOT NULL,
+    child_id uuid NOT NULL,
+    unit_id uuid NOT NULL,
+    role user_role NOT NULL,
+    via child_acl_via NOT NULL,
+    access_until date,
+    PRIMARY KEY (employee_id, child_id, unit_id, role, via)
+);
+
+CREATE INDEX idx$employee_child_acl_unit_child ON employee_child_acl (unit_id, child_id);
+
+-- The source of truth for employee_child_acl
+CREATE VIEW employee_child_acl_source AS
+SELECT acl.employee_id, pl.child_id, pl.unit_id, acl.role, 'PLACEMENT'::child_acl_via AS via,
+    (max(pl.end_date) + INTERVAL '1 month')::date AS access_until
+FROM placement pl
+JOIN daycare_acl acl ON pl.unit_id = acl.daycare_id
+GROUP BY acl.employee_id, pl.child_id, pl.unit_id, acl.role
+UNION ALL
+SELECT acl.employee_id, bc.child_id, bc.unit_id, acl.role, 'BACKUP_CARE'::child_acl_via AS via,
+    (max(bc.end_date) + INTERVAL '1 month')::date AS access_until
+FROM backup_care bc
+JOIN daycare_acl acl ON bc.unit_id = acl.daycare_id
+GROUP BY acl.employee_id, bc.child_id, bc.unit_id, acl.role
+UNION ALL
+SELECT acl.employee_id, a.child_id, pp.unit_id, acl.role, 'APPLICATION'::child_acl_via AS via,
+    NULL::date AS access_until
+FROM placement_plan pp
+JOIN application a ON pp.application_id = a.id
+JOIN daycare_acl acl ON pp.unit_id = acl.daycare_id
+WHERE a.status = ANY ('{SENT,WAITING_PLACEMENT,WAITING_CONFIRMATION,WAITING_DECISION,WAITING_MAILING,WAITING_UNIT_CONFIRMATION}'::application_status_type[])
+AND NOT (acl.role = 'SPECIAL_EDUCATION_TEACHER' AND coalesce((a.document -> 'careDetails' ->> 'assistanceNeeded')::boolean, FALSE) IS FALSE)
+GROUP BY acl.employee_id, a.child_id, pp.unit_id, acl.role;
+
+-- Recomputes the rows of the given (unit, child) and (unit, employee) pairs. Every pair has either
+-- a child or an employee, and unnest pads a shorter array with NULLs. All rows of a unit depend on
+-- the placements and the ACL of that unit only, so concurrent refreshes of the same unit wait for
+-- each other, and the refresh that runs last always sees the changes of the earlier ones.
+CREATE FUNCTION refresh_employee_child_acl(units uuid[], children uuid[], employees uuid[])
+RETURNS void
+LANGUAGE plpgsql AS $$
+BEGIN
+    PERFORM pg_advisory_xact_lock(key)
+    FROM (
+        SELECT DISTINCT hashtextextended('employee_child_acl:' || unit_id::text, 0) AS key
+        FROM unnest(units) AS unit_id
+        ORDER BY key
+    ) keys;
+
+    DELETE FROM employee_child_acl acl
+    WHERE acl.unit_id = ANY(units)
+    AND EXISTS (
+        SELECT FROM unnest(units, children, employees) AS stale(unit_id, child_id, employee_id)
+        WHERE stale.unit_id = acl.unit_id
+        AND (stale.child_id = acl.child_id OR stale.employee_id = acl.employee_id)
+    );
+
+    INSERT INTO employee_child_acl (employee_id, child_id, unit_id, role, via, access_until)
+    SELECT src.employee_id, src.child_id, src.unit_id, src.role, src.via, src.access_until
+    FROM employee_child_acl_source src
+    WHERE src.unit_id = ANY(units)
+    AND EXISTS (
+        SELECT FROM unnest(units, children, employees) AS stale(unit_id, child_id, employee_id)
+        WHERE stale.unit_id = src.unit_id
+        AND (stale.child_id = src.child_id OR stale.employee_id = src.employee_id)
+    );
+END
+$$;
+
+-- Pairs invalidated by the current transaction. The rows are refreshed and the pairs deleted when
+-- the transaction commits.
+CREATE TABLE employee_child_acl_stale (
+    xact_id xid8 NOT NULL DEFAULT pg_current_xact_id(),
+    unit_id uuid NOT NULL,
+    child_id uuid,
+    employee_id uuid,
+    CHECK ((child_id IS NULL) <> (employee_id IS NULL))
+);
+
+CREATE UNIQUE INDEX uniq$employee_child_acl_stale
+    ON employee_child_acl_stale (xact_id, unit_id, child_id, employee_id) NULLS NOT DISTINCT;
+
+CREATE FUNCTION trigger_refresh_stale_employee_child_acl() RETURNS trigger
+LANGUAGE plpgsql AS $$
+DECLARE
+    units uuid[];
+    children uuid[];
+    employees uuid[];
+BEGIN
+    WITH stale AS (
+        DELETE FROM employee_child_acl_stale
+        WHERE xact_id = pg_current_xact_id()
+        RETURNING unit_id, child_id, employee_id
+    )
+    SELECT array_agg(unit_id), array_agg(child_id), array_agg(employee_id)
+    INTO units, children, employees
+    FROM stale;
+
+    -- Only the first trigger invocation of a transaction finds stale rows
+    IF units IS NOT NULL THEN
+        PERFORM refresh_employee_child_acl(units, children, employees);
+    END IF;
+    RETURN NULL;
+END
+$$;
+
+CREATE CONSTRAINT TRIGGER refresh_employee_child_acl AFTER INSERT ON employee_child_acl_stale
+    DEFERRABLE INITIALLY DEFERRED
+    FOR EACH ROW EXECUTE FUNCTION trigger_refresh_stale_employee_child_acl();
+
+-- Placements and backup cares have the same relevant columns
+CREATE FUNCTION trigger_child_placement_employee_child_acl_stale() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO employee_child_acl_stale (unit_id, child_id)
+        SELECT DISTINCT unit_id, child_id FROM new_rows
+        ON CONFLICT DO NOTHING;
+    ELSIF TG_OP = 'DELETE' THEN
+        INSERT INTO employee_child_acl_stale (unit_id, child_id)
+        SELECT DISTINCT unit_id, child_id FROM old_rows
+        ON CONFLICT DO NOTHING;
+    ELSE
+        INSERT INTO employee_child_acl_stale (unit_id, child_id)
+        SELECT DISTINCT stale.unit_id, stale.child_id
+        FROM old_rows o
+        JOIN new_rows n ON n.id = o.id
+        CROSS JOIN LATERAL (VALUES (o.unit_id, o.child_id), (n.unit_id, n.child_id)) stale(unit_id, child_id)
+        WHERE o.unit_id <> n.unit_id OR o.child_id <> n.child_id OR o.end_date <> n.end_date
+        ON CONFLICT DO NOTHING;
+    END IF;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER employee_child_acl_stale AFTER INSERT ON placement
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_child_placement_employee_child_acl_stale();
+CREATE TRIGGER employee_child_acl_stale_update AFTER UPDATE ON placement
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_child_placement_employee_child_acl_stale();
+CREATE TRIGGER employee_child_acl_stale_delete AFTER DELETE ON placement
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_child_placement_employee_child_acl_stale();
+
+CREATE TRIGGER employee_child_acl_stale AFTER INSERT ON backup_care
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_child_placement_employee_child_acl_stale();
+CREATE TRIGGER employee_child_acl_stale_update AFTER UPDATE ON backup_care
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_child_placement_employee_child_acl_stale();
+CREATE TRIGGER employee_child_acl_stale_delete AFTER DELETE ON backup_care
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_child_placement_employee_child_acl_stale();
+
+CREATE FUNCTION trigger_placement_plan_employee_child_acl_stale() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO employee_child_acl_stale (unit_id, child_id)
+        SELECT DISTINCT n.unit_id, a.child_id
+        FROM new_rows n
+        JOIN application a ON a.id = n.application_id
+        ON CONFLICT DO NOTHING;
+    ELSIF TG_OP = 'DELETE' THEN
+        INSERT INTO employee_child_acl_stale (unit_id, child_id)
+        SELECT DISTINCT o.unit_id, a.child_id
+        FROM old_rows o
+        JOIN application a ON a.id = o.application_id
+        ON CONFLICT DO NOTHING;
+    ELSE
+        INSERT INTO employee_child_acl_stale (unit_id, child_id)
+        SELECT DISTINCT stale.unit_id, a.child_id
+        FROM old_rows o
+        JOIN new_rows n ON n.id = o.id
+        CROSS JOIN LATERAL (VALUES (o.unit_id, o.application_id), (n.unit_id, n.application_id)) stale(unit_id, application_id)
+        JOIN application a ON a.id = stale.application_id
+        WHERE o.unit_id <> n.unit_id OR o.application_id <> n.application_id
+        ON CONFLICT DO NOTHING;
+    END IF;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER employee_child_acl_stale AFTER INSERT ON placement_plan
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_placement_plan_employee_child_acl_stale();
+CREATE TRIGGER employee_child_acl_stale_update AFTER UPDATE ON placement_plan
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_placement_plan_employee_child_acl_stale();
+CREATE TRIGGER employee_child_acl_stale_delete AFTER DELETE ON placement_plan
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_placement_plan_employee_child_acl_stale();
+
+-- Placement plans must be deleted before their application, so only updates of applications
+-- affect the access
+CREATE FUNCTION trigger_application_employee_child_acl_stale() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    -- Most updates only touch the application form, which doesn't affect the access
+    INSERT INTO employee_child_acl_stale (unit_id, child_id)
+    SELECT DISTINCT pp.unit_id, stale.child_id
+    FROM old_rows o
+    JOIN new_rows n ON n.id = o.id
+    CROSS JOIN LATERAL (VALUES (o.child_id), (n.child_id)) stale(child_id)
+    JOIN placement_plan pp ON pp.application_id = n.id
+    WHERE o.status <> n.status
+        OR o.child_id <> n.child_id
+        OR (o.document -> 'careDetails' ->> 'assistanceNeeded') IS DISTINCT FROM (n.document -> 'careDetails' ->> 'assistanceNeeded')
+    ON CONFLICT DO NOTHING;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER employee_child_acl_stale_update AFTER UPDATE ON application
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_application_employee_child_acl_stale();
+
+-- daycare_acl rows have no id, so every row touched by an update is refreshed. The ACL changes
+-- rarely and the refresh is limited to the employee's rows in the unit.
+CREATE FUNCTION trigger_daycare_acl_employee_child_acl_stale() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        INSERT INTO employee_child_acl_stale (unit_id, employee_id)
+        SELECT DISTINCT daycare_id, employee_id FROM new_rows
+        ON CONFLICT DO NOTHING;
+    END IF;
+    IF TG_OP IN ('DELETE', 'UPDATE') THEN
+        INSERT INTO employee_child_acl_stale (unit_id, employee_id)
+        SELECT DISTINCT daycare_id, employee_id FROM old_rows
+        ON CONFLICT DO NOTHING;
+    END IF;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER employee_child_acl_stale AFTER INSERT ON daycare_acl
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_daycare_acl_employee_child_acl_stale();
+CREATE TRIGGER employee_child_acl_stale_update AFTER UPDATE ON daycare_acl
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_daycare_acl_employee_child_acl_stale();
+CREATE TRIGGER employee_child_acl_stale_delete AFTER DELETE ON daycare_acl
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION trigger_daycare_acl_employee_child_acl_stale();
+
+INSERT INTO employee_child_acl (employee_id, child_id, unit_id, role, via, access_until)
+SELECT employee_id, child_id, unit_id, role, via, access_until FROM employee_child_acl_source;
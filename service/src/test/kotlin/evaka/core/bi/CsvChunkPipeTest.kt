@@ -0,0 +1,55 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.bi
+
+import kotlin.concurrent.thread
+import kotlin.test.assertEquals
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+
+class CsvChunkPipeTest {
+    @Test
+    fun `records come out in chunk order with only the first header`() {
+        val pipe = CsvChunkPipe(chunkCount = 3, capacity = 1)
+        val writers =
+            listOf(2, 1, 0).map { chunk ->
+                thread { pipe.write(chunk, sequenceOf("header", "a$chunk", "b$chunk")) }
+            }
+
+        val records = pipe.records().toList()
+        writers.forEach { it.join() }
+
+        assertEquals(listOf("header", "a0", "b0", "a1", "b1", "a2", "b2"), records)
+    }
+
+    @Test
+    fun `a failed reader stops the consumer`() {
+        val pipe = CsvChunkPipe(chunkCount = 2)
+        val writer = thread {
+            runCatching {
+                pipe.write(0, sequence<String> { throw IllegalArgumentException("read failed") })
+            }
+        }
+
+        val e = assertThrows<IllegalStateException> { pipe.records().toList() }
+        writer.join()
+
+        assertEquals("read failed", e.cause?.message)
+    }
+
+    @Test
+    fun `a failed consumer stops the readers`() {
+        val pipe = CsvChunkPipe(chunkCount = 2, capacity = 1)
+        var error: Throwable? = null
+        val writer = thread {
+            error = runCatching { pipe.write(1, sequenceOf("header", "a", "b")) }.exceptionOrNull()
+        }
+
+        pipe.fail(RuntimeException("upload failed"))
+        writer.join()
+
+        assertEquals("upload failed", error?.cause?.message)
+    }
+}
@@ -0,0 +1,38 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.bi
+
+import java.util.UUID
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+import org.junit.jupiter.api.Test
+
+class UuidRangeTest {
+    @Test
+    fun `a single range covers the whole uuid space`() {
+        assertEquals(listOf(UuidRange.ALL), UuidRange.split(1))
+    }
+
+    @Test
+    fun `ranges are contiguous and ascending in unsigned order`() {
+        val ranges = UuidRange.split(6)
+
+        assertEquals(6, ranges.size)
+        assertNull(ranges.first().start)
+        assertNull(ranges.last().end)
+        ranges.zipWithNext().forEach { (a, b) -> assertEquals(a.end, b.start) }
+        val bounds = ranges.mapNotNull { it.end }.map { it.mostSignificantBits.toULong() }
+        assertEquals(bounds.sorted(), bounds)
+    }
+
+    @Test
+    fun `bounds above the signed long range are split correctly`() {
+        val ranges = UuidRange.split(2)
+
+        assertEquals(UUID.fromString("80000000-0000-0000-0000-000000000000"), ranges[0].end)
+        assertTrue(ranges[1].start!!.mostSignificantBits < 0)
+    }
+}
@@ -5,10 +5,14 @@
 package evaka.core.holidays
 
 import evaka.core.shared.domain.FiniteDateRange
+import evaka.core.shared.domain.OperationalCalendar
+import evaka.core.shared.domain.UnitOperationDays
 import evaka.core.shared.domain.getHolidays
+import evaka.core.shared.domain.isHoliday
 import java.time.LocalDate
 import kotlin.test.Test
 import kotlin.test.assertEquals
+import kotlin.test.assertTrue
 
 class HolidaysTest {
     @Test
@@ -58,4 +62,23 @@ class HolidaysTest {
             getHolidays(FiniteDateRange(LocalDate.of(2023, 1, 1), LocalDate.of(2023, 12, 31))),
         )
     }
+
+    @Test
+    fun `operational calendar matches operation days and holidays`() {
+        val range = FiniteDateRange(LocalDate.of(2024, 12, 20), LocalDate.of(2025, 1, 7))
+        val holidays = getHolidays(range)
+        val weekdays = UnitOperationDays.BUSINESS_DAYS
+        val everyDay = UnitOperationDays((1..7).toSet(), openOnHolidays = true)
+        val everyDayButHolidays = everyDay.copy(openOnHolidays = false)
+
+        range.dates().forEach { date ->
+            assertEquals(date.dayOfWeek.value <= 5 && date !in holidays, weekdays.isOpen(date))
+            assertTrue(everyDay.isOpen(date))
+            assertEquals(date !in holidays, everyDayButHolidays.isOpen(date))
+            assertEquals(date in holidays, isHoliday(date))
+        }
+    }
+
+    private fun UnitOperationDays.isOpen(date: LocalDate) =
+        OperationalCalendar.isOperational(this, date)
 }
@@ -0,0 +1,62 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.shared.db
+
+import kotlin.test.assertEquals
+import org.junit.jupiter.api.Test
+
+class CanonicalSqlTest {
+    @Test
+    fun `whitespace is collapsed and trimmed`() {
+        assertEquals(
+            "SELECT a, b FROM foo WHERE a = ? AND b::text = ?",
+            canonicalSql(
+                """
+    SELECT a,  b
+    FROM foo
+        WHERE a = ?	AND b::text = ?
+"""
+            ),
+        )
+    }
+
+    @Test
+    fun `comments are removed`() {
+        assertEquals(
+            "SELECT a FROM foo WHERE b",
+            canonicalSql(
+                """
+SELECT a -- the first column
+FROM foo /* a /* nested */ comment */
+WHERE b -- the condition
+"""
+            ),
+        )
+    }
+
+    @Test
+    fun `quoted text is kept as is`() {
+        val sql = """SELECT '  --  ', "some  column", E'\'  /*', ${'$'}x${'$'}  -- ${'$'}x${'$'}"""
+        assertEquals(sql, canonicalSql(sql))
+    }
+
+    @Test
+    fun `the same statement formatted differently has the same canonical text`() {
+        val predicate = Predicate { where("$it.id = ${bind(1)}") }
+        val first = QuerySql {
+            sql(
+                """
+SELECT *
+FROM foo
+WHERE ${predicate(predicate.forTable("foo"))}
+"""
+            )
+        }
+        val second = QuerySql {
+            sql("SELECT * FROM foo WHERE ${predicate(predicate.forTable("foo"))}")
+        }
+        assertEquals(canonicalSql(first.sql.toString()), canonicalSql(second.sql.toString()))
+    }
+}
@@ -0,0 +1,110 @@
+// SPDX-FileCopyrightText: 2017-2026 City of Espoo
+//
+// SPDX-License-Identifier: LGPL-2.1-or-later
+
+package evaka.core.shared.logging
+
+import ch.qos.logback.classic.Logger
+import ch.qos.logback.classic.spi.ILoggingEvent
+import ch.qos.logback.core.AppenderBase
+import ch.qos.logback.core.read.ListAppender
+import io.github.oshai.kotlinlogging.KotlinLogging
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import java.time.Instant
+import java.util.concurrent.CountDownLatch
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
+import org.slf4j.MDC
+
+class AuditEventSinkTest {
+    private val loggerName = "evaka.core.shared.logging.AuditEventSinkTest.audit"
+    private val appender = ListAppender<ILoggingEvent>()
+    private lateinit var sink: AuditEventSink
+
+    @BeforeEach
+    fun beforeEach() {
+        (LoggerFactory.getLogger(loggerName) as Logger).addAppender(appender)
+        appender.start()
+        sink = AuditEventSink(KotlinLogging.logger(loggerName), capacity = 10)
+    }
+
+    @AfterEach
+    fun afterEach() {
+        sink.close()
+        (LoggerFactory.getLogger(loggerName) as Logger).detachAppender(appender)
+        MDC.clear()
+    }
+
+    @Test
+    fun `events are written synchronously when the sink has not been started`() {
+        sink.submit("Event", mapOf("eventCode" to "Event"))
+        assertEquals(listOf("Event"), appender.list.map { it.message })
+    }
+
+    @Test
+    fun `all events are written in order with the submitting thread's MDC`() {
+        sink.start()
+        // More events than the queue capacity, so submitting has to wait for the writer
+        (1..100).forEach { i ->
+            MDC.put("userIdHash", "user-$i")
+            sink.submit("Event$i", mapOf("eventCode" to "Event$i"))
+        }
+        sink.close()
+
+        assertEquals((1..100).map { "Event$it" }, appender.list.map { it.message })
+        assertEquals(
+            (1..100).map { "user-$it" },
+            appender.list.map { it.mdcPropertyMap["userIdHash"] },
+        )
+        assertEquals("user-100", MDC.get("userIdHash"))
+    }
+
+    @Test
+    fun `events are logged with the time they were submitted`() {
+        val writerBlocked = CountDownLatch(1)
+        val releaseWriter = CountDownLatch(1)
+        val blockingAppender =
+            object : AppenderBase<ILoggingEvent>() {
+                override fun append(event: ILoggingEvent) {
+                    if (event.message == "First") {
+                        writerBlocked.countDown()
+                        releaseWriter.await()
+                    }
+                }
+            }
+        val logger = LoggerFactory.getLogger(loggerName) as Logger
+        logger.addAppender(blockingAppender)
+        blockingAppender.start()
+        try {
+            sink.start()
+            sink.submit("First", emptyMap())
+            writerBlocked.await()
+            sink.submit("Second", emptyMap())
+            val submittedBy = Instant.now()
+            Thread.sleep(10)
+            releaseWriter.countDown()
+            sink.close()
+
+            val second = appender.list.single { it.message == "Second" }
+            assertTrue(!second.instant.isAfter(submittedBy))
+        } finally {
+            logger.detachAppender(blockingAppender)
+        }
+    }
+
+    @Test
+    fun `queue depth and write time are exposed as metrics`() {
+        val registry = SimpleMeterRegistry()
+        sink.registerMeters(registry)
+        sink.start()
+        repeat(5) { sink.submit("Event", emptyMap()) }
+        sink.close()
+
+        assertEquals(0.0, registry.get("auditEventQueueDepth").gauge().value())
+        assertEquals(5, registry.get("auditEventWriteTime").timer().count())
+    }
+}